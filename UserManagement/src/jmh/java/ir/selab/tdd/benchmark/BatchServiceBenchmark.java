@@ -0,0 +1,96 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.repository.CompactUserRepository;
+import ir.selab.tdd.repository.ShardedUserRepository;
+import ir.selab.tdd.repository.UserStore;
+import ir.selab.tdd.service.Credentials;
+import ir.selab.tdd.service.Registration;
+import ir.selab.tdd.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers, logs in and removes {@value #BATCH} fresh users per invocation, once through the
+ * single-item {@link UserService} calls and once through the batch calls, so the scores are directly
+ * comparable per user.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BatchServiceBenchmark {
+    static final int BATCH = 1000;
+
+    @State(Scope.Benchmark)
+    public static class StoreData {
+        @Param({"sharded", "compact"})
+        String store;
+
+        UserService service;
+
+        @Setup(Level.Trial)
+        public void setUp(UserData data) {
+            UserStore users = store.equals("sharded")
+                    ? new ShardedUserRepository(Dataset.users(data.size), ShardedUserRepository.defaultShardCount())
+                    : new CompactUserRepository(Dataset.users(data.size));
+            service = new UserService(users);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void singleCalls(StoreData data, KeySample keys, Blackhole blackhole) {
+        List<Registration> registrations = registrations(keys);
+        for (Registration registration : registrations) {
+            blackhole.consume(data.service.registerUser(registration.getUsername(), registration.getPassword(),
+                    registration.getEmail()));
+        }
+        for (Registration registration : registrations) {
+            blackhole.consume(data.service.loginWithUsername(registration.getUsername(), registration.getPassword()));
+        }
+        for (Registration registration : registrations) {
+            blackhole.consume(data.service.removeUser(registration.getUsername()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batchCalls(StoreData data, KeySample keys, Blackhole blackhole) {
+        List<Registration> registrations = registrations(keys);
+        List<Credentials> credentials = new ArrayList<>(BATCH);
+        List<String> usernames = new ArrayList<>(BATCH);
+        for (Registration registration : registrations) {
+            credentials.add(new Credentials(registration.getUsername(), registration.getPassword()));
+            usernames.add(registration.getUsername());
+        }
+        blackhole.consume(data.service.registerUsers(registrations));
+        blackhole.consume(data.service.loginWithUsernames(credentials));
+        blackhole.consume(data.service.removeUsers(usernames));
+    }
+
+    private static List<Registration> registrations(KeySample keys) {
+        List<Registration> registrations = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            String username = keys.freshName("batch");
+            registrations.add(new Registration(username, "pw", username + "@example.com"));
+        }
+        return registrations;
+    }
+}
@@ -0,0 +1,42 @@
+package ir.selab.tdd.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks selected by the usual JMH command line once per thread count in the
+ * {@code jmh.threads} system property (default {@code 1,4,16}), with the GC profiler attached so
+ * allocation rates are reported next to throughput. An explicit {@code -t} wins over the property.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+        String threads = commandLine.getThreads().hasValue()
+                ? String.valueOf(commandLine.getThreads().get())
+                : System.getProperty("jmh.threads", "1,4,16");
+        for (String count : threads.split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(Integer.parseInt(count.trim()));
+            if (commandLine.getProfilers().isEmpty()) {
+                options.addProfiler(GCProfiler.class);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
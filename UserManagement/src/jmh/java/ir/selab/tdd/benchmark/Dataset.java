@@ -0,0 +1,40 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic users shared by all benchmarks, so runs at the same size compare like for like.
+ */
+final class Dataset {
+    static final int SAMPLE_SIZE = 1 << 14;
+
+    private Dataset() {
+    }
+
+    static List<User> users(int size) {
+        List<User> users = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            users.add(user(i));
+        }
+        return users;
+    }
+
+    static User user(int index) {
+        return new User(username(index), password(index), email(index));
+    }
+
+    static String username(int index) {
+        return "user" + index;
+    }
+
+    static String password(int index) {
+        return "pw" + index;
+    }
+
+    static String email(int index) {
+        return "user" + index + "@example.com";
+    }
+}
@@ -0,0 +1,44 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.workload.ZipfianGenerator;
+
+import java.util.SplittableRandom;
+
+/**
+ * How benchmark threads pick which existing user to touch.
+ */
+public enum KeyDistribution {
+    UNIFORM {
+        @Override
+        int[] sample(int size, int count, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = random.nextInt(size);
+            }
+            return indices;
+        }
+    },
+
+    /**
+     * Zipfian over ranks, with ranks scattered over the dataset so hot users are not neighbours.
+     */
+    ZIPFIAN {
+        @Override
+        int[] sample(int size, int count, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            ZipfianGenerator generator = new ZipfianGenerator(size);
+            int[] indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                long rank = generator.next(random);
+                indices[i] = (int) Math.floorMod(rank * 0x9E3779B97F4A7C15L, (long) size);
+            }
+            return indices;
+        }
+    };
+
+    /**
+     * Returns {@code count} dataset indices in {@code [0, size)}.
+     */
+    abstract int[] sample(int size, int count, long seed);
+}
@@ -0,0 +1,81 @@
+package ir.selab.tdd.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread sequence of precomputed dataset keys, so drawing a key costs an array read rather than
+ * random number generation or string building inside the measured code.
+ */
+@State(Scope.Thread)
+public class KeySample {
+    private static final AtomicLong SEEDS = new AtomicLong(42);
+
+    private int[] indices;
+    private String[] usernames;
+    private String[] emails;
+    private String[] passwords;
+    private String[] unknownUsernames;
+    private int slot;
+    private int threadId;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp(UserData data) {
+        long seed = SEEDS.getAndIncrement();
+        threadId = (int) seed;
+        indices = data.distribution.sample(data.size, Dataset.SAMPLE_SIZE, seed);
+        usernames = new String[Dataset.SAMPLE_SIZE];
+        emails = new String[Dataset.SAMPLE_SIZE];
+        passwords = new String[Dataset.SAMPLE_SIZE];
+        unknownUsernames = new String[Dataset.SAMPLE_SIZE];
+        for (int i = 0; i < Dataset.SAMPLE_SIZE; i++) {
+            usernames[i] = Dataset.username(indices[i]);
+            emails[i] = Dataset.email(indices[i]);
+            passwords[i] = Dataset.password(indices[i]);
+            unknownUsernames[i] = "ghost" + indices[i];
+        }
+    }
+
+    /**
+     * Moves on to the next sampled user; the accessors below then describe that user.
+     */
+    void advance() {
+        slot = (slot + 1) & (Dataset.SAMPLE_SIZE - 1);
+    }
+
+    String username() {
+        return usernames[slot];
+    }
+
+    String email() {
+        return emails[slot];
+    }
+
+    String password() {
+        return passwords[slot];
+    }
+
+    String unknownUsername() {
+        return unknownUsernames[slot];
+    }
+
+    /**
+     * Uniform draw in {@code [0, bound)} for choosing between operations of a mixed workload.
+     */
+    int dice(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    /**
+     * Returns a name no other thread or earlier call has produced, for users that must not exist yet.
+     */
+    String freshName(String prefix) {
+        return prefix + threadId + "-" + sequence++;
+    }
+}
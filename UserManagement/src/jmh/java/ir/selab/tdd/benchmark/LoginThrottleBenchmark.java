@@ -0,0 +1,51 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.throttle.LoginThrottler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a throttled login attempt, which should be a small fraction of a password verification:
+ * attempts against a locked-out account, and the admission check for a stream of distinct accounts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LoginThrottleBenchmark {
+    @State(Scope.Benchmark)
+    public static class Throttle {
+        LoginThrottler throttler;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            throttler = new LoginThrottler();
+            for (int i = 0; i < 100; i++) {
+                throttler.recordFailure("victim", "attacker");
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean lockedOut(Throttle throttle) {
+        return throttle.throttler.tryAcquire("victim", "attacker");
+    }
+
+    @Benchmark
+    public boolean distinctAccounts(Throttle throttle, KeySample keys) {
+        keys.advance();
+        return throttle.throttler.tryAcquire(keys.username(), null);
+    }
+}
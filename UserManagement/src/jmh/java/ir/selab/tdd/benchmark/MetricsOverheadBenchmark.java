@@ -0,0 +1,52 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.metrics.RecordingUserServiceMetrics;
+import ir.selab.tdd.metrics.UserServiceMetrics;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link UserServiceMetrics} on the cheapest service call; compare {@code recording=false}
+ * with {@code recording=true}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MetricsOverheadBenchmark {
+    @State(Scope.Benchmark)
+    public static class InstrumentedService {
+        @Param({"false", "true"})
+        boolean recording;
+
+        UserService service;
+
+        @Setup(Level.Trial)
+        public void setUp(UserData data) {
+            UserServiceMetrics metrics = recording ? new RecordingUserServiceMetrics() : UserServiceMetrics.disabled();
+            service = new UserService(data.repository, new PlaintextPasswordHasher(), null, metrics);
+        }
+    }
+
+    @Benchmark
+    public User getUserByUsername(InstrumentedService instrumented, KeySample keys) {
+        keys.advance();
+        return instrumented.service.getUserByUsername(keys.username());
+    }
+}
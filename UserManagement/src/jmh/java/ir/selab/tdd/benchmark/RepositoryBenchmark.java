@@ -0,0 +1,59 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link ir.selab.tdd.repository.UserRepository} read and write paths. Writes are
+ * paired so the dataset keeps its size for the whole run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RepositoryBenchmark {
+    @Benchmark
+    public User getUserByUsername(UserData data, KeySample keys) {
+        keys.advance();
+        return data.repository.getUserByUsername(keys.username());
+    }
+
+    @Benchmark
+    public User getUserByEmail(UserData data, KeySample keys) {
+        keys.advance();
+        return data.repository.getUserByEmail(keys.email());
+    }
+
+    @Benchmark
+    public User getUserByUsername_Unknown(UserData data, KeySample keys) {
+        keys.advance();
+        return data.repository.getUserByUsername(keys.unknownUsername());
+    }
+
+    @Benchmark
+    public boolean addThenRemoveUser(UserData data, KeySample keys) {
+        String username = keys.freshName("new");
+        data.repository.addUser(new User(username, "pw", username + "@example.com"));
+        return data.repository.removeUser(username);
+    }
+
+    /**
+     * Removes an existing user and puts it back. Threads that pick the same user race, but every
+     * re-add restores the same user, so the dataset stays intact.
+     */
+    @Benchmark
+    public boolean removeThenAddUser(UserData data, KeySample keys) {
+        keys.advance();
+        data.repository.removeUser(keys.username());
+        return data.repository.addUser(new User(keys.username(), keys.password(), keys.email()));
+    }
+}
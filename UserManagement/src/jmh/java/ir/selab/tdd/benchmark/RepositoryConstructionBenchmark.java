@@ -0,0 +1,45 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build a {@link UserRepository} from a list, which is how every repository starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RepositoryConstructionBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    List<User> users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        users = Dataset.users(size);
+    }
+
+    @Benchmark
+    public UserRepository construct() {
+        return new UserRepository(users);
+    }
+}
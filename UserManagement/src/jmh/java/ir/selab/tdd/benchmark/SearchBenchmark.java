@@ -0,0 +1,66 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Username prefix search through the search index against a filtered scan of all users, plus the cost
+ * the index adds to writes once it has been built.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SearchBenchmark {
+    private static final int LIMIT = 20;
+
+    @State(Scope.Benchmark)
+    public static class Indexed {
+        UserRepository repository;
+
+        @Setup(Level.Trial)
+        public void setUp(UserData data) {
+            repository = new UserRepository(Dataset.users(data.size));
+            repository.findByUsernamePrefix("user", 1);
+        }
+    }
+
+    @Benchmark
+    public List<User> findByUsernamePrefix(Indexed indexed, KeySample keys) {
+        keys.advance();
+        return indexed.repository.findByUsernamePrefix(keys.username(), LIMIT);
+    }
+
+    @Benchmark
+    public List<User> scanByUsernamePrefix(UserData data, KeySample keys) {
+        keys.advance();
+        String prefix = keys.username();
+        return data.repository.stream()
+                .filter(user -> user.getUsername().startsWith(prefix))
+                .limit(LIMIT)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public boolean addThenRemoveUser_Indexed(Indexed indexed, KeySample keys) {
+        String username = keys.freshName("new");
+        indexed.repository.addUser(new User(username, "pw", username + "@example.com"));
+        return indexed.repository.removeUser(username);
+    }
+}
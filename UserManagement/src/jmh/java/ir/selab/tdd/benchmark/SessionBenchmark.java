@@ -0,0 +1,63 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.session.SessionStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link SessionStore#validate} against a store holding {@code sessions} live tokens.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SessionBenchmark {
+    @State(Scope.Benchmark)
+    public static class Sessions {
+        @Param({"10000", "1000000", "4000000"})
+        int sessions;
+
+        SessionStore store;
+        String[] tokens;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            store = new SessionStore(Duration.ofHours(1));
+            tokens = new String[sessions];
+            for (int i = 0; i < sessions; i++) {
+                tokens[i] = store.open("user" + (i % 100_000));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public String validate(Sessions sessions) {
+        return sessions.store.validate(sessions.tokens[ThreadLocalRandom.current().nextInt(sessions.sessions)]);
+    }
+
+    @Benchmark
+    public String validate_Unknown(Sessions sessions) {
+        return sessions.store.validate("unknown-token");
+    }
+}
@@ -0,0 +1,62 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.ShardedUserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed workload on {@link ShardedUserRepository}: 80% username lookups, 10% email lookups, 5%
+ * password updates and 5% add/remove pairs. {@code shards=1} is the single-lock baseline; run across
+ * thread counts to see how throughput scales with shards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ShardedRepositoryBenchmark {
+    @State(Scope.Benchmark)
+    public static class ShardedData {
+        @Param({"1", "16", "64"})
+        int shards;
+
+        ShardedUserRepository repository;
+
+        @Setup(Level.Trial)
+        public void setUp(UserData data) {
+            repository = new ShardedUserRepository(Dataset.users(data.size), shards);
+        }
+    }
+
+    @Benchmark
+    public Object mixed(ShardedData sharded, KeySample keys) {
+        keys.advance();
+        int dice = keys.dice(100);
+        ShardedUserRepository repository = sharded.repository;
+        if (dice < 80) {
+            return repository.getUserByUsername(keys.username());
+        }
+        if (dice < 90) {
+            return repository.getUserByEmail(keys.email());
+        }
+        if (dice < 95) {
+            return repository.updatePassword(keys.username(), keys.password());
+        }
+        String username = keys.freshName("new");
+        repository.addUser(new User(username, "pw", username + "@example.com"));
+        return repository.removeUser(username);
+    }
+}
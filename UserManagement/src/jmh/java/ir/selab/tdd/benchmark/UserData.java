@@ -0,0 +1,35 @@
+package ir.selab.tdd.benchmark;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.service.UserService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Repository and service over {@link Dataset} users, shared by all benchmark threads and rebuilt once
+ * per fork.
+ */
+@State(Scope.Benchmark)
+public class UserData {
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    UserRepository repository;
+    UserService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<User> users = Dataset.users(size);
+        repository = new UserRepository(users);
+        service = new UserService(repository);
+    }
+}
@@ -0,0 +1,50 @@
+package ir.selab.tdd.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link ir.selab.tdd.service.UserService} login and email change paths with the
+ * default plaintext hasher, so the numbers reflect the service and repository rather than hashing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class UserServiceBenchmark {
+    @Benchmark
+    public boolean loginWithUsername(UserData data, KeySample keys) {
+        keys.advance();
+        return data.service.loginWithUsername(keys.username(), keys.password());
+    }
+
+    @Benchmark
+    public boolean loginWithEmail(UserData data, KeySample keys) {
+        keys.advance();
+        return data.service.loginWithEmail(keys.email(), keys.password());
+    }
+
+    @Benchmark
+    public boolean loginWithUsername_Unknown(UserData data, KeySample keys) {
+        keys.advance();
+        return data.service.loginWithUsername(keys.unknownUsername(), "pw");
+    }
+
+    /**
+     * Moves a user to a fresh email each time; the old email is released, so the index keeps its
+     * size.
+     */
+    @Benchmark
+    public boolean changeUserEmail(UserData data, KeySample keys) {
+        keys.advance();
+        return data.service.changeUserEmail(keys.username(), keys.freshName("moved") + "@example.com");
+    }
+}
@@ -0,0 +1,363 @@
+package ir.selab.tdd.loadtest;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.metrics.LatencyHistogram;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.security.PasswordHasher;
+import ir.selab.tdd.security.Pbkdf2PasswordHasher;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.service.UserService;
+import ir.selab.tdd.workload.ZipfianGenerator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a {@link UserService} with {@code concurrency} workers issuing the configured mix of calls,
+ * first through the warm-up and then through the measured duration, and samples throughput, latency,
+ * heap and GC activity once per report interval.
+ * <p>
+ * With a target rate each worker owns an even share of a fixed schedule and latency is measured from
+ * each call's scheduled time, as wrk2 does. A worker stuck behind a slow call falls behind schedule
+ * and the calls it owes are charged the wait, so a stall shows up in the percentiles instead of
+ * quietly lowering the rate, which is the coordinated omission a plain closed loop suffers from.
+ * Measured that way, latencies also include how late the worker woke up for its slot, typically tens
+ * of microseconds.
+ */
+public class LoadGenerator {
+    static final String PASSWORD = "load-test-password";
+
+    private final LoadTestConfig config;
+    private final LoadOperation[] operations;
+    private final int[] cumulativeWeights;
+    private final ZipfianGenerator zipfian;
+
+    public LoadGenerator(LoadTestConfig config) {
+        config.validate();
+        this.config = config;
+        List<LoadOperation> weighted = new ArrayList<>();
+        List<Integer> cumulative = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<LoadOperation, Integer> entry : config.getMix().entrySet()) {
+            if (entry.getValue() > 0) {
+                total += entry.getValue();
+                weighted.add(entry.getKey());
+                cumulative.add(total);
+            }
+        }
+        this.operations = weighted.toArray(new LoadOperation[0]);
+        this.cumulativeWeights = cumulative.stream().mapToInt(Integer::intValue).toArray();
+        this.zipfian = config.getTheta() == 0 ? null : new ZipfianGenerator(config.getKeys(), config.getTheta());
+    }
+
+    /**
+     * A service over a {@link UserRepository} holding the first {@code users} keys. They all share one
+     * password hash, so preloading stays cheap whatever the hashing cost; registrations during the run
+     * still hash their own.
+     */
+    public UserService newService() {
+        PasswordHasher hasher = config.getHashIterations() == 0
+                ? new PlaintextPasswordHasher()
+                : new Pbkdf2PasswordHasher(config.getHashIterations(), Pbkdf2PasswordHasher.DEFAULT_SALT_BYTES,
+                Pbkdf2PasswordHasher.DEFAULT_KEY_BITS);
+        String hash = hasher.hash(PASSWORD);
+        List<User> users = new ArrayList<>(config.getUsers());
+        for (int i = 0; i < config.getUsers(); i++) {
+            users.add(new User(username(i), hash, email(i)));
+        }
+        return new UserService(new UserRepository(users), hasher);
+    }
+
+    public LoadReport run(UserService service) throws InterruptedException {
+        Map<LoadOperation, OperationStats> stats = new EnumMap<>(LoadOperation.class);
+        for (LoadOperation operation : operations) {
+            stats.put(operation, new OperationStats());
+        }
+        Recorder recorder = new Recorder(stats);
+        long start = System.nanoTime();
+        long measureStart = start + config.getWarmup().toNanos();
+        long end = measureStart + config.getDuration().toNanos();
+        recorder.measureStart = measureStart;
+
+        ExecutorService executor = newExecutor();
+        List<Future<?>> workers = new ArrayList<>(config.getConcurrency());
+        SplittableRandom seeds = new SplittableRandom(config.getSeed());
+        try {
+            long period = config.getRate() == 0 ? 0 : Math.round(config.getConcurrency() * 1e9 / config.getRate());
+            for (int i = 0; i < config.getConcurrency(); i++) {
+                long firstDue = start + (period == 0 ? 0 : period * i / config.getConcurrency());
+                workers.add(executor.submit(new Worker(service, recorder, seeds.split(), i, firstDue, period, end)));
+            }
+            if (!parkUntil(measureStart)) {
+                throw new InterruptedException();
+            }
+            recorder.intervalLatency.reset();
+            recorder.intervalCount.reset();
+            List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            long[] baseCounts = new long[collectors.size()];
+            long[] baseMillis = new long[collectors.size()];
+            for (int i = 0; i < collectors.size(); i++) {
+                baseCounts[i] = Math.max(0, collectors.get(i).getCollectionCount());
+                baseMillis[i] = Math.max(0, collectors.get(i).getCollectionTime());
+            }
+            List<LoadReport.Interval> timeline = sample(recorder, collectors, measureStart, end);
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+
+            List<LoadReport.OperationResult> results = new ArrayList<>();
+            for (Map.Entry<LoadOperation, OperationStats> entry : stats.entrySet()) {
+                OperationStats operation = entry.getValue();
+                results.add(new LoadReport.OperationResult(entry.getKey(), operation.succeeded.sum(),
+                        operation.failed.sum(), operation.errors.sum(), operation.latency.snapshot(),
+                        operation.serviceTime.snapshot()));
+            }
+            List<LoadReport.CollectorResult> collectorResults = new ArrayList<>();
+            for (int i = 0; i < collectors.size(); i++) {
+                GarbageCollectorMXBean collector = collectors.get(i);
+                collectorResults.add(new LoadReport.CollectorResult(collector.getName(),
+                        Math.max(0, collector.getCollectionCount()) - baseCounts[i],
+                        Math.max(0, collector.getCollectionTime()) - baseMillis[i]));
+            }
+            return new LoadReport(config, end - measureStart, results, timeline, collectorResults,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load worker failed", e.getCause());
+        } finally {
+            recorder.stopped = true;
+            executor.shutdownNow();
+        }
+    }
+
+    static String username(int key) {
+        return "user" + key;
+    }
+
+    static String email(int key) {
+        return "user" + key + "@example.com";
+    }
+
+    /**
+     * Closes one interval every report interval until {@code end}. Calls due before the end but still
+     * running at it count towards the totals only.
+     */
+    private List<LoadReport.Interval> sample(Recorder recorder, List<GarbageCollectorMXBean> collectors,
+                                             long measureStart, long end) throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long lastGcCount = gcCount(collectors);
+        long lastGcMillis = gcMillis(collectors);
+        List<LoadReport.Interval> timeline = new ArrayList<>();
+        long tick = measureStart;
+        while (tick < end) {
+            long next = Math.min(end, tick + config.getReportInterval().toNanos());
+            if (!parkUntil(next)) {
+                throw new InterruptedException();
+            }
+            long gcCount = gcCount(collectors);
+            long gcMillis = gcMillis(collectors);
+            timeline.add(new LoadReport.Interval(next - measureStart, next - tick, recorder.intervalCount.sumThenReset(),
+                    recorder.intervalLatency.snapshotAndReset(), memory.getHeapMemoryUsage().getUsed(),
+                    gcCount - lastGcCount, gcMillis - lastGcMillis));
+            lastGcCount = gcCount;
+            lastGcMillis = gcMillis;
+            tick = next;
+        }
+        return timeline;
+    }
+
+    /**
+     * Platform workers get a fixed pool of daemon threads; virtual workers need a runtime with virtual
+     * threads, looked up reflectively so the code still builds for older targets.
+     */
+    private ExecutorService newExecutor() {
+        if (config.getThreads() == LoadTestConfig.Threads.VIRTUAL) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads are not available in this runtime", e);
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(config.getConcurrency(), runnable -> {
+            Thread thread = new Thread(runnable, "load-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private LoadOperation nextOperation(SplittableRandom random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (draw >= cumulativeWeights[i]) {
+            i++;
+        }
+        return operations[i];
+    }
+
+    /**
+     * Zipfian ranks are scattered over the key space so hot users are not neighbours in listings.
+     */
+    private int nextKey(SplittableRandom random) {
+        if (zipfian == null) {
+            return random.nextInt(config.getKeys());
+        }
+        return (int) Math.floorMod(zipfian.next(random) * 0x9E3779B97F4A7C15L, (long) config.getKeys());
+    }
+
+    /**
+     * Returns false if the thread was interrupted before the deadline.
+     */
+    private static boolean parkUntil(long deadline) {
+        for (long remaining = deadline - System.nanoTime(); remaining > 0; remaining = deadline - System.nanoTime()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            LockSupport.parkNanos(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Collectors report -1 when a figure is unavailable, which counts as zero here.
+     */
+    private static long gcCount(List<GarbageCollectorMXBean> collectors) {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis(List<GarbageCollectorMXBean> collectors) {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static final class OperationStats {
+        final LongAdder succeeded = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+    }
+
+    private static final class Recorder {
+        final Map<LoadOperation, OperationStats> stats;
+        final LatencyHistogram intervalLatency = new LatencyHistogram();
+        final LongAdder intervalCount = new LongAdder();
+        long measureStart;
+        volatile boolean stopped;
+
+        Recorder(Map<LoadOperation, OperationStats> stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * Calls due during the warm-up are not recorded.
+         */
+        void record(LoadOperation operation, Boolean result, long due, long started, long finished) {
+            if (due < measureStart) {
+                return;
+            }
+            OperationStats operationStats = stats.get(operation);
+            if (result == null) {
+                operationStats.errors.increment();
+            } else if (result) {
+                operationStats.succeeded.increment();
+            } else {
+                operationStats.failed.increment();
+            }
+            operationStats.latency.record(finished - due);
+            operationStats.serviceTime.record(finished - started);
+            intervalLatency.record(finished - due);
+            intervalCount.increment();
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final UserService service;
+        private final Recorder recorder;
+        private final SplittableRandom random;
+        private final int id;
+        private final long period;
+        private final long end;
+        private long due;
+        private long emailChanges;
+
+        Worker(UserService service, Recorder recorder, SplittableRandom random, int id, long firstDue, long period,
+               long end) {
+            this.service = service;
+            this.recorder = recorder;
+            this.random = random;
+            this.id = id;
+            this.due = firstDue;
+            this.period = period;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            while (!recorder.stopped) {
+                long scheduled;
+                if (period == 0) {
+                    scheduled = System.nanoTime();
+                } else {
+                    scheduled = due;
+                    due += period;
+                    if (!parkUntil(scheduled)) {
+                        return;
+                    }
+                }
+                if (scheduled >= end || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                LoadOperation operation = nextOperation(random);
+                int key = nextKey(random);
+                long started = System.nanoTime();
+                Boolean result = call(operation, key);
+                recorder.record(operation, result, scheduled, started, System.nanoTime());
+            }
+        }
+
+        /**
+         * Returns whether the call succeeded, or null if it threw.
+         */
+        private Boolean call(LoadOperation operation, int key) {
+            String username = username(key);
+            try {
+                switch (operation) {
+                    case REGISTER:
+                        return service.registerUser(username, PASSWORD, email(key));
+                    case LOGIN:
+                        return service.loginWithUsername(username, PASSWORD);
+                    case CHANGE_EMAIL:
+                        return service.changeUserEmail(username, username + "." + id + "." + emailChanges++ + "@example.com");
+                    case REMOVE:
+                        return service.removeUser(username);
+                    default:
+                        return !service.getUsers(username, config.getPageSize()).getItems().isEmpty();
+                }
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
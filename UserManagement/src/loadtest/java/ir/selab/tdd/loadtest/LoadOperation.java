@@ -0,0 +1,13 @@
+package ir.selab.tdd.loadtest;
+
+/**
+ * Calls the load generator makes on {@link ir.selab.tdd.service.UserService}, each against a user
+ * picked from the key space. {@link #LIST} reads one page of users starting after the picked username.
+ */
+public enum LoadOperation {
+    REGISTER,
+    LOGIN,
+    CHANGE_EMAIL,
+    REMOVE,
+    LIST
+}
@@ -0,0 +1,176 @@
+package ir.selab.tdd.loadtest;
+
+import ir.selab.tdd.metrics.HistogramSnapshot;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of one load test run, covering only the measurement phase. Latencies are in nanoseconds.
+ * {@code latency} runs from when a call was due to when it returned, so time spent queued behind a
+ * slow call counts against the calls it delayed; {@code serviceTime} runs from when the call actually
+ * started. In closed-loop runs a call is due when it starts and the two are the same.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class LoadReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LoadTestConfig config;
+    private final long durationNanos;
+    private final List<OperationResult> operations;
+    private final List<Interval> timeline;
+    private final List<CollectorResult> collectors;
+    private final long heapMaxBytes;
+
+    public long getTotalOperations() {
+        long total = 0;
+        for (OperationResult operation : operations) {
+            total += operation.getTotal();
+        }
+        return total;
+    }
+
+    public double getThroughput() {
+        return perSecond(getTotalOperations(), durationNanos);
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder(4096).append('{');
+        json.append("\"config\":{\"mix\":{");
+        boolean first = true;
+        for (Map.Entry<LoadOperation, Integer> weight : config.getMix().entrySet()) {
+            json.append(first ? "" : ",").append(quote(weight.getKey().name())).append(':').append(weight.getValue());
+            first = false;
+        }
+        json.append("},\"users\":").append(config.getUsers())
+                .append(",\"keys\":").append(config.getKeys())
+                .append(",\"theta\":").append(config.getTheta())
+                .append(",\"concurrency\":").append(config.getConcurrency())
+                .append(",\"rate\":").append(config.getRate())
+                .append(",\"threads\":").append(quote(config.getThreads().name()))
+                .append(",\"warmupMillis\":").append(config.getWarmup().toMillis())
+                .append(",\"durationMillis\":").append(config.getDuration().toMillis())
+                .append(",\"hashIterations\":").append(config.getHashIterations())
+                .append(",\"pageSize\":").append(config.getPageSize())
+                .append(",\"seed\":").append(config.getSeed())
+                .append("},\"totals\":{\"operations\":").append(getTotalOperations())
+                .append(",\"throughput\":").append(getThroughput())
+                .append("},\"operations\":{");
+        for (int i = 0; i < operations.size(); i++) {
+            OperationResult operation = operations.get(i);
+            json.append(i == 0 ? "" : ",").append(quote(operation.getOperation().name()))
+                    .append(":{\"succeeded\":").append(operation.getSucceeded())
+                    .append(",\"failed\":").append(operation.getFailed())
+                    .append(",\"errors\":").append(operation.getErrors())
+                    .append(",\"throughput\":").append(perSecond(operation.getTotal(), durationNanos))
+                    .append(",\"latency\":");
+            appendHistogram(json, operation.getLatency());
+            json.append(",\"serviceTime\":");
+            appendHistogram(json, operation.getServiceTime());
+            json.append('}');
+        }
+        json.append("},\"timeline\":[");
+        for (int i = 0; i < timeline.size(); i++) {
+            Interval interval = timeline.get(i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"elapsedMillis\":").append(interval.getElapsedNanos() / 1_000_000)
+                    .append(",\"operations\":").append(interval.getOperations())
+                    .append(",\"throughput\":").append(perSecond(interval.getOperations(), interval.getLengthNanos()))
+                    .append(",\"p50Nanos\":").append(interval.getLatency().getValueAtPercentile(50))
+                    .append(",\"p99Nanos\":").append(interval.getLatency().getValueAtPercentile(99))
+                    .append(",\"maxNanos\":").append(interval.getLatency().getMax())
+                    .append(",\"heapUsedBytes\":").append(interval.getHeapUsedBytes())
+                    .append(",\"gcCount\":").append(interval.getGcCount())
+                    .append(",\"gcMillis\":").append(interval.getGcMillis())
+                    .append('}');
+        }
+        json.append("],\"gc\":{\"heapMaxBytes\":").append(heapMaxBytes).append(",\"collectors\":[");
+        for (int i = 0; i < collectors.size(); i++) {
+            CollectorResult collector = collectors.get(i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"name\":").append(quote(collector.getName()))
+                    .append(",\"count\":").append(collector.getCount())
+                    .append(",\"millis\":").append(collector.getMillis())
+                    .append('}');
+        }
+        return json.append("]}}").toString();
+    }
+
+    private static void appendHistogram(StringBuilder json, HistogramSnapshot histogram) {
+        json.append("{\"count\":").append(histogram.getCount())
+                .append(",\"meanNanos\":").append(Math.round(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            String label = percentile == Math.rint(percentile)
+                    ? Long.toString((long) percentile)
+                    : Double.toString(percentile).replace(".", "_");
+            json.append(",\"p").append(label).append("Nanos\":").append(histogram.getValueAtPercentile(percentile));
+        }
+        json.append(",\"maxNanos\":").append(histogram.getMax()).append('}');
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Calls of one kind: succeeded returned true, failed returned false, such as a login with an unknown
+     * username or a registration of a taken one, and errors threw.
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static class OperationResult {
+        private final LoadOperation operation;
+        private final long succeeded;
+        private final long failed;
+        private final long errors;
+        private final HistogramSnapshot latency;
+        private final HistogramSnapshot serviceTime;
+
+        public long getTotal() {
+            return succeeded + failed + errors;
+        }
+    }
+
+    /**
+     * One reporting interval ending {@code elapsedNanos} into the measurement phase. GC figures are
+     * those of the interval; heap usage is sampled at its end.
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static class Interval {
+        private final long elapsedNanos;
+        private final long lengthNanos;
+        private final long operations;
+        private final HistogramSnapshot latency;
+        private final long heapUsedBytes;
+        private final long gcCount;
+        private final long gcMillis;
+    }
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static class CollectorResult {
+        private final String name;
+        private final long count;
+        private final long millis;
+    }
+}
@@ -0,0 +1,28 @@
+package ir.selab.tdd.loadtest;
+
+import ir.selab.tdd.service.UserService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Command line entry point: preloads a service, runs the configured load against it and prints the
+ * {@link LoadReport} as JSON, or writes it to {@code --output}. Run with
+ * {@code mvn -P loadtest test-compile exec:exec -Dloadtest.args="--rate=20000 --duration=1h"}; see
+ * {@link LoadTestConfig} for the options.
+ */
+public class LoadTest {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        LoadGenerator generator = new LoadGenerator(config);
+        UserService service = generator.newService();
+        String json = generator.run(service).toJson();
+        if (config.getOutput() == null) {
+            System.out.println(json);
+        } else {
+            Files.write(Paths.get(config.getOutput()), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ir.selab.tdd.loadtest;
+
+import ir.selab.tdd.workload.ZipfianGenerator;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Settings of one load test run. From the command line each setting is an {@code --name=value}
+ * argument, for example {@code --mix=login:80,register:10,remove:10 --rate=5000 --duration=10m}.
+ * Durations take an {@code ms}, {@code s}, {@code m} or {@code h} suffix or ISO-8601 form.
+ * <p>
+ * Keys are drawn from {@code keys} usernames of which the first {@code users} are registered up front,
+ * so registrations and removals keep finding both free and taken names. A {@code theta} of zero picks
+ * keys uniformly; otherwise it is the Zipfian skew. A {@code rate} of zero runs closed loop, each
+ * worker issuing its next call as soon as the last returns; a positive rate spreads that many calls a
+ * second over the workers on a fixed schedule. A {@code hashIterations} of zero stores plaintext
+ * passwords, anything else hashes them with PBKDF2 at that cost.
+ */
+@Getter
+@Setter
+public class LoadTestConfig {
+    public enum Threads {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private Map<LoadOperation, Integer> mix = defaultMix();
+    private int users = 100_000;
+    private int keys = 125_000;
+    private double theta = ZipfianGenerator.DEFAULT_THETA;
+    private int concurrency = 16;
+    private double rate;
+    private Threads threads = Threads.PLATFORM;
+    private Duration warmup = Duration.ofSeconds(10);
+    private Duration duration = Duration.ofMinutes(1);
+    private Duration reportInterval = Duration.ofSeconds(1);
+    private int hashIterations;
+    private int pageSize = 50;
+    private long seed = 42;
+    private String output;
+
+    /**
+     * 70% logins, 10% email changes, 10% listings and 5% each of registrations and removals.
+     */
+    public static Map<LoadOperation, Integer> defaultMix() {
+        Map<LoadOperation, Integer> mix = new EnumMap<>(LoadOperation.class);
+        mix.put(LoadOperation.LOGIN, 70);
+        mix.put(LoadOperation.CHANGE_EMAIL, 10);
+        mix.put(LoadOperation.LIST, 10);
+        mix.put(LoadOperation.REGISTER, 5);
+        mix.put(LoadOperation.REMOVE, 5);
+        return Collections.unmodifiableMap(mix);
+    }
+
+    public static LoadTestConfig parse(String... args) {
+        LoadTestConfig config = new LoadTestConfig();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            config.set(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        config.validate();
+        return config;
+    }
+
+    public void validate() {
+        int totalWeight = 0;
+        for (int weight : mix.values()) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Operation weights can not be negative");
+            }
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("The operation mix is empty");
+        }
+        if (users < 0 || keys < 1 || users > keys) {
+            throw new IllegalArgumentException("Need at least one key and no more users than keys");
+        }
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException("Theta must be in [0, 1)");
+        }
+        if (concurrency < 1 || rate < 0 || pageSize < 1 || hashIterations < 0) {
+            throw new IllegalArgumentException("Invalid concurrency, rate, page size or hash iterations");
+        }
+        if (warmup.isNegative() || duration.isZero() || duration.isNegative() || reportInterval.toMillis() < 1) {
+            throw new IllegalArgumentException("Invalid warmup, duration or report interval");
+        }
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "mix":
+                mix = parseMix(value);
+                break;
+            case "users":
+                users = Integer.parseInt(value);
+                break;
+            case "keys":
+                keys = Integer.parseInt(value);
+                break;
+            case "theta":
+                theta = Double.parseDouble(value);
+                break;
+            case "concurrency":
+                concurrency = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "threads":
+                threads = Threads.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "warmup":
+                warmup = parseDuration(value);
+                break;
+            case "duration":
+                duration = parseDuration(value);
+                break;
+            case "report-interval":
+                reportInterval = parseDuration(value);
+                break;
+            case "hash-iterations":
+                hashIterations = Integer.parseInt(value);
+                break;
+            case "page-size":
+                pageSize = Integer.parseInt(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            case "output":
+                output = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    /**
+     * Parses {@code operation:weight} pairs such as {@code login:80,change-email:20}; operations left
+     * out get no calls.
+     */
+    static Map<LoadOperation, Integer> parseMix(String value) {
+        Map<LoadOperation, Integer> mix = new EnumMap<>(LoadOperation.class);
+        for (String entry : value.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Expected operation:weight but got " + entry);
+            }
+            String operation = entry.substring(0, colon).trim().replace('-', '_').toUpperCase(Locale.ROOT);
+            mix.put(LoadOperation.valueOf(operation), Integer.parseInt(entry.substring(colon + 1).trim()));
+        }
+        return mix;
+    }
+
+    static Duration parseDuration(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.startsWith("p")) {
+            return Duration.parse(value.trim());
+        }
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        long amount = Long.parseLong(text.substring(0, text.length() - 1));
+        switch (text.charAt(text.length() - 1)) {
+            case 's':
+                return Duration.ofSeconds(amount);
+            case 'm':
+                return Duration.ofMinutes(amount);
+            case 'h':
+                return Duration.ofHours(amount);
+            default:
+                throw new IllegalArgumentException("Expected a duration such as 30s or PT30S but got " + value);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.loadtest.LoadGenerator;
+import ir.selab.tdd.loadtest.LoadOperation;
+import ir.selab.tdd.loadtest.LoadReport;
+import ir.selab.tdd.loadtest.LoadTestConfig;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.service.UserService;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTimingTest {
+    @Test
+    public void run_AtTargetRate_ShouldKeepToTheSchedule() throws InterruptedException {
+        LoadTestConfig config = smallConfig();
+        config.setRate(200);
+        LoadGenerator generator = new LoadGenerator(config);
+
+        LoadReport report = generator.run(generator.newService());
+
+        assertTrue(report.getTotalOperations() >= 80 && report.getTotalOperations() <= 110);
+    }
+
+    /**
+     * A single 200 ms stall holds up the next 100 of the 250 calls due every 2 ms. Their service times
+     * stay short, but measured from when they were due the latest tenth waited over 100 ms.
+     */
+    @Test
+    public void run_AtTargetRate_ShouldChargeStallsToDelayedCalls() throws InterruptedException {
+        LoadTestConfig config = smallConfig();
+        config.setMix(Map.of(LoadOperation.LOGIN, 1));
+        config.setRate(500);
+        config.setConcurrency(1);
+        AtomicBoolean stalled = new AtomicBoolean();
+        UserRepository repository = new UserRepository(List.of(new User("user0", "pw"))) {
+            @Override
+            public User getUserByUsername(String username) {
+                if (stalled.compareAndSet(false, true)) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getUserByUsername(username);
+            }
+        };
+
+        LoadReport report = new LoadGenerator(config).run(new UserService(repository));
+
+        LoadReport.OperationResult logins = report.getOperations().get(0);
+        assertTrue(logins.getServiceTime().getValueAtPercentile(90) < 20_000_000L);
+        assertTrue(logins.getLatency().getValueAtPercentile(90) > 100_000_000L);
+    }
+
+    private static LoadTestConfig smallConfig() {
+        LoadTestConfig config = new LoadTestConfig();
+        config.setUsers(1_000);
+        config.setKeys(1_500);
+        config.setConcurrency(1);
+        config.setWarmup(Duration.ZERO);
+        config.setDuration(Duration.ofMillis(500));
+        config.setReportInterval(Duration.ofMillis(100));
+        return config;
+    }
+}
@@ -0,0 +1,244 @@
+package ir.selab.tdd.bulk;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.UserRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Streams users from CSV or NDJSON into a {@link UserRepository}. Input is read in chunks of
+ * {@code chunkSize} records, so memory use is bounded by the chunk rather than the file. Each chunk is
+ * inserted by fork/join tasks over partitions of the chunk; the repository's concurrent indexes make
+ * the parallel inserts safe. Every rejected record is reported to the listener in input order, with
+ * the earliest record winning when the same username or email appears twice in the input.
+ * <p>
+ * Passwords are stored exactly as they appear in the input, without going through a
+ * {@link ir.selab.tdd.security.PasswordHasher}, so the input should hold hashes already encoded by the
+ * hasher the service uses, as an export from another instance does. Hashing millions of passwords here
+ * would cost far more than the import itself. A plaintext password that does slip through is not lost:
+ * {@link ir.selab.tdd.service.UserService} accepts it on login and replaces it with a hash.
+ */
+public class BulkUserImporter {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+    private final UserRepository repository;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    public BulkUserImporter(UserRepository repository) {
+        this(repository, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public BulkUserImporter(UserRepository repository, int chunkSize, ForkJoinPool pool) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.repository = repository;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    public ImportResult importFrom(Path file, UserRecordFormat format, Consumer<ImportRejection> rejections)
+            throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return importFrom(input, format, rejections);
+        }
+    }
+
+    public ImportResult importFrom(InputStream input, UserRecordFormat format, Consumer<ImportRejection> rejections)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Chunk chunk = new Chunk(chunkSize);
+        long lineNumber = 0;
+        long imported = 0;
+        long rejected = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || (lineNumber == 1 && format.isHeader(line))) {
+                continue;
+            }
+            chunk.add(lineNumber, line);
+            if (chunk.size == chunkSize) {
+                imported += load(chunk, format, rejections);
+                rejected += chunk.size - chunk.imported;
+                chunk.clear();
+            }
+        }
+        if (chunk.size > 0) {
+            imported += load(chunk, format, rejections);
+            rejected += chunk.size - chunk.imported;
+        }
+        return new ImportResult(imported, rejected);
+    }
+
+    private long load(Chunk chunk, UserRecordFormat format, Consumer<ImportRejection> rejections) {
+        pool.invoke(new ParseTask(chunk, format, 0, chunk.size));
+        rejectDuplicatesWithinChunk(chunk);
+        pool.invoke(new InsertTask(chunk, 0, chunk.size));
+        for (int i = 0; i < chunk.size; i++) {
+            ImportRejection rejection = chunk.rejections[i];
+            if (rejection == null && chunk.results[i] != AddResult.ADDED) {
+                ImportRejection.Reason reason = chunk.results[i] == AddResult.DUPLICATE_USERNAME
+                        ? ImportRejection.Reason.DUPLICATE_USERNAME : ImportRejection.Reason.DUPLICATE_EMAIL;
+                rejection = new ImportRejection(chunk.lineNumbers[i], reason, "already registered");
+            }
+            if (rejection != null) {
+                rejections.accept(rejection);
+            } else {
+                chunk.imported++;
+            }
+        }
+        return chunk.imported;
+    }
+
+    private static void rejectDuplicatesWithinChunk(Chunk chunk) {
+        Map<String, Long> usernames = new HashMap<>(chunk.size * 2);
+        Map<String, Long> emails = new HashMap<>(chunk.size * 2);
+        for (int i = 0; i < chunk.size; i++) {
+            User user = chunk.users[i];
+            if (user == null) {
+                continue;
+            }
+            Long first = usernames.putIfAbsent(user.getUsername(), chunk.lineNumbers[i]);
+            if (first != null) {
+                chunk.reject(i, ImportRejection.Reason.DUPLICATE_USERNAME, "same username as line " + first);
+                continue;
+            }
+            if (user.getEmail() != null) {
+                first = emails.putIfAbsent(user.getEmail(), chunk.lineNumbers[i]);
+                if (first != null) {
+                    usernames.remove(user.getUsername());
+                    chunk.reject(i, ImportRejection.Reason.DUPLICATE_EMAIL, "same email as line " + first);
+                }
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final long[] lineNumbers;
+        private final String[] lines;
+        private final User[] users;
+        private final AddResult[] results;
+        private final ImportRejection[] rejections;
+        private int size;
+        private long imported;
+
+        Chunk(int capacity) {
+            lineNumbers = new long[capacity];
+            lines = new String[capacity];
+            users = new User[capacity];
+            results = new AddResult[capacity];
+            rejections = new ImportRejection[capacity];
+        }
+
+        void add(long lineNumber, String line) {
+            lineNumbers[size] = lineNumber;
+            lines[size] = line;
+            size++;
+        }
+
+        void reject(int index, ImportRejection.Reason reason, String detail) {
+            users[index] = null;
+            rejections[index] = new ImportRejection(lineNumbers[index], reason, detail);
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                lines[i] = null;
+                users[i] = null;
+                results[i] = null;
+                rejections[i] = null;
+            }
+            size = 0;
+            imported = 0;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private abstract static class PartitionTask extends RecursiveAction {
+        final Chunk chunk;
+        final int from;
+        final int to;
+
+        PartitionTask(Chunk chunk, int from, int to) {
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    process(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(split(from, middle), split(middle, to));
+        }
+
+        abstract PartitionTask split(int from, int to);
+
+        abstract void process(int index);
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ParseTask extends PartitionTask {
+        private final UserRecordFormat format;
+
+        ParseTask(Chunk chunk, UserRecordFormat format, int from, int to) {
+            super(chunk, from, to);
+            this.format = format;
+        }
+
+        @Override
+        PartitionTask split(int from, int to) {
+            return new ParseTask(chunk, format, from, to);
+        }
+
+        @Override
+        void process(int index) {
+            try {
+                chunk.users[index] = format.parse(chunk.lines[index]);
+            } catch (IllegalArgumentException e) {
+                chunk.reject(index, ImportRejection.Reason.MALFORMED, e.getMessage());
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class InsertTask extends PartitionTask {
+        InsertTask(Chunk chunk, int from, int to) {
+            super(chunk, from, to);
+        }
+
+        @Override
+        PartitionTask split(int from, int to) {
+            return new InsertTask(chunk, from, to);
+        }
+
+        @Override
+        void process(int index) {
+            User user = chunk.users[index];
+            if (user != null) {
+                chunk.results[index] = repository.tryAddUser(user);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ir.selab.tdd.bulk;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class ImportRejection {
+    public enum Reason {
+        MALFORMED, DUPLICATE_USERNAME, DUPLICATE_EMAIL
+    }
+
+    private final long lineNumber;
+    private final Reason reason;
+    private final String detail;
+}
@@ -0,0 +1,13 @@
+package ir.selab.tdd.bulk;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class ImportResult {
+    private final long imported;
+    private final long rejected;
+}
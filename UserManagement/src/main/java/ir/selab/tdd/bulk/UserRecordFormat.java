@@ -0,0 +1,219 @@
+package ir.selab.tdd.bulk;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line-oriented encodings accepted by {@link BulkUserImporter}. Parsing throws
+ * {@link IllegalArgumentException} with a short reason for malformed lines.
+ */
+public enum UserRecordFormat {
+    /**
+     * {@code username,password[,email]} with RFC 4180 quoting. An empty email means none, and a leading
+     * {@code username,password,email} header line is skipped.
+     */
+    CSV {
+        @Override
+        User parse(String line) {
+            List<String> fields = splitCsv(line);
+            if (fields.size() < 2 || fields.size() > 3) {
+                throw new IllegalArgumentException("expected 2 or 3 fields but found " + fields.size());
+            }
+            String email = fields.size() == 3 && !fields.get(2).isEmpty() ? fields.get(2) : null;
+            return newUser(fields.get(0), fields.get(1), email);
+        }
+
+        @Override
+        boolean isHeader(String line) {
+            return line.trim().equalsIgnoreCase("username,password,email")
+                    || line.trim().equalsIgnoreCase("username,password");
+        }
+    },
+
+    /**
+     * One JSON object per line with string {@code username}, {@code password} and optional
+     * {@code email} members. Other members are ignored.
+     */
+    NDJSON {
+        @Override
+        User parse(String line) {
+            JsonLine json = new JsonLine(line);
+            String username = null;
+            String password = null;
+            String email = null;
+            json.expect('{');
+            if (!json.tryConsume('}')) {
+                do {
+                    String name = json.readString();
+                    json.expect(':');
+                    String value = json.readScalar();
+                    if ("username".equals(name)) {
+                        username = value;
+                    } else if ("password".equals(name)) {
+                        password = value;
+                    } else if ("email".equals(name)) {
+                        email = value;
+                    }
+                } while (json.tryConsume(','));
+                json.expect('}');
+            }
+            json.expectEnd();
+            return newUser(username, password, email);
+        }
+    };
+
+    abstract User parse(String line);
+
+    boolean isHeader(String line) {
+        return false;
+    }
+
+    private static User newUser(String username, String password, String email) {
+        if (username == null || username.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing username");
+        }
+        if (password == null) {
+            throw new IllegalArgumentException("missing password");
+        }
+        if (email != null && email.trim().isEmpty()) {
+            email = null;
+        }
+        return new User(username, password, email);
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static final class JsonLine {
+        private final String text;
+        private int position;
+
+        JsonLine(String text) {
+            this.text = text;
+        }
+
+        void expect(char c) {
+            if (!tryConsume(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at column " + (position + 1));
+            }
+        }
+
+        boolean tryConsume(char c) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (position != text.length()) {
+                throw new IllegalArgumentException("trailing characters at column " + (position + 1));
+            }
+        }
+
+        /**
+         * Reads a string or {@code null}; numbers and booleans are skipped and read as null.
+         */
+        String readScalar() {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == '"') {
+                return readString();
+            }
+            int start = position;
+            while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.isEmpty() || literal.startsWith("{") || literal.startsWith("[")) {
+                throw new IllegalArgumentException("unsupported value at column " + (start + 1));
+            }
+            return null;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("truncated unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ir.selab.tdd.cache;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Counters of a {@link CachingUserStore} at one point in time. Negative hits are hits that answered
+ * "no such user" and are included in {@code hitCount}.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CacheStats {
+    private final long hitCount;
+    private final long negativeHitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long invalidationCount;
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * Share of lookups answered without the backing store, or 1 if there were none.
+     */
+    public double getHitRatio() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+}
@@ -0,0 +1,434 @@
+package ir.selab.tdd.cache;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.repository.UserStore;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Bounded read-through cache in front of a slower {@link UserStore}. Lookups by username cache the user,
+ * lookups by email cache the username, and both cache misses as well, so repeated probes for unknown
+ * accounts do not reach the store either. An email entry is only trusted if the user it points to still
+ * has that email, which lets email changes and removals leave old email entries to fail that check
+ * instead of finding them.
+ * <p>
+ * Eviction follows W-TinyLFU. New entries go into a window LRU holding 1% of the capacity; entries
+ * leaving the window compete with the least recently used entry of the main space, and the one a
+ * {@link FrequencySketch} has seen more often stays. The main space is a segmented LRU whose protected
+ * segment (80%) holds entries hit at least twice since they were admitted. This keeps a hot set stable
+ * under scans of one-off keys that would flush a plain LRU.
+ * <p>
+ * Writes go to the store first and then invalidate the affected entries. Lookups read from a concurrent
+ * map; policy bookkeeping for a hit is skipped when another thread holds the policy lock, trading a
+ * little eviction accuracy for never blocking a hit. A lookup that loaded from the store caches the
+ * result only if no write touched its key while it was loading.
+ */
+public class CachingUserStore implements UserStore {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = 3;
+    private static final int STRIPES = 1024;
+    private static final int EMAIL_SALT = 0x9e3779b9;
+
+    private final UserStore store;
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final ConcurrentMap<String, Node> usersByUsername = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Node> usernamesByEmail = new ConcurrentHashMap<>();
+    private final AtomicLongArray writeStripes = new AtomicLongArray(STRIPES);
+    private final AtomicLong writes = new AtomicLong();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Node window = new Node(null, false, null);
+    private final Node probation = new Node(null, false, null);
+    private final Node protectedSegment = new Node(null, false, null);
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public CachingUserStore(UserStore store, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one entry");
+        }
+        this.store = store;
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (maximumSize - windowMaximum) * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        Node node = usersByUsername.get(username);
+        if (node != null) {
+            recordHit(node);
+            return (User) node.value;
+        }
+        misses.increment();
+        return loadByUsername(username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        Node node = usernamesByEmail.get(email);
+        if (node != null) {
+            if (node.value == null) {
+                recordHit(node);
+                return null;
+            }
+            Node userNode = usersByUsername.get((String) node.value);
+            User user = userNode == null ? null : (User) userNode.value;
+            if (user != null && email.equals(user.getEmail())) {
+                hits.increment();
+                touch(node);
+                touch(userNode);
+                return user;
+            }
+            discard(usernamesByEmail, email, node);
+        }
+        misses.increment();
+        long stamp = writeStripes.get(stripe(email, true));
+        long writesBefore = writes.get();
+        User user = store.getUserByEmail(email);
+        cache(usernamesByEmail, email, true, user == null ? null : user.getUsername(), stamp);
+        if (user != null && writes.get() == writesBefore) {
+            cache(usersByUsername, user.getUsername(), false, user, writeStripes.get(stripe(user.getUsername(), false)));
+        }
+        return user;
+    }
+
+    @Override
+    public AddResult tryAddUser(User user) {
+        AddResult result = store.tryAddUser(user);
+        if (result == AddResult.ADDED) {
+            invalidate(usersByUsername, user.getUsername(), false);
+            invalidate(usernamesByEmail, user.getEmail(), true);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean removeUser(String username) {
+        if (!store.removeUser(username)) {
+            return false;
+        }
+        invalidate(usersByUsername, username, false);
+        return true;
+    }
+
+    @Override
+    public boolean updateEmail(String username, String newEmail) {
+        if (!store.updateEmail(username, newEmail)) {
+            return false;
+        }
+        afterEmailChange(username, newEmail);
+        return true;
+    }
+
+    @Override
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (!store.updateEmail(username, expectedVersion, newEmail)) {
+            return false;
+        }
+        afterEmailChange(username, newEmail);
+        return true;
+    }
+
+    @Override
+    public User replaceEmail(String username, long expectedVersion, String newEmail) {
+        User replaced = store.replaceEmail(username, expectedVersion, newEmail);
+        if (replaced != null) {
+            afterEmailChange(username, newEmail);
+        }
+        return replaced;
+    }
+
+    @Override
+    public boolean updatePassword(String username, String newPassword) {
+        if (!store.updatePassword(username, newPassword)) {
+            return false;
+        }
+        invalidate(usersByUsername, username, false);
+        return true;
+    }
+
+    @Override
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (!store.updatePassword(username, expectedVersion, newPassword)) {
+            return false;
+        }
+        invalidate(usersByUsername, username, false);
+        return true;
+    }
+
+    @Override
+    public User replacePassword(String username, long expectedVersion, String newPassword) {
+        User replaced = store.replacePassword(username, expectedVersion, newPassword);
+        if (replaced != null) {
+            invalidate(usersByUsername, username, false);
+        }
+        return replaced;
+    }
+
+    @Override
+    public int getUserCount() {
+        return store.getUserCount();
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return store.getAllUsers();
+    }
+
+    @Override
+    public Page<User> page(String cursor, int limit) {
+        return store.page(cursor, limit);
+    }
+
+    @Override
+    public Stream<User> stream() {
+        return store.stream();
+    }
+
+    public UserStore getStore() {
+        return store;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Number of cached entries, counting username and email entries separately.
+     */
+    public int getSize() {
+        policyLock.lock();
+        try {
+            return windowSize + probationSize + protectedSize;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), negativeHits.sum(), misses.sum(), evictions.sum(), invalidations.sum());
+    }
+
+    private User loadByUsername(String username) {
+        long stamp = writeStripes.get(stripe(username, false));
+        User user = store.getUserByUsername(username);
+        cache(usersByUsername, username, false, user, stamp);
+        return user;
+    }
+
+    private void afterEmailChange(String username, String newEmail) {
+        invalidate(usersByUsername, username, false);
+        invalidate(usernamesByEmail, newEmail, true);
+    }
+
+    private void recordHit(Node node) {
+        hits.increment();
+        if (node.value == null) {
+            negativeHits.increment();
+        }
+        touch(node);
+    }
+
+    private void touch(Node node) {
+        if (!policyLock.tryLock()) {
+            return;
+        }
+        try {
+            if (node.queue == REMOVED) {
+                return;
+            }
+            sketch.increment(node.hash);
+            if (node.queue == PROBATION) {
+                unlink(node);
+                probationSize--;
+                node.queue = PROTECTED;
+                linkLast(protectedSegment, node);
+                protectedSize++;
+                if (protectedSize > protectedMaximum) {
+                    Node demoted = protectedSegment.next;
+                    unlink(demoted);
+                    protectedSize--;
+                    demoted.queue = PROBATION;
+                    linkLast(probation, demoted);
+                    probationSize++;
+                }
+            } else {
+                unlink(node);
+                linkLast(node.queue == WINDOW ? window : protectedSegment, node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Caches a value loaded from the store, unless a write to the same key stripe happened since
+     * {@code stamp} was read before the load, in which case the value may already be stale.
+     */
+    private void cache(ConcurrentMap<String, Node> map, String key, boolean email, Object value, long stamp) {
+        Node node = new Node(key, email, value);
+        int stripe = stripe(key, email);
+        policyLock.lock();
+        try {
+            if (writeStripes.get(stripe) != stamp || map.putIfAbsent(key, node) != null) {
+                return;
+            }
+            sketch.increment(node.hash);
+            admit(node);
+        } finally {
+            policyLock.unlock();
+        }
+        if (writeStripes.get(stripe) != stamp) {
+            discard(map, key, node);
+        }
+    }
+
+    private void invalidate(ConcurrentMap<String, Node> map, String key, boolean email) {
+        if (key == null) {
+            return;
+        }
+        writes.incrementAndGet();
+        writeStripes.incrementAndGet(stripe(key, email));
+        Node node = map.get(key);
+        if (node != null && discard(map, key, node)) {
+            invalidations.increment();
+        }
+    }
+
+    private boolean discard(ConcurrentMap<String, Node> map, String key, Node node) {
+        if (!map.remove(key, node)) {
+            return false;
+        }
+        policyLock.lock();
+        try {
+            remove(node);
+        } finally {
+            policyLock.unlock();
+        }
+        return true;
+    }
+
+    private void admit(Node node) {
+        node.queue = WINDOW;
+        linkLast(window, node);
+        windowSize++;
+        if (windowSize <= windowMaximum) {
+            return;
+        }
+        Node candidate = window.next;
+        unlink(candidate);
+        windowSize--;
+        candidate.queue = PROBATION;
+        if (probationSize + protectedSize < maximumSize - windowMaximum) {
+            linkLast(probation, candidate);
+            probationSize++;
+            return;
+        }
+        Node victim = probationSize > 0 ? probation.next : protectedSegment.next;
+        if (victim == protectedSegment || sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+            evict(candidate);
+            return;
+        }
+        evict(victim);
+        linkLast(probation, candidate);
+        probationSize++;
+    }
+
+    private void evict(Node node) {
+        remove(node);
+        (node.email ? usernamesByEmail : usersByUsername).remove(node.key, node);
+        evictions.increment();
+    }
+
+    private void remove(Node node) {
+        if (node.queue == REMOVED) {
+            return;
+        }
+        if (node.prev != null) {
+            unlink(node);
+            if (node.queue == WINDOW) {
+                windowSize--;
+            } else if (node.queue == PROBATION) {
+                probationSize--;
+            } else {
+                protectedSize--;
+            }
+        }
+        node.queue = REMOVED;
+    }
+
+    private static void linkLast(Node head, Node node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static int stripe(String key, boolean email) {
+        return hash(key, email) & (STRIPES - 1);
+    }
+
+    private static int hash(String key, boolean email) {
+        int hash = key.hashCode() ^ (email ? EMAIL_SALT : 0);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Cache entry and, under the policy lock, a link in one of the three LRU lists. A list head is a
+     * sentinel node linked to itself.
+     */
+    private static final class Node {
+        private final String key;
+        private final boolean email;
+        private final Object value;
+        private final int hash;
+        private int queue;
+        private Node prev;
+        private Node next;
+
+        private Node(String key, boolean email, Object value) {
+            this.key = key;
+            this.email = email;
+            this.value = value;
+            this.hash = key == null ? 0 : hash(key, email);
+            if (key == null) {
+                prev = this;
+                next = this;
+            }
+        }
+    }
+}
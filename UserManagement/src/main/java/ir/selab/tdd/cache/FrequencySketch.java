@@ -0,0 +1,64 @@
+package ir.selab.tdd.cache;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often each key was seen recently. Every key has a
+ * counter in each of four rows and its estimate is the smallest of them. Once the number of recorded
+ * keys reaches ten times the cache size, all counters are halved, so old popularity fades. Not
+ * thread-safe; the cache calls it under its policy lock.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int words = Integer.highestOneBit(Math.max(16, maximumSize) - 1) << 1;
+        this.table = new long[words];
+        this.counterMask = words * 16 - 1;
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+    }
+
+    int frequency(int hash) {
+        int frequency = 15;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int counter = counterIndex(hash, row);
+            frequency = Math.min(frequency, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 15));
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int counter = counterIndex(hash, row);
+            int word = counter >>> 4;
+            int shift = (counter & 15) << 2;
+            if (((table[word] >>> shift) & 15) != 15) {
+                table[word] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int counterIndex(int hash, int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[row];
+        mixed ^= mixed >>> 32;
+        return (int) mixed & counterMask;
+    }
+}
@@ -1,33 +1,69 @@
 package ir.selab.tdd.domain;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.Setter;
 
 import java.util.Objects;
 
+/**
+ * Immutable user record. Every change produces a new instance with the next version, which
+ * repositories swap in for the old one, so a reader holding a user never sees it change.
+ */
 @Getter
-@Setter
-@AllArgsConstructor
-@RequiredArgsConstructor
-public class User {
+public final class User {
     private final String username;
     private final String password;
-    private String email;
+    private final String email;
+    private final long version;
+    @Getter(AccessLevel.NONE)
+    private int hash;
+
+    public User(String username, String password) {
+        this(username, password, null, 0);
+    }
+
+    public User(String username, String password, String email) {
+        this(username, password, email, 0);
+    }
+
+    public User(String username, String password, String email, long version) {
+        this.username = username;
+        this.password = password;
+        this.email = email;
+        this.version = version;
+    }
+
+    public User withEmail(String newEmail) {
+        return new User(username, password, newEmail, version + 1);
+    }
+
+    public User withPassword(String newPassword) {
+        return new User(username, newPassword, email, version + 1);
+    }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         User user = (User) o;
-        return Objects.equals(username, user.username) &&
+        return version == user.version &&
+                hashCode() == user.hashCode() &&
+                Objects.equals(username, user.username) &&
                 Objects.equals(password, user.password) &&
                 Objects.equals(email, user.email);
     }
 
+    /**
+     * Computed on first use and cached, as {@link String} does; the race between threads computing it
+     * at once is benign because they all compute the same value.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(username, password, email);
+        int h = hash;
+        if (h == 0) {
+            h = 31 * (31 * Objects.hashCode(username) + Objects.hashCode(password)) + Objects.hashCode(email);
+            hash = h;
+        }
+        return h;
     }
 }
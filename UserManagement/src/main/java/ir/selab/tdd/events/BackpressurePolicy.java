@@ -0,0 +1,22 @@
+package ir.selab.tdd.events;
+
+/**
+ * What publishing does when a subscriber's buffer is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Wait until the subscriber makes room; no event is lost, but a stuck subscriber stalls writers,
+     * who may be holding store locks while they publish. Only for subscribers that need every
+     * intermediate event.
+     */
+    BLOCK,
+    /**
+     * Discard the event and count it; writers never wait.
+     */
+    DROP,
+    /**
+     * Keep only the net change per user until the subscriber catches up; writers never wait and the
+     * subscriber still ends up with every user's latest state.
+     */
+    COALESCE
+}
@@ -0,0 +1,129 @@
+package ir.selab.tdd.events;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.repository.UserStore;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@link UserStore} that publishes every successful registration, removal, email change and password
+ * change of the store it wraps to a {@link UserEventBus}. A mutation and its publication happen under a
+ * lock striped by username, so events for one user are published in the order the store applied them,
+ * while writers to different users rarely meet. Updates take the published user from
+ * {@link UserStore#replaceEmail} and {@link UserStore#replacePassword} rather than reading it back, and
+ * only a {@link BackpressurePolicy#BLOCK} subscriber can make a writer wait while it holds its stripe.
+ * Mutations made on the wrapped store directly are not seen.
+ */
+public class EventPublishingUserStore implements UserStore {
+    private static final int STRIPES = 256;
+
+    private final UserStore store;
+    private final UserEventBus bus;
+    private final Object[] locks = new Object[STRIPES];
+
+    public EventPublishingUserStore(UserStore store, UserEventBus bus) {
+        this.store = store;
+        this.bus = bus;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        return store.getUserByUsername(username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return store.getUserByEmail(email);
+    }
+
+    @Override
+    public AddResult tryAddUser(User user) {
+        synchronized (lockFor(user.getUsername())) {
+            AddResult result = store.tryAddUser(user);
+            if (result == AddResult.ADDED) {
+                bus.publish(UserEvent.Type.REGISTERED, user);
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public boolean removeUser(String username) {
+        if (username == null) {
+            return false;
+        }
+        synchronized (lockFor(username)) {
+            User current = store.getUserByUsername(username);
+            if (current == null || !store.removeUser(username)) {
+                return false;
+            }
+            bus.publish(UserEvent.Type.REMOVED, current);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null) {
+            return false;
+        }
+        synchronized (lockFor(username)) {
+            User replaced = store.replaceEmail(username, expectedVersion, newEmail);
+            if (replaced == null) {
+                return false;
+            }
+            bus.publish(UserEvent.Type.EMAIL_CHANGED, replaced.withEmail(newEmail), replaced.getEmail());
+            return true;
+        }
+    }
+
+    @Override
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null) {
+            return false;
+        }
+        synchronized (lockFor(username)) {
+            User replaced = store.replacePassword(username, expectedVersion, newPassword);
+            if (replaced == null) {
+                return false;
+            }
+            bus.publish(UserEvent.Type.PASSWORD_CHANGED, replaced.withPassword(newPassword));
+            return true;
+        }
+    }
+
+    @Override
+    public int getUserCount() {
+        return store.getUserCount();
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return store.getAllUsers();
+    }
+
+    @Override
+    public Page<User> page(String cursor, int limit) {
+        return store.page(cursor, limit);
+    }
+
+    @Override
+    public Stream<User> stream() {
+        return store.stream();
+    }
+
+    public UserEventBus getBus() {
+        return bus;
+    }
+
+    private Object lockFor(String username) {
+        int hash = username.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,83 @@
+package ir.selab.tdd.events;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and one consumer. Every slot carries a sequence number
+ * that says whether it is free for the producer claiming position {@code p} ({@code p}) or holds the
+ * element the consumer expects at {@code p} ({@code p + 1}), so producers only contend on the CAS of the
+ * shared tail and never wait for each other to finish writing.
+ */
+final class EventRingBuffer<E> {
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    EventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds {@code element} unless the buffer is full. Safe to call from any thread.
+     */
+    boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference < 0) {
+                return false;
+            }
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                slots.lazySet(index, element);
+                sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} elements into {@code target} and returns how many. Consumer thread only.
+     */
+    int drainTo(List<E> target, int max) {
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            target.add(slots.get(index));
+            slots.lazySet(index, null);
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Elements published but not yet drained; approximate while producers are active.
+     */
+    int size() {
+        return (int) Math.max(0, Math.min(capacity(), tail.get() - head));
+    }
+}
@@ -0,0 +1,211 @@
+package ir.selab.tdd.events;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One subscriber of a {@link UserEventBus}: a ring buffer that publishers fill and a thread that drains
+ * it in batches into the listener. A publisher only offers into the ring and wakes the thread if it is
+ * parked. When the ring is full, the {@link BackpressurePolicy} decides; under {@code COALESCE} further
+ * events are folded per username into an overflow map, which is delivered once everything older in the
+ * ring has been, so each user's events still arrive in order.
+ * <p>
+ * An exception thrown by the listener is counted and the batch is skipped; the subscription keeps going.
+ */
+public class Subscription implements Closeable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int BLOCKED_SPINS = 64;
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final String name;
+    private final UserEventListener listener;
+    private final BackpressurePolicy policy;
+    private final int maxBatch;
+    private final UserEventBus bus;
+    private final EventRingBuffer<UserEvent> ring;
+    private final Object overflowLock = new Object();
+    private final Thread thread;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private Map<String, UserEvent> overflow = new LinkedHashMap<>();
+    private volatile boolean overflowing;
+    private volatile boolean parked;
+    private volatile boolean running = true;
+
+    Subscription(String name, UserEventListener listener, BackpressurePolicy policy, int capacity, int maxBatch,
+                 UserEventBus bus) {
+        this.name = name;
+        this.listener = listener;
+        this.policy = policy;
+        this.maxBatch = maxBatch;
+        this.bus = bus;
+        this.ring = new EventRingBuffer<>(capacity);
+        this.thread = new Thread(this::run, "user-events-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Events that were folded into an earlier event for the same user, or cancelled out with it.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getListenerFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * Events waiting in the ring buffer; approximate while publishers are active.
+     */
+    public int getBacklog() {
+        return ring.size();
+    }
+
+    /**
+     * Stops taking events, delivers those already accepted and waits for the thread to finish.
+     */
+    @Override
+    public void close() {
+        bus.unsubscribe(this);
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void offer(UserEvent event) {
+        if (!overflowing && ring.offer(event)) {
+            wake();
+            return;
+        }
+        switch (policy) {
+            case DROP:
+                dropped.increment();
+                return;
+            case COALESCE:
+                offerCoalesced(event);
+                break;
+            default:
+                offerBlocking(event);
+                break;
+        }
+        wake();
+    }
+
+    private void offerCoalesced(UserEvent event) {
+        synchronized (overflowLock) {
+            overflowing = true;
+            UserEvent earlier = overflow.get(event.getUsername());
+            if (earlier == null) {
+                overflow.put(event.getUsername(), event);
+                return;
+            }
+            coalesced.increment();
+            UserEvent merged = earlier.coalesce(event);
+            if (merged == null) {
+                overflow.remove(event.getUsername());
+                coalesced.increment();
+            } else {
+                overflow.put(event.getUsername(), merged);
+            }
+        }
+    }
+
+    private void offerBlocking(UserEvent event) {
+        int spins = 0;
+        while (!ring.offer(event)) {
+            wake();
+            if (++spins < BLOCKED_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+            }
+        }
+    }
+
+    private void wake() {
+        if (parked) {
+            parked = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        List<UserEvent> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            ring.drainTo(batch, maxBatch);
+            if (ring.isEmpty() && overflowing) {
+                takeOverflow(batch);
+            }
+            if (!batch.isEmpty()) {
+                deliver(batch);
+                batch.clear();
+                continue;
+            }
+            if (!running) {
+                return;
+            }
+            parked = true;
+            if (ring.isEmpty() && !overflowing && running) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            parked = false;
+        }
+    }
+
+    private void takeOverflow(List<UserEvent> batch) {
+        Map<String, UserEvent> taken;
+        synchronized (overflowLock) {
+            taken = overflow;
+            overflow = new LinkedHashMap<>();
+            overflowing = false;
+        }
+        batch.addAll(taken.values());
+    }
+
+    private void deliver(List<UserEvent> batch) {
+        try {
+            listener.onEvents(batch);
+        } catch (RuntimeException e) {
+            failures.increment();
+        }
+        delivered.add(batch.size());
+        batches.increment();
+    }
+}
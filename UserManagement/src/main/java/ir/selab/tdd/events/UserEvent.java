@@ -0,0 +1,68 @@
+package ir.selab.tdd.events;
+
+import ir.selab.tdd.domain.User;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A change to one user as published by a {@link UserEventBus}. Events never carry passwords.
+ * {@code sequence} orders all events of a bus; {@code version} is the user's version after the change,
+ * which lets consumers that also read the store discard events older than what they have seen.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class UserEvent {
+    public enum Type {
+        REGISTERED, REMOVED, EMAIL_CHANGED, PASSWORD_CHANGED
+    }
+
+    private final Type type;
+    private final long sequence;
+    private final long timestampMillis;
+    private final String username;
+    private final String email;
+    private final String previousEmail;
+    private final long version;
+    @Getter(AccessLevel.NONE)
+    private final boolean replacesRemoved;
+
+    static UserEvent of(Type type, long sequence, User user, String previousEmail) {
+        return new UserEvent(type, sequence, System.currentTimeMillis(), user.getUsername(), user.getEmail(),
+                previousEmail, user.getVersion(), false);
+    }
+
+    /**
+     * Folds a later event for the same user into this one so that applying the result has the same
+     * effect as applying both. Returns null if the two cancel out, as a registration followed by a
+     * removal does. The result's {@code previousEmail} is the email consumers last saw before either
+     * event: a removal folded into a registration becomes a registration whose {@code previousEmail} is
+     * the removed user's email, and a removal that follows email changes carries the email they started
+     * from.
+     */
+    UserEvent coalesce(UserEvent later) {
+        if (type == Type.REGISTERED) {
+            if (later.type == Type.REMOVED) {
+                return replacesRemoved ? later.as(Type.REMOVED, previousEmail, false) : null;
+            }
+            return later.as(Type.REGISTERED, previousEmail, replacesRemoved);
+        }
+        if (type == Type.REMOVED && later.type == Type.REGISTERED) {
+            return later.as(Type.REGISTERED, previousEmail != null ? previousEmail : email, true);
+        }
+        if (type == Type.EMAIL_CHANGED) {
+            if (later.type == Type.EMAIL_CHANGED || later.type == Type.PASSWORD_CHANGED) {
+                return later.as(Type.EMAIL_CHANGED, previousEmail, false);
+            }
+            if (later.type == Type.REMOVED) {
+                return later.as(Type.REMOVED, previousEmail, false);
+            }
+        }
+        return later;
+    }
+
+    private UserEvent as(Type newType, String newPreviousEmail, boolean newReplacesRemoved) {
+        return new UserEvent(newType, sequence, timestampMillis, username, email, newPreviousEmail, version,
+                newReplacesRemoved);
+    }
+}
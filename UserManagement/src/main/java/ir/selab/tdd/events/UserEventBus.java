@@ -0,0 +1,83 @@
+package ir.selab.tdd.events;
+
+import ir.selab.tdd.domain.User;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans user change events out to subscribers. Each {@link Subscription} has its own bounded lock-free
+ * ring buffer and thread, so a slow subscriber only affects publishers as far as its
+ * {@link BackpressurePolicy} allows. Publishing with no subscribers costs a sequence increment.
+ */
+public class UserEventBus implements Closeable {
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_MAX_BATCH = 256;
+    /**
+     * Publishers never wait for a subscriber that uses it; see {@link BackpressurePolicy#COALESCE}.
+     */
+    public static final BackpressurePolicy DEFAULT_POLICY = BackpressurePolicy.COALESCE;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public Subscription subscribe(String name, UserEventListener listener) {
+        return subscribe(name, listener, DEFAULT_POLICY, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH);
+    }
+
+    public Subscription subscribe(String name, UserEventListener listener, BackpressurePolicy policy,
+                                  int capacity, int maxBatch) {
+        if (capacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+        Subscription subscription = new Subscription(name, listener, policy, capacity, maxBatch, this);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void publish(UserEvent.Type type, User user) {
+        publish(type, user, null);
+    }
+
+    /**
+     * Publishes a change to {@code user}, which is the user as it is after the change, or as it was
+     * for a removal.
+     */
+    public void publish(UserEvent.Type type, User user, String previousEmail) {
+        long next = sequence.incrementAndGet();
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        UserEvent event = UserEvent.of(type, next, user, previousEmail);
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Number of events published so far, which is also the sequence of the latest one.
+     */
+    public long getPublishedCount() {
+        return sequence.get();
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return List.copyOf(subscriptions);
+    }
+
+    /**
+     * Closes every subscription after it has delivered the events it already accepted.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+}
@@ -0,0 +1,12 @@
+package ir.selab.tdd.events;
+
+import java.util.List;
+
+/**
+ * Receives the events of one subscription in publication order, a batch at a time, always on the
+ * subscription's own thread. The list is only valid during the call.
+ */
+@FunctionalInterface
+public interface UserEventListener {
+    void onEvents(List<UserEvent> events);
+}
@@ -0,0 +1,31 @@
+package ir.selab.tdd.metrics;
+
+final class DisabledUserServiceMetrics implements UserServiceMetrics {
+    static final DisabledUserServiceMetrics INSTANCE = new DisabledUserServiceMetrics();
+
+    private DisabledUserServiceMetrics() {
+    }
+
+    @Override
+    public long startTimer() {
+        return 0;
+    }
+
+    @Override
+    public void record(Operation operation, Outcome outcome, long startNanos) {
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        return MetricsSnapshot.empty();
+    }
+
+    @Override
+    public MetricsSnapshot snapshotAndReset() {
+        return MetricsSnapshot.empty();
+    }
+
+    @Override
+    public void reset() {
+    }
+}
@@ -0,0 +1,50 @@
+package ir.selab.tdd.metrics;
+
+import lombok.Getter;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram}, all values in nanoseconds.
+ */
+public class HistogramSnapshot {
+    private final long[] counts;
+    @Getter
+    private final long count;
+    @Getter
+    private final long sum;
+    @Getter
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long max) {
+        this.counts = counts;
+        this.sum = sum;
+        this.max = max;
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        this.count = total;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the smallest bucket bound that at least {@code percentile} percent of the values are
+     * less than or equal to, capped at the largest recorded value.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValueIn(bucket), max);
+            }
+        }
+        return max;
+    }
+}
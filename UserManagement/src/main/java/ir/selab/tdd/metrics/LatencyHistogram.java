@@ -0,0 +1,81 @@
+package ir.selab.tdd.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of nanosecond latencies in the style of HdrHistogram. Values below 32
+ * are counted exactly; above that every power of two is split into 32 sub-buckets, so any recorded
+ * value is reported within about 3% of itself. Values above 2^42 ns (about 73 minutes) land in the
+ * last bucket.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 42;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.getAndIncrement(bucketOf(value));
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(copy, sum.sum(), max.get());
+    }
+
+    /**
+     * Takes a snapshot and clears the histogram in one pass. A value recorded concurrently lands in
+     * either this snapshot or the next one, never in neither.
+     */
+    public HistogramSnapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.getAndSet(i, 0);
+        }
+        return new HistogramSnapshot(copy, sum.sumThenReset(), max.getAndSet(0));
+    }
+
+    public void reset() {
+        snapshotAndReset();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value that falls into {@code bucket}.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((1L << exponent) | (subBucket << shift)) + (1L << shift) - 1;
+    }
+}
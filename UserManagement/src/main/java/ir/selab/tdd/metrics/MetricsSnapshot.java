@@ -0,0 +1,49 @@
+package ir.selab.tdd.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Point-in-time call counts and latencies of every operation and outcome that has been recorded at
+ * least once. Counts are exact; latencies cover the sampled calls only.
+ */
+public class MetricsSnapshot {
+    private static final HistogramSnapshot EMPTY = new HistogramSnapshot(new long[0], 0, 0);
+
+    private final Map<Operation, Map<Outcome, Long>> counts;
+    private final Map<Operation, Map<Outcome, HistogramSnapshot>> latencies;
+
+    MetricsSnapshot(Map<Operation, Map<Outcome, Long>> counts, Map<Operation, Map<Outcome, HistogramSnapshot>> latencies) {
+        this.counts = counts;
+        this.latencies = latencies;
+    }
+
+    static MetricsSnapshot empty() {
+        return new MetricsSnapshot(new EnumMap<>(Operation.class), new EnumMap<>(Operation.class));
+    }
+
+    public long getCount(Operation operation, Outcome outcome) {
+        Long count = getCounts(operation).get(outcome);
+        return count == null ? 0 : count;
+    }
+
+    public long getCount(Operation operation) {
+        long total = 0;
+        for (long count : getCounts(operation).values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public Map<Outcome, Long> getCounts(Operation operation) {
+        Map<Outcome, Long> byOutcome = counts.get(operation);
+        return byOutcome == null ? Collections.emptyMap() : Collections.unmodifiableMap(byOutcome);
+    }
+
+    public HistogramSnapshot getLatency(Operation operation, Outcome outcome) {
+        Map<Outcome, HistogramSnapshot> byOutcome = latencies.get(operation);
+        HistogramSnapshot latency = byOutcome == null ? null : byOutcome.get(outcome);
+        return latency == null ? EMPTY : latency;
+    }
+}
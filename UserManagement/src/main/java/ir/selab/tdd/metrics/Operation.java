@@ -0,0 +1,19 @@
+package ir.selab.tdd.metrics;
+
+/**
+ * {@link ir.selab.tdd.service.UserService} methods that are timed. Both {@code registerUser}
+ * overloads count as {@link #REGISTER_USER}. Batch calls are timed once per batch, with
+ * {@link Outcome#SUCCESS} meaning the batch completed whatever its items' outcomes were.
+ */
+public enum Operation {
+    LOGIN_WITH_USERNAME,
+    LOGIN_WITH_EMAIL,
+    REGISTER_USER,
+    REMOVE_USER,
+    CHANGE_USER_EMAIL,
+    GET_USER_BY_USERNAME,
+    GET_USER_BY_EMAIL,
+    REGISTER_BATCH,
+    REMOVE_BATCH,
+    LOGIN_BATCH
+}
@@ -0,0 +1,17 @@
+package ir.selab.tdd.metrics;
+
+/**
+ * How a timed operation ended. {@link #ERROR} covers anything thrown, including a saturated hashing
+ * pool; {@link #THROTTLED} is a login turned away before the password was checked.
+ */
+public enum Outcome {
+    SUCCESS,
+    INVALID_INPUT,
+    UNKNOWN_USER,
+    BAD_PASSWORD,
+    DUPLICATE_USERNAME,
+    DUPLICATE_EMAIL,
+    CONFLICT,
+    THROTTLED,
+    ERROR
+}
@@ -0,0 +1,102 @@
+package ir.selab.tdd.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts every call per operation and outcome and times a random sample of them into one
+ * {@link LatencyHistogram} per pair. A clock read costs tens of nanoseconds on its own, so by default
+ * one call in {@value #DEFAULT_SAMPLE_INTERVAL} is timed; pass 1 to time everything. Recording takes
+ * no locks and allocates nothing once the pair has been seen.
+ */
+public class RecordingUserServiceMetrics implements UserServiceMetrics {
+    public static final int DEFAULT_SAMPLE_INTERVAL = 8;
+
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+    private static final int OUTCOMES = Outcome.values().length;
+
+    private final AtomicReferenceArray<OutcomeMetrics> metrics =
+            new AtomicReferenceArray<>(Operation.values().length * OUTCOMES);
+    private final int sampleMask;
+
+    public RecordingUserServiceMetrics() {
+        this(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param sampleInterval a power of two; one call in {@code sampleInterval} is timed
+     */
+    public RecordingUserServiceMetrics(int sampleInterval) {
+        if (sampleInterval < 1 || Integer.bitCount(sampleInterval) != 1) {
+            throw new IllegalArgumentException("Sample interval must be a power of two");
+        }
+        this.sampleMask = sampleInterval - 1;
+    }
+
+    @Override
+    public long startTimer() {
+        if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    @Override
+    public void record(Operation operation, Outcome outcome, long startNanos) {
+        OutcomeMetrics pair = metricsFor(operation.ordinal() * OUTCOMES + outcome.ordinal());
+        pair.count.increment();
+        if (startNanos != NOT_SAMPLED) {
+            pair.latency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        return collect(false);
+    }
+
+    @Override
+    public MetricsSnapshot snapshotAndReset() {
+        return collect(true);
+    }
+
+    @Override
+    public void reset() {
+        collect(true);
+    }
+
+    private OutcomeMetrics metricsFor(int index) {
+        OutcomeMetrics pair = metrics.get(index);
+        if (pair == null) {
+            metrics.compareAndSet(index, null, new OutcomeMetrics());
+            pair = metrics.get(index);
+        }
+        return pair;
+    }
+
+    private MetricsSnapshot collect(boolean reset) {
+        Map<Operation, Map<Outcome, Long>> counts = new EnumMap<>(Operation.class);
+        Map<Operation, Map<Outcome, HistogramSnapshot>> latencies = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            for (Outcome outcome : Outcome.values()) {
+                OutcomeMetrics pair = metrics.get(operation.ordinal() * OUTCOMES + outcome.ordinal());
+                if (pair == null) {
+                    continue;
+                }
+                long count = reset ? pair.count.sumThenReset() : pair.count.sum();
+                HistogramSnapshot latency = reset ? pair.latency.snapshotAndReset() : pair.latency.snapshot();
+                counts.computeIfAbsent(operation, key -> new EnumMap<>(Outcome.class)).put(outcome, count);
+                latencies.computeIfAbsent(operation, key -> new EnumMap<>(Outcome.class)).put(outcome, latency);
+            }
+        }
+        return new MetricsSnapshot(counts, latencies);
+    }
+
+    private static final class OutcomeMetrics {
+        final LongAdder count = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,22 @@
+package ir.selab.tdd.metrics;
+
+/**
+ * Sink for {@link ir.selab.tdd.service.UserService} call counts and timings. Callers take a start
+ * token from {@link #startTimer()} and hand it back to {@link #record} once the outcome is known; the
+ * {@link #disabled()} implementation never reads the clock.
+ */
+public interface UserServiceMetrics {
+    long startTimer();
+
+    void record(Operation operation, Outcome outcome, long startNanos);
+
+    MetricsSnapshot snapshot();
+
+    MetricsSnapshot snapshotAndReset();
+
+    void reset();
+
+    static UserServiceMetrics disabled() {
+        return DisabledUserServiceMetrics.INSTANCE;
+    }
+}
@@ -0,0 +1,98 @@
+package ir.selab.tdd.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Publishes {@link UserServiceMetrics} as a platform MXBean named
+ * {@code ir.selab.tdd:type=UserServiceMetrics,name=<name>}. Each attribute read takes a fresh
+ * snapshot; latency attributes only list pairs with at least one timed call.
+ */
+public class UserServiceMetricsJmx implements UserServiceMetricsMXBean {
+    private final UserServiceMetrics metrics;
+
+    public UserServiceMetricsJmx(UserServiceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static ObjectName register(UserServiceMetrics metrics, String name) throws JMException {
+        ObjectName objectName = objectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new UserServiceMetricsJmx(metrics), objectName);
+        return objectName;
+    }
+
+    public static void unregister(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = objectName(name);
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        MetricsSnapshot snapshot = metrics.snapshot();
+        Map<String, Long> values = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            for (Map.Entry<Outcome, Long> entry : snapshot.getCounts(operation).entrySet()) {
+                if (entry.getValue() > 0) {
+                    values.put(operation + "." + entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getMeanNanos() {
+        return collect(HistogramSnapshot::getMean);
+    }
+
+    @Override
+    public Map<String, Long> getP50Nanos() {
+        return collect(histogram -> histogram.getValueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return collect(histogram -> histogram.getValueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getP999Nanos() {
+        return collect(histogram -> histogram.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+        return collect(HistogramSnapshot::getMax);
+    }
+
+    @Override
+    public void reset() {
+        metrics.reset();
+    }
+
+    private <T> Map<String, T> collect(Function<HistogramSnapshot, T> value) {
+        MetricsSnapshot snapshot = metrics.snapshot();
+        Map<String, T> values = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            for (Outcome outcome : snapshot.getCounts(operation).keySet()) {
+                HistogramSnapshot latency = snapshot.getLatency(operation, outcome);
+                if (latency.getCount() > 0) {
+                    values.put(operation + "." + outcome, value.apply(latency));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("ir.selab.tdd:type=UserServiceMetrics,name=" + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,23 @@
+package ir.selab.tdd.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link UserServiceMetrics}. Every map is keyed by {@code OPERATION.OUTCOME}, for example
+ * {@code LOGIN_WITH_EMAIL.BAD_PASSWORD}, and latencies are in nanoseconds.
+ */
+public interface UserServiceMetricsMXBean {
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanNanos();
+
+    Map<String, Long> getP50Nanos();
+
+    Map<String, Long> getP99Nanos();
+
+    Map<String, Long> getP999Nanos();
+
+    Map<String, Long> getMaxNanos();
+
+    void reset();
+}
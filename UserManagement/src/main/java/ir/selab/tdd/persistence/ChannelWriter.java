@@ -0,0 +1,50 @@
+package ir.selab.tdd.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered positional writer for the file formats in this package. Callers {@link #reserve} room for a
+ * record and then put it into {@link #buffer()} directly. The buffer grows for records larger than it.
+ */
+final class ChannelWriter {
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private long flushedPosition;
+
+    ChannelWriter(FileChannel channel, long start) {
+        this.channel = channel;
+        this.flushedPosition = start;
+    }
+
+    long position() {
+        return flushedPosition + buffer.position();
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes);
+            }
+        }
+    }
+
+    void skipTo(long position) throws IOException {
+        flush();
+        flushedPosition = position;
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushedPosition += channel.write(buffer, flushedPosition);
+        }
+        buffer.clear();
+    }
+}
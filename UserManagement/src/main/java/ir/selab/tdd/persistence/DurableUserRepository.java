@@ -0,0 +1,449 @@
+package ir.selab.tdd.persistence;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.UserRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link UserRepository} whose mutations are recorded in a {@link WriteAheadLog} in {@code directory}.
+ * Under a short write lock a mutation is checked against the current state, appended to the log and
+ * its username and emails are reserved. The fsync happens outside the lock and is shared with every
+ * other writer in the same group commit; only once it succeeds is the mutation applied in memory and
+ * its keys released. A write whose fsync fails is never seen by readers, and a write that touches a
+ * reserved key waits until the earlier one has been applied or has failed, so conflicting mutations
+ * reach the log and the maps in the same order. Batches are checked and logged under one hold of the
+ * lock and share a single fsync.
+ * <p>
+ * Files carry a generation number. Snapshot {@code users-N.snapshot} holds the state before log
+ * {@code users-N.wal} starts. Once the active log outgrows the compaction threshold, the current state
+ * is written as snapshot N+1, appends switch to log N+1 and generation N is deleted. A crash at any
+ * point leaves either the old or the new generation complete. Opening the repository maps the newest
+ * snapshot as a {@link MappedUserSnapshot}, which costs the same regardless of its size, and replays
+ * the logs that follow it.
+ * <p>
+ * Records are limited to {@link MutationCodec#MAX_PAYLOAD_BYTES}; a user that would not fit is
+ * rejected with {@link IllegalArgumentException} before anything is written.
+ */
+public class DurableUserRepository extends UserRepository implements Closeable {
+    public static final long DEFAULT_COMPACTION_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    private static final Pattern FILE_NAME = Pattern.compile("users-(\\d+)\\.(wal|snapshot)");
+
+    private final Object writeLock = new Object();
+    private final PendingWrites pending = new PendingWrites(writeLock);
+    private final Path directory;
+    private final long compactionThresholdBytes;
+    private final long baseGeneration;
+    private long generation;
+    private WriteAheadLog log;
+
+    public DurableUserRepository(Path directory) throws IOException {
+        this(directory, DEFAULT_COMPACTION_THRESHOLD_BYTES);
+    }
+
+    public DurableUserRepository(Path directory, long compactionThresholdBytes) throws IOException {
+        this(directory, compactionThresholdBytes, latestSnapshot(directory));
+    }
+
+    private DurableUserRepository(Path directory, long compactionThresholdBytes, long snapshotGeneration)
+            throws IOException {
+        super(snapshotGeneration < 0 ? null : MappedUserSnapshot.open(snapshotFile(directory, snapshotGeneration)));
+        this.directory = directory;
+        this.compactionThresholdBytes = compactionThresholdBytes;
+        this.baseGeneration = snapshotGeneration;
+        recover(Math.max(0, snapshotGeneration));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the user does not fit in one log record
+     */
+    @Override
+    public AddResult tryAddUser(User user) {
+        Mutation mutation = MutationCodec.checkSize(Mutation.add(user));
+        String username = user.getUsername();
+        WriteAheadLog target;
+        long position;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, user.getEmail(), null);
+            if (getUserByUsername(username) != null
+                    || (user.getEmail() != null && getUserByEmail(user.getEmail()) != null)) {
+                return super.tryAddUser(user);
+            }
+            target = log;
+            position = append(mutation);
+            pending.reserve(username, user.getEmail(), null);
+        }
+        commit(target, position, () -> super.tryAddUser(user),
+                () -> pending.release(username, user.getEmail(), null));
+        return AddResult.ADDED;
+    }
+
+    /**
+     * Logs every user that can be added and waits for one fsync for the whole batch.
+     *
+     * @throws IllegalArgumentException if a user does not fit in one log record; nothing is written
+     */
+    @Override
+    public List<AddResult> tryAddUsers(List<User> users) {
+        List<Mutation> mutations = new ArrayList<>(users.size());
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (User user : users) {
+            mutations.add(MutationCodec.checkSize(Mutation.add(user)));
+            usernames.add(user.getUsername());
+            if (user.getEmail() != null) {
+                emails.add(user.getEmail());
+            }
+        }
+        AddResult[] results = new AddResult[users.size()];
+        List<User> added = new ArrayList<>(users.size());
+        Set<String> addedUsernames = new HashSet<>();
+        Set<String> addedEmails = new HashSet<>();
+        WriteAheadLog target;
+        long position = -1;
+        synchronized (writeLock) {
+            pending.awaitAll(usernames, emails);
+            target = log;
+            for (int i = 0; i < results.length; i++) {
+                User user = users.get(i);
+                String email = user.getEmail();
+                if (addedUsernames.contains(user.getUsername()) || getUserByUsername(user.getUsername()) != null) {
+                    results[i] = AddResult.DUPLICATE_USERNAME;
+                } else if (email != null && (addedEmails.contains(email) || getUserByEmail(email) != null)) {
+                    results[i] = AddResult.DUPLICATE_EMAIL;
+                } else {
+                    position = append(mutations.get(i));
+                    addedUsernames.add(user.getUsername());
+                    if (email != null) {
+                        addedEmails.add(email);
+                    }
+                    added.add(user);
+                    results[i] = AddResult.ADDED;
+                }
+            }
+            if (added.isEmpty()) {
+                return Arrays.asList(results);
+            }
+            pending.reserveAll(addedUsernames, addedEmails);
+        }
+        commit(target, position, () -> added.forEach(super::tryAddUser),
+                () -> pending.releaseAll(addedUsernames, addedEmails));
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public boolean removeUser(String username) {
+        WriteAheadLog target;
+        long position;
+        String email;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, null, null);
+            User current = getUserByUsername(username);
+            if (current == null) {
+                return false;
+            }
+            email = current.getEmail();
+            target = log;
+            position = append(Mutation.remove(username));
+            pending.reserve(username, email, null);
+        }
+        commit(target, position, () -> super.removeUser(username), () -> pending.release(username, email, null));
+        return true;
+    }
+
+    /**
+     * Logs the removal of every known username and waits for one fsync for the whole batch.
+     */
+    @Override
+    public List<Boolean> removeUsers(List<String> usernames) {
+        Boolean[] results = new Boolean[usernames.size()];
+        Set<String> removed = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        WriteAheadLog target;
+        long position = -1;
+        synchronized (writeLock) {
+            pending.awaitAll(usernames, emails);
+            target = log;
+            for (int i = 0; i < results.length; i++) {
+                String username = usernames.get(i);
+                User current = username == null || removed.contains(username) ? null : getUserByUsername(username);
+                results[i] = current != null;
+                if (current != null) {
+                    position = append(Mutation.remove(username));
+                    removed.add(username);
+                    if (current.getEmail() != null) {
+                        emails.add(current.getEmail());
+                    }
+                }
+            }
+            if (removed.isEmpty()) {
+                return Arrays.asList(results);
+            }
+            pending.reserveAll(removed, emails);
+        }
+        commit(target, position, () -> removed.forEach(super::removeUser), () -> pending.releaseAll(removed, emails));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the updated user does not fit in one log record
+     */
+    @Override
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null || newEmail == null) {
+            return false;
+        }
+        Mutation mutation = MutationCodec.checkSize(Mutation.updateEmail(username, newEmail));
+        WriteAheadLog target;
+        long position;
+        String oldEmail;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, newEmail, null);
+            User current = getUserByUsername(username);
+            if (current == null || current.getVersion() != expectedVersion
+                    || newEmail.equals(current.getEmail()) || getUserByEmail(newEmail) != null) {
+                return false;
+            }
+            checkRecordSize(current.withEmail(newEmail));
+            oldEmail = current.getEmail();
+            target = log;
+            position = append(mutation);
+            pending.reserve(username, newEmail, oldEmail);
+        }
+        commit(target, position, () -> super.updateEmail(username, expectedVersion, newEmail),
+                () -> pending.release(username, newEmail, oldEmail));
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the updated user does not fit in one log record
+     */
+    @Override
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null || newPassword == null) {
+            return false;
+        }
+        Mutation mutation = MutationCodec.checkSize(Mutation.updatePassword(username, newPassword));
+        WriteAheadLog target;
+        long position;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, null, null);
+            User current = getUserByUsername(username);
+            if (current == null || current.getVersion() != expectedVersion) {
+                return false;
+            }
+            checkRecordSize(current.withPassword(newPassword));
+            target = log;
+            position = append(mutation);
+            pending.reserve(username, null, null);
+        }
+        commit(target, position, () -> super.updatePassword(username, expectedVersion, newPassword),
+                () -> pending.release(username, null, null));
+        return true;
+    }
+
+    /**
+     * Writes every user into the snapshot of the next generation and switches appends to a fresh log.
+     * Writes still waiting for their fsync are applied first; new writers wait while the snapshot is
+     * written.
+     */
+    public void compact() throws IOException {
+        synchronized (writeLock) {
+            pending.pause();
+            try {
+                long next = generation + 1;
+                writeSnapshot(next);
+                WriteAheadLog fresh;
+                try {
+                    fresh = WriteAheadLog.open(logFile(next), mutation -> {
+                    });
+                } catch (IOException e) {
+                    Files.deleteIfExists(snapshotFile(next));
+                    throw e;
+                }
+                WriteAheadLog previous = log;
+                log = fresh;
+                generation = next;
+                try {
+                    previous.close();
+                } catch (IOException e) {
+                    // Everything applied from the previous log is already in the new snapshot.
+                }
+                Files.deleteIfExists(logFile(next - 1));
+                if (next - 1 != baseGeneration) {
+                    Files.deleteIfExists(snapshotFile(next - 1));
+                }
+            } finally {
+                pending.resume();
+            }
+        }
+    }
+
+    public long getLogSize() {
+        synchronized (writeLock) {
+            return log.size();
+        }
+    }
+
+    /**
+     * Number of fsyncs of the active log so far.
+     */
+    public long getSyncCount() {
+        synchronized (writeLock) {
+            return log.getSyncCount();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            log.close();
+        }
+    }
+
+    private static long latestSnapshot(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long latest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && matcher.group(2).equals("snapshot")) {
+                    latest = Math.max(latest, Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        return latest;
+    }
+
+    private void recover(long snapshotGeneration) throws IOException {
+        TreeSet<Long> snapshots = new TreeSet<>();
+        TreeSet<Long> logs = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    (matcher.group(2).equals("wal") ? logs : snapshots).add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        NavigableSet<Long> pendingLogs = logs.tailSet(snapshotGeneration, true);
+        generation = pendingLogs.isEmpty() ? snapshotGeneration : pendingLogs.last();
+        for (long older : pendingLogs.headSet(generation, false)) {
+            WriteAheadLog.read(logFile(older), this::apply);
+        }
+        log = WriteAheadLog.open(logFile(generation), this::apply);
+        for (long stale : snapshots.headSet(snapshotGeneration, false)) {
+            Files.deleteIfExists(snapshotFile(stale));
+        }
+        for (long stale : logs.headSet(snapshotGeneration, false)) {
+            Files.deleteIfExists(logFile(stale));
+        }
+    }
+
+    private void writeSnapshot(long snapshotGeneration) throws IOException {
+        Path temporary = directory.resolve(snapshotFile(snapshotGeneration).getFileName() + ".tmp");
+        MappedUserSnapshot.write(temporary, getAllUsers());
+        Files.move(temporary, snapshotFile(snapshotGeneration), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path logFile(long logGeneration) {
+        return directory.resolve("users-" + logGeneration + ".wal");
+    }
+
+    private Path snapshotFile(long snapshotGeneration) {
+        return snapshotFile(directory, snapshotGeneration);
+    }
+
+    private static Path snapshotFile(Path directory, long snapshotGeneration) {
+        return directory.resolve("users-" + snapshotGeneration + ".snapshot");
+    }
+
+    private long append(Mutation mutation) {
+        try {
+            return log.append(mutation);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes the write durable and only then applies it, releasing its keys either way. A failure to
+     * compact afterwards is not reported, since the write itself succeeded; the next write past the
+     * threshold tries again.
+     */
+    private void commit(WriteAheadLog target, long position, Runnable applyWrite, Runnable releaseKeys) {
+        try {
+            target.sync(position);
+        } catch (IOException e) {
+            synchronized (writeLock) {
+                releaseKeys.run();
+            }
+            throw new UncheckedIOException(e);
+        }
+        synchronized (writeLock) {
+            try {
+                applyWrite.run();
+            } finally {
+                releaseKeys.run();
+            }
+        }
+        if (target.size() > compactionThresholdBytes) {
+            try {
+                synchronized (writeLock) {
+                    if (log.size() > compactionThresholdBytes) {
+                        compact();
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // Compaction is retried by a later write.
+            }
+        }
+    }
+
+    private static void checkRecordSize(User user) {
+        MutationCodec.checkSize(Mutation.add(user));
+    }
+
+    private void apply(Mutation mutation) {
+        switch (mutation.getType()) {
+            case ADD:
+                super.tryAddUser(new User(mutation.getUsername(), mutation.getPassword(), mutation.getEmail()));
+                break;
+            case REMOVE:
+                super.removeUser(mutation.getUsername());
+                break;
+            case UPDATE_EMAIL:
+                User current = getUserByUsername(mutation.getUsername());
+                if (current != null) {
+                    super.updateEmail(mutation.getUsername(), current.getVersion(), mutation.getEmail());
+                }
+                break;
+            case UPDATE_PASSWORD:
+                current = getUserByUsername(mutation.getUsername());
+                if (current != null) {
+                    super.updatePassword(mutation.getUsername(), current.getVersion(), mutation.getPassword());
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown mutation " + mutation.getType());
+        }
+    }
+}
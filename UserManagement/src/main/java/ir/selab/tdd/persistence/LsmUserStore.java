@@ -0,0 +1,1006 @@
+package ir.selab.tdd.persistence;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.repository.UserStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-resident {@link UserStore} for more users than fit on the heap, organized as a log-structured
+ * merge tree in {@code directory}. Writes go to a {@link WriteAheadLog} and a sorted in-memory
+ * {@link Memtable}. Once the memtable outgrows its budget it is frozen, a fresh one takes the writes, and
+ * a background thread writes the frozen one out as an immutable {@link Segment}. When enough segments
+ * pile up the same thread merges all of them into one, dropping overwritten versions and tombstones.
+ * <p>
+ * Segments keep users under both username and email, so a point lookup by either key checks the
+ * memtables, then the segments from newest to oldest, skipping those whose Bloom filter rules the key
+ * out, and reads one block of the first segment that knows the key. Unless a Bloom filter gives a false
+ * positive, that is at most one disk read.
+ * <p>
+ * The {@code MANIFEST} file names the live segments, the first log generation they do not cover and the
+ * user count they hold; it is replaced atomically after every flush and compaction. Opening the store
+ * replays the logs from that generation on and deletes files the manifest does not mention, which are
+ * left over from a flush or compaction that did not finish.
+ * <p>
+ * Writers are checked and logged under a short lock as in {@link DurableUserRepository}, share fsyncs
+ * through group commit and reach the memtable only once their fsync has succeeded; a batch waits for
+ * one fsync in all. Readers take no locks. A reader racing an email change may briefly find the user
+ * under both the old and the new email.
+ */
+public class LsmUserStore implements UserStore, Closeable {
+    public static final long DEFAULT_MEMTABLE_BYTES = 16L * 1024 * 1024;
+    public static final int DEFAULT_COMPACTION_TRIGGER = 4;
+
+    private static final Pattern FILE_NAME = Pattern.compile("(segment|memtable)-(\\d+)\\.(sst|wal)");
+    private static final String MANIFEST = "MANIFEST";
+    private static final int MANIFEST_MAGIC = 0x4C534D4D;
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+
+    private final Object writeLock = new Object();
+    private final PendingWrites pending = new PendingWrites(writeLock);
+    private final Object maintenanceLock = new Object();
+    private final Object maintenanceSignal = new Object();
+    private final Path directory;
+    private final long memtableBytes;
+    private final int compactionTrigger;
+    private final LongAdder blockReads = new LongAdder();
+    private final Thread maintenance;
+    private volatile View view;
+    private volatile int userCount;
+    private volatile boolean closed;
+    private volatile IOException maintenanceFailure;
+    private volatile long flushCount;
+    private volatile long compactionCount;
+    private boolean maintenanceRequested;
+    private long logGeneration;
+    private long nextSegmentId;
+    private long manifestLogGeneration;
+    private int manifestUserCount;
+
+    public LsmUserStore(Path directory) throws IOException {
+        this(directory, DEFAULT_MEMTABLE_BYTES, DEFAULT_COMPACTION_TRIGGER);
+    }
+
+    public LsmUserStore(Path directory, long memtableBytes, int compactionTrigger) throws IOException {
+        if (memtableBytes < 1 || compactionTrigger < 2) {
+            throw new IllegalArgumentException("Need a positive memtable size and a compaction trigger of at least 2");
+        }
+        this.directory = directory;
+        this.memtableBytes = memtableBytes;
+        this.compactionTrigger = compactionTrigger;
+        Files.createDirectories(directory);
+        recover();
+        this.maintenance = new Thread(this::runMaintenance, "lsm-maintenance");
+        maintenance.setDaemon(true);
+        maintenance.start();
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        return username == null ? null : find(Segment.USERNAMES, username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return email == null ? null : find(Segment.EMAILS, email);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the user does not fit in one log record
+     */
+    @Override
+    public AddResult tryAddUser(User user) {
+        Mutation mutation = MutationCodec.checkSize(Mutation.add(user));
+        String username = user.getUsername();
+        WriteAheadLog target;
+        long position;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, user.getEmail(), null);
+            ensureOpen();
+            AddResult result = checkAdd(user);
+            if (result != AddResult.ADDED) {
+                return result;
+            }
+            target = view.active.getLog();
+            position = append(target, mutation);
+            pending.reserve(username, user.getEmail(), null);
+        }
+        commit(target, position, () -> applyAdd(user), () -> pending.release(username, user.getEmail(), null));
+        return AddResult.ADDED;
+    }
+
+    /**
+     * Logs every user that can be added and waits for one fsync for the whole batch.
+     *
+     * @throws IllegalArgumentException if a user does not fit in one log record; nothing is written
+     */
+    @Override
+    public List<AddResult> tryAddUsers(List<User> users) {
+        List<Mutation> mutations = new ArrayList<>(users.size());
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (User user : users) {
+            mutations.add(MutationCodec.checkSize(Mutation.add(user)));
+            usernames.add(user.getUsername());
+            if (user.getEmail() != null) {
+                emails.add(user.getEmail());
+            }
+        }
+        AddResult[] results = new AddResult[users.size()];
+        List<User> added = new ArrayList<>(users.size());
+        Set<String> addedUsernames = new HashSet<>();
+        Set<String> addedEmails = new HashSet<>();
+        WriteAheadLog target;
+        long position = -1;
+        synchronized (writeLock) {
+            pending.awaitAll(usernames, emails);
+            ensureOpen();
+            target = view.active.getLog();
+            for (int i = 0; i < results.length; i++) {
+                User user = users.get(i);
+                String email = user.getEmail();
+                if (addedUsernames.contains(user.getUsername())) {
+                    results[i] = AddResult.DUPLICATE_USERNAME;
+                } else if (email != null && addedEmails.contains(email)) {
+                    results[i] = AddResult.DUPLICATE_EMAIL;
+                } else {
+                    results[i] = checkAdd(user);
+                }
+                if (results[i] == AddResult.ADDED) {
+                    position = append(target, mutations.get(i));
+                    addedUsernames.add(user.getUsername());
+                    if (email != null) {
+                        addedEmails.add(email);
+                    }
+                    added.add(user);
+                }
+            }
+            if (added.isEmpty()) {
+                return Arrays.asList(results);
+            }
+            pending.reserveAll(addedUsernames, addedEmails);
+        }
+        commit(target, position, () -> added.forEach(this::applyAdd),
+                () -> pending.releaseAll(addedUsernames, addedEmails));
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public boolean removeUser(String username) {
+        if (username == null) {
+            return false;
+        }
+        WriteAheadLog target;
+        long position;
+        String email;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, null, null);
+            ensureOpen();
+            User current = find(Segment.USERNAMES, username);
+            if (current == null) {
+                return false;
+            }
+            email = current.getEmail();
+            target = view.active.getLog();
+            position = append(target, Mutation.remove(username));
+            pending.reserve(username, email, null);
+        }
+        commit(target, position, () -> applyRemove(username), () -> pending.release(username, email, null));
+        return true;
+    }
+
+    /**
+     * Logs the removal of every known username and waits for one fsync for the whole batch.
+     */
+    @Override
+    public List<Boolean> removeUsers(List<String> usernames) {
+        Boolean[] results = new Boolean[usernames.size()];
+        Set<String> removed = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        WriteAheadLog target;
+        long position = -1;
+        synchronized (writeLock) {
+            pending.awaitAll(usernames, emails);
+            ensureOpen();
+            target = view.active.getLog();
+            for (int i = 0; i < results.length; i++) {
+                String username = usernames.get(i);
+                User current = username == null || removed.contains(username)
+                        ? null : find(Segment.USERNAMES, username);
+                results[i] = current != null;
+                if (current != null) {
+                    position = append(target, Mutation.remove(username));
+                    removed.add(username);
+                    if (current.getEmail() != null) {
+                        emails.add(current.getEmail());
+                    }
+                }
+            }
+            if (removed.isEmpty()) {
+                return Arrays.asList(results);
+            }
+            pending.reserveAll(removed, emails);
+        }
+        commit(target, position, () -> removed.forEach(this::applyRemove), () -> pending.releaseAll(removed, emails));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the updated user does not fit in one log record
+     */
+    @Override
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        return replaceEmail(username, expectedVersion, newEmail) != null;
+    }
+
+    /**
+     * Returns the user found while checking the update, which pending writes keep in place until it is
+     * applied, so no segment is read again.
+     *
+     * @throws IllegalArgumentException if the updated user does not fit in one log record
+     */
+    @Override
+    public User replaceEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null || newEmail == null) {
+            return null;
+        }
+        Mutation mutation = MutationCodec.checkSize(Mutation.updateEmail(username, newEmail));
+        WriteAheadLog target;
+        long position;
+        String oldEmail;
+        User current;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, newEmail, null);
+            ensureOpen();
+            current = checkUpdateEmail(username, expectedVersion, newEmail);
+            if (current == null) {
+                return null;
+            }
+            MutationCodec.checkSize(Mutation.add(current.withEmail(newEmail)));
+            oldEmail = current.getEmail();
+            target = view.active.getLog();
+            position = append(target, mutation);
+            pending.reserve(username, newEmail, oldEmail);
+        }
+        commit(target, position, () -> applyUpdateEmail(username, newEmail),
+                () -> pending.release(username, newEmail, oldEmail));
+        return current;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the updated user does not fit in one log record
+     */
+    @Override
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        return replacePassword(username, expectedVersion, newPassword) != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the updated user does not fit in one log record
+     */
+    @Override
+    public User replacePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null || newPassword == null) {
+            return null;
+        }
+        Mutation mutation = MutationCodec.checkSize(Mutation.updatePassword(username, newPassword));
+        WriteAheadLog target;
+        long position;
+        User current;
+        synchronized (writeLock) {
+            pending.awaitKeys(username, null, null);
+            ensureOpen();
+            current = checkUpdate(username, expectedVersion);
+            if (current == null) {
+                return null;
+            }
+            MutationCodec.checkSize(Mutation.add(current.withPassword(newPassword)));
+            target = view.active.getLog();
+            position = append(target, mutation);
+            pending.reserve(username, null, null);
+        }
+        commit(target, position, () -> applyUpdatePassword(username, newPassword),
+                () -> pending.release(username, null, null));
+        return current;
+    }
+
+    @Override
+    public int getUserCount() {
+        return userCount;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return stream().collect(Collectors.toList());
+    }
+
+    /**
+     * Merges the memtables and segments from {@code cursor} on, reading only the blocks the page
+     * covers.
+     */
+    @Override
+    public Page<User> page(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        Iterator<User> users = users(cursor);
+        List<User> page = new ArrayList<>(Math.min(limit, 1024));
+        while (page.size() < limit && users.hasNext()) {
+            page.add(users.next());
+        }
+        return new Page<>(page, users.hasNext() ? page.get(page.size() - 1).getUsername() : null);
+    }
+
+    /**
+     * Lazily streams all users in username order. Segments replaced by a compaction stay readable
+     * until the stream is dropped.
+     */
+    @Override
+    public Stream<User> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(users(null),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Writes the memtable out as a segment now instead of waiting for it to fill up.
+     */
+    public void flush() throws IOException {
+        synchronized (maintenanceLock) {
+            ensureOpen();
+            if (view.flushing != null) {
+                flushMemtable();
+            }
+            synchronized (writeLock) {
+                if (!rotateLocked(false) && view.flushing == null) {
+                    return;
+                }
+            }
+            flushMemtable();
+        }
+    }
+
+    /**
+     * Merges all segments into one now, dropping overwritten users and tombstones.
+     */
+    public void compact() throws IOException {
+        synchronized (maintenanceLock) {
+            ensureOpen();
+            if (!view.segments.isEmpty()) {
+                compactSegments();
+            }
+        }
+    }
+
+    public int getSegmentCount() {
+        return view.segments.size();
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * Segment blocks read by point lookups so far, one per segment whose Bloom filter let a key through.
+     */
+    public long getBlockReads() {
+        return blockReads.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (maintenanceLock) {
+            synchronized (writeLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+        }
+        signalMaintenance();
+        try {
+            maintenance.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        View current = view;
+        try {
+            current.active.getLog().close();
+        } finally {
+            if (current.flushing != null) {
+                current.flushing.getLog().close();
+            }
+        }
+    }
+
+    private User find(int tree, String key) {
+        View current = view;
+        User value = current.active.get(tree, key);
+        if (value == null && current.flushing != null) {
+            value = current.flushing.get(tree, key);
+        }
+        for (int i = 0; value == null && i < current.segments.size(); i++) {
+            Segment segment = current.segments.get(i);
+            if (segment.mightContain(tree, key)) {
+                blockReads.increment();
+                value = segment.get(tree, key);
+            }
+        }
+        return value == Memtable.TOMBSTONE ? null : value;
+    }
+
+    private Iterator<User> users(String after) {
+        View current = view;
+        List<Iterator<Map.Entry<String, User>>> sources = new ArrayList<>();
+        sources.add(current.active.iterator(Segment.USERNAMES, after));
+        if (current.flushing != null) {
+            sources.add(current.flushing.iterator(Segment.USERNAMES, after));
+        }
+        for (Segment segment : current.segments) {
+            sources.add(segment.iterator(Segment.USERNAMES, after));
+        }
+        Iterator<Map.Entry<String, User>> live = withoutTombstones(new MergingIterator(sources));
+        return new Iterator<User>() {
+            @Override
+            public boolean hasNext() {
+                return live.hasNext();
+            }
+
+            @Override
+            public User next() {
+                return live.next().getValue();
+            }
+        };
+    }
+
+    /**
+     * Writers check a mutation with the {@code check*} methods, append it to the log and only apply it
+     * to the active memtable with the {@code apply*} methods once its fsync has succeeded. Its keys are
+     * reserved in between, so the state it was checked against still holds when it is applied. Replay
+     * checks and applies in one go.
+     */
+    private AddResult checkAdd(User user) {
+        if (find(Segment.USERNAMES, user.getUsername()) != null) {
+            return AddResult.DUPLICATE_USERNAME;
+        }
+        if (user.getEmail() != null && find(Segment.EMAILS, user.getEmail()) != null) {
+            return AddResult.DUPLICATE_EMAIL;
+        }
+        return AddResult.ADDED;
+    }
+
+    private User checkUpdate(String username, long expectedVersion) {
+        User current = find(Segment.USERNAMES, username);
+        return current == null || current.getVersion() != expectedVersion ? null : current;
+    }
+
+    private User checkUpdateEmail(String username, long expectedVersion, String newEmail) {
+        User current = checkUpdate(username, expectedVersion);
+        if (current == null || newEmail.equals(current.getEmail()) || find(Segment.EMAILS, newEmail) != null) {
+            return null;
+        }
+        return current;
+    }
+
+    private void applyAdd(User user) {
+        Memtable memtable = view.active;
+        if (user.getEmail() != null) {
+            memtable.put(Segment.EMAILS, user.getEmail(), user);
+        }
+        memtable.put(Segment.USERNAMES, user.getUsername(), user);
+        userCount++;
+    }
+
+    private void applyRemove(String username) {
+        User current = find(Segment.USERNAMES, username);
+        Memtable memtable = view.active;
+        memtable.put(Segment.USERNAMES, username, Memtable.TOMBSTONE);
+        if (current.getEmail() != null) {
+            memtable.put(Segment.EMAILS, current.getEmail(), Memtable.TOMBSTONE);
+        }
+        userCount--;
+    }
+
+    private void applyUpdateEmail(String username, String newEmail) {
+        User current = find(Segment.USERNAMES, username);
+        User updated = current.withEmail(newEmail);
+        Memtable memtable = view.active;
+        memtable.put(Segment.EMAILS, newEmail, updated);
+        memtable.put(Segment.USERNAMES, username, updated);
+        if (current.getEmail() != null) {
+            memtable.put(Segment.EMAILS, current.getEmail(), Memtable.TOMBSTONE);
+        }
+    }
+
+    private void applyUpdatePassword(String username, String newPassword) {
+        User current = find(Segment.USERNAMES, username);
+        User updated = current.withPassword(newPassword);
+        Memtable memtable = view.active;
+        memtable.put(Segment.USERNAMES, username, updated);
+        if (current.getEmail() != null) {
+            memtable.put(Segment.EMAILS, current.getEmail(), updated);
+        }
+    }
+
+    private void replay(Mutation mutation) {
+        String username = mutation.getUsername();
+        switch (mutation.getType()) {
+            case ADD:
+                User user = new User(username, mutation.getPassword(), mutation.getEmail());
+                if (checkAdd(user) == AddResult.ADDED) {
+                    applyAdd(user);
+                }
+                break;
+            case REMOVE:
+                if (find(Segment.USERNAMES, username) != null) {
+                    applyRemove(username);
+                }
+                break;
+            case UPDATE_EMAIL:
+                User current = find(Segment.USERNAMES, username);
+                if (current != null && checkUpdateEmail(username, current.getVersion(), mutation.getEmail()) != null) {
+                    applyUpdateEmail(username, mutation.getEmail());
+                }
+                break;
+            case UPDATE_PASSWORD:
+                if (find(Segment.USERNAMES, username) != null) {
+                    applyUpdatePassword(username, mutation.getPassword());
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown mutation " + mutation.getType());
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> segmentIds = readManifest();
+        Set<Long> live = new HashSet<>(segmentIds);
+        TreeSet<Long> logs = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = FILE_NAME.matcher(name);
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (matcher.matches() && matcher.group(1).equals("segment")) {
+                    if (!live.contains(Long.parseLong(matcher.group(2)))) {
+                        Files.deleteIfExists(file);
+                    }
+                } else if (matcher.matches()) {
+                    long generation = Long.parseLong(matcher.group(2));
+                    if (generation < manifestLogGeneration) {
+                        Files.deleteIfExists(file);
+                    } else {
+                        logs.add(generation);
+                    }
+                }
+            }
+        }
+        List<Segment> segments = new ArrayList<>();
+        segmentIds.sort(Comparator.reverseOrder());
+        for (long id : segmentIds) {
+            segments.add(Segment.open(segmentFile(id), id));
+        }
+        logGeneration = logs.isEmpty() ? manifestLogGeneration : logs.last();
+        Memtable memtable = new Memtable(logs.isEmpty() ? manifestLogGeneration : logs.first(), null);
+        view = new View(memtable, null, Collections.unmodifiableList(segments));
+        userCount = manifestUserCount;
+        synchronized (writeLock) {
+            for (long older : logs.headSet(logGeneration, false)) {
+                WriteAheadLog.read(logFile(older), this::replay);
+            }
+            memtable.setLog(WriteAheadLog.open(logFile(logGeneration), this::replay));
+        }
+    }
+
+    private List<Long> readManifest() throws IOException {
+        Path file = directory.resolve(MANIFEST);
+        List<Long> ids = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return ids;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.limit() - 4);
+            if (buffer.getInt() != MANIFEST_MAGIC || (int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+                throw new IOException("Corrupt LSM manifest in " + directory);
+            }
+            nextSegmentId = buffer.getLong();
+            manifestLogGeneration = buffer.getLong();
+            manifestUserCount = buffer.getInt();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                ids.add(buffer.getLong());
+            }
+            return ids;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt LSM manifest in " + directory, e);
+        }
+    }
+
+    private void writeManifest(List<Segment> segments) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(32 + 8 * segments.size());
+        buffer.putInt(MANIFEST_MAGIC).putLong(nextSegmentId).putLong(manifestLogGeneration)
+                .putInt(manifestUserCount).putInt(segments.size());
+        for (Segment segment : segments) {
+            buffer.putLong(segment.getId());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void runMaintenance() {
+        while (!closed) {
+            synchronized (maintenanceSignal) {
+                if (!maintenanceRequested) {
+                    try {
+                        maintenanceSignal.wait(MAINTENANCE_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                maintenanceRequested = false;
+            }
+            try {
+                synchronized (maintenanceLock) {
+                    if (closed) {
+                        return;
+                    }
+                    if (view.flushing != null) {
+                        flushMemtable();
+                    }
+                    if (view.segments.size() >= compactionTrigger) {
+                        compactSegments();
+                    }
+                }
+                rotateIfFull();
+                maintenanceFailure = null;
+            } catch (IOException | UncheckedIOException e) {
+                maintenanceFailure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+            }
+        }
+    }
+
+    private void signalMaintenance() {
+        synchronized (maintenanceSignal) {
+            maintenanceRequested = true;
+            maintenanceSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Freezes the active memtable once it is over budget, unless the previous one is still being
+     * written out, in which case the maintenance thread checks again when it is done.
+     */
+    private void rotateIfFull() {
+        View current = view;
+        if (current.flushing != null || current.active.getBytes() < memtableBytes) {
+            return;
+        }
+        synchronized (writeLock) {
+            current = view;
+            if (closed || current.flushing != null || current.active.getBytes() < memtableBytes) {
+                return;
+            }
+            try {
+                if (!rotateLocked(true)) {
+                    return;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        signalMaintenance();
+    }
+
+    /**
+     * Freezes the active memtable unless it is empty, the previous one is still being written out or,
+     * with {@code onlyIfFull}, it is under budget. It first waits for the writes pending on its log to be
+     * applied, so none can land in the fresh memtable while its record sits in the frozen one's log, and
+     * checks again afterwards since the lock was released in between.
+     */
+    private boolean rotateLocked(boolean onlyIfFull) throws IOException {
+        pending.pause();
+        try {
+            View current = view;
+            if (closed || current.flushing != null || current.active.isEmpty()
+                    || (onlyIfFull && current.active.getBytes() < memtableBytes)) {
+                return false;
+            }
+            WriteAheadLog next = WriteAheadLog.open(logFile(logGeneration + 1), mutation -> {
+            });
+            logGeneration++;
+            current.active.setUserCountAtEnd(userCount);
+            view = new View(new Memtable(logGeneration, next), current.active, current.segments);
+            return true;
+        } finally {
+            pending.resume();
+        }
+    }
+
+    private void flushMemtable() throws IOException {
+        Memtable flushing = view.flushing;
+        long id = nextSegmentId++;
+        Segment segment = writeSegment(id,
+                flushing.iterator(Segment.USERNAMES, null), flushing.size(Segment.USERNAMES),
+                flushing.iterator(Segment.EMAILS, null), flushing.size(Segment.EMAILS));
+        synchronized (writeLock) {
+            View current = view;
+            List<Segment> segments = new ArrayList<>(current.segments.size() + 1);
+            segments.add(segment);
+            segments.addAll(current.segments);
+            manifestLogGeneration = current.active.getFirstLogGeneration();
+            manifestUserCount = flushing.getUserCountAtEnd();
+            writeManifest(segments);
+            view = new View(current.active, null, Collections.unmodifiableList(segments));
+        }
+        flushing.getLog().close();
+        deleteLogsBefore(manifestLogGeneration);
+        flushCount++;
+    }
+
+    private void compactSegments() throws IOException {
+        List<Segment> inputs = view.segments;
+        long usernames = 0;
+        long emails = 0;
+        for (Segment input : inputs) {
+            usernames += input.getEntryCount(Segment.USERNAMES);
+            emails += input.getEntryCount(Segment.EMAILS);
+        }
+        long id = nextSegmentId++;
+        Segment merged = writeSegment(id, mergeSegments(inputs, Segment.USERNAMES), usernames,
+                mergeSegments(inputs, Segment.EMAILS), emails);
+        synchronized (writeLock) {
+            View current = view;
+            List<Segment> segments = Collections.singletonList(merged);
+            writeManifest(segments);
+            view = new View(current.active, current.flushing, segments);
+        }
+        for (Segment input : inputs) {
+            try {
+                Files.deleteIfExists(segmentFile(input.getId()));
+            } catch (IOException e) {
+                // Still mapped on platforms that lock mapped files; the next open removes it.
+            }
+        }
+        compactionCount++;
+    }
+
+    /**
+     * Merges every segment, newest first, which also makes tombstones unnecessary: nothing older is
+     * left for them to hide.
+     */
+    private static Iterator<Map.Entry<String, User>> mergeSegments(List<Segment> segments, int tree) {
+        List<Iterator<Map.Entry<String, User>>> sources = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            sources.add(segment.iterator(tree, null));
+        }
+        return withoutTombstones(new MergingIterator(sources));
+    }
+
+    private Segment writeSegment(long id, Iterator<Map.Entry<String, User>> usernames, long expectedUsernames,
+                                 Iterator<Map.Entry<String, User>> emails, long expectedEmails) throws IOException {
+        Path file = segmentFile(id);
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        Segment.write(temporary, usernames, expectedUsernames, emails, expectedEmails);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Segment.open(file, id);
+    }
+
+    private void deleteLogsBefore(long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "memtable-*.wal")) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < generation) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static Iterator<Map.Entry<String, User>> withoutTombstones(Iterator<Map.Entry<String, User>> entries) {
+        return new Iterator<Map.Entry<String, User>>() {
+            private Map.Entry<String, User> next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, User> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, User> current = next;
+                next = advance();
+                return current;
+            }
+
+            private Map.Entry<String, User> advance() {
+                while (entries.hasNext()) {
+                    Map.Entry<String, User> entry = entries.next();
+                    if (entry.getValue() != Memtable.TOMBSTONE) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private Path segmentFile(long id) {
+        return directory.resolve("segment-" + id + ".sst");
+    }
+
+    private Path logFile(long generation) {
+        return directory.resolve("memtable-" + generation + ".wal");
+    }
+
+    private static long append(WriteAheadLog log, Mutation mutation) {
+        try {
+            return log.append(mutation);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes the write durable and only then applies it, releasing its keys either way. A failure to
+     * rotate the memtable afterwards is not reported, since the write itself succeeded; the
+     * maintenance thread tries again.
+     */
+    private void commit(WriteAheadLog target, long position, Runnable applyWrite, Runnable releaseKeys) {
+        try {
+            target.sync(position);
+        } catch (IOException e) {
+            synchronized (writeLock) {
+                releaseKeys.run();
+            }
+            throw new UncheckedIOException(e);
+        }
+        synchronized (writeLock) {
+            try {
+                applyWrite.run();
+            } finally {
+                releaseKeys.run();
+            }
+        }
+        try {
+            rotateIfFull();
+        } catch (UncheckedIOException e) {
+            signalMaintenance();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("User store is closed");
+        }
+        IOException failure = maintenanceFailure;
+        if (failure != null && view.flushing != null && view.active.getBytes() >= 2 * memtableBytes) {
+            throw new UncheckedIOException("Memtable can not be flushed", failure);
+        }
+    }
+
+    /**
+     * What readers see: the memtable taking writes, the frozen one being flushed if any, and the
+     * segments from newest to oldest. Replaced as a whole, so a reader holding one sees a consistent
+     * state even while a flush or compaction completes.
+     */
+    private static final class View {
+        private final Memtable active;
+        private final Memtable flushing;
+        private final List<Segment> segments;
+
+        private View(Memtable active, Memtable flushing, List<Segment> segments) {
+            this.active = active;
+            this.flushing = flushing;
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * Merges sorted sources into one sorted sequence. Sources are given newest first, and where several
+     * hold the same key only the newest entry is returned.
+     */
+    private static final class MergingIterator implements Iterator<Map.Entry<String, User>> {
+        private final PriorityQueue<Source> heads = new PriorityQueue<>(
+                Comparator.comparing((Source source) -> source.head.getKey()).thenComparingInt(source -> source.rank));
+
+        private MergingIterator(List<Iterator<Map.Entry<String, User>>> sources) {
+            for (int rank = 0; rank < sources.size(); rank++) {
+                Iterator<Map.Entry<String, User>> entries = sources.get(rank);
+                if (entries.hasNext()) {
+                    heads.add(new Source(entries, rank));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, User> next() {
+            Source newest = heads.poll();
+            if (newest == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, User> entry = newest.head;
+            advance(newest);
+            while (!heads.isEmpty() && heads.peek().head.getKey().equals(entry.getKey())) {
+                advance(heads.poll());
+            }
+            return entry;
+        }
+
+        private void advance(Source source) {
+            if (source.entries.hasNext()) {
+                source.head = source.entries.next();
+                heads.add(source);
+            }
+        }
+
+        private static final class Source {
+            private final Iterator<Map.Entry<String, User>> entries;
+            private final int rank;
+            private Map.Entry<String, User> head;
+
+            private Source(Iterator<Map.Entry<String, User>> entries, int rank) {
+                this.entries = entries;
+                this.rank = rank;
+                this.head = entries.next();
+            }
+        }
+    }
+}
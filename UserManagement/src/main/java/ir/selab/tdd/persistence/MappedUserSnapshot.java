@@ -0,0 +1,366 @@
+package ir.selab.tdd.persistence;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.SortedUserSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Versioned binary snapshot of users that is served straight from a read-only memory mapping, so
+ * opening it costs the same no matter how many users it holds.
+ * <p>
+ * Layout, all integers big-endian:
+ * <pre>
+ *   header   magic, format version, user count, index slots, offsets of the three tables, file length
+ *   records  [username][password][email], each as int length (-1 for null) + UTF-8 bytes, sorted by
+ *            username and never straddling a 1 GiB mapping region
+ *   offsets  long record offset per ordinal
+ *   username open-addressing table of [int hash][int ordinal + 1] slots, 0 marks an empty slot
+ *   email    same as the username table, keyed by email
+ * </pre>
+ */
+public class MappedUserSnapshot implements SortedUserSnapshot {
+    private static final int MAGIC = 0x55534E50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final int SLOT_BYTES = 8;
+
+    private final ByteBuffer[] regions;
+    private final int userCount;
+    private final int slotMask;
+    private final long offsetsTable;
+    private final long usernameTable;
+    private final long emailTable;
+
+    private MappedUserSnapshot(ByteBuffer[] regions) throws IOException {
+        this.regions = regions;
+        if (regions[0].limit() < HEADER_BYTES || getInt(0) != MAGIC) {
+            throw new IOException("Not a user snapshot");
+        }
+        if (getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported user snapshot format " + getInt(4));
+        }
+        this.userCount = getInt(8);
+        this.slotMask = getInt(12) - 1;
+        this.offsetsTable = getLong(16);
+        this.usernameTable = getLong(24);
+        this.emailTable = getLong(32);
+        long expectedLength = getLong(40);
+        long actualLength = (long) (regions.length - 1) * REGION_SIZE + regions[regions.length - 1].limit();
+        if (expectedLength != actualLength) {
+            throw new IOException("Truncated user snapshot: expected " + expectedLength + " bytes, found " + actualLength);
+        }
+    }
+
+    public static MappedUserSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int regionCount = (int) Math.max(1, (size + REGION_SIZE - 1) >>> REGION_SHIFT);
+            ByteBuffer[] regions = new ByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long start = i * REGION_SIZE;
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+                regions[i] = region;
+            }
+            return new MappedUserSnapshot(regions);
+        }
+    }
+
+    /**
+     * Writes {@code users} to {@code file} in snapshot format. Usernames and emails must be unique.
+     */
+    public static void write(Path file, Collection<User> users) throws IOException {
+        List<User> sorted = new ArrayList<>(users);
+        sorted.sort(Comparator.comparing(User::getUsername));
+        int slots = slotsFor(sorted.size());
+        long[] offsets = new long[sorted.size()];
+        int[] usernameSlots = new int[slots * 2];
+        int[] emailSlots = new int[slots * 2];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter writer = new ChannelWriter(channel, HEADER_BYTES);
+            for (int ordinal = 0; ordinal < sorted.size(); ordinal++) {
+                User user = sorted.get(ordinal);
+                int size = MutationCodec.stringSize(user.getUsername()) + MutationCodec.stringSize(user.getPassword())
+                        + MutationCodec.stringSize(user.getEmail());
+                long regionEnd = (writer.position() | (REGION_SIZE - 1)) + 1;
+                if (writer.position() + size > regionEnd) {
+                    writer.skipTo(regionEnd);
+                }
+                offsets[ordinal] = writer.position();
+                writer.reserve(size);
+                MutationCodec.putString(writer.buffer(), user.getUsername());
+                MutationCodec.putString(writer.buffer(), user.getPassword());
+                MutationCodec.putString(writer.buffer(), user.getEmail());
+                insert(usernameSlots, hash(user.getUsername()), ordinal);
+                if (user.getEmail() != null) {
+                    insert(emailSlots, hash(user.getEmail()), ordinal);
+                }
+            }
+            writer.skipTo((writer.position() + 7) & ~7L);
+            long offsetsTable = writer.position();
+            for (long offset : offsets) {
+                writer.reserve(8);
+                writer.buffer().putLong(offset);
+            }
+            long usernameTable = writer.position();
+            writeSlots(writer, usernameSlots);
+            long emailTable = writer.position();
+            writeSlots(writer, emailSlots);
+            long length = writer.position();
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(sorted.size()).putInt(slots)
+                    .putLong(offsetsTable).putLong(usernameTable).putLong(emailTable).putLong(length);
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        int ordinal = find(usernameTable, username, 0);
+        return ordinal < 0 ? null : userAt(ordinal);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        int ordinal = find(emailTable, email, 2);
+        return ordinal < 0 ? null : userAt(ordinal);
+    }
+
+    @Override
+    public int getUserCount() {
+        return userCount;
+    }
+
+    @Override
+    public boolean containsUsername(String username) {
+        return find(usernameTable, username, 0) >= 0;
+    }
+
+    /**
+     * Iterates users in username order, materializing each one as it is reached.
+     */
+    @Override
+    public Iterator<User> iterator() {
+        return iteratorFrom(0);
+    }
+
+    @Override
+    public Iterator<User> iteratorAfter(String username) {
+        if (username == null) {
+            return iteratorFrom(0);
+        }
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = userCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareUsername(middle, username, key) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return iteratorFrom(low);
+    }
+
+    /**
+     * Splits by ordinal range, so parallel streams divide the snapshot evenly without copying it.
+     */
+    @Override
+    public Spliterator<User> spliterator() {
+        return new OrdinalSpliterator(0, userCount);
+    }
+
+    private Iterator<User> iteratorFrom(int first) {
+        return new Iterator<User>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next < userCount;
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return userAt(next++);
+            }
+        };
+    }
+
+    User userAt(int ordinal) {
+        long offset = getLong(offsetsTable + (long) ordinal * 8);
+        ByteBuffer record = regions[(int) (offset >>> REGION_SHIFT)].duplicate();
+        record.position((int) (offset & (REGION_SIZE - 1)));
+        return new User(MutationCodec.getString(record), MutationCodec.getString(record), MutationCodec.getString(record));
+    }
+
+    /**
+     * Compares the username at {@code ordinal} with {@code username} in {@link String#compareTo} order,
+     * which is the order records were sorted in when written.
+     */
+    private int compareUsername(int ordinal, String username, byte[] key) {
+        long offset = getLong(offsetsTable + (long) ordinal * 8);
+        ByteBuffer region = regions[(int) (offset >>> REGION_SHIFT)];
+        int position = (int) (offset & (REGION_SIZE - 1));
+        int length = region.getInt(position);
+        if (length == key.length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = region.get(position + 4 + i) == key[i];
+            }
+            if (same) {
+                return 0;
+            }
+        }
+        ByteBuffer record = region.duplicate();
+        record.position(position);
+        return MutationCodec.getString(record).compareTo(username);
+    }
+
+    private int find(long table, String key, int field) {
+        if (key == null || userCount == 0) {
+            return -1;
+        }
+        int hash = hash(key);
+        byte[] keyBytes = null;
+        for (int slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            long slotOffset = table + (long) slot * SLOT_BYTES;
+            int ordinalPlusOne = getInt(slotOffset + 4);
+            if (ordinalPlusOne == 0) {
+                return -1;
+            }
+            if (getInt(slotOffset) == hash) {
+                if (keyBytes == null) {
+                    keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                }
+                if (fieldEquals(ordinalPlusOne - 1, field, keyBytes)) {
+                    return ordinalPlusOne - 1;
+                }
+            }
+        }
+    }
+
+    private boolean fieldEquals(int ordinal, int field, byte[] expected) {
+        long offset = getLong(offsetsTable + (long) ordinal * 8);
+        ByteBuffer region = regions[(int) (offset >>> REGION_SHIFT)];
+        int position = (int) (offset & (REGION_SIZE - 1));
+        for (int i = 0; i < field; i++) {
+            position += 4 + Math.max(0, region.getInt(position));
+        }
+        if (region.getInt(position) != expected.length) {
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < expected.length; i++) {
+            if (region.get(position + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getInt(long offset) {
+        return regions[(int) (offset >>> REGION_SHIFT)].getInt((int) (offset & (REGION_SIZE - 1)));
+    }
+
+    private long getLong(long offset) {
+        return regions[(int) (offset >>> REGION_SHIFT)].getLong((int) (offset & (REGION_SIZE - 1)));
+    }
+
+    private final class OrdinalSpliterator implements Spliterator<User> {
+        private int next;
+        private final int end;
+
+        OrdinalSpliterator(int next, int end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super User> action) {
+            if (next >= end) {
+                return false;
+            }
+            action.accept(userAt(next++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<User> trySplit() {
+            int middle = (next + end) >>> 1;
+            if (middle - next < 64) {
+                return null;
+            }
+            Spliterator<User> prefix = new OrdinalSpliterator(next, middle);
+            next = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE | DISTINCT;
+        }
+    }
+
+    private static int slotsFor(int count) {
+        int slots = 2;
+        while (slots < count + count / 3 + 1) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static void insert(int[] slots, int hash, int ordinal) {
+        int mask = slots.length / 2 - 1;
+        int slot = hash & mask;
+        while (slots[slot * 2 + 1] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot * 2] = hash;
+        slots[slot * 2 + 1] = ordinal + 1;
+    }
+
+    private static void writeSlots(ChannelWriter writer, int[] slots) throws IOException {
+        for (int value : slots) {
+            writer.reserve(4);
+            writer.buffer().putInt(value);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ir.selab.tdd.persistence;
+
+import ir.selab.tdd.domain.User;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory, sorted write buffer of an {@link LsmUserStore}: one map per segment tree, holding either
+ * the latest user for a key or {@link #TOMBSTONE}. Written only under the store's write lock and read
+ * concurrently. Its mutations are also in the write-ahead logs from {@code firstLogGeneration} on.
+ */
+final class Memtable {
+    static final User TOMBSTONE = new User("", "", null, -1);
+
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final ConcurrentSkipListMap<String, User> usernames = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, User> emails = new ConcurrentSkipListMap<>();
+    @Getter(AccessLevel.PACKAGE)
+    private final long firstLogGeneration;
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private WriteAheadLog log;
+    @Getter(AccessLevel.PACKAGE)
+    private volatile long bytes;
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private int userCountAtEnd;
+
+    Memtable(long firstLogGeneration, WriteAheadLog log) {
+        this.firstLogGeneration = firstLogGeneration;
+        this.log = log;
+    }
+
+    User get(int tree, String key) {
+        return map(tree).get(key);
+    }
+
+    void put(int tree, String key, User value) {
+        map(tree).put(key, value);
+        bytes += ENTRY_OVERHEAD_BYTES + 2L * key.length() + (value == TOMBSTONE ? 0
+                : 2L * (value.getUsername().length() + value.getPassword().length()
+                + (value.getEmail() == null ? 0 : value.getEmail().length())));
+    }
+
+    int size(int tree) {
+        return map(tree).size();
+    }
+
+    /**
+     * Entries of {@code tree} in key order, starting after {@code after}, or at the first key if null.
+     */
+    Iterator<Map.Entry<String, User>> iterator(int tree, String after) {
+        ConcurrentNavigableMap<String, User> entries = after == null ? map(tree) : map(tree).tailMap(after, false);
+        return entries.entrySet().iterator();
+    }
+
+    boolean isEmpty() {
+        return usernames.isEmpty() && emails.isEmpty();
+    }
+
+    private ConcurrentSkipListMap<String, User> map(int tree) {
+        return tree == Segment.USERNAMES ? usernames : emails;
+    }
+}
@@ -0,0 +1,39 @@
+package ir.selab.tdd.persistence;
+
+import ir.selab.tdd.domain.User;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class Mutation {
+    public enum Type {
+        ADD, REMOVE, UPDATE_EMAIL, UPDATE_PASSWORD
+    }
+
+    private final Type type;
+    private final String username;
+    private final String password;
+    private final String email;
+
+    public static Mutation add(User user) {
+        return new Mutation(Type.ADD, user.getUsername(), user.getPassword(), user.getEmail());
+    }
+
+    public static Mutation remove(String username) {
+        return new Mutation(Type.REMOVE, username, null, null);
+    }
+
+    public static Mutation updateEmail(String username, String newEmail) {
+        return new Mutation(Type.UPDATE_EMAIL, username, null, newEmail);
+    }
+
+    public static Mutation updatePassword(String username, String newPassword) {
+        return new Mutation(Type.UPDATE_PASSWORD, username, newPassword, null);
+    }
+
+    static Mutation of(Type type, String username, String password, String email) {
+        return new Mutation(type, username, password, email);
+    }
+}
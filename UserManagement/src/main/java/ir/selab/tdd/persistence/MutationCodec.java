@@ -0,0 +1,137 @@
+package ir.selab.tdd.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Frames a {@link Mutation} as {@code [int payloadLength][int crc32][payload]}, where the payload is a
+ * type byte followed by username, password and email as length-prefixed UTF-8 (length -1 for null).
+ */
+public final class MutationCodec {
+    public static final int HEADER_BYTES = 8;
+    public static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+    private static final Mutation.Type[] TYPES = Mutation.Type.values();
+
+    private MutationCodec() {
+    }
+
+    public static int encodedSize(Mutation mutation) {
+        return HEADER_BYTES + 1 + stringSize(mutation.getUsername()) + stringSize(mutation.getPassword())
+                + stringSize(mutation.getEmail());
+    }
+
+    /**
+     * Returns {@code mutation} if its payload fits in {@link #MAX_PAYLOAD_BYTES}. Anything larger would
+     * be written but never read back, and replay would stop at it.
+     *
+     * @throws IllegalArgumentException if the payload is too large
+     */
+    public static Mutation checkSize(Mutation mutation) {
+        int payloadLength = encodedSize(mutation) - HEADER_BYTES;
+        if (payloadLength > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("Record of " + payloadLength + " bytes exceeds the limit of "
+                    + MAX_PAYLOAD_BYTES);
+        }
+        return mutation;
+    }
+
+    /**
+     * Writes the framed record at the buffer's position. The buffer must have
+     * {@link #encodedSize(Mutation)} bytes remaining.
+     */
+    public static void encode(Mutation mutation, ByteBuffer target) {
+        int start = target.position();
+        target.position(start + HEADER_BYTES);
+        target.put((byte) mutation.getType().ordinal());
+        putString(target, mutation.getUsername());
+        putString(target, mutation.getPassword());
+        putString(target, mutation.getEmail());
+        int end = target.position();
+        int payloadLength = end - start - HEADER_BYTES;
+        target.putInt(start, payloadLength);
+        target.putInt(start + 4, checksum(target, start + HEADER_BYTES, payloadLength));
+    }
+
+    /**
+     * Reads the framed record at the buffer's position and advances past it. Returns null, leaving the
+     * position untouched, if the record is truncated or fails its checksum, which marks the end of the
+     * valid prefix of a log.
+     */
+    public static Mutation decode(ByteBuffer source) {
+        int start = source.position();
+        if (source.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        int payloadLength = source.getInt(start);
+        if (payloadLength <= 0 || payloadLength > MAX_PAYLOAD_BYTES
+                || payloadLength > source.remaining() - HEADER_BYTES) {
+            return null;
+        }
+        if (checksum(source, start + HEADER_BYTES, payloadLength) != source.getInt(start + 4)) {
+            return null;
+        }
+        ByteBuffer payload = source.duplicate();
+        payload.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + payloadLength);
+        try {
+            int type = payload.get();
+            if (type < 0 || type >= TYPES.length) {
+                return null;
+            }
+            Mutation mutation = Mutation.of(TYPES[type], getString(payload), getString(payload), getString(payload));
+            source.position(start + HEADER_BYTES + payloadLength);
+            return mutation;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tells whether the bytes at the buffer's position could still become a valid record once more
+     * data arrives, as opposed to being corrupt.
+     */
+    public static boolean isIncomplete(ByteBuffer source) {
+        if (source.remaining() < HEADER_BYTES) {
+            return true;
+        }
+        int payloadLength = source.getInt(source.position());
+        return payloadLength > 0 && payloadLength <= MAX_PAYLOAD_BYTES
+                && payloadLength > source.remaining() - HEADER_BYTES;
+    }
+
+    static int stringSize(String value) {
+        return 4 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    static void putString(ByteBuffer target, String value) {
+        if (value == null) {
+            target.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        target.putInt(bytes.length);
+        target.put(bytes);
+    }
+
+    static String getString(ByteBuffer source) {
+        int length = source.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > source.remaining()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds record");
+        }
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + length);
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+}
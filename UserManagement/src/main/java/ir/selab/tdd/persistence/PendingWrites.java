@@ -0,0 +1,107 @@
+package ir.selab.tdd.persistence;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Usernames and emails reserved by writes that are in the log but not yet applied in memory. A store
+ * reserves a write's keys when it appends it and releases them once the fsync has succeeded and the
+ * write is applied, or has failed. Every method must be called holding {@code lock}, whose monitor
+ * waiting writers park on, so a later write to the same keys sees the earlier one's outcome before it
+ * checks the current state.
+ */
+final class PendingWrites {
+    private final Object lock;
+    private final Set<String> usernames = new HashSet<>();
+    private final Set<String> emails = new HashSet<>();
+    private boolean paused;
+
+    PendingWrites(Object lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Waits until none of the keys is reserved and no {@link #pause} is in effect. Null keys are
+     * ignored.
+     */
+    void awaitKeys(String username, String email, String otherEmail) {
+        await(() -> !paused && !usernames.contains(username)
+                && (email == null || !emails.contains(email))
+                && (otherEmail == null || !emails.contains(otherEmail)));
+    }
+
+    void reserve(String username, String email, String otherEmail) {
+        usernames.add(username);
+        if (email != null) {
+            emails.add(email);
+        }
+        if (otherEmail != null) {
+            emails.add(otherEmail);
+        }
+    }
+
+    void release(String username, String email, String otherEmail) {
+        usernames.remove(username);
+        if (email != null) {
+            emails.remove(email);
+        }
+        if (otherEmail != null) {
+            emails.remove(otherEmail);
+        }
+        lock.notifyAll();
+    }
+
+    /**
+     * Waits like {@link #awaitKeys} for every key of a batch at once, so a batch never holds some of
+     * its keys while it waits for others.
+     */
+    void awaitAll(Collection<String> batchUsernames, Collection<String> batchEmails) {
+        await(() -> !paused && batchUsernames.stream().noneMatch(usernames::contains)
+                && batchEmails.stream().noneMatch(emails::contains));
+    }
+
+    void reserveAll(Collection<String> batchUsernames, Collection<String> batchEmails) {
+        usernames.addAll(batchUsernames);
+        emails.addAll(batchEmails);
+    }
+
+    void releaseAll(Collection<String> batchUsernames, Collection<String> batchEmails) {
+        usernames.removeAll(batchUsernames);
+        emails.removeAll(batchEmails);
+        lock.notifyAll();
+    }
+
+    /**
+     * Holds off new writes and waits until every pending one has been applied or has failed, so the
+     * caller can switch logs without leaving a write behind in the old one. Undone by {@link #resume}.
+     */
+    void pause() {
+        paused = true;
+        await(usernames::isEmpty);
+    }
+
+    void resume() {
+        paused = false;
+        lock.notifyAll();
+    }
+
+    /**
+     * Pending writes end after their fsync either way, so an interrupt does not abandon the wait; it
+     * is restored for the caller afterwards.
+     */
+    private void await(BooleanSupplier done) {
+        boolean interrupted = false;
+        while (!done.getAsBoolean()) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
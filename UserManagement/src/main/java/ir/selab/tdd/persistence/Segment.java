@@ -0,0 +1,386 @@
+package ir.selab.tdd.persistence;
+
+import ir.selab.tdd.domain.User;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, sorted segment file of an {@link LsmUserStore}, served from a read-only memory mapping. It
+ * holds two trees: users keyed by username and the same users keyed by email, so a lookup by either key
+ * needs one block. Each tree is a run of records cut into blocks of about 4 KiB, a sparse index with the
+ * first key of every block, and a Bloom filter over its keys; indexes and filters are loaded onto the
+ * heap when the segment is opened.
+ * <p>
+ * Layout, all integers big-endian:
+ * <pre>
+ *   header  magic, format version, file length, then per tree: data start, data end, entry count,
+ *           index offset, Bloom filter offset
+ *   data    records [byte tombstone][key][long version][two remaining fields], strings as int length
+ *           (-1 for null) + UTF-8; the username tree stores password and email, the email tree username
+ *           and password. Tombstones stop after the key. No block straddles a 1 GiB mapping region.
+ *   index   per tree [int block count] then per block [long offset][int length][first key]
+ *   bloom   per tree [int hash functions][int words][long words]
+ * </pre>
+ */
+final class Segment {
+    static final int USERNAMES = 0;
+    static final int EMAILS = 1;
+
+    private static final int MAGIC = 0x4C534D53;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 96;
+    private static final int BLOCK_BYTES = 4096;
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+
+    private final long id;
+    private final Tree[] trees = new Tree[2];
+
+    private Segment(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Writes both trees to {@code file} and forces it to disk. The iterators must be in key order;
+     * {@code expectedUsernames} and {@code expectedEmails} size the Bloom filters and may overestimate.
+     */
+    static void write(Path file, Iterator<Map.Entry<String, User>> usernames, long expectedUsernames,
+                      Iterator<Map.Entry<String, User>> emails, long expectedEmails) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter writer = new ChannelWriter(channel, HEADER_BYTES);
+            TreeWriter[] trees = {
+                    new TreeWriter(USERNAMES, expectedUsernames), new TreeWriter(EMAILS, expectedEmails)
+            };
+            trees[USERNAMES].writeData(writer, usernames);
+            trees[EMAILS].writeData(writer, emails);
+            for (TreeWriter tree : trees) {
+                tree.writeIndex(writer);
+            }
+            for (TreeWriter tree : trees) {
+                tree.bloomOffset = writer.position();
+                tree.bloom.write(writer);
+            }
+            long length = writer.position();
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(length);
+            for (TreeWriter tree : trees) {
+                header.putLong(tree.dataStart).putLong(tree.dataEnd).putLong(tree.entries)
+                        .putLong(tree.indexOffset).putLong(tree.bloomOffset);
+            }
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    static Segment open(Path file, long id) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Truncated segment " + file);
+            }
+            int regionCount = (int) ((size + REGION_SIZE - 1) >>> REGION_SHIFT);
+            ByteBuffer[] regions = new ByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+            }
+            ByteBuffer header = regions[0].duplicate();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a segment: " + file);
+            }
+            if (header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported segment format in " + file);
+            }
+            if (header.getLong() != size) {
+                throw new IOException("Truncated segment " + file);
+            }
+            Segment segment = new Segment(id);
+            long[] bloomOffsets = new long[2];
+            for (int tree = 0; tree < 2; tree++) {
+                long dataStart = header.getLong();
+                long dataEnd = header.getLong();
+                long entries = header.getLong();
+                long indexOffset = header.getLong();
+                bloomOffsets[tree] = header.getLong();
+                segment.trees[tree] = new Tree(regions, dataStart, dataEnd, entries, indexOffset);
+            }
+            for (int tree = 0; tree < 2; tree++) {
+                long end = tree == 0 ? segment.trees[1].indexOffset : bloomOffsets[0];
+                segment.trees[tree].readIndex(read(channel, segment.trees[tree].indexOffset, end));
+                long bloomEnd = tree == 0 ? bloomOffsets[1] : size;
+                segment.trees[tree].bloom = SegmentBloomFilter.read(read(channel, bloomOffsets[tree], bloomEnd));
+            }
+            return segment;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt segment " + file, e);
+        }
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getEntryCount(int tree) {
+        return trees[tree].entries;
+    }
+
+    boolean mightContain(int tree, String key) {
+        return trees[tree].bloom.mightContain(key);
+    }
+
+    /**
+     * Returns the user stored under {@code key}, {@link Memtable#TOMBSTONE} if it was removed, or null
+     * if this segment does not mention it. Reads at most one block.
+     */
+    User get(int tree, String key) {
+        Tree index = trees[tree];
+        int block = index.floorBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer records = index.block(block);
+        while (records.hasRemaining()) {
+            boolean tombstone = records.get() != 0;
+            if (keyEquals(records, wanted)) {
+                return tombstone ? Memtable.TOMBSTONE : readUser(tree, key, records);
+            }
+            if (!tombstone) {
+                records.position(records.position() + 8);
+                skipString(records);
+                skipString(records);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Entries of {@code tree} in key order, tombstones included, starting after {@code after}, or at the
+     * first key if null.
+     */
+    Iterator<Map.Entry<String, User>> iterator(int tree, String after) {
+        Tree index = trees[tree];
+        int first = after == null ? 0 : Math.max(0, index.floorBlock(after));
+        return new Iterator<Map.Entry<String, User>>() {
+            private int block = first;
+            private ByteBuffer records = index.blockCount == 0 ? null : index.block(first);
+            private Map.Entry<String, User> next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, User> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, User> current = next;
+                next = advance();
+                return current;
+            }
+
+            private Map.Entry<String, User> advance() {
+                while (records != null) {
+                    if (!records.hasRemaining()) {
+                        block++;
+                        records = block < index.blockCount ? index.block(block) : null;
+                        continue;
+                    }
+                    boolean tombstone = records.get() != 0;
+                    String key = MutationCodec.getString(records);
+                    User value = tombstone ? Memtable.TOMBSTONE : readUser(tree, key, records);
+                    if (after == null || key.compareTo(after) > 0) {
+                        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static User readUser(int tree, String key, ByteBuffer records) {
+        long version = records.getLong();
+        String first = MutationCodec.getString(records);
+        String second = MutationCodec.getString(records);
+        return tree == USERNAMES ? new User(key, first, second, version) : new User(first, second, key, version);
+    }
+
+    private static boolean keyEquals(ByteBuffer records, byte[] wanted) {
+        int length = records.getInt();
+        int start = records.position();
+        records.position(start + length);
+        if (length != wanted.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (records.get(start + i) != wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipString(ByteBuffer records) {
+        int length = records.getInt();
+        if (length > 0) {
+            records.position(records.position() + length);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class Tree {
+        private final ByteBuffer[] regions;
+        private final long dataStart;
+        private final long dataEnd;
+        private final long entries;
+        private final long indexOffset;
+        private int blockCount;
+        private String[] firstKeys;
+        private long[] offsets;
+        private int[] lengths;
+        private SegmentBloomFilter bloom;
+
+        private Tree(ByteBuffer[] regions, long dataStart, long dataEnd, long entries, long indexOffset) {
+            this.regions = regions;
+            this.dataStart = dataStart;
+            this.dataEnd = dataEnd;
+            this.entries = entries;
+            this.indexOffset = indexOffset;
+        }
+
+        private void readIndex(ByteBuffer index) {
+            blockCount = index.getInt();
+            firstKeys = new String[blockCount];
+            offsets = new long[blockCount];
+            lengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                firstKeys[i] = MutationCodec.getString(index);
+                if (offsets[i] < dataStart || offsets[i] + lengths[i] > dataEnd) {
+                    throw new IllegalArgumentException("Block outside of its tree");
+                }
+            }
+        }
+
+        /**
+         * Index of the last block whose first key is not after {@code key}, or -1 if there is none.
+         */
+        private int floorBlock(String key) {
+            int found = Arrays.binarySearch(firstKeys, key);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        private ByteBuffer block(int block) {
+            long offset = offsets[block];
+            ByteBuffer records = regions[(int) (offset >>> REGION_SHIFT)].duplicate();
+            int start = (int) (offset & (REGION_SIZE - 1));
+            records.limit(start + lengths[block]).position(start);
+            return records;
+        }
+    }
+
+    private static final class TreeWriter {
+        private final int tree;
+        private final SegmentBloomFilter bloom;
+        private final List<String> firstKeys = new ArrayList<>();
+        private final List<long[]> blocks = new ArrayList<>();
+        private long dataStart;
+        private long dataEnd;
+        private long entries;
+        private long indexOffset;
+        private long bloomOffset;
+
+        private TreeWriter(int tree, long expectedKeys) {
+            this.tree = tree;
+            this.bloom = SegmentBloomFilter.create(expectedKeys);
+        }
+
+        private void writeData(ChannelWriter writer, Iterator<Map.Entry<String, User>> source) throws IOException {
+            dataStart = writer.position();
+            long blockStart = -1;
+            while (source.hasNext()) {
+                Map.Entry<String, User> entry = source.next();
+                String key = entry.getKey();
+                User user = entry.getValue();
+                boolean tombstone = user == Memtable.TOMBSTONE;
+                String first = tombstone ? null : tree == USERNAMES ? user.getPassword() : user.getUsername();
+                String second = tombstone ? null : tree == USERNAMES ? user.getEmail() : user.getPassword();
+                int size = 1 + MutationCodec.stringSize(key)
+                        + (tombstone ? 0 : 8 + MutationCodec.stringSize(first) + MutationCodec.stringSize(second));
+                long regionEnd = (writer.position() | (REGION_SIZE - 1)) + 1;
+                boolean crossesRegion = writer.position() + size > regionEnd;
+                if (blockStart < 0 || crossesRegion || writer.position() - blockStart >= BLOCK_BYTES) {
+                    if (blockStart >= 0) {
+                        closeBlock(writer, blockStart);
+                    }
+                    if (crossesRegion) {
+                        writer.skipTo(regionEnd);
+                    }
+                    blockStart = writer.position();
+                    firstKeys.add(key);
+                }
+                writer.reserve(size);
+                ByteBuffer buffer = writer.buffer();
+                buffer.put((byte) (tombstone ? 1 : 0));
+                MutationCodec.putString(buffer, key);
+                if (!tombstone) {
+                    buffer.putLong(user.getVersion());
+                    MutationCodec.putString(buffer, first);
+                    MutationCodec.putString(buffer, second);
+                }
+                bloom.put(key);
+                entries++;
+            }
+            if (blockStart >= 0) {
+                closeBlock(writer, blockStart);
+            }
+            dataEnd = writer.position();
+        }
+
+        private void closeBlock(ChannelWriter writer, long blockStart) {
+            blocks.add(new long[]{blockStart, writer.position() - blockStart});
+        }
+
+        private void writeIndex(ChannelWriter writer) throws IOException {
+            indexOffset = writer.position();
+            writer.reserve(4);
+            writer.buffer().putInt(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                writer.reserve(12 + MutationCodec.stringSize(firstKeys.get(i)));
+                writer.buffer().putLong(blocks.get(i)[0]).putInt((int) blocks.get(i)[1]);
+                MutationCodec.putString(writer.buffer(), firstKeys.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ir.selab.tdd.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only, checksummed log of {@link Mutation}s with group commit. {@link #append} only copies the
+ * record into an in-memory batch; {@link #sync} makes it durable. Whichever caller finds no flush in
+ * progress writes and fsyncs everything appended so far, and every other caller waiting on a position
+ * inside that batch returns when it completes, so concurrent writers share one fsync.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final int INITIAL_BATCH_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private long appendedPosition;
+    private long durablePosition;
+    private boolean flushing;
+    private IOException failure;
+    private long syncCount;
+
+    private WriteAheadLog(FileChannel channel, long size) {
+        this.channel = channel;
+        this.appendedPosition = size;
+        this.durablePosition = size;
+    }
+
+    /**
+     * Opens the log at {@code file}, passing every valid record to {@code replay} in order. A torn or
+     * corrupt tail left by a crash is truncated so that new records follow the last valid one.
+     */
+    public static WriteAheadLog open(Path file, Consumer<Mutation> replay) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long validLength = replay(channel, replay);
+            if (validLength < channel.size()) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+            channel.position(validLength);
+            return new WriteAheadLog(channel, validLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every valid record of a log or snapshot file without opening it for writing.
+     */
+    public static void read(Path file, Consumer<Mutation> replay) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            replay(channel, replay);
+        }
+    }
+
+    private static long replay(FileChannel channel, Consumer<Mutation> replay) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+        long consumed = 0;
+        while (true) {
+            int read = channel.read(buffer, consumed + buffer.position());
+            buffer.flip();
+            Mutation mutation;
+            while ((mutation = MutationCodec.decode(buffer)) != null) {
+                replay.accept(mutation);
+            }
+            consumed += buffer.position();
+            if (read < 0 || !MutationCodec.isIncomplete(buffer)) {
+                return consumed;
+            }
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+            } else {
+                buffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Buffers the mutation and returns the log position that {@link #sync} must reach for it to be durable.
+     *
+     * @throws IllegalArgumentException if the mutation is larger than {@link MutationCodec#MAX_PAYLOAD_BYTES}
+     */
+    public synchronized long append(Mutation mutation) throws IOException {
+        MutationCodec.checkSize(mutation);
+        if (failure != null) {
+            throw failure;
+        }
+        int size = MutationCodec.encodedSize(mutation);
+        if (pending.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            pending = grown.put(pending);
+        }
+        MutationCodec.encode(mutation, pending);
+        appendedPosition += size;
+        return appendedPosition;
+    }
+
+    public void sync(long position) throws IOException {
+        ByteBuffer batch;
+        long target;
+        synchronized (this) {
+            while (true) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (durablePosition >= position) {
+                    return;
+                }
+                if (!flushing) {
+                    break;
+                }
+                waitForFlush();
+            }
+            flushing = true;
+            batch = pending;
+            pending = spare;
+            target = appendedPosition;
+        }
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            flushing = false;
+            batch.clear();
+            spare = batch;
+            if (error == null) {
+                durablePosition = target;
+                syncCount++;
+            } else {
+                failure = error;
+            }
+            notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Bytes held by the log file, including appended records not yet synced.
+     */
+    public synchronized long size() {
+        return appendedPosition;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync(size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void waitForFlush() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for log flush", e);
+        }
+    }
+}
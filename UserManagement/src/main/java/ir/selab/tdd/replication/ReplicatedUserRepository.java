@@ -0,0 +1,151 @@
+package ir.selab.tdd.replication;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.Mutation;
+import ir.selab.tdd.persistence.MutationCodec;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.UserRepository;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link UserRepository} that numbers its mutations and keeps the most recent ones in a bounded
+ * in-memory log, which a {@link ReplicationServer} streams to followers. As in the durable repository,
+ * a mutation is applied and appended under one short write lock, so log order matches the order in
+ * which mutations took effect. A follower whose offset has fallen out of the log starts over from a
+ * {@link #snapshot()}.
+ * <p>
+ * Users and mutations are checked against {@link MutationCodec#MAX_PAYLOAD_BYTES} before anything is
+ * applied, since the server could not put a larger record into a frame; such writes throw
+ * {@link IllegalArgumentException}.
+ */
+public class ReplicatedUserRepository extends UserRepository {
+    public static final int DEFAULT_RETAINED_MUTATIONS = 1 << 20;
+
+    private final Object writeLock = new Object();
+    private final Mutation[] retained;
+    private final List<Runnable> appendListeners = new CopyOnWriteArrayList<>();
+    private long offset;
+    private volatile long publishedOffset;
+
+    public ReplicatedUserRepository(List<User> users) {
+        this(users, DEFAULT_RETAINED_MUTATIONS);
+    }
+
+    public ReplicatedUserRepository(List<User> users, int retainedMutations) {
+        super(users);
+        users.forEach(user -> MutationCodec.checkSize(Mutation.add(user)));
+        if (retainedMutations < 1) {
+            throw new IllegalArgumentException("Need to retain at least one mutation");
+        }
+        this.retained = new Mutation[retainedMutations];
+    }
+
+    @Override
+    public AddResult tryAddUser(User user) {
+        Mutation mutation = MutationCodec.checkSize(Mutation.add(user));
+        synchronized (writeLock) {
+            AddResult result = super.tryAddUser(user);
+            if (result != AddResult.ADDED) {
+                return result;
+            }
+            append(mutation);
+        }
+        notifyAppend();
+        return AddResult.ADDED;
+    }
+
+    @Override
+    public boolean removeUser(String username) {
+        Mutation mutation = MutationCodec.checkSize(Mutation.remove(username));
+        synchronized (writeLock) {
+            if (!super.removeUser(username)) {
+                return false;
+            }
+            append(mutation);
+        }
+        notifyAppend();
+        return true;
+    }
+
+    @Override
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        Mutation mutation = MutationCodec.checkSize(Mutation.updateEmail(username, newEmail));
+        synchronized (writeLock) {
+            if (!super.updateEmail(username, expectedVersion, newEmail)) {
+                return false;
+            }
+            append(mutation);
+        }
+        notifyAppend();
+        return true;
+    }
+
+    @Override
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        Mutation mutation = MutationCodec.checkSize(Mutation.updatePassword(username, newPassword));
+        synchronized (writeLock) {
+            if (!super.updatePassword(username, expectedVersion, newPassword)) {
+                return false;
+            }
+            append(mutation);
+        }
+        notifyAppend();
+        return true;
+    }
+
+    /**
+     * Number of mutations applied so far, which is also the offset the next mutation will get.
+     */
+    public long getOffset() {
+        return publishedOffset;
+    }
+
+    /**
+     * Copies up to {@code max} mutations starting at {@code from} into {@code target}. Returns false if
+     * {@code from} is no longer retained or lies beyond the end of the log.
+     */
+    boolean readLog(long from, int max, List<Mutation> target) {
+        synchronized (writeLock) {
+            if (from > offset || from < offset - retained.length) {
+                return false;
+            }
+            long end = Math.min(offset, from + max);
+            for (long next = from; next < end; next++) {
+                target.add(retained[(int) (next % retained.length)]);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Copies every user together with the offset of the first mutation the copy does not reflect.
+     * Writers wait for the copy, so the server takes it off its selector thread.
+     */
+    ReplicationSnapshot snapshot() {
+        synchronized (writeLock) {
+            return new ReplicationSnapshot(offset, getAllUsers());
+        }
+    }
+
+    void addAppendListener(Runnable listener) {
+        appendListeners.add(listener);
+    }
+
+    void removeAppendListener(Runnable listener) {
+        appendListeners.remove(listener);
+    }
+
+    private void append(Mutation mutation) {
+        retained[(int) (offset % retained.length)] = mutation;
+        offset++;
+        publishedOffset = offset;
+    }
+
+    private void notifyAppend() {
+        for (Runnable listener : appendListeners) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package ir.selab.tdd.replication;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.Mutation;
+import ir.selab.tdd.persistence.MutationCodec;
+import ir.selab.tdd.repository.UserRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only replica of a {@link ReplicatedUserRepository}, kept up to date by a background thread that
+ * follows a {@link ReplicationServer}. The first connection installs a snapshot; after that mutations
+ * are applied in log order to a private {@link UserRepository}, and each batch is acknowledged. If the
+ * connection drops, the follower reconnects and resumes from the next offset it needs, falling back to
+ * a fresh snapshot only if the leader no longer retains that offset.
+ * <p>
+ * Reads see a prefix of the leader's log. {@link #getLagMutations()} and {@link #getLagMillis()} tell
+ * how long that prefix is behind the leader.
+ */
+public class ReplicationFollower implements Closeable {
+    public static final long DEFAULT_RECONNECT_MILLIS = 200;
+
+    private final InetSocketAddress leader;
+    private final long reconnectMillis;
+    private final Object progress = new Object();
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private final ByteBuffer ack = ByteBuffer.allocate(ReplicationProtocol.FOLLOWER_FRAME_BYTES);
+    private final Thread thread;
+    private ByteBuffer frame = ByteBuffer.allocate(64 * 1024);
+    private List<User> pendingSnapshot;
+    private int pendingSnapshotSize;
+    private long pendingSnapshotOffset;
+    private volatile boolean running = true;
+    private volatile SocketChannel channel;
+    private volatile UserRepository repository = new UserRepository(Collections.emptyList());
+    private volatile long appliedOffset = -1;
+    private volatile long leaderOffset;
+    private volatile long caughtUpAtMillis = -1;
+    private volatile long snapshotsInstalled;
+    private volatile long connections;
+
+    public ReplicationFollower(InetSocketAddress leader) {
+        this(leader, DEFAULT_RECONNECT_MILLIS);
+    }
+
+    public ReplicationFollower(InetSocketAddress leader, long reconnectMillis) {
+        this.leader = leader;
+        this.reconnectMillis = reconnectMillis;
+        this.thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public User getUserByUsername(String username) {
+        return repository.getUserByUsername(username);
+    }
+
+    public User getUserByEmail(String email) {
+        return repository.getUserByEmail(email);
+    }
+
+    public int getUserCount() {
+        return repository.getUserCount();
+    }
+
+    public List<User> getAllUsers() {
+        return repository.getAllUsers();
+    }
+
+    /**
+     * Offset of the next mutation this follower will apply, or -1 before its first snapshot.
+     */
+    public long getAppliedOffset() {
+        return appliedOffset;
+    }
+
+    /**
+     * Leader offset as of the last frame received.
+     */
+    public long getLeaderOffset() {
+        return leaderOffset;
+    }
+
+    public long getLagMutations() {
+        return appliedOffset < 0 ? leaderOffset : Math.max(0, leaderOffset - appliedOffset);
+    }
+
+    /**
+     * Milliseconds since the leader last sent a frame this follower had fully caught up with, by the
+     * leader's clock, or -1 if it has never caught up. This bounds how stale reads can be; while idle it
+     * stays below the leader's heartbeat interval plus network delay.
+     */
+    public long getLagMillis() {
+        long caughtUpAt = caughtUpAtMillis;
+        return caughtUpAt < 0 ? -1 : Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    public long getSnapshotsInstalled() {
+        return snapshotsInstalled;
+    }
+
+    public long getConnections() {
+        return connections;
+    }
+
+    /**
+     * Waits until every mutation before {@code offset} has been applied.
+     */
+    public boolean awaitOffset(long offset, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (progress) {
+            while (appliedOffset < offset) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        SocketChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (SocketChannel connected = SocketChannel.open(leader)) {
+                channel = connected;
+                if (!running) {
+                    return;
+                }
+                connections++;
+                connected.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                pendingSnapshot = null;
+                send(connected, ReplicationProtocol.HELLO, appliedOffset);
+                while (running) {
+                    receive(connected);
+                }
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(SocketChannel connected) throws IOException {
+        header.clear();
+        ReplicationProtocol.readFully(connected, header);
+        int length = header.getInt(0);
+        if (length < ReplicationProtocol.LEADER_HEADER_BYTES - 4 || length > ReplicationProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("Malformed frame of " + length + " bytes from leader");
+        }
+        if (frame.capacity() < length) {
+            frame = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1);
+        }
+        frame.clear().limit(length);
+        ReplicationProtocol.readFully(connected, frame);
+        frame.flip();
+        byte type = frame.get();
+        long frameLeaderOffset = frame.getLong();
+        long leaderTimeMillis = frame.getLong();
+        switch (type) {
+            case ReplicationProtocol.SNAPSHOT_BEGIN:
+                beginSnapshot();
+                break;
+            case ReplicationProtocol.SNAPSHOT_USERS:
+                receiveSnapshotUsers();
+                break;
+            case ReplicationProtocol.MUTATIONS:
+                applyMutations();
+                break;
+            case ReplicationProtocol.HEARTBEAT:
+                break;
+            default:
+                throw new IOException("Unexpected frame type " + type + " from leader");
+        }
+        leaderOffset = frameLeaderOffset;
+        if (pendingSnapshot == null && appliedOffset >= frameLeaderOffset) {
+            caughtUpAtMillis = leaderTimeMillis;
+        }
+        if (type != ReplicationProtocol.HEARTBEAT && pendingSnapshot == null) {
+            send(connected, ReplicationProtocol.ACK, appliedOffset);
+        }
+    }
+
+    private void beginSnapshot() {
+        pendingSnapshotOffset = frame.getLong();
+        pendingSnapshotSize = frame.getInt();
+        pendingSnapshot = new ArrayList<>(pendingSnapshotSize);
+        installSnapshotIfComplete();
+    }
+
+    private void receiveSnapshotUsers() throws IOException {
+        if (pendingSnapshot == null) {
+            throw new IOException("Snapshot users outside of a snapshot");
+        }
+        int count = frame.getInt();
+        for (int i = 0; i < count; i++) {
+            long version = frame.getLong();
+            Mutation add = decode();
+            pendingSnapshot.add(new User(add.getUsername(), add.getPassword(), add.getEmail(), version));
+        }
+        installSnapshotIfComplete();
+    }
+
+    private void installSnapshotIfComplete() {
+        if (pendingSnapshot.size() < pendingSnapshotSize) {
+            return;
+        }
+        repository = new UserRepository(pendingSnapshot);
+        pendingSnapshot = null;
+        snapshotsInstalled++;
+        advance(pendingSnapshotOffset);
+    }
+
+    private void applyMutations() throws IOException {
+        if (pendingSnapshot != null || appliedOffset < 0) {
+            throw new IOException("Mutations before a complete snapshot");
+        }
+        long offset = frame.getLong();
+        int count = frame.getInt();
+        long next = appliedOffset;
+        if (offset > next) {
+            throw new IOException("Gap in the replication log: expected " + next + " but got " + offset);
+        }
+        for (int i = 0; i < count; i++, offset++) {
+            Mutation mutation = decode();
+            if (offset == next) {
+                apply(mutation);
+                next++;
+            }
+        }
+        advance(next);
+    }
+
+    private Mutation decode() throws IOException {
+        Mutation mutation = MutationCodec.decode(frame);
+        if (mutation == null) {
+            throw new IOException("Corrupt mutation from leader");
+        }
+        return mutation;
+    }
+
+    private void apply(Mutation mutation) {
+        UserRepository target = repository;
+        switch (mutation.getType()) {
+            case ADD:
+                target.tryAddUser(new User(mutation.getUsername(), mutation.getPassword(), mutation.getEmail()));
+                break;
+            case REMOVE:
+                target.removeUser(mutation.getUsername());
+                break;
+            case UPDATE_EMAIL:
+                target.updateEmail(mutation.getUsername(), mutation.getEmail());
+                break;
+            case UPDATE_PASSWORD:
+                target.updatePassword(mutation.getUsername(), mutation.getPassword());
+                break;
+            default:
+                throw new IllegalStateException("Unknown mutation " + mutation.getType());
+        }
+    }
+
+    private void advance(long offset) {
+        synchronized (progress) {
+            appliedOffset = offset;
+            progress.notifyAll();
+        }
+    }
+
+    private void send(SocketChannel connected, byte type, long offset) throws IOException {
+        ack.clear();
+        ReplicationProtocol.putFollowerFrame(ack, type, offset);
+        ack.flip();
+        while (ack.hasRemaining()) {
+            connected.write(ack);
+        }
+    }
+}
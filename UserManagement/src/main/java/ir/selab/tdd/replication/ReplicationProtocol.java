@@ -0,0 +1,48 @@
+package ir.selab.tdd.replication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Frames exchanged between a {@link ReplicationServer} and its followers. Every frame starts with
+ * {@code [int length][byte type]}, where the length counts the bytes after itself.
+ * <p>
+ * Leader frames continue with {@code [long leaderOffset][long leaderTimeMillis]} and then:
+ * <ul>
+ *     <li>{@code SNAPSHOT_BEGIN}: {@code [long offset][int userCount]}</li>
+ *     <li>{@code SNAPSHOT_USERS}: {@code [int count]} and per user {@code [long version][add mutation]}</li>
+ *     <li>{@code MUTATIONS}: {@code [long firstOffset][int count]} and the encoded mutations</li>
+ *     <li>{@code HEARTBEAT}: nothing</li>
+ * </ul>
+ * Follower frames carry a single {@code [long offset]}: the offset to resume from in {@code HELLO}, or
+ * -1 to ask for a snapshot, and the next offset to apply in {@code ACK}.
+ */
+final class ReplicationProtocol {
+    static final byte HELLO = 1;
+    static final byte ACK = 2;
+    static final byte SNAPSHOT_BEGIN = 3;
+    static final byte SNAPSHOT_USERS = 4;
+    static final byte MUTATIONS = 5;
+    static final byte HEARTBEAT = 6;
+
+    static final int LEADER_HEADER_BYTES = 4 + 1 + 8 + 8;
+    static final int FOLLOWER_FRAME_BYTES = 4 + 1 + 8;
+    static final int MAX_FRAME_BYTES = 4 << 20;
+
+    private ReplicationProtocol() {
+    }
+
+    static void putFollowerFrame(ByteBuffer target, byte type, long offset) {
+        target.putInt(FOLLOWER_FRAME_BYTES - 4).put(type).putLong(offset);
+    }
+
+    static void readFully(ReadableByteChannel channel, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Replication peer closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package ir.selab.tdd.replication;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.Mutation;
+import ir.selab.tdd.persistence.MutationCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the log of a {@link ReplicatedUserRepository} to {@link ReplicationFollower}s. One selector
+ * thread serves every follower: it reads their {@code HELLO} and {@code ACK} frames and writes batches of
+ * mutations, as many as fit into one frame, whenever a follower's socket can take more. A follower that
+ * asks for an offset the log no longer retains, or for none at all, first receives a snapshot and then
+ * the log from the snapshot's offset on. Idle followers get a heartbeat so they can tell how far behind
+ * they are.
+ * <p>
+ * Snapshots are copied on a separate thread, since the copy holds up the repository's writers for as
+ * long as it takes and the selector thread has other followers to serve meanwhile. A follower that
+ * breaks the protocol, or whose frames can not be built, is dropped without stopping the others.
+ */
+public class ReplicationServer implements Closeable {
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 100;
+    public static final int DEFAULT_MAX_BATCH = 4096;
+
+    private static final int BUFFER_BYTES = MutationCodec.MAX_PAYLOAD_BYTES + 64 * 1024;
+    private static final int FRAMES_PER_TURN = 16;
+
+    private final ReplicatedUserRepository repository;
+    private final long heartbeatMillis;
+    private final int maxBatch;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Runnable appendListener = this::wakeUp;
+    private final List<Mutation> batch = new ArrayList<>();
+    private final ExecutorService snapshotExecutor;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public ReplicationServer(ReplicatedUserRepository repository, InetSocketAddress address) throws IOException {
+        this(repository, address, DEFAULT_HEARTBEAT_MILLIS, DEFAULT_MAX_BATCH);
+    }
+
+    public ReplicationServer(ReplicatedUserRepository repository, InetSocketAddress address,
+                             long heartbeatMillis, int maxBatch) throws IOException {
+        if (heartbeatMillis < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Heartbeat interval and batch size must be positive");
+        }
+        this.repository = repository;
+        this.heartbeatMillis = heartbeatMillis;
+        this.maxBatch = maxBatch;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        repository.addAppendListener(appendListener);
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread snapshotThread = new Thread(runnable, "replication-snapshot");
+            snapshotThread.setDaemon(true);
+            return snapshotThread;
+        });
+        this.thread = new Thread(this::run, "replication-leader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public int getFollowerCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Mutations each connected follower has yet to acknowledge, keyed by the follower's address.
+     */
+    public Map<String, Long> getFollowerLag() {
+        long offset = repository.getOffset();
+        Map<String, Long> lag = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            lag.put(session.name, Math.max(0, offset - session.ackedOffset));
+        }
+        return lag;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        repository.removeAppendListener(appendListener);
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            snapshotExecutor.shutdownNow();
+        }
+    }
+
+    private void wakeUp() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(heartbeatMillis);
+                wakeupPending.set(false);
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    try {
+                        if (key.isValid() && key.isAcceptable()) {
+                            accept();
+                        } else if (key.isValid() && key.isReadable()) {
+                            ((Session) key.attachment()).read();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        drop(key);
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid() && key.attachment() instanceof Session) {
+                        try {
+                            ((Session) key.attachment()).pump();
+                        } catch (IOException | RuntimeException e) {
+                            drop(key);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            running = false;
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                drop(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Nothing left to release.
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Session session = new Session(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+    }
+
+    private void drop(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Session) {
+            sessions.remove(key.attachment());
+        }
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // The follower is gone either way.
+        }
+    }
+
+    private final class Session {
+        private final SocketChannel channel;
+        private final String name;
+        private final ByteBuffer in = ByteBuffer.allocate(ReplicationProtocol.FOLLOWER_FRAME_BYTES * 64);
+        private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+        private SelectionKey key;
+        private boolean started;
+        private long nextOffset;
+        private CompletableFuture<ReplicationSnapshot> pendingSnapshot;
+        private List<User> snapshotUsers;
+        private int snapshotIndex;
+        private long snapshotOffset;
+        private long lastSentMillis;
+        private volatile long ackedOffset;
+
+        private Session(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.name = String.valueOf(channel.getRemoteAddress());
+            out.flip();
+        }
+
+        private void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Follower " + name + " disconnected");
+            }
+            in.flip();
+            while (in.remaining() >= ReplicationProtocol.FOLLOWER_FRAME_BYTES) {
+                int length = in.getInt();
+                byte type = in.get();
+                long offset = in.getLong();
+                if (length != ReplicationProtocol.FOLLOWER_FRAME_BYTES - 4) {
+                    throw new IOException("Malformed frame from follower " + name);
+                }
+                if (type == ReplicationProtocol.HELLO) {
+                    start(offset);
+                } else if (type == ReplicationProtocol.ACK) {
+                    ackedOffset = offset;
+                } else {
+                    throw new IOException("Unexpected frame type " + type + " from follower " + name);
+                }
+            }
+            in.compact();
+        }
+
+        private void start(long offset) throws IOException {
+            if (started) {
+                throw new IOException("Follower " + name + " said hello twice");
+            }
+            started = true;
+            if (offset < 0) {
+                beginSnapshot();
+            } else {
+                nextOffset = offset;
+                ackedOffset = offset;
+            }
+        }
+
+        /**
+         * Writes pending output and refills it until the socket is full, the follower is up to date, or
+         * this follower has had its share of the turn.
+         */
+        private void pump() throws IOException {
+            if (!started) {
+                return;
+            }
+            for (int frames = 0; frames < FRAMES_PER_TURN; frames++) {
+                if (out.hasRemaining()) {
+                    channel.write(out);
+                    if (out.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                if (!fill()) {
+                    break;
+                }
+            }
+            key.interestOps(out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        /**
+         * Puts the next frame into the output buffer; returns false if there is nothing to send yet.
+         */
+        private boolean fill() {
+            if (pendingSnapshot != null) {
+                if (!pendingSnapshot.isDone()) {
+                    return fillHeartbeatIfIdle();
+                }
+                sendSnapshot(pendingSnapshot.join());
+                return true;
+            }
+            if (snapshotUsers != null) {
+                fillSnapshotUsers();
+                return true;
+            }
+            batch.clear();
+            if (!repository.readLog(nextOffset, maxBatch, batch)) {
+                beginSnapshot();
+                return fillHeartbeatIfIdle();
+            }
+            if (!batch.isEmpty()) {
+                fillMutations();
+                return true;
+            }
+            return fillHeartbeatIfIdle();
+        }
+
+        private boolean fillHeartbeatIfIdle() {
+            if (System.currentTimeMillis() - lastSentMillis >= heartbeatMillis) {
+                beginFrame(ReplicationProtocol.HEARTBEAT);
+                endFrame();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Starts copying the repository on the snapshot thread; {@link #fill} sends the copy once it is
+         * done, and the selector is woken up for that.
+         */
+        private void beginSnapshot() {
+            pendingSnapshot = CompletableFuture.supplyAsync(repository::snapshot, snapshotExecutor);
+            pendingSnapshot.whenComplete((snapshot, failure) -> wakeUp());
+        }
+
+        private void sendSnapshot(ReplicationSnapshot snapshot) {
+            pendingSnapshot = null;
+            snapshotUsers = snapshot.getUsers();
+            snapshotIndex = 0;
+            snapshotOffset = snapshot.getOffset();
+            beginFrame(ReplicationProtocol.SNAPSHOT_BEGIN);
+            out.putLong(snapshotOffset).putInt(snapshotUsers.size());
+            endFrame();
+            finishSnapshotIfSent();
+        }
+
+        private void fillSnapshotUsers() {
+            beginFrame(ReplicationProtocol.SNAPSHOT_USERS);
+            int countPosition = out.position();
+            out.putInt(0);
+            int count = 0;
+            while (snapshotIndex < snapshotUsers.size()) {
+                User user = snapshotUsers.get(snapshotIndex);
+                Mutation add = Mutation.add(user);
+                if (count > 0 && out.remaining() < 8 + MutationCodec.encodedSize(add)) {
+                    break;
+                }
+                out.putLong(user.getVersion());
+                MutationCodec.encode(add, out);
+                count++;
+                snapshotIndex++;
+            }
+            out.putInt(countPosition, count);
+            endFrame();
+            finishSnapshotIfSent();
+        }
+
+        private void finishSnapshotIfSent() {
+            if (snapshotIndex == snapshotUsers.size()) {
+                snapshotUsers = null;
+                nextOffset = snapshotOffset;
+            }
+        }
+
+        private void fillMutations() {
+            beginFrame(ReplicationProtocol.MUTATIONS);
+            out.putLong(nextOffset);
+            int countPosition = out.position();
+            out.putInt(0);
+            int count = 0;
+            for (Mutation mutation : batch) {
+                if (count > 0 && out.remaining() < MutationCodec.encodedSize(mutation)) {
+                    break;
+                }
+                MutationCodec.encode(mutation, out);
+                count++;
+            }
+            out.putInt(countPosition, count);
+            endFrame();
+            nextOffset += count;
+        }
+
+        private void beginFrame(byte type) {
+            out.clear();
+            out.position(4);
+            out.put(type).putLong(repository.getOffset()).putLong(System.currentTimeMillis());
+        }
+
+        private void endFrame() {
+            out.putInt(0, out.position() - 4);
+            out.flip();
+            lastSentMillis = System.currentTimeMillis();
+        }
+    }
+}
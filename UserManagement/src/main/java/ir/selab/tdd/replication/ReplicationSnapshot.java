@@ -0,0 +1,17 @@
+package ir.selab.tdd.replication;
+
+import ir.selab.tdd.domain.User;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Users of a {@link ReplicatedUserRepository} as of log offset {@code offset}.
+ */
+@Getter
+@RequiredArgsConstructor
+class ReplicationSnapshot {
+    private final long offset;
+    private final List<User> users;
+}
@@ -0,0 +1,5 @@
+package ir.selab.tdd.repository;
+
+public enum AddResult {
+    ADDED, DUPLICATE_USERNAME, DUPLICATE_EMAIL
+}
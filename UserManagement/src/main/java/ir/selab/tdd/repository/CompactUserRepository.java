@@ -0,0 +1,770 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * User store for very large account counts that keeps no object per user. Records are packed as UTF-8
+ * into 1 MiB {@code byte[]} pages and indexed by two open-addressing {@code int[]} tables, one keyed by
+ * username and one by email, whose slots hold the record's 8-byte-aligned address shifted right by 3.
+ * {@link User} instances are built only when a caller asks for one.
+ * <p>
+ * Record layout, big-endian: {@code [long version][u16 username length][u16 password length]
+ * [u16 email length, 0xFFFF for none][username][password][email]}. Records are never modified; an
+ * update appends a new record and repoints both table slots, and pages are rewritten once dead records
+ * outweigh live ones. Each field is limited to 65534 UTF-8 bytes.
+ * <p>
+ * Reads are optimistic under a {@link StampedLock} and fall back to the read lock if a writer got in
+ * the way. Traversals walk the username table they started with in chunks. Rebuilds replace a table
+ * rather than change it, so a traversal that outlives one carries on over the table as it was, and
+ * over the pages its slots point into.
+ * <p>
+ * Measured with {@code FootprintReport} (1M and 3M users with 12-character usernames, 20-character
+ * emails and 64-character password hashes, JDK 17, compressed oops): 129-135 bytes per user, 112 of
+ * them the record itself, against 367-373 for {@link UserRepository}.
+ */
+public class CompactUserRepository implements UserStore {
+    private static final int PAGE_SHIFT = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int ALIGN_SHIFT = 3;
+    private static final int MAX_PAGES = 1 << (31 + ALIGN_SHIFT - PAGE_SHIFT);
+    private static final int RECORD_HEADER_BYTES = 14;
+    private static final int MAX_FIELD_BYTES = 0xFFFE;
+    private static final int NULL_FIELD = 0xFFFF;
+    private static final int USERNAME = 0;
+    private static final int PASSWORD = 1;
+    private static final int EMAIL = 2;
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private static final int INITIAL_SLOTS = 16;
+    private static final int SCAN_CHUNK_SLOTS = 1024;
+
+    private final StampedLock lock = new StampedLock();
+    private byte[][] pages = new byte[4][];
+    private int pageCount;
+    private int writeOffset = PAGE_SIZE;
+    private int[] usernameSlots = new int[INITIAL_SLOTS];
+    private int[] emailSlots = new int[INITIAL_SLOTS];
+    private int size;
+    private int emailCount;
+    private int usernameTombstones;
+    private int emailTombstones;
+    private long usedBytes;
+    private long liveBytes;
+    private int epoch;
+    private PageGeneration generation = new PageGeneration();
+
+    public CompactUserRepository() {
+    }
+
+    public CompactUserRepository(List<User> users) {
+        for (User user : users) {
+            AddResult result = tryAddUser(user);
+            if (result == AddResult.DUPLICATE_USERNAME) {
+                throw new IllegalArgumentException("Two users can not have the same username");
+            }
+            if (result == AddResult.DUPLICATE_EMAIL) {
+                throw new IllegalArgumentException("Two users can not have the same email");
+            }
+        }
+    }
+
+    public User getUserByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        byte[] key = utf8(username);
+        return read(() -> userAt(find(usernameSlots, USERNAME, key)));
+    }
+
+    public User getUserByEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        byte[] key = utf8(email);
+        return read(() -> userAt(find(emailSlots, EMAIL, key)));
+    }
+
+    public boolean addUser(User user) {
+        return tryAddUser(user) == AddResult.ADDED;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a field is longer than 65534 UTF-8 bytes
+     */
+    public AddResult tryAddUser(User user) {
+        byte[][] fields = encode(user);
+        long stamp = lock.writeLock();
+        try {
+            return addLocked(user.getVersion(), fields);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Encodes the whole batch first and then adds it under a single write lock.
+     *
+     * @throws IllegalArgumentException if a field is longer than 65534 UTF-8 bytes; nothing is added
+     */
+    public List<AddResult> tryAddUsers(List<User> users) {
+        byte[][][] fields = new byte[users.size()][][];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = encode(users.get(i));
+        }
+        AddResult[] results = new AddResult[fields.length];
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                results[i] = addLocked(users.get(i).getVersion(), fields[i]);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return Arrays.asList(results);
+    }
+
+    public boolean removeUser(String username) {
+        if (username == null) {
+            return false;
+        }
+        byte[] key = utf8(username);
+        long stamp = lock.writeLock();
+        try {
+            return removeLocked(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public List<Boolean> removeUsers(List<String> usernames) {
+        byte[][] keys = new byte[usernames.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = usernames.get(i) == null ? null : utf8(usernames.get(i));
+        }
+        Boolean[] results = new Boolean[keys.length];
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                results[i] = keys[i] != null && removeLocked(keys[i]);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return Arrays.asList(results);
+    }
+
+    public boolean updateEmail(String username, String newEmail) {
+        User current = getUserByUsername(username);
+        return current != null && updateEmail(username, current.getVersion(), newEmail);
+    }
+
+    /**
+     * Moves {@code username} to {@code newEmail} if the stored user is still at {@code expectedVersion}.
+     */
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null || newEmail == null) {
+            return false;
+        }
+        byte[] key = utf8(username);
+        byte[] email = utf8(newEmail);
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(usernameSlots, USERNAME, key);
+            if (slot < 0 || versionAt(usernameSlots[slot]) != expectedVersion) {
+                return false;
+            }
+            int handle = usernameSlots[slot];
+            byte[] oldEmail = field(handle, EMAIL);
+            if (Arrays.equals(oldEmail, email) || slotOf(emailSlots, EMAIL, email) >= 0) {
+                return false;
+            }
+            int replacement = append(expectedVersion + 1, key, field(handle, PASSWORD), email);
+            usernameSlots[slot] = replacement;
+            if (oldEmail != null) {
+                emailSlots[slotOf(emailSlots, EMAIL, oldEmail)] = TOMBSTONE;
+                emailTombstones++;
+                emailCount--;
+            }
+            insert(EMAIL, email, replacement);
+            liveBytes -= recordBytes(handle);
+            compactIfMostlyGarbage();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean updatePassword(String username, String newPassword) {
+        User current = getUserByUsername(username);
+        return current != null && updatePassword(username, current.getVersion(), newPassword);
+    }
+
+    /**
+     * Replaces the stored password of {@code username} if the user is still at {@code expectedVersion}.
+     */
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null || newPassword == null) {
+            return false;
+        }
+        byte[] key = utf8(username);
+        byte[] password = utf8(newPassword);
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(usernameSlots, USERNAME, key);
+            if (slot < 0 || versionAt(usernameSlots[slot]) != expectedVersion) {
+                return false;
+            }
+            int handle = usernameSlots[slot];
+            byte[] email = field(handle, EMAIL);
+            int replacement = append(expectedVersion + 1, key, password, email);
+            usernameSlots[slot] = replacement;
+            if (email != null) {
+                emailSlots[slotOf(emailSlots, EMAIL, email)] = replacement;
+            }
+            liveBytes -= recordBytes(handle);
+            compactIfMostlyGarbage();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int getUserCount() {
+        return read(() -> size);
+    }
+
+    public List<User> getAllUsers() {
+        return stream().collect(Collectors.toList());
+    }
+
+    /**
+     * Returns up to {@code limit} users in username order after {@code cursor}. Records are not kept in
+     * order, so every page scans the whole store; prefer {@link #stream} for full traversals.
+     */
+    public Page<User> page(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        TreeMap<String, Integer> candidates = new TreeMap<>();
+        while (!collectPageCandidates(cursor, limit + 1, candidates)) {
+            candidates.clear();
+        }
+        List<User> users = new ArrayList<>(Math.min(limit, candidates.size()));
+        String last = null;
+        for (String username : candidates.keySet()) {
+            if (users.size() == limit) {
+                break;
+            }
+            User user = getUserByUsername(username);
+            if (user != null) {
+                users.add(user);
+            }
+            last = username;
+        }
+        return new Page<>(users, candidates.size() > limit ? last : null);
+    }
+
+    /**
+     * Lazily streams all users, materializing them a chunk of table slots at a time. The stream is
+     * weakly consistent: it never fails because of concurrent writes, and it may or may not reflect
+     * writes made after it started.
+     */
+    public Stream<User> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Spliterator<User> spliterator() {
+        long stamp = lock.readLock();
+        try {
+            return new SlotSpliterator(usernameSlots, generation, 0, usernameSlots.length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Bytes held by pages and index tables, which is where all user data lives.
+     */
+    public long getFootprintBytes() {
+        long stamp = lock.readLock();
+        try {
+            return (long) pageCount * PAGE_SIZE + 4L * (usernameSlots.length + emailSlots.length) + 8L * pages.length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs {@code reader} optimistically and again under the read lock if a writer interfered. A torn
+     * optimistic read can index a table or page mid-rebuild, so its exceptions are discarded as well.
+     */
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Keeps the {@code keep} smallest usernames after {@code cursor}, scanning a chunk of slots per read
+     * lock so writers are not held off for the whole scan. Returns false if the table was rebuilt.
+     */
+    private boolean collectPageCandidates(String cursor, int keep, TreeMap<String, Integer> candidates) {
+        int scanEpoch = read(() -> epoch);
+        for (int from = 0; ; from += SCAN_CHUNK_SLOTS) {
+            long stamp = lock.readLock();
+            try {
+                if (epoch != scanEpoch) {
+                    return false;
+                }
+                int[] slots = usernameSlots;
+                if (from >= slots.length) {
+                    return true;
+                }
+                int to = Math.min(slots.length, from + SCAN_CHUNK_SLOTS);
+                for (int slot = from; slot < to; slot++) {
+                    int handle = slots[slot];
+                    if (handle == EMPTY || handle == TOMBSTONE) {
+                        continue;
+                    }
+                    String username = new String(field(handle, USERNAME), StandardCharsets.UTF_8);
+                    if (cursor != null && username.compareTo(cursor) <= 0) {
+                        continue;
+                    }
+                    if (candidates.size() < keep) {
+                        candidates.put(username, handle);
+                    } else if (username.compareTo(candidates.lastKey()) < 0) {
+                        candidates.pollLastEntry();
+                        candidates.put(username, handle);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private static byte[][] encode(User user) {
+        byte[][] fields = {
+                utf8(user.getUsername()),
+                utf8(user.getPassword()),
+                user.getEmail() == null ? null : utf8(user.getEmail())
+        };
+        for (byte[] field : fields) {
+            if (field != null) {
+                checkLength(field);
+            }
+        }
+        return fields;
+    }
+
+    private AddResult addLocked(long version, byte[][] fields) {
+        byte[] username = fields[USERNAME];
+        byte[] email = fields[EMAIL];
+        if (slotOf(usernameSlots, USERNAME, username) >= 0) {
+            return AddResult.DUPLICATE_USERNAME;
+        }
+        if (email != null && slotOf(emailSlots, EMAIL, email) >= 0) {
+            return AddResult.DUPLICATE_EMAIL;
+        }
+        int handle = append(version, username, fields[PASSWORD], email);
+        insert(USERNAME, username, handle);
+        if (email != null) {
+            insert(EMAIL, email, handle);
+        }
+        size++;
+        return AddResult.ADDED;
+    }
+
+    private boolean removeLocked(byte[] key) {
+        int slot = slotOf(usernameSlots, USERNAME, key);
+        if (slot < 0) {
+            return false;
+        }
+        int handle = usernameSlots[slot];
+        usernameSlots[slot] = TOMBSTONE;
+        usernameTombstones++;
+        byte[] email = field(handle, EMAIL);
+        if (email != null) {
+            emailSlots[slotOf(emailSlots, EMAIL, email)] = TOMBSTONE;
+            emailTombstones++;
+            emailCount--;
+        }
+        size--;
+        liveBytes -= recordBytes(handle);
+        compactIfMostlyGarbage();
+        return true;
+    }
+
+    private int find(int[] slots, int field, byte[] key) {
+        int slot = slotOf(slots, field, key);
+        return slot < 0 ? EMPTY : slots[slot];
+    }
+
+    private int slotOf(int[] slots, int field, byte[] key) {
+        int mask = slots.length - 1;
+        int slot = hash(key, 0, key.length) & mask;
+        for (int probes = 0; probes < slots.length; probes++, slot = (slot + 1) & mask) {
+            int handle = slots[slot];
+            if (handle == EMPTY) {
+                return -1;
+            }
+            if (handle != TOMBSTONE && fieldEquals(handle, field, key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int field, byte[] key, int handle) {
+        if (field == USERNAME) {
+            if (size + usernameTombstones + 1 > usernameSlots.length * 7L / 10) {
+                usernameSlots = rebuild(usernameSlots, USERNAME, size + 1);
+                usernameTombstones = 0;
+                epoch++;
+            }
+            placeHandle(usernameSlots, key, 0, key.length, handle);
+        } else {
+            if (emailCount + emailTombstones + 1 > emailSlots.length * 7L / 10) {
+                emailSlots = rebuild(emailSlots, EMAIL, emailCount + 1);
+                emailTombstones = 0;
+            }
+            placeHandle(emailSlots, key, 0, key.length, handle);
+            emailCount++;
+        }
+    }
+
+    /**
+     * Rehashes into a table that {@code entries} fill at most halfway, dropping tombstones. Tables shrink
+     * back as well as grow.
+     */
+    private int[] rebuild(int[] slots, int field, int entries) {
+        int capacity = INITIAL_SLOTS;
+        while (capacity / 2 < entries) {
+            capacity <<= 1;
+        }
+        int[] rebuilt = new int[capacity];
+        for (int handle : slots) {
+            if (handle != EMPTY && handle != TOMBSTONE) {
+                placeField(rebuilt, field, handle);
+            }
+        }
+        return rebuilt;
+    }
+
+    private void placeField(int[] slots, int field, int handle) {
+        byte[] page = pageOf(handle);
+        int offset = fieldOffset(page, offsetOf(handle), field);
+        placeHandle(slots, page, offset, fieldLength(page, offsetOf(handle), field), handle);
+    }
+
+    private static void placeHandle(int[] slots, byte[] bytes, int offset, int length, int handle) {
+        int mask = slots.length - 1;
+        int slot = hash(bytes, offset, length) & mask;
+        while (slots[slot] != EMPTY && slots[slot] != TOMBSTONE) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = handle;
+    }
+
+    private int append(long version, byte[] username, byte[] password, byte[] email) {
+        int length = RECORD_HEADER_BYTES + checkLength(username) + checkLength(password)
+                + (email == null ? 0 : checkLength(email));
+        int aligned = align(length);
+        if (writeOffset + aligned > PAGE_SIZE) {
+            if (pageCount == MAX_PAGES) {
+                throw new IllegalStateException("Compact user store is full");
+            }
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length * 2);
+            }
+            pages[pageCount++] = new byte[PAGE_SIZE];
+            writeOffset = pageCount == 1 ? 1 << ALIGN_SHIFT : 0;
+        }
+        byte[] page = pages[pageCount - 1];
+        int offset = writeOffset;
+        putLong(page, offset, version);
+        putShort(page, offset + 8, username.length);
+        putShort(page, offset + 10, password.length);
+        putShort(page, offset + 12, email == null ? NULL_FIELD : email.length);
+        int position = offset + RECORD_HEADER_BYTES;
+        System.arraycopy(username, 0, page, position, username.length);
+        position += username.length;
+        System.arraycopy(password, 0, page, position, password.length);
+        position += password.length;
+        if (email != null) {
+            System.arraycopy(email, 0, page, position, email.length);
+        }
+        writeOffset += aligned;
+        usedBytes += aligned;
+        liveBytes += aligned;
+        return (int) ((((long) (pageCount - 1) << PAGE_SHIFT) | offset) >>> ALIGN_SHIFT);
+    }
+
+    /**
+     * Copies live records into fresh pages once dead ones take more room than live ones, so repeated
+     * updates cannot grow the store without bound.
+     */
+    private void compactIfMostlyGarbage() {
+        if (usedBytes - liveBytes <= Math.max(liveBytes, 4L * PAGE_SIZE)) {
+            return;
+        }
+        int[] live = usernameSlots;
+        byte[][] oldPages = pages;
+        generation.retiredPages = oldPages;
+        generation = new PageGeneration();
+        pages = new byte[4][];
+        pageCount = 0;
+        writeOffset = PAGE_SIZE;
+        usedBytes = 0;
+        liveBytes = 0;
+        int[] movedUsernames = new int[live.length];
+        int[] movedEmails = new int[emailSlots.length];
+        for (int i = 0; i < live.length; i++) {
+            int handle = live[i];
+            if (handle == EMPTY || handle == TOMBSTONE) {
+                movedUsernames[i] = handle;
+                continue;
+            }
+            byte[] page = oldPages[pageIndexOf(handle)];
+            int offset = offsetOf(handle);
+            int moved = append(getLong(page, offset), copyField(page, offset, USERNAME),
+                    copyField(page, offset, PASSWORD), copyField(page, offset, EMAIL));
+            movedUsernames[i] = moved;
+            if (fieldLength(page, offset, EMAIL) != NULL_FIELD) {
+                placeField(movedEmails, EMAIL, moved);
+            }
+        }
+        usernameSlots = rebuild(movedUsernames, USERNAME, size);
+        emailSlots = movedEmails;
+        usernameTombstones = 0;
+        emailTombstones = 0;
+        epoch++;
+    }
+
+    private User userAt(int handle) {
+        return handle == EMPTY ? null : userAt(pages, handle);
+    }
+
+    private static User userAt(byte[][] source, int handle) {
+        byte[] page = source[pageIndexOf(handle)];
+        int record = offsetOf(handle);
+        byte[] email = copyField(page, record, EMAIL);
+        return new User(new String(copyField(page, record, USERNAME), StandardCharsets.UTF_8),
+                new String(copyField(page, record, PASSWORD), StandardCharsets.UTF_8),
+                email == null ? null : new String(email, StandardCharsets.UTF_8),
+                getLong(page, record));
+    }
+
+    private long versionAt(int handle) {
+        return getLong(pageOf(handle), offsetOf(handle));
+    }
+
+    private byte[] field(int handle, int field) {
+        return copyField(pageOf(handle), offsetOf(handle), field);
+    }
+
+    private boolean fieldEquals(int handle, int field, byte[] key) {
+        byte[] page = pageOf(handle);
+        int record = offsetOf(handle);
+        int length = fieldLength(page, record, field);
+        if (length != key.length) {
+            return false;
+        }
+        int offset = fieldOffset(page, record, field);
+        return Arrays.equals(page, offset, offset + length, key, 0, key.length);
+    }
+
+    private int recordBytes(int handle) {
+        byte[] page = pageOf(handle);
+        int record = offsetOf(handle);
+        int email = fieldLength(page, record, EMAIL);
+        return align(RECORD_HEADER_BYTES + fieldLength(page, record, USERNAME) + fieldLength(page, record, PASSWORD)
+                + (email == NULL_FIELD ? 0 : email));
+    }
+
+    private static byte[] copyField(byte[] page, int record, int field) {
+        int length = fieldLength(page, record, field);
+        if (length == NULL_FIELD) {
+            return null;
+        }
+        int offset = fieldOffset(page, record, field);
+        return Arrays.copyOfRange(page, offset, offset + length);
+    }
+
+    private static int fieldLength(byte[] page, int record, int field) {
+        int at = record + 8 + 2 * field;
+        return (page[at] & 0xFF) << 8 | (page[at + 1] & 0xFF);
+    }
+
+    private static int fieldOffset(byte[] page, int record, int field) {
+        int offset = record + RECORD_HEADER_BYTES;
+        for (int i = 0; i < field; i++) {
+            offset += fieldLength(page, record, i);
+        }
+        return offset;
+    }
+
+    private byte[] pageOf(int handle) {
+        return pages[pageIndexOf(handle)];
+    }
+
+    private static int pageIndexOf(int handle) {
+        return (int) (((long) handle << ALIGN_SHIFT) >>> PAGE_SHIFT);
+    }
+
+    private static int offsetOf(int handle) {
+        return (int) (((long) handle << ALIGN_SHIFT) & (PAGE_SIZE - 1));
+    }
+
+    private static int align(int length) {
+        return (length + (1 << ALIGN_SHIFT) - 1) & -(1 << ALIGN_SHIFT);
+    }
+
+    private static int checkLength(byte[] field) {
+        if (field.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Field longer than " + MAX_FIELD_BYTES + " bytes");
+        }
+        return field.length;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static long getLong(byte[] page, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (page[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] page, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            page[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void putShort(byte[] page, int offset, int value) {
+        page[offset] = (byte) (value >>> 8);
+        page[offset + 1] = (byte) value;
+    }
+
+    /**
+     * The pages records are appended to between two compactions. Without a compaction the page array
+     * only grows, so any handle written in the meantime resolves against the current one; a compaction
+     * retires the generation together with the pages its handles point into.
+     */
+    private static final class PageGeneration {
+        byte[][] retiredPages;
+    }
+
+    private final class SlotSpliterator implements Spliterator<User> {
+        private final int[] slots;
+        private final PageGeneration pageGeneration;
+        private int next;
+        private final int end;
+        private final List<User> buffer = new ArrayList<>();
+        private int buffered;
+
+        SlotSpliterator(int[] slots, PageGeneration pageGeneration, int next, int end) {
+            this.slots = slots;
+            this.pageGeneration = pageGeneration;
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super User> action) {
+            while (buffered == buffer.size()) {
+                if (next >= end) {
+                    return false;
+                }
+                fill();
+            }
+            action.accept(buffer.get(buffered++));
+            return true;
+        }
+
+        private void fill() {
+            buffer.clear();
+            buffered = 0;
+            long stamp = lock.readLock();
+            try {
+                byte[][] source = pageGeneration.retiredPages == null ? pages : pageGeneration.retiredPages;
+                int to = Math.min(end, next + SCAN_CHUNK_SLOTS);
+                for (int slot = next; slot < to; slot++) {
+                    int handle = slots[slot];
+                    if (handle != EMPTY && handle != TOMBSTONE) {
+                        buffer.add(userAt(source, handle));
+                    }
+                }
+                next = to;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public Spliterator<User> trySplit() {
+            if (buffered < buffer.size()) {
+                return null;
+            }
+            int middle = (next + end) >>> 1;
+            if (middle - next < SCAN_CHUNK_SLOTS) {
+                return null;
+            }
+            Spliterator<User> prefix = new SlotSpliterator(slots, pageGeneration, next, middle);
+            next = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | DISTINCT;
+        }
+    }
+}
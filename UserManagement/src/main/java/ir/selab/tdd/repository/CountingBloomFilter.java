@@ -0,0 +1,135 @@
+package ir.selab.tdd.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe counting Bloom filter over strings with 4-bit counters packed sixteen to a {@code long}.
+ * Keys can be removed as well as added, so the filter stays exact about definite misses without being
+ * rebuilt. A counter that reaches 15 stays there, trading a little precision for never producing a
+ * false negative.
+ */
+public class CountingBloomFilter {
+    private static final int COUNTER_BITS = 4;
+    private static final long COUNTER_MASK = 0xFL;
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+
+    private final AtomicLongArray words;
+    private final long counters;
+    private final int hashFunctions;
+
+    public CountingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Need a positive expected size and a false positive rate in (0, 1)");
+        }
+        double ln2 = Math.log(2);
+        long optimal = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long wordCount = (Math.max(optimal, COUNTERS_PER_WORD) + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter would need more than 2^31 words");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.counters = wordCount * COUNTERS_PER_WORD;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) counters / expectedInsertions * ln2));
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashFunctions; i++) {
+            increment(index(hash, i));
+        }
+    }
+
+    /**
+     * Removes one earlier {@link #add} of {@code key}. Removing a key that was never added corrupts the
+     * filter.
+     */
+    public void remove(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashFunctions; i++) {
+            decrement(index(hash, i));
+        }
+    }
+
+    /**
+     * Returns false only if {@code key} is currently not in the filter.
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashFunctions; i++) {
+            long counter = index(hash, i);
+            if (counterAt(words.get(word(counter)), counter) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    public long getCounters() {
+        return counters;
+    }
+
+    private void increment(long counter) {
+        int word = word(counter);
+        while (true) {
+            long current = words.get(word);
+            long value = counterAt(current, counter);
+            if (value == COUNTER_MASK) {
+                return;
+            }
+            if (words.compareAndSet(word, current, current + (1L << shift(counter)))) {
+                return;
+            }
+        }
+    }
+
+    private void decrement(long counter) {
+        int word = word(counter);
+        while (true) {
+            long current = words.get(word);
+            long value = counterAt(current, counter);
+            if (value == 0 || value == COUNTER_MASK) {
+                return;
+            }
+            if (words.compareAndSet(word, current, current - (1L << shift(counter)))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Kirsch-Mitzenmacher double hashing over the two halves of one 64-bit hash.
+     */
+    private long index(long hash, int i) {
+        long combined = (int) hash + (long) i * (int) (hash >>> 32);
+        return Math.floorMod(combined, counters);
+    }
+
+    private static int word(long counter) {
+        return (int) (counter / COUNTERS_PER_WORD);
+    }
+
+    private static int shift(long counter) {
+        return (int) (counter % COUNTERS_PER_WORD) * COUNTER_BITS;
+    }
+
+    private static long counterAt(long word, long counter) {
+        return (word >>> shift(counter)) & COUNTER_MASK;
+    }
+
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
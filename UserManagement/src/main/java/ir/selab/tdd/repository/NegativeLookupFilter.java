@@ -0,0 +1,87 @@
+package ir.selab.tdd.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pair of {@link CountingBloomFilter}s over the usernames and emails of a {@link UserRepository}, used
+ * to answer lookups for unknown users without touching the indexes. Keys are added before they become
+ * visible in an index and removed only after they have left it, so a present user is never filtered
+ * out.
+ * <p>
+ * The counters tell how well the filter is sized: {@code definiteMisses} lookups were answered by the
+ * filter alone, {@code hits} found a user, and {@code falsePositives} passed the filter but found
+ * nothing.
+ */
+public class NegativeLookupFilter {
+    private final CountingBloomFilter usernames;
+    private final CountingBloomFilter emails;
+    private final LongAdder definiteMisses = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public NegativeLookupFilter(long expectedUsers, double falsePositiveRate) {
+        this.usernames = new CountingBloomFilter(expectedUsers, falsePositiveRate);
+        this.emails = new CountingBloomFilter(expectedUsers, falsePositiveRate);
+    }
+
+    public long getDefiniteMisses() {
+        return definiteMisses.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Share of lookups for absent keys that the filter failed to short-circuit.
+     */
+    public double getFalsePositiveRate() {
+        long misses = getFalsePositives();
+        long total = misses + getDefiniteMisses();
+        return total == 0 ? 0 : (double) misses / total;
+    }
+
+    boolean excludesUsername(String username) {
+        return excludes(usernames, username);
+    }
+
+    boolean excludesEmail(String email) {
+        return excludes(emails, email);
+    }
+
+    void recordLookup(boolean found) {
+        (found ? hits : falsePositives).increment();
+    }
+
+    void addUsername(String username) {
+        usernames.add(username);
+    }
+
+    void removeUsername(String username) {
+        usernames.remove(username);
+    }
+
+    void addEmail(String email) {
+        if (email != null) {
+            emails.add(email);
+        }
+    }
+
+    void removeEmail(String email) {
+        if (email != null) {
+            emails.remove(email);
+        }
+    }
+
+    private boolean excludes(CountingBloomFilter filter, String key) {
+        if (filter.mightContain(key)) {
+            return false;
+        }
+        definiteMisses.increment();
+        return true;
+    }
+}
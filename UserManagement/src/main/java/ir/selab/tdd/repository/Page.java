@@ -0,0 +1,21 @@
+package ir.selab.tdd.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a listing. {@code nextCursor} is passed back to fetch the following page and is null on
+ * the last page.
+ */
+@Getter
+@RequiredArgsConstructor
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,326 @@
+package ir.selab.tdd.repository;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable hash array mapped trie. {@link #put} and {@link #remove} return a new map that shares every
+ * node off the path to the changed key with this one, so an update copies at most seven small arrays
+ * and older maps stay valid for as long as someone holds them.
+ * <p>
+ * Each level consumes five bits of the key's hash. A bitmap node stores its present children packed
+ * into an array of key/value pairs, where a null key marks a pair whose value is the child node for
+ * that slot. Keys whose hashes are fully equal share a collision node.
+ */
+final class PersistentHashMap<K, V> implements Iterable<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        return root == null ? null : (V) root.get(0, hash(key), key);
+    }
+
+    PersistentHashMap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node start = root == null ? BitmapNode.EMPTY : root;
+        Node updated = start.put(0, hash(key), key, value, added);
+        if (updated == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(updated, added[0] ? size + 1 : size);
+    }
+
+    PersistentHashMap<K, V> remove(K key) {
+        if (root == null) {
+            return this;
+        }
+        Node updated = root.remove(0, hash(key), key);
+        if (updated == root) {
+            return this;
+        }
+        return updated == null ? empty() : new PersistentHashMap<>(updated, size - 1);
+    }
+
+    /**
+     * Iterates values depth first, in hash order rather than key order.
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new ValueIterator<>(root);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private interface Node {
+        Object get(int shift, int hash, Object key);
+
+        Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+        /**
+         * Returns this node if {@code key} is absent, or null if removing it leaves the node empty.
+         */
+        Node remove(int shift, int hash, Object key);
+
+        Object[] pairs();
+    }
+
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object existing = array[index];
+            if (existing == null) {
+                return ((Node) array[index + 1]).get(shift + BITS, hash, key);
+            }
+            return key.equals(existing) ? array[index + 1] : null;
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, index);
+                copy[index] = key;
+                copy[index + 1] = value;
+                System.arraycopy(array, index, copy, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            Object existingKey = array[index];
+            Object existingValue = array[index + 1];
+            if (existingKey == null) {
+                Node child = ((Node) existingValue).put(shift + BITS, hash, key, value, added);
+                return child == existingValue ? this : with(index + 1, null, child);
+            }
+            if (key.equals(existingKey)) {
+                return existingValue == value ? this : with(index + 1, key, value);
+            }
+            added[0] = true;
+            return with(index + 1, null, split(shift + BITS, existingKey, existingValue, hash, key, value));
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object existingKey = array[index];
+            if (existingKey == null) {
+                Node child = (Node) array[index + 1];
+                Node updated = child.remove(shift + BITS, hash, key);
+                if (updated == child) {
+                    return this;
+                }
+                return updated == null ? without(bit, index) : with(index + 1, null, updated);
+            }
+            return key.equals(existingKey) ? without(bit, index) : this;
+        }
+
+        @Override
+        public Object[] pairs() {
+            return array;
+        }
+
+        /**
+         * Copies this node with the value at {@code valueIndex} replaced; a null key turns the pair into
+         * a child link.
+         */
+        private Node with(int valueIndex, Object key, Object value) {
+            Object[] copy = array.clone();
+            copy[valueIndex - 1] = key;
+            copy[valueIndex] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private Node without(int bit, int index) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new BitmapNode(bitmap ^ bit, copy);
+        }
+
+        private static Node split(int shift, Object firstKey, Object firstValue, int hash, Object key, Object value) {
+            int firstHash = hash(firstKey);
+            if (firstHash == hash) {
+                return new CollisionNode(hash, new Object[]{firstKey, firstValue, key, value});
+            }
+            boolean[] ignored = new boolean[1];
+            return EMPTY.put(shift, firstHash, firstKey, firstValue, ignored).put(shift, hash, key, value, ignored);
+        }
+    }
+
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                Node nested = new BitmapNode(bit(this.hash, shift), new Object[]{null, this});
+                return nested.put(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[index + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            Object[] copy = Arrays.copyOf(array, array.length + 2);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Object[] pairs() {
+            return array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Object[] current;
+        private int position;
+        private Object next;
+        private boolean hasNext;
+
+        ValueIterator(Node root) {
+            if (root != null) {
+                current = root.pairs();
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            Object value = next;
+            advance();
+            return (V) value;
+        }
+
+        private void advance() {
+            while (current != null) {
+                if (position < current.length) {
+                    Object key = current[position];
+                    Object value = current[position + 1];
+                    position += 2;
+                    if (key != null) {
+                        next = value;
+                        hasNext = true;
+                        return;
+                    }
+                    arrays.push(current);
+                    positions.push(position);
+                    current = ((Node) value).pairs();
+                    position = 0;
+                } else if (arrays.isEmpty()) {
+                    current = null;
+                } else {
+                    current = arrays.pop();
+                    position = positions.pop();
+                }
+            }
+            next = null;
+            hasNext = false;
+        }
+    }
+}
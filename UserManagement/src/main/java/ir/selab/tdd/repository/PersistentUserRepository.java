@@ -0,0 +1,239 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * User store whose username and email indexes are persistent hash tries held together in one immutable
+ * root. A write builds a new root that shares all untouched nodes with the old one and publishes it
+ * with a compare-and-set, retrying if another writer got there first; readers never lock.
+ * <p>
+ * Because the whole state is a single reference, {@link #snapshot()} is O(1): it captures the current
+ * root, and the returned view keeps answering from it however many writes follow. Nothing has to be
+ * released explicitly; nodes that only old roots reach are garbage collected once the last snapshot
+ * holding such a root is dropped.
+ */
+public class PersistentUserRepository implements UserStore {
+    private final AtomicReference<State> state = new AtomicReference<>(State.EMPTY);
+
+    public PersistentUserRepository() {
+    }
+
+    public PersistentUserRepository(List<User> users) {
+        for (User user : users) {
+            AddResult result = tryAddUser(user);
+            if (result == AddResult.DUPLICATE_USERNAME) {
+                throw new IllegalArgumentException("Two users can not have the same username");
+            }
+            if (result == AddResult.DUPLICATE_EMAIL) {
+                throw new IllegalArgumentException("Two users can not have the same email");
+            }
+        }
+    }
+
+    /**
+     * Returns an immutable view of every user as of this call.
+     */
+    public UserSnapshot snapshot() {
+        return new Snapshot(state.get());
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        return username == null ? null : state.get().users.get(username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return email == null ? null : state.get().getUserByEmail(email);
+    }
+
+    @Override
+    public AddResult tryAddUser(User user) {
+        while (true) {
+            State current = state.get();
+            if (current.users.get(user.getUsername()) != null) {
+                return AddResult.DUPLICATE_USERNAME;
+            }
+            PersistentHashMap<String, String> emails = current.usernamesByEmail;
+            if (user.getEmail() != null) {
+                if (emails.get(user.getEmail()) != null) {
+                    return AddResult.DUPLICATE_EMAIL;
+                }
+                emails = emails.put(user.getEmail(), user.getUsername());
+            }
+            if (state.compareAndSet(current, new State(current.users.put(user.getUsername(), user), emails))) {
+                return AddResult.ADDED;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeUser(String username) {
+        if (username == null) {
+            return false;
+        }
+        while (true) {
+            State current = state.get();
+            User removed = current.users.get(username);
+            if (removed == null) {
+                return false;
+            }
+            PersistentHashMap<String, String> emails = current.usernamesByEmail;
+            if (removed.getEmail() != null) {
+                emails = emails.remove(removed.getEmail());
+            }
+            if (state.compareAndSet(current, new State(current.users.remove(username), emails))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves {@code username} to {@code newEmail} if the stored user is still at {@code expectedVersion}.
+     */
+    @Override
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null || newEmail == null) {
+            return false;
+        }
+        while (true) {
+            State current = state.get();
+            User user = current.users.get(username);
+            if (user == null || user.getVersion() != expectedVersion || current.usernamesByEmail.get(newEmail) != null) {
+                return false;
+            }
+            PersistentHashMap<String, String> emails = current.usernamesByEmail;
+            if (user.getEmail() != null) {
+                emails = emails.remove(user.getEmail());
+            }
+            emails = emails.put(newEmail, username);
+            if (state.compareAndSet(current, new State(current.users.put(username, user.withEmail(newEmail)), emails))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null || newPassword == null) {
+            return false;
+        }
+        while (true) {
+            State current = state.get();
+            User user = current.users.get(username);
+            if (user == null || user.getVersion() != expectedVersion) {
+                return false;
+            }
+            State updated = new State(current.users.put(username, user.withPassword(newPassword)), current.usernamesByEmail);
+            if (state.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int getUserCount() {
+        return state.get().users.size();
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return stream().collect(Collectors.toList());
+    }
+
+    /**
+     * Returns up to {@code limit} users in username order after {@code cursor}. The tries are in hash
+     * order, so every page sorts the matching users of one root; use {@link #snapshot()} to page through
+     * a fixed point in time.
+     */
+    @Override
+    public Page<User> page(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        List<User> users = stream()
+                .filter(user -> cursor == null || user.getUsername().compareTo(cursor) > 0)
+                .sorted(Comparator.comparing(User::getUsername))
+                .limit(limit + 1L)
+                .collect(Collectors.toList());
+        if (users.size() <= limit) {
+            return new Page<>(users, null);
+        }
+        users = users.subList(0, limit);
+        return new Page<>(new ArrayList<>(users), users.get(limit - 1).getUsername());
+    }
+
+    /**
+     * Streams the users of the root current at this call, so the stream is a consistent view.
+     */
+    @Override
+    public Stream<User> stream() {
+        return new Snapshot(state.get()).stream();
+    }
+
+    private static final class State {
+        static final State EMPTY = new State(PersistentHashMap.empty(), PersistentHashMap.empty());
+
+        final PersistentHashMap<String, User> users;
+        final PersistentHashMap<String, String> usernamesByEmail;
+
+        State(PersistentHashMap<String, User> users, PersistentHashMap<String, String> usernamesByEmail) {
+            this.users = users;
+            this.usernamesByEmail = usernamesByEmail;
+        }
+
+        User getUserByEmail(String email) {
+            String username = usernamesByEmail.get(email);
+            return username == null ? null : users.get(username);
+        }
+    }
+
+    private static final class Snapshot implements UserSnapshot {
+        private final State state;
+
+        Snapshot(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public User getUserByUsername(String username) {
+            return username == null ? null : state.users.get(username);
+        }
+
+        @Override
+        public User getUserByEmail(String email) {
+            return email == null ? null : state.getUserByEmail(email);
+        }
+
+        @Override
+        public int getUserCount() {
+            return state.users.size();
+        }
+
+        @Override
+        public Iterator<User> iterator() {
+            return state.users.iterator();
+        }
+
+        @Override
+        public Spliterator<User> spliterator() {
+            return Spliterators.spliterator(iterator(), state.users.size(),
+                    Spliterator.SIZED | Spliterator.NONNULL | Spliterator.IMMUTABLE | Spliterator.DISTINCT);
+        }
+
+        Stream<User> stream() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * User repository partitioned by username hash into shards, each with its own username and email
+ * maps behind its own lock, so writers to different shards never wait for each other.
+ * <p>
+ * Emails are unique across shards through a routing index from email to shard. A write claims its new
+ * email in the routing index before locking its shard and releases the claim if the shard rejects the
+ * write; a released email is dropped from the routing index only after its shard no longer holds it.
+ * No operation holds more than one shard lock, and none takes a global lock.
+ * <p>
+ * Lookups, counts and pages first read a shard optimistically and only take its read lock if a writer
+ * got in between. Each shard also keeps its usernames sorted, so a page merges the next users of every
+ * shard instead of sorting all users.
+ */
+public class ShardedUserRepository implements UserStore {
+    private final Shard[] shards;
+    private final ConcurrentMap<String, Integer> shardsByEmail;
+
+    public ShardedUserRepository() {
+        this(defaultShardCount());
+    }
+
+    public ShardedUserRepository(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Need at least one shard");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+        this.shardsByEmail = new ConcurrentHashMap<>();
+    }
+
+    public ShardedUserRepository(List<User> users, int shardCount) {
+        this(shardCount);
+        for (User user : users) {
+            AddResult result = tryAddUser(user);
+            if (result == AddResult.DUPLICATE_USERNAME) {
+                throw new IllegalArgumentException("Two users can not have the same username");
+            }
+            if (result == AddResult.DUPLICATE_EMAIL) {
+                throw new IllegalArgumentException("Two users can not have the same email");
+            }
+        }
+    }
+
+    /**
+     * Four shards per core, which keeps the chance of two busy threads sharing a shard low.
+     */
+    public static int defaultShardCount() {
+        return 4 * Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public User getUserByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        Shard shard = shardOf(username);
+        return shard.read(() -> shard.usersByUsername.get(username));
+    }
+
+    public User getUserByEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        Integer index = shardsByEmail.get(email);
+        if (index == null) {
+            return null;
+        }
+        Shard shard = shards[index];
+        return shard.read(() -> shard.usersByEmail.get(email));
+    }
+
+    public boolean addUser(User user) {
+        return tryAddUser(user) == AddResult.ADDED;
+    }
+
+    public AddResult tryAddUser(User user) {
+        int index = indexOf(user.getUsername());
+        Shard shard = shards[index];
+        String email = user.getEmail();
+        if (email != null && shardsByEmail.putIfAbsent(email, index) != null) {
+            return getUserByUsername(user.getUsername()) != null ? AddResult.DUPLICATE_USERNAME : AddResult.DUPLICATE_EMAIL;
+        }
+        long stamp = shard.lock.writeLock();
+        try {
+            if (shard.usersByUsername.putIfAbsent(user.getUsername(), user) == null) {
+                shard.sortedUsernames.add(user.getUsername());
+                if (email != null) {
+                    shard.usersByEmail.put(email, user);
+                }
+                return AddResult.ADDED;
+            }
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+        releaseEmail(email, index);
+        return AddResult.DUPLICATE_USERNAME;
+    }
+
+    public boolean removeUser(String username) {
+        if (username == null) {
+            return false;
+        }
+        int index = indexOf(username);
+        Shard shard = shards[index];
+        User removed;
+        long stamp = shard.lock.writeLock();
+        try {
+            removed = shard.usersByUsername.remove(username);
+            if (removed != null) {
+                shard.sortedUsernames.remove(username);
+                if (removed.getEmail() != null) {
+                    shard.usersByEmail.remove(removed.getEmail());
+                }
+            }
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+        if (removed == null) {
+            return false;
+        }
+        releaseEmail(removed.getEmail(), index);
+        return true;
+    }
+
+    /**
+     * Claims the batch's emails in list order, then visits each shard once under its write lock and
+     * adds that shard's users in list order.
+     */
+    public List<AddResult> tryAddUsers(List<User> users) {
+        int[] indexes = new int[users.size()];
+        boolean[] emailTaken = new boolean[users.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            User user = users.get(i);
+            indexes[i] = indexOf(user.getUsername());
+            String email = user.getEmail();
+            emailTaken[i] = email != null && shardsByEmail.putIfAbsent(email, indexes[i]) != null;
+        }
+        AddResult[] results = new AddResult[indexes.length];
+        int[][] groups = groupByShard(indexes);
+        for (int index = 0; index < shards.length; index++) {
+            if (groups[index].length == 0) {
+                continue;
+            }
+            Shard shard = shards[index];
+            long stamp = shard.lock.writeLock();
+            try {
+                for (int i : groups[index]) {
+                    User user = users.get(i);
+                    if (shard.usersByUsername.containsKey(user.getUsername())) {
+                        results[i] = AddResult.DUPLICATE_USERNAME;
+                    } else if (emailTaken[i]) {
+                        results[i] = AddResult.DUPLICATE_EMAIL;
+                    } else {
+                        shard.usersByUsername.put(user.getUsername(), user);
+                        shard.sortedUsernames.add(user.getUsername());
+                        if (user.getEmail() != null) {
+                            shard.usersByEmail.put(user.getEmail(), user);
+                        }
+                        results[i] = AddResult.ADDED;
+                    }
+                }
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == AddResult.DUPLICATE_USERNAME && !emailTaken[i]) {
+                releaseEmail(users.get(i).getEmail(), indexes[i]);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    public List<Boolean> removeUsers(List<String> usernames) {
+        int[] indexes = new int[usernames.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            String username = usernames.get(i);
+            indexes[i] = username == null ? -1 : indexOf(username);
+        }
+        Boolean[] results = new Boolean[indexes.length];
+        Arrays.fill(results, Boolean.FALSE);
+        String[] releasedEmails = new String[indexes.length];
+        int[][] groups = groupByShard(indexes);
+        for (int index = 0; index < shards.length; index++) {
+            if (groups[index].length == 0) {
+                continue;
+            }
+            Shard shard = shards[index];
+            long stamp = shard.lock.writeLock();
+            try {
+                for (int i : groups[index]) {
+                    User removed = shard.usersByUsername.remove(usernames.get(i));
+                    if (removed != null) {
+                        shard.sortedUsernames.remove(removed.getUsername());
+                        if (removed.getEmail() != null) {
+                            shard.usersByEmail.remove(removed.getEmail());
+                        }
+                        releasedEmails[i] = removed.getEmail();
+                        results[i] = Boolean.TRUE;
+                    }
+                }
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+        for (int i = 0; i < releasedEmails.length; i++) {
+            releaseEmail(releasedEmails[i], indexes[i]);
+        }
+        return Arrays.asList(results);
+    }
+
+    public List<User> getUsersByUsername(List<String> usernames) {
+        int[] indexes = new int[usernames.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            String username = usernames.get(i);
+            indexes[i] = username == null ? -1 : indexOf(username);
+        }
+        return readGrouped(usernames, indexes, false);
+    }
+
+    public List<User> getUsersByEmail(List<String> emails) {
+        int[] indexes = new int[emails.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            Integer index = emails.get(i) == null ? null : shardsByEmail.get(emails.get(i));
+            indexes[i] = index == null ? -1 : index;
+        }
+        return readGrouped(emails, indexes, true);
+    }
+
+    public boolean updateEmail(String username, String newEmail) {
+        User current = getUserByUsername(username);
+        return current != null && updateEmail(username, current.getVersion(), newEmail);
+    }
+
+    /**
+     * Moves {@code username} to {@code newEmail} if the stored user is still at {@code expectedVersion}.
+     */
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null || newEmail == null) {
+            return false;
+        }
+        int index = indexOf(username);
+        Shard shard = shards[index];
+        if (shardsByEmail.putIfAbsent(newEmail, index) != null) {
+            return false;
+        }
+        User current;
+        long stamp = shard.lock.writeLock();
+        try {
+            current = shard.usersByUsername.get(username);
+            if (current != null && current.getVersion() == expectedVersion) {
+                User updated = current.withEmail(newEmail);
+                shard.usersByUsername.put(username, updated);
+                if (current.getEmail() != null) {
+                    shard.usersByEmail.remove(current.getEmail());
+                }
+                shard.usersByEmail.put(newEmail, updated);
+            } else {
+                current = null;
+            }
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+        if (current == null) {
+            releaseEmail(newEmail, index);
+            return false;
+        }
+        releaseEmail(current.getEmail(), index);
+        return true;
+    }
+
+    public boolean updatePassword(String username, String newPassword) {
+        User current = getUserByUsername(username);
+        return current != null && updatePassword(username, current.getVersion(), newPassword);
+    }
+
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null || newPassword == null) {
+            return false;
+        }
+        Shard shard = shardOf(username);
+        long stamp = shard.lock.writeLock();
+        try {
+            User current = shard.usersByUsername.get(username);
+            if (current == null || current.getVersion() != expectedVersion) {
+                return false;
+            }
+            User updated = current.withPassword(newPassword);
+            shard.usersByUsername.put(username, updated);
+            if (current.getEmail() != null) {
+                shard.usersByEmail.put(current.getEmail(), updated);
+            }
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int getUserCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.read(shard.usersByUsername::size);
+        }
+        return count;
+    }
+
+    public List<User> getAllUsers() {
+        return stream().collect(Collectors.toList());
+    }
+
+    /**
+     * Returns up to {@code limit} users in username order after {@code cursor}. Every shard contributes
+     * its next {@code limit + 1} users in order, and those runs are merged, so a page costs
+     * {@code O(shards * limit)} whatever the number of users. Each shard is read at its own point in
+     * time, as in {@link #stream}.
+     */
+    public Page<User> page(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        PriorityQueue<Run> runs = new PriorityQueue<>(shards.length, Comparator.comparing(Run::headUsername));
+        for (Shard shard : shards) {
+            List<User> next = shard.read(() -> shard.usersAfter(cursor, limit + 1));
+            if (!next.isEmpty()) {
+                runs.add(new Run(next));
+            }
+        }
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        while (users.size() < limit && !runs.isEmpty()) {
+            Run run = runs.poll();
+            users.add(run.users.get(run.position++));
+            if (run.position < run.users.size()) {
+                runs.add(run);
+            }
+        }
+        return new Page<>(users, runs.isEmpty() ? null : users.get(users.size() - 1).getUsername());
+    }
+
+    /**
+     * Streams shard by shard, copying one shard's users at a time under its read lock. Each shard is
+     * seen at a single point in time, but different shards at different times.
+     */
+    public Stream<User> stream() {
+        return Arrays.stream(shards).flatMap(shard -> {
+            long stamp = shard.lock.readLock();
+            try {
+                return new ArrayList<>(shard.usersByUsername.values()).stream();
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        });
+    }
+
+    private List<User> readGrouped(List<String> keys, int[] indexes, boolean byEmail) {
+        User[] found = new User[indexes.length];
+        int[][] groups = groupByShard(indexes);
+        for (int index = 0; index < shards.length; index++) {
+            if (groups[index].length == 0) {
+                continue;
+            }
+            Shard shard = shards[index];
+            Map<String, User> users = byEmail ? shard.usersByEmail : shard.usersByUsername;
+            int[] group = groups[index];
+            shard.read(() -> {
+                for (int i : group) {
+                    found[i] = users.get(keys.get(i));
+                }
+                return null;
+            });
+        }
+        return Arrays.asList(found);
+    }
+
+    /**
+     * Returns, per shard, the positions of the items routed to it in ascending order; items routed to
+     * -1 are left out.
+     */
+    private int[][] groupByShard(int[] indexes) {
+        int[] counts = new int[shards.length];
+        for (int index : indexes) {
+            if (index >= 0) {
+                counts[index]++;
+            }
+        }
+        int[][] groups = new int[shards.length][];
+        for (int index = 0; index < shards.length; index++) {
+            groups[index] = new int[counts[index]];
+            counts[index] = 0;
+        }
+        for (int i = 0; i < indexes.length; i++) {
+            int index = indexes[i];
+            if (index >= 0) {
+                groups[index][counts[index]++] = i;
+            }
+        }
+        return groups;
+    }
+
+    private void releaseEmail(String email, int index) {
+        if (email != null) {
+            shardsByEmail.remove(email, index);
+        }
+    }
+
+    private Shard shardOf(String username) {
+        return shards[indexOf(username)];
+    }
+
+    private int indexOf(String username) {
+        int hash = username.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    private static final class Shard {
+        private final StampedLock lock = new StampedLock();
+        private final Map<String, User> usersByUsername = new HashMap<>();
+        private final Map<String, User> usersByEmail = new HashMap<>();
+        private final NavigableSet<String> sortedUsernames = new TreeSet<>();
+
+        /**
+         * Runs {@code reader} under an optimistic stamp and again under the read lock if a writer got in
+         * between. A reader racing a writer may find the maps half updated, so anything it throws then
+         * counts as a failed validation; it must only read and may be run twice.
+         */
+        private <T> T read(Supplier<T> reader) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    T result = reader.get();
+                    if (lock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    // Torn by a concurrent write; read again under the lock.
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return reader.get();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private List<User> usersAfter(String cursor, int max) {
+            List<User> users = new ArrayList<>(Math.min(max, 64));
+            for (String username : cursor == null ? sortedUsernames : sortedUsernames.tailSet(cursor, false)) {
+                if (users.size() == max) {
+                    break;
+                }
+                users.add(usersByUsername.get(username));
+            }
+            return users;
+        }
+    }
+
+    /**
+     * One shard's users for a page, in username order, and how many of them have been merged.
+     */
+    private static final class Run {
+        private final List<User> users;
+        private int position;
+
+        private Run(List<User> users) {
+            this.users = users;
+        }
+
+        private String headUsername() {
+            return users.get(position).getUsername();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.Iterator;
+
+/**
+ * {@link UserSnapshot} whose {@link #iterator()} returns users in username order.
+ */
+public interface SortedUserSnapshot extends UserSnapshot {
+    /**
+     * Iterates users whose username sorts after {@code username}, or all users when it is null.
+     */
+    Iterator<User> iteratorAfter(String username);
+}
@@ -3,65 +3,478 @@ package ir.selab.tdd.repository;
 import ir.selab.tdd.domain.User;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class UserRepository {
-    private final Map<String, User> usersByUserName;
-    private final Map<String, User> usersByEmail;
+/**
+ * Thread-safe user repository. Users live in a {@link ConcurrentHashMap} keyed by username and a
+ * second map resolves emails to usernames, so replacing a user is a single-entry swap. Writes claim the
+ * email first and roll the claim back if the username turns out to be taken, so neither index can ever
+ * hold two users for the same key. An email lookup only returns a user whose current email matches,
+ * which hides entries that a concurrent writer has not yet released.
+ * <p>
+ * A repository can also be opened over a read-only {@link SortedUserSnapshot}. Lookups fall through to
+ * the snapshot, and a snapshot user is copied into the maps the first time it is found or any mutation
+ * involves its username or email. From then on the snapshot copy of that user is ignored.
+ * <p>
+ * An optional {@link NegativeLookupFilter} answers lookups for unknown usernames and emails without
+ * probing the maps. It is only available for repositories built from a list, since covering a
+ * snapshot would mean reading all of it up front.
+ * <p>
+ * Listings come from {@link #page} and {@link #stream}, which read the live indexes without copying
+ * them and are weakly consistent: users present for the whole traversal are returned exactly once,
+ * while concurrent additions and removals may or may not be seen.
+ * <p>
+ * Searches by username prefix, email ignoring case and email domain use a {@link UserSearchIndex} of
+ * sorted keys, so they cost a seek plus the matches walked rather than a pass over all users. The
+ * index is built from the users present at the first search and maintained by every write after that,
+ * so repositories that are never searched do not pay for it. A write changes the index inside the same
+ * map operation that changes the user, so the index changes for one username are applied in the order
+ * of the writes and a racing remove can not take away the keys of a user added back after it.
+ */
+public class UserRepository implements UserStore {
+    private final ConcurrentMap<String, User> usersByUserName;
+    private final ConcurrentMap<String, String> usernamesByEmail;
+    private final ConcurrentSkipListSet<String> sortedUsernames = new ConcurrentSkipListSet<>();
+    private final SortedUserSnapshot base;
+    private final ConcurrentMap<String, Boolean> faultedUsernames;
+    private final NegativeLookupFilter lookupFilter;
+    private final Object searchIndexLock = new Object();
+    private volatile UserSearchIndex searchIndex;
+    private volatile UserSearchIndex builtSearchIndex;
+
+    public UserRepository(SortedUserSnapshot base) {
+        this.usersByUserName = new ConcurrentHashMap<>();
+        this.usernamesByEmail = new ConcurrentHashMap<>();
+        this.base = base;
+        this.faultedUsernames = new ConcurrentHashMap<>();
+        this.lookupFilter = null;
+    }
 
     public UserRepository(List<User> users) {
-        this.usersByUserName = users.stream().collect(Collectors.toMap(User::getUsername, u -> u, (u1, u2) -> {
-            throw new IllegalArgumentException("Two users can not have the same username");
-        }));
+        this(users, null);
+    }
 
-        this.usersByEmail = users.stream().filter(u -> u.getEmail() != null).collect(Collectors.toMap(User::getEmail, u -> u, (u1, u2) -> {
-            throw new IllegalArgumentException("Two users can not have the same email");
-        }));
+    public UserRepository(List<User> users, NegativeLookupFilter lookupFilter) {
+        this.base = null;
+        this.faultedUsernames = null;
+        this.lookupFilter = lookupFilter;
+        this.usersByUserName = new ConcurrentHashMap<>(Math.max(16, users.size() * 4 / 3 + 1));
+        this.usernamesByEmail = new ConcurrentHashMap<>(Math.max(16, users.size() * 4 / 3 + 1));
+        for (User user : users) {
+            if (usersByUserName.putIfAbsent(user.getUsername(), user) != null) {
+                throw new IllegalArgumentException("Two users can not have the same username");
+            }
+            if (user.getEmail() != null && usernamesByEmail.putIfAbsent(user.getEmail(), user.getUsername()) != null) {
+                throw new IllegalArgumentException("Two users can not have the same email");
+            }
+            sortedUsernames.add(user.getUsername());
+            trackUsername(user.getUsername());
+            trackEmail(user.getEmail());
+        }
     }
 
     public User getUserByUsername(String username) {
-        return usersByUserName.get(username);
+        if (username == null) {
+            return null;
+        }
+        if (lookupFilter != null) {
+            if (lookupFilter.excludesUsername(username)) {
+                return null;
+            }
+            return recordLookup(usersByUserName.get(username));
+        }
+        User user = usersByUserName.get(username);
+        if (user != null || base == null) {
+            return user;
+        }
+        return faultIn(base.getUserByUsername(username));
     }
 
     public User getUserByEmail(String email) {
-        return usersByEmail.get(email);
+        if (email == null || (lookupFilter != null && lookupFilter.excludesEmail(email))) {
+            return null;
+        }
+        String username = usernamesByEmail.get(email);
+        if (username == null && base != null) {
+            faultIn(base.getUserByEmail(email));
+            username = usernamesByEmail.get(email);
+        }
+        if (username == null) {
+            return recordLookup(null);
+        }
+        User user = usersByUserName.get(username);
+        return recordLookup(user != null && email.equals(user.getEmail()) ? user : null);
     }
 
     public boolean addUser(User user) {
-        if (usersByUserName.containsKey(user.getUsername())) {
+        return tryAddUser(user) == AddResult.ADDED;
+    }
+
+    /**
+     * Adds {@code user} and tells which index rejected it, if any.
+     */
+    public AddResult tryAddUser(User user) {
+        String email = user.getEmail();
+        faultInByUsername(user.getUsername());
+        faultInByEmail(email);
+        trackUsername(user.getUsername());
+        trackEmail(email);
+        if (email != null && usernamesByEmail.putIfAbsent(email, user.getUsername()) != null) {
+            untrack(user.getUsername(), email);
+            return usersByUserName.containsKey(user.getUsername()) ? AddResult.DUPLICATE_USERNAME : AddResult.DUPLICATE_EMAIL;
+        }
+        if (usersByUserName.computeIfAbsent(user.getUsername(), key -> {
+            sortedUsernames.add(key);
+            UserSearchIndex index = searchIndex;
+            if (index != null) {
+                index.add(user);
+            }
+            return user;
+        }) != user) {
+            if (email != null) {
+                usernamesByEmail.remove(email, user.getUsername());
+            }
+            untrack(user.getUsername(), email);
+            return AddResult.DUPLICATE_USERNAME;
+        }
+        return AddResult.ADDED;
+    }
+
+    public boolean removeUser(String username) {
+        if (username == null) {
             return false;
         }
-        if (user.getEmail() != null && usersByEmail.containsKey(user.getEmail())) {
+        faultInByUsername(username);
+        User[] removed = new User[1];
+        usersByUserName.computeIfPresent(username, (key, user) -> {
+            sortedUsernames.remove(key);
+            UserSearchIndex index = searchIndex;
+            if (index != null) {
+                index.remove(user);
+            }
+            removed[0] = user;
+            return null;
+        });
+        User user = removed[0];
+        if (user == null) {
             return false;
         }
-        usersByUserName.put(user.getUsername(), user);
         if (user.getEmail() != null) {
-            usersByEmail.put(user.getEmail(), user);
+            usernamesByEmail.remove(user.getEmail(), username);
         }
+        untrack(username, user.getEmail());
         return true;
     }
 
-    public boolean removeUser(String username) {
-        User user = usersByUserName.get(username);
-        if (user == null) {
+    public boolean updateEmail(String username, String newEmail) {
+        User current = getUserByUsername(username);
+        return current != null && updateEmail(username, current.getVersion(), newEmail);
+    }
+
+    /**
+     * Moves {@code username} to {@code newEmail} if the stored user is still at {@code expectedVersion}.
+     * The new email is claimed before the username entry is swapped and the old email is released
+     * afterwards, so lookups by username never miss and lookups by email switch from the old to the new
+     * email at the moment of the swap. Returns false without retrying when another update won.
+     */
+    public boolean updateEmail(String username, long expectedVersion, String newEmail) {
+        if (username == null || newEmail == null) {
             return false;
         }
-        usersByUserName.remove(username);
-        if (user.getEmail() != null) {
-            usersByEmail.remove(user.getEmail());
+        faultInByUsername(username);
+        faultInByEmail(newEmail);
+        User current = usersByUserName.get(username);
+        if (current == null || current.getVersion() != expectedVersion || newEmail.equals(current.getEmail())) {
+            return false;
+        }
+        trackEmail(newEmail);
+        if (usernamesByEmail.putIfAbsent(newEmail, username) != null) {
+            untrack(null, newEmail);
+            return false;
+        }
+        User updated = current.withEmail(newEmail);
+        boolean[] swapped = new boolean[1];
+        usersByUserName.computeIfPresent(username, (key, user) -> {
+            if (!user.equals(current)) {
+                return user;
+            }
+            UserSearchIndex index = searchIndex;
+            if (index != null) {
+                index.addEmail(updated);
+                index.removeEmail(current);
+            }
+            swapped[0] = true;
+            return updated;
+        });
+        if (!swapped[0]) {
+            usernamesByEmail.remove(newEmail, username);
+            untrack(null, newEmail);
+            return false;
+        }
+        if (current.getEmail() != null) {
+            usernamesByEmail.remove(current.getEmail(), username);
+            untrack(null, current.getEmail());
         }
         return true;
     }
 
+    public boolean updatePassword(String username, String newPassword) {
+        User current = getUserByUsername(username);
+        return current != null && updatePassword(username, current.getVersion(), newPassword);
+    }
+
+    /**
+     * Replaces the stored password of {@code username}, typically a new hash of the same secret, if the
+     * user is still at {@code expectedVersion}.
+     */
+    public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+        if (username == null || newPassword == null) {
+            return false;
+        }
+        faultInByUsername(username);
+        User current = usersByUserName.get(username);
+        if (current == null || current.getVersion() != expectedVersion) {
+            return false;
+        }
+        return usersByUserName.replace(username, current, current.withPassword(newPassword));
+    }
+
+    /**
+     * Returns the negative lookup filter, or null if this repository was built without one.
+     */
+    public NegativeLookupFilter getLookupFilter() {
+        return lookupFilter;
+    }
+
     public int getUserCount() {
-        return usersByUserName.size();
+        if (base == null) {
+            return usersByUserName.size();
+        }
+        return usersByUserName.size() + base.getUserCount() - faultedUsernames.size();
     }
 
 
     public List<User> getAllUsers() {
-        return new ArrayList<>(usersByUserName.values());
+        List<User> users = new ArrayList<>(usersByUserName.values());
+        if (base != null) {
+            for (User user : base) {
+                if (!faultedUsernames.containsKey(user.getUsername())) {
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Returns up to {@code limit} users in username order, starting after {@code cursor}, or from the
+     * beginning when it is null. The cursor of the returned page continues the listing even if the
+     * users around it change in between.
+     */
+    public Page<User> page(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        Iterator<String> live = (cursor == null ? sortedUsernames : sortedUsernames.tailSet(cursor, false)).iterator();
+        Iterator<User> snapshot = base == null ? Collections.emptyIterator() : base.iteratorAfter(cursor);
+        String nextLive = nextLiveUsername(live);
+        User nextSnapshot = snapshot.hasNext() ? snapshot.next() : null;
+        String last = null;
+        while (users.size() < limit && (nextLive != null || nextSnapshot != null)) {
+            User user;
+            if (nextSnapshot == null || (nextLive != null && nextLive.compareTo(nextSnapshot.getUsername()) < 0)) {
+                last = nextLive;
+                user = usersByUserName.get(nextLive);
+                nextLive = nextLiveUsername(live);
+            } else {
+                last = nextSnapshot.getUsername();
+                user = currentVersion(nextSnapshot);
+                nextSnapshot = snapshot.hasNext() ? snapshot.next() : null;
+            }
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        boolean more = nextLive != null || nextSnapshot != null;
+        return new Page<>(users, more ? last : null);
+    }
+
+    /**
+     * Returns up to {@code limit} users whose username starts with {@code prefix}, ignoring case, in
+     * lower-cased username order.
+     */
+    public List<User> findByUsernamePrefix(String prefix, int limit) {
+        checkSearchLimit(limit);
+        return prefix == null ? Collections.emptyList()
+                : searchIndex().findByUsernamePrefix(prefix, limit, this::getUserByUsername);
+    }
+
+    /**
+     * Returns up to {@code limit} users whose email starts with {@code prefix}, ignoring case, in
+     * lower-cased email order.
+     */
+    public List<User> findByEmailPrefix(String prefix, int limit) {
+        checkSearchLimit(limit);
+        return prefix == null ? Collections.emptyList()
+                : searchIndex().findByEmailPrefix(prefix, limit, this::getUserByUsername);
+    }
+
+    /**
+     * Returns the users whose email equals {@code email} ignoring case. Emails are unique only as
+     * written, so there may be more than one.
+     */
+    public List<User> findByEmailIgnoreCase(String email) {
+        return email == null ? Collections.emptyList()
+                : searchIndex().findByEmailIgnoreCase(email, Integer.MAX_VALUE, this::getUserByUsername);
+    }
+
+    /**
+     * Returns up to {@code limit} users with an email at {@code domain} or any of its subdomains,
+     * ignoring case; {@code sharif.edu} matches both {@code a@sharif.edu} and {@code b@ce.sharif.edu}.
+     */
+    public List<User> findByEmailDomain(String domain, int limit) {
+        checkSearchLimit(limit);
+        return domain == null ? Collections.emptyList()
+                : searchIndex().findByEmailDomain(domain, limit, this::getUserByUsername);
+    }
+
+    /**
+     * Lazily streams all users without copying the indexes. The stream splits for parallel traversal.
+     */
+    public Stream<User> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Spliterator<User> spliterator() {
+        if (base == null) {
+            return usersByUserName.values().spliterator();
+        }
+        Stream<User> snapshotUsers = StreamSupport.stream(base.spliterator(), false)
+                .map(this::currentVersion)
+                .filter(Objects::nonNull);
+        Stream<User> liveUsers = usersByUserName.values().stream()
+                .filter(user -> !base.containsUsername(user.getUsername()));
+        return Stream.concat(snapshotUsers, liveUsers).spliterator();
+    }
+
+    /**
+     * Builds the search index on first use. Writers see it as soon as it is published, before the scan
+     * of existing users, so a user is either added by its writer or found by the scan; searches wait
+     * until the scan is done.
+     */
+    private UserSearchIndex searchIndex() {
+        UserSearchIndex index = builtSearchIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (searchIndexLock) {
+            if (builtSearchIndex == null) {
+                UserSearchIndex building = new UserSearchIndex();
+                searchIndex = building;
+                stream().forEach(building::add);
+                builtSearchIndex = building;
+            }
+            return builtSearchIndex;
+        }
+    }
+
+    private static void checkSearchLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Search limit must be positive");
+        }
+    }
+
+    private String nextLiveUsername(Iterator<String> live) {
+        while (live.hasNext()) {
+            String username = live.next();
+            if (base == null || !base.containsUsername(username)) {
+                return username;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Listings visit each snapshot username through the snapshot, whether or not it has been faulted
+     * in, and every other username through the live maps, so no user is listed twice.
+     */
+    private User currentVersion(User snapshotUser) {
+        if (faultedUsernames.containsKey(snapshotUser.getUsername())) {
+            return usersByUserName.get(snapshotUser.getUsername());
+        }
+        return snapshotUser;
+    }
+
+    private User recordLookup(User user) {
+        if (lookupFilter != null) {
+            lookupFilter.recordLookup(user != null);
+        }
+        return user;
+    }
+
+    private void trackUsername(String username) {
+        if (lookupFilter != null) {
+            lookupFilter.addUsername(username);
+        }
+    }
+
+    private void trackEmail(String email) {
+        if (lookupFilter != null) {
+            lookupFilter.addEmail(email);
+        }
+    }
+
+    /**
+     * Drops keys from the lookup filter once they have left the maps; a null username or email is
+     * skipped.
+     */
+    private void untrack(String username, String email) {
+        if (lookupFilter != null) {
+            if (username != null) {
+                lookupFilter.removeUsername(username);
+            }
+            lookupFilter.removeEmail(email);
+        }
+    }
+
+    private void faultInByUsername(String username) {
+        if (base != null && username != null && !faultedUsernames.containsKey(username)) {
+            faultIn(base.getUserByUsername(username));
+        }
+    }
+
+    private void faultInByEmail(String email) {
+        if (base != null && email != null && !usernamesByEmail.containsKey(email)) {
+            faultIn(base.getUserByEmail(email));
+        }
+    }
+
+    /**
+     * Copies a snapshot user into the maps unless it was copied before, and returns the current live
+     * user for that username, which may since have changed or been removed.
+     */
+    private User faultIn(User snapshotUser) {
+        if (snapshotUser == null) {
+            return null;
+        }
+        String username = snapshotUser.getUsername();
+        faultedUsernames.computeIfAbsent(username, key -> {
+            usersByUserName.putIfAbsent(key, snapshotUser);
+            if (snapshotUser.getEmail() != null) {
+                usernamesByEmail.putIfAbsent(snapshotUser.getEmail(), key);
+            }
+            return Boolean.TRUE;
+        });
+        return usersByUserName.get(username);
     }
 }
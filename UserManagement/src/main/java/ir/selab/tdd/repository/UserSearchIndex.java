@@ -0,0 +1,125 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Sorted keys for searching users by username prefix, by email ignoring case and by email domain. Each
+ * index is a concurrent skip list of {@code key + '\0' + username} strings, so a search seeks to the
+ * first key with the wanted prefix and walks forward until a key no longer has it. Keys are lower-cased
+ * with {@link Locale#ROOT}. Domain keys list the labels of the domain in reverse, each followed by a
+ * dot, so {@code ce.sharif.edu} is stored as {@code edu.sharif.ce.} and a search for {@code sharif.edu}
+ * also finds its subdomains.
+ * <p>
+ * A key only nominates a username. Racing writers can leave a key behind for a user that has since
+ * changed, so a match is returned only if the key rebuilt from the live user is the same key.
+ */
+final class UserSearchIndex {
+    private static final char SEPARATOR = '\0';
+
+    private final NavigableSet<String> usernames = new ConcurrentSkipListSet<>();
+    private final NavigableSet<String> emails = new ConcurrentSkipListSet<>();
+    private final NavigableSet<String> domains = new ConcurrentSkipListSet<>();
+
+    void add(User user) {
+        usernames.add(usernameKey(user));
+        addEmail(user);
+    }
+
+    void remove(User user) {
+        usernames.remove(usernameKey(user));
+        removeEmail(user);
+    }
+
+    void addEmail(User user) {
+        if (user.getEmail() != null) {
+            emails.add(emailKey(user));
+            domains.add(domainKey(user));
+        }
+    }
+
+    void removeEmail(User user) {
+        if (user.getEmail() != null) {
+            emails.remove(emailKey(user));
+            domains.remove(domainKey(user));
+        }
+    }
+
+    /**
+     * Users whose username starts with {@code prefix}, ignoring case, in lower-cased username order.
+     */
+    List<User> findByUsernamePrefix(String prefix, int limit, Function<String, User> lookup) {
+        return find(usernames, normalize(prefix), limit, lookup, UserSearchIndex::usernameKey);
+    }
+
+    /**
+     * Users whose email starts with {@code prefix}, ignoring case, in lower-cased email order.
+     */
+    List<User> findByEmailPrefix(String prefix, int limit, Function<String, User> lookup) {
+        return find(emails, normalize(prefix), limit, lookup, UserSearchIndex::emailKey);
+    }
+
+    List<User> findByEmailIgnoreCase(String email, int limit, Function<String, User> lookup) {
+        return find(emails, normalize(email) + SEPARATOR, limit, lookup, UserSearchIndex::emailKey);
+    }
+
+    /**
+     * Users with an email at {@code domain} or one of its subdomains, grouped by domain.
+     */
+    List<User> findByEmailDomain(String domain, int limit, Function<String, User> lookup) {
+        return find(domains, reverseDomain(normalize(domain)), limit, lookup, UserSearchIndex::domainKey);
+    }
+
+    private static List<User> find(NavigableSet<String> index, String prefix, int limit,
+                                   Function<String, User> lookup, Function<User, String> keyOf) {
+        List<User> users = new ArrayList<>(Math.min(limit, 64));
+        for (String key : index.tailSet(prefix, true)) {
+            if (users.size() >= limit || !key.startsWith(prefix)) {
+                break;
+            }
+            User user = lookup.apply(key.substring(key.lastIndexOf(SEPARATOR) + 1));
+            if (user != null && key.equals(keyOf.apply(user))) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    private static String usernameKey(User user) {
+        return normalize(user.getUsername()) + SEPARATOR + user.getUsername();
+    }
+
+    private static String emailKey(User user) {
+        return user.getEmail() == null ? null : normalize(user.getEmail()) + SEPARATOR + user.getUsername();
+    }
+
+    private static String domainKey(User user) {
+        String email = user.getEmail();
+        if (email == null) {
+            return null;
+        }
+        return reverseDomain(normalize(email.substring(email.lastIndexOf('@') + 1))) + SEPARATOR + user.getUsername();
+    }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static String reverseDomain(String domain) {
+        StringBuilder reversed = new StringBuilder(domain.length() + 1);
+        int end = domain.length();
+        int dot = domain.lastIndexOf('.');
+        while (dot >= 0) {
+            reversed.append(domain, dot + 1, end).append('.');
+            end = dot;
+            dot = domain.lastIndexOf('.', dot - 1);
+        }
+        return reversed.append(domain, 0, end).append('.').toString();
+    }
+}
@@ -0,0 +1,18 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+/**
+ * Read-only view of a set of users with unique usernames and emails.
+ */
+public interface UserSnapshot extends Iterable<User> {
+    User getUserByUsername(String username);
+
+    User getUserByEmail(String email);
+
+    int getUserCount();
+
+    default boolean containsUsername(String username) {
+        return getUserByUsername(username) != null;
+    }
+}
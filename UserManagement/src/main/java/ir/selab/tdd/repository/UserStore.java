@@ -0,0 +1,123 @@
+package ir.selab.tdd.repository;
+
+import ir.selab.tdd.domain.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Storage for users with unique usernames and unique emails, as used by the user service. Updates are
+ * compare-and-set on the user's version; the two-argument variants update whatever version is current.
+ */
+public interface UserStore {
+    User getUserByUsername(String username);
+
+    User getUserByEmail(String email);
+
+    default boolean addUser(User user) {
+        return tryAddUser(user) == AddResult.ADDED;
+    }
+
+    /**
+     * Adds {@code user} and tells which index rejected it, if any.
+     */
+    AddResult tryAddUser(User user);
+
+    boolean removeUser(String username);
+
+    /**
+     * Adds {@code users} in list order and returns one result per user, so a user that clashes with an
+     * earlier one in the same batch is the one rejected. Stores with locks take each lock once per
+     * batch rather than once per user.
+     */
+    default List<AddResult> tryAddUsers(List<User> users) {
+        List<AddResult> results = new ArrayList<>(users.size());
+        for (User user : users) {
+            results.add(tryAddUser(user));
+        }
+        return results;
+    }
+
+    /**
+     * Removes {@code usernames} and returns, per username, whether it was removed by this call.
+     */
+    default List<Boolean> removeUsers(List<String> usernames) {
+        List<Boolean> results = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            results.add(removeUser(username));
+        }
+        return results;
+    }
+
+    /**
+     * Looks up {@code usernames} and returns the users in the same order, with null for unknown ones.
+     */
+    default List<User> getUsersByUsername(List<String> usernames) {
+        List<User> users = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            users.add(getUserByUsername(username));
+        }
+        return users;
+    }
+
+    default List<User> getUsersByEmail(List<String> emails) {
+        List<User> users = new ArrayList<>(emails.size());
+        for (String email : emails) {
+            users.add(getUserByEmail(email));
+        }
+        return users;
+    }
+
+    default boolean updateEmail(String username, String newEmail) {
+        User current = getUserByUsername(username);
+        return current != null && updateEmail(username, current.getVersion(), newEmail);
+    }
+
+    boolean updateEmail(String username, long expectedVersion, String newEmail);
+
+    /**
+     * Like {@link #updateEmail(String, long, String)}, but returns the user the update replaced, or null
+     * if it did not apply. The stored user is then {@code replaced.withEmail(newEmail)}, so a caller that
+     * needs the old email or the new user does not look it up again. The default looks the user up
+     * first, which a concurrent remove and re-register can race; stores that find the user while
+     * updating return that one.
+     */
+    default User replaceEmail(String username, long expectedVersion, String newEmail) {
+        User current = getUserByUsername(username);
+        if (current == null || current.getVersion() != expectedVersion) {
+            return null;
+        }
+        return updateEmail(username, expectedVersion, newEmail) ? current : null;
+    }
+
+    default boolean updatePassword(String username, String newPassword) {
+        User current = getUserByUsername(username);
+        return current != null && updatePassword(username, current.getVersion(), newPassword);
+    }
+
+    boolean updatePassword(String username, long expectedVersion, String newPassword);
+
+    /**
+     * Like {@link #replaceEmail}, for {@link #updatePassword(String, long, String)}.
+     */
+    default User replacePassword(String username, long expectedVersion, String newPassword) {
+        User current = getUserByUsername(username);
+        if (current == null || current.getVersion() != expectedVersion) {
+            return null;
+        }
+        return updatePassword(username, expectedVersion, newPassword) ? current : null;
+    }
+
+    int getUserCount();
+
+    List<User> getAllUsers();
+
+    /**
+     * Returns up to {@code limit} users in username order, starting after {@code cursor}, or from the
+     * beginning when it is null.
+     */
+    Page<User> page(String cursor, int limit);
+
+    Stream<User> stream();
+}
@@ -0,0 +1,26 @@
+package ir.selab.tdd.security;
+
+/**
+ * Turns passwords into self-describing encoded strings that carry the algorithm and parameters used,
+ * so that stored hashes can be verified and upgraded after the parameters change.
+ */
+public interface PasswordHasher {
+    String hash(String password);
+
+    boolean verify(String password, String encoded);
+
+    /**
+     * Tells whether {@code encoded} was produced with different parameters than this hasher would use
+     * now, so it should be replaced after the next successful {@link #verify}.
+     */
+    boolean needsRehash(String encoded);
+
+    /**
+     * Tells whether {@code stored} is in this hasher's encoding at all. Stored values that are not are
+     * plaintext passwords from before hashing was introduced; they are compared as they are and replaced
+     * with a hash after a successful login.
+     */
+    default boolean isEncoded(String stored) {
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package ir.selab.tdd.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed set of worker threads for CPU-heavy password hashing and verification, in front of a bounded
+ * queue. When the queue is full new work is rejected immediately, so a login storm cannot tie up more
+ * than {@code threads} cores or build an unbounded backlog.
+ */
+public class PasswordHashingPool implements AutoCloseable {
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHashingPool(int threads, int queueDepth) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth), runnable -> {
+            Thread thread = new Thread(runnable, "password-hashing-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs {@code task} on a worker and waits for its result.
+     *
+     * @throws RejectedExecutionException if the queue is full; callers should shed the request
+     */
+    public <T> T execute(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        return await(future);
+    }
+
+    /**
+     * Runs {@code tasks} on the workers in parallel and waits for all of their results, in order. A
+     * task the queue has no room for waits until the batch's oldest running task is done, so a batch
+     * larger than the queue backs off instead of failing; if one task fails, the rest are cancelled.
+     *
+     * @throws RejectedExecutionException if the queue is full and none of the batch's tasks is left to
+     *                                    wait for
+     */
+    public <T> List<T> executeAll(List<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        int awaited = 0;
+        try {
+            for (Callable<T> task : tasks) {
+                while (true) {
+                    try {
+                        futures.add(executor.submit(task));
+                        break;
+                    } catch (RejectedExecutionException e) {
+                        if (awaited == futures.size()) {
+                            rejected.increment();
+                            throw e;
+                        }
+                        await(futures.get(awaited++));
+                    }
+                }
+            }
+            List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(await(future));
+            }
+            return results;
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ir.selab.tdd.security;
+
+import lombok.Getter;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256 hasher built on the JDK. Hashes are encoded as
+ * {@code pbkdf2-sha256$iterations$keyBits$salt$hash} with base64 salt and hash.
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+    public static final int DEFAULT_ITERATIONS = 210_000;
+    public static final int DEFAULT_SALT_BYTES = 16;
+    public static final int DEFAULT_KEY_BITS = 256;
+
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    @Getter
+    private final int iterations;
+    @Getter
+    private final int saltBytes;
+    @Getter
+    private final int keyBits;
+    private final SecureRandom random = new SecureRandom();
+
+    public Pbkdf2PasswordHasher() {
+        this(DEFAULT_ITERATIONS, DEFAULT_SALT_BYTES, DEFAULT_KEY_BITS);
+    }
+
+    public Pbkdf2PasswordHasher(int iterations, int saltBytes, int keyBits) {
+        if (iterations < 1 || saltBytes < 8 || keyBits < 128 || keyBits % 8 != 0) {
+            throw new IllegalArgumentException("Weak or invalid PBKDF2 parameters");
+        }
+        this.iterations = iterations;
+        this.saltBytes = saltBytes;
+        this.keyBits = keyBits;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[saltBytes];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + '$' + iterations + '$' + keyBits + '$' + encoder.encodeToString(salt) + '$'
+                + encoder.encodeToString(derive(password, salt, iterations, keyBits));
+    }
+
+    @Override
+    public boolean verify(String password, String encoded) {
+        if (password == null) {
+            return false;
+        }
+        String[] parts = split(encoded);
+        if (parts == null) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            int storedKeyBits = Integer.parseInt(parts[2]);
+            byte[] salt = Base64.getDecoder().decode(parts[3]);
+            byte[] expected = Base64.getDecoder().decode(parts[4]);
+            if (storedIterations < 1 || storedKeyBits != expected.length * 8) {
+                return false;
+            }
+            return MessageDigest.isEqual(expected, derive(password, salt, storedIterations, storedKeyBits));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+        String[] parts = split(encoded);
+        try {
+            return parts == null
+                    || !parts[1].equals(Integer.toString(iterations))
+                    || !parts[2].equals(Integer.toString(keyBits))
+                    || Base64.getDecoder().decode(parts[3]).length != saltBytes;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isEncoded(String stored) {
+        return stored != null && stored.startsWith(PREFIX + '$');
+    }
+
+    private static String[] split(String encoded) {
+        if (encoded == null || !encoded.startsWith(PREFIX + '$')) {
+            return null;
+        }
+        String[] parts = encoded.split("\\$");
+        return parts.length == 5 ? parts : null;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations, int keyBits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
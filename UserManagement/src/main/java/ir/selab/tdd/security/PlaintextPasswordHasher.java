@@ -0,0 +1,21 @@
+package ir.selab.tdd.security;
+
+/**
+ * Stores passwords as they are. Only meant for tests and for repositories that predate hashing.
+ */
+public class PlaintextPasswordHasher implements PasswordHasher {
+    @Override
+    public String hash(String password) {
+        return password;
+    }
+
+    @Override
+    public boolean verify(String password, String encoded) {
+        return encoded != null && encoded.equals(password);
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+        return false;
+    }
+}
@@ -0,0 +1,283 @@
+package ir.selab.tdd.service;
+
+import ir.selab.tdd.domain.User;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Non-blocking facade over {@link UserService}. Calls that may hash passwords or wait on a store run on
+ * an executor and return a {@link CompletableFuture}. The default executor starts one virtual thread
+ * per task when the runtime has them and falls back to a pool of daemon platform threads otherwise.
+ * Lookups by username or email and the user count are answered on the caller's thread, as an
+ * already-completed future, since they are in-memory reads that would cost more to hand off than to
+ * run.
+ * <p>
+ * At most {@code maxConcurrency} calls run or wait for the executor at once; beyond that a call fails
+ * straight away with {@link RejectedExecutionException}, like a saturated password hashing pool. A call
+ * that outlives its timeout fails with {@link TimeoutException} but keeps running, and its permit is
+ * returned only when it actually ends. Only {@code cancel(true)} interrupts a call that has started;
+ * avoid it over a {@link ir.selab.tdd.persistence.DurableUserRepository} or
+ * {@link ir.selab.tdd.persistence.LsmUserStore}, where an interrupt during a log write closes the log.
+ */
+public class AsyncUserService implements AutoCloseable {
+    public static final int DEFAULT_MAX_CONCURRENCY = 1024;
+
+    private final UserService service;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final Duration defaultTimeout;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public AsyncUserService(UserService service) {
+        this(service, defaultExecutor(), true, DEFAULT_MAX_CONCURRENCY, null);
+    }
+
+    /**
+     * @param timeout applied to every call that does not pass its own, or null for none
+     */
+    public AsyncUserService(UserService service, int maxConcurrency, Duration timeout) {
+        this(service, defaultExecutor(), true, maxConcurrency, timeout);
+    }
+
+    /**
+     * Runs calls on {@code executor}, which the caller keeps ownership of.
+     */
+    public AsyncUserService(UserService service, ExecutorService executor, int maxConcurrency, Duration timeout) {
+        this(service, executor, false, maxConcurrency, timeout);
+    }
+
+    private AsyncUserService(UserService service, ExecutorService executor, boolean ownsExecutor,
+                             int maxConcurrency, Duration timeout) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be positive");
+        }
+        this.service = service;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.defaultTimeout = timeout;
+    }
+
+    /**
+     * A virtual-thread-per-task executor when the runtime supports it, otherwise a cached pool of
+     * daemon threads. Looked up reflectively so the code still builds for older targets.
+     */
+    public static ExecutorService defaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "async-user-service-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public CompletableFuture<Boolean> loginWithUsername(String username, String password) {
+        return submit(() -> service.loginWithUsername(username, password), defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> loginWithEmail(String email, String password) {
+        return submit(() -> service.loginWithEmail(email, password), defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> registerUser(String username, String password) {
+        return submit(() -> service.registerUser(username, password), defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> registerUser(String username, String password, String email) {
+        return submit(() -> service.registerUser(username, password, email), defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> removeUser(String username) {
+        return submit(() -> service.removeUser(username), defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> changeUserEmail(String username, String newEmail) {
+        return submit(() -> service.changeUserEmail(username, newEmail), defaultTimeout);
+    }
+
+    public CompletableFuture<List<BatchOutcome>> registerUsers(List<Registration> registrations) {
+        return submit(() -> service.registerUsers(registrations), defaultTimeout);
+    }
+
+    public CompletableFuture<List<BatchOutcome>> removeUsers(List<String> usernames) {
+        return submit(() -> service.removeUsers(usernames), defaultTimeout);
+    }
+
+    public CompletableFuture<List<BatchOutcome>> loginWithUsernames(List<Credentials> credentials) {
+        return submit(() -> service.loginWithUsernames(credentials), defaultTimeout);
+    }
+
+    public CompletableFuture<List<BatchOutcome>> loginWithEmails(List<Credentials> credentials) {
+        return submit(() -> service.loginWithEmails(credentials), defaultTimeout);
+    }
+
+    public CompletableFuture<User> getUserByUsername(String username) {
+        return inline(() -> service.getUserByUsername(username));
+    }
+
+    public CompletableFuture<User> getUserByEmail(String email) {
+        return inline(() -> service.getUserByEmail(email));
+    }
+
+    public CompletableFuture<Integer> getUserCount() {
+        return inline(service::getUserCount);
+    }
+
+    /**
+     * Runs any {@link UserService} call on the executor with its own timeout, or none if null.
+     */
+    public <T> CompletableFuture<T> call(Function<UserService, T> operation, Duration timeout) {
+        return submit(() -> operation.apply(service), timeout);
+    }
+
+    public UserService getService() {
+        return service;
+    }
+
+    /**
+     * Calls currently holding a permit, whether running or waiting for the executor.
+     */
+    public int getInFlight() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Shuts the executor down if this facade created it; calls already accepted still complete.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> call, Duration timeout) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return failed(new RejectedExecutionException("Too many concurrent user service calls"));
+        }
+        Task<T> task = new Task<>(call);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return failed(e);
+        }
+        if (timeout != null) {
+            task.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        task.whenComplete((result, error) -> {
+            if (error instanceof TimeoutException) {
+                timedOut.increment();
+            }
+        });
+        return task;
+    }
+
+    private static <T> CompletableFuture<T> inline(Callable<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.call());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Future that is also the executor's task, so it knows which thread to interrupt when it is
+     * cancelled while still running.
+     */
+    private final class Task<T> extends CompletableFuture<T> implements Runnable {
+        private final Callable<T> call;
+        private Thread runner;
+
+        Task(Callable<T> call) {
+            this.call = call;
+        }
+
+        /**
+         * Returns the permit before completing, so a caller that reacts to the result can submit again
+         * straight away.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    permits.release();
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            T result = null;
+            Throwable error = null;
+            try {
+                result = call.call();
+            } catch (Throwable e) {
+                error = e;
+            }
+            synchronized (this) {
+                runner = null;
+            }
+            Thread.interrupted();
+            permits.release();
+            if (error == null) {
+                complete(result);
+            } else {
+                completeExceptionally(error);
+            }
+        }
+
+        /**
+         * Unlike a plain {@link CompletableFuture}, honours {@code mayInterruptIfRunning}.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                interruptRunner();
+            }
+            return cancelled;
+        }
+
+        private synchronized void interruptRunner() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+}
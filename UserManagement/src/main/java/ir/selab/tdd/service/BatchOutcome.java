@@ -0,0 +1,15 @@
+package ir.selab.tdd.service;
+
+/**
+ * How one item of a batch call on {@link UserService} ended. {@link #THROTTLED} is a login turned away
+ * before its password was checked.
+ */
+public enum BatchOutcome {
+    SUCCESS,
+    INVALID_INPUT,
+    UNKNOWN_USER,
+    BAD_PASSWORD,
+    DUPLICATE_USERNAME,
+    DUPLICATE_EMAIL,
+    THROTTLED
+}
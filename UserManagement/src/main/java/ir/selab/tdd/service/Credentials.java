@@ -0,0 +1,14 @@
+package ir.selab.tdd.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * One item of a batch login: a username or an email, depending on the method, and a password.
+ */
+@Getter
+@RequiredArgsConstructor
+public class Credentials {
+    private final String login;
+    private final String password;
+}
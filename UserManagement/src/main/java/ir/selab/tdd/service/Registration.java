@@ -0,0 +1,19 @@
+package ir.selab.tdd.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * One item of {@link UserService#registerUsers}; the email may be null.
+ */
+@Getter
+@RequiredArgsConstructor
+public class Registration {
+    private final String username;
+    private final String password;
+    private final String email;
+
+    public Registration(String username, String password) {
+        this(username, password, null);
+    }
+}
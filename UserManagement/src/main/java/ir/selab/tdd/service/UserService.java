@@ -1,66 +1,316 @@
 package ir.selab.tdd.service;
 
 import ir.selab.tdd.domain.User;
-import ir.selab.tdd.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import ir.selab.tdd.metrics.Operation;
+import ir.selab.tdd.metrics.Outcome;
+import ir.selab.tdd.metrics.UserServiceMetrics;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.repository.UserStore;
+import ir.selab.tdd.security.PasswordHasher;
+import ir.selab.tdd.security.PasswordHashingPool;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.session.SessionStore;
+import ir.selab.tdd.throttle.LoginThrottler;
+import lombok.AllArgsConstructor;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-@RequiredArgsConstructor
+@AllArgsConstructor
 public class UserService {
-    private final UserRepository repository;
+    private final UserStore repository;
+    private final PasswordHasher passwordHasher;
+    private final PasswordHashingPool hashingPool;
+    private final UserServiceMetrics metrics;
+    private final SessionStore sessions;
+    private final LoginThrottler throttler;
 
+    public UserService(UserStore repository) {
+        this(repository, new PlaintextPasswordHasher());
+    }
+
+    public UserService(UserStore repository, SessionStore sessions) {
+        this(repository, new PlaintextPasswordHasher(), null, UserServiceMetrics.disabled(), sessions, null);
+    }
+
+    public UserService(UserStore repository, PasswordHasher passwordHasher) {
+        this(repository, passwordHasher, null);
+    }
+
+    public UserService(UserStore repository, PasswordHasher passwordHasher, PasswordHashingPool hashingPool) {
+        this(repository, passwordHasher, hashingPool, UserServiceMetrics.disabled());
+    }
+
+    public UserService(UserStore repository, PasswordHasher passwordHasher, PasswordHashingPool hashingPool,
+                       UserServiceMetrics metrics) {
+        this(repository, passwordHasher, hashingPool, metrics, null, null);
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if the hashing pool is saturated
+     */
     public boolean loginWithUsername(String username, String password) {
-        User userByUsername = repository.getUserByUsername(username);
-        if (userByUsername == null) {
-            return false;
+        return loginWithUsername(username, password, null);
+    }
+
+    /**
+     * Logs in from {@code source}, a key such as the client address that the login throttler limits
+     * across accounts; null throttles by account only.
+     */
+    public boolean loginWithUsername(String username, String password, String source) {
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            if (admit(username, source)) {
+                outcome = settle(username, source, authenticate(repository.getUserByUsername(username), password));
+            } else {
+                outcome = Outcome.THROTTLED;
+            }
+            return outcome == Outcome.SUCCESS;
+        } finally {
+            metrics.record(Operation.LOGIN_WITH_USERNAME, outcome, start);
         }
-        return userByUsername.getPassword().equals(password);
     }
 
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if the hashing pool is saturated
+     */
     public boolean loginWithEmail(String email, String password) {
-        User userByEmail = repository.getUserByEmail(email);
-        return userByEmail != null && userByEmail.getPassword().equals(password);
+        return loginWithEmail(email, password, null);
+    }
+
+    public boolean loginWithEmail(String email, String password, String source) {
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            if (admit(email, source)) {
+                outcome = settle(email, source, authenticate(repository.getUserByEmail(email), password));
+            } else {
+                outcome = Outcome.THROTTLED;
+            }
+            return outcome == Outcome.SUCCESS;
+        } finally {
+            metrics.record(Operation.LOGIN_WITH_EMAIL, outcome, start);
+        }
+    }
+
+    /**
+     * Logs in like {@link #loginWithUsername} and returns a session token for later requests to pass
+     * to {@link #validateSession} instead of the password, or null if the login failed.
+     *
+     * @throws IllegalStateException if this service has no {@link SessionStore}
+     */
+    public String openSessionWithUsername(String username, String password) {
+        return openSessionWithUsername(username, password, null);
+    }
+
+    public String openSessionWithUsername(String username, String password, String source) {
+        return openSession(username, password, source, false);
+    }
+
+    public String openSessionWithEmail(String email, String password) {
+        return openSessionWithEmail(email, password, null);
+    }
+
+    public String openSessionWithEmail(String email, String password, String source) {
+        return openSession(email, password, source, true);
+    }
+
+    /**
+     * Returns the username a live session token belongs to, or null. Removing the user or changing
+     * their email through this service ends all of their sessions.
+     */
+    public String validateSession(String token) {
+        return requireSessions().validate(token);
+    }
+
+    public boolean closeSession(String token) {
+        return requireSessions().close(token);
     }
 
     public boolean registerUser(String username, String password) {
-        if (username == null || username.trim().isEmpty() || password == null) {
-            return false;
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            if (username == null || username.trim().isEmpty() || password == null) {
+                outcome = Outcome.INVALID_INPUT;
+            } else if (repository.getUserByUsername(username) != null) {
+                outcome = Outcome.DUPLICATE_USERNAME;
+            } else {
+                outcome = outcomeOf(repository.tryAddUser(new User(username, hashPassword(password))));
+            }
+            return outcome == Outcome.SUCCESS;
+        } finally {
+            metrics.record(Operation.REGISTER_USER, outcome, start);
         }
-        User user = new User(username, password);
-        return repository.addUser(user);
     }
 
     public boolean registerUser(String username, String password, String email) {
-        if (username == null || username.trim().isEmpty() || password == null || email == null || email.trim().isEmpty()) {
-            return false;
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            if (username == null || username.trim().isEmpty() || password == null || email == null || email.trim().isEmpty()) {
+                outcome = Outcome.INVALID_INPUT;
+            } else if (repository.getUserByUsername(username) != null) {
+                outcome = Outcome.DUPLICATE_USERNAME;
+            } else if (repository.getUserByEmail(email) != null) {
+                outcome = Outcome.DUPLICATE_EMAIL;
+            } else {
+                outcome = outcomeOf(repository.tryAddUser(new User(username, hashPassword(password), email)));
+            }
+            return outcome == Outcome.SUCCESS;
+        } finally {
+            metrics.record(Operation.REGISTER_USER, outcome, start);
         }
-        User user = new User(username, password);
-        user.setEmail(email);
-        return repository.addUser(user);
     }
 
     public boolean removeUser(String username) {
-        return repository.removeUser(username);
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            outcome = repository.removeUser(username) ? Outcome.SUCCESS : Outcome.UNKNOWN_USER;
+            if (outcome == Outcome.SUCCESS) {
+                revokeSessions(username);
+            }
+            return outcome == Outcome.SUCCESS;
+        } finally {
+            metrics.record(Operation.REMOVE_USER, outcome, start);
+        }
+    }
+
+    /**
+     * Registers a batch of users and returns one outcome per registration, in order. The store is probed
+     * once for the whole batch first, and registrations it rejects do not take part in the checks within
+     * the batch, so of two that share a username or an email the earlier one that can still succeed is
+     * kept. The store is then written once, and only registrations that can still succeed pay for password
+     * hashing, which runs on the hashing pool in parallel when there is one.
+     */
+    public List<BatchOutcome> registerUsers(List<Registration> registrations) {
+        long start = metrics.startTimer();
+        Outcome batchOutcome = Outcome.ERROR;
+        try {
+            Outcome[] outcomes = new Outcome[registrations.size()];
+            List<Integer> valid = new ArrayList<>();
+            for (int i = 0; i < outcomes.length; i++) {
+                if (isValid(registrations.get(i))) {
+                    valid.add(i);
+                } else {
+                    outcomes[i] = Outcome.INVALID_INPUT;
+                }
+            }
+            Set<String> usernames = new HashSet<>();
+            Set<String> emails = new HashSet<>();
+            List<Integer> pending = new ArrayList<>();
+            for (int i : rejectRegistered(registrations, valid, outcomes)) {
+                Registration registration = registrations.get(i);
+                String email = registration.getEmail();
+                if (usernames.contains(registration.getUsername())) {
+                    outcomes[i] = Outcome.DUPLICATE_USERNAME;
+                } else if (email != null && emails.contains(email)) {
+                    outcomes[i] = Outcome.DUPLICATE_EMAIL;
+                } else {
+                    usernames.add(registration.getUsername());
+                    if (email != null) {
+                        emails.add(email);
+                    }
+                    pending.add(i);
+                }
+            }
+            List<Callable<String>> hashes = new ArrayList<>(pending.size());
+            for (int i : pending) {
+                String password = registrations.get(i).getPassword();
+                hashes.add(() -> passwordHasher.hash(password));
+            }
+            List<String> hashed = runHashingAll(hashes);
+            List<User> users = new ArrayList<>(pending.size());
+            for (int k = 0; k < pending.size(); k++) {
+                Registration registration = registrations.get(pending.get(k));
+                users.add(new User(registration.getUsername(), hashed.get(k), registration.getEmail()));
+            }
+            List<AddResult> results = repository.tryAddUsers(users);
+            for (int k = 0; k < results.size(); k++) {
+                outcomes[pending.get(k)] = outcomeOf(results.get(k));
+            }
+            batchOutcome = Outcome.SUCCESS;
+            return batchOutcomesOf(Arrays.asList(outcomes));
+        } finally {
+            metrics.record(Operation.REGISTER_BATCH, batchOutcome, start);
+        }
+    }
+
+    public List<BatchOutcome> removeUsers(List<String> usernames) {
+        long start = metrics.startTimer();
+        Outcome batchOutcome = Outcome.ERROR;
+        try {
+            List<Outcome> outcomes = new ArrayList<>(usernames.size());
+            List<Boolean> removed = repository.removeUsers(usernames);
+            for (int i = 0; i < removed.size(); i++) {
+                if (removed.get(i)) {
+                    revokeSessions(usernames.get(i));
+                    outcomes.add(Outcome.SUCCESS);
+                } else {
+                    outcomes.add(Outcome.UNKNOWN_USER);
+                }
+            }
+            batchOutcome = Outcome.SUCCESS;
+            return batchOutcomesOf(outcomes);
+        } finally {
+            metrics.record(Operation.REMOVE_BATCH, batchOutcome, start);
+        }
+    }
+
+    /**
+     * Checks each username and password pair and returns {@link BatchOutcome#SUCCESS},
+     * {@link BatchOutcome#UNKNOWN_USER}, {@link BatchOutcome#BAD_PASSWORD} or
+     * {@link BatchOutcome#THROTTLED} per pair, in order. Passwords are verified on the hashing pool in
+     * parallel when there is one; pairs for a login seen earlier in the batch wait for its result, so
+     * the throttler counts a failure before the next attempt at the same account.
+     */
+    public List<BatchOutcome> loginWithUsernames(List<Credentials> credentials) {
+        return loginBatch(credentials, false);
+    }
+
+    public List<BatchOutcome> loginWithEmails(List<Credentials> credentials) {
+        return loginBatch(credentials, true);
     }
 
     public List<User> getAllUsers() {
         return repository.getAllUsers();
     }
 
+    public Page<User> getUsers(String cursor, int limit) {
+        return repository.page(cursor, limit);
+    }
+
+    public Stream<User> streamUsers() {
+        return repository.stream();
+    }
+
     public boolean changeUserEmail(String username, String newEmail) {
-        // TODO: implement (if user exists and user's email is valid, then change email)
-        // TODO: after changing user's email, user must be able to login with new email.
-        User user = repository.getUserByUsername(username);
-        if (user == null || repository.getUserByEmail(newEmail) != null) {
-            return false;
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            if (newEmail == null || newEmail.trim().isEmpty()) {
+                outcome = Outcome.INVALID_INPUT;
+            } else if (repository.updateEmail(username, newEmail)) {
+                revokeSessions(username);
+                outcome = Outcome.SUCCESS;
+            } else {
+                outcome = classifyFailedEmailChange(username, newEmail);
+            }
+            return outcome == Outcome.SUCCESS;
+        } finally {
+            metrics.record(Operation.CHANGE_USER_EMAIL, outcome, start);
         }
-        repository.removeUser(username);
-        user.setEmail(newEmail);
-        repository.addUser(user);
-        return true;
     }
 
     public int getUserCount() {
@@ -68,11 +318,322 @@ public class UserService {
     }
 
     public User getUserByUsername(String username) {
-        return repository.getUserByUsername(username);
+        long start = metrics.startTimer();
+        User user = repository.getUserByUsername(username);
+        metrics.record(Operation.GET_USER_BY_USERNAME, user != null ? Outcome.SUCCESS : Outcome.UNKNOWN_USER, start);
+        return user;
     }
 
     public User getUserByEmail(String email) {
-        return repository.getUserByEmail(email);
+        long start = metrics.startTimer();
+        User user = repository.getUserByEmail(email);
+        metrics.record(Operation.GET_USER_BY_EMAIL, user != null ? Outcome.SUCCESS : Outcome.UNKNOWN_USER, start);
+        return user;
+    }
+
+    public UserServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    private Outcome authenticate(User user, String password) {
+        if (user == null) {
+            return Outcome.UNKNOWN_USER;
+        }
+        return verifyPassword(user, password) != null ? Outcome.SUCCESS : Outcome.BAD_PASSWORD;
+    }
+
+    private String openSession(String login, String password, String source, boolean byEmail) {
+        SessionStore store = requireSessions();
+        long start = metrics.startTimer();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            if (!admit(login, source)) {
+                outcome = Outcome.THROTTLED;
+                return null;
+            }
+            User user = byEmail ? repository.getUserByEmail(login) : repository.getUserByUsername(login);
+            User verified = user == null ? null : verifyPassword(user, password);
+            outcome = settle(login, source, user == null ? Outcome.UNKNOWN_USER
+                    : verified == null ? Outcome.BAD_PASSWORD : Outcome.SUCCESS);
+            if (outcome != Outcome.SUCCESS) {
+                return null;
+            }
+            String token = bindSession(store, verified);
+            if (token == null) {
+                outcome = Outcome.CONFLICT;
+            }
+            return token;
+        } finally {
+            metrics.record(byEmail ? Operation.LOGIN_WITH_EMAIL : Operation.LOGIN_WITH_USERNAME, outcome, start);
+        }
+    }
+
+    /**
+     * Opens a session for {@code verified} and keeps it only if the stored user is still exactly the
+     * record whose password was checked. Removing a user or changing their email revokes their sessions
+     * after the change, so once the token exists either this check sees the change or the revocation
+     * sees the token; without it a user removed between the check and {@link SessionStore#open} would
+     * keep a token that also validates for whoever registers the username next.
+     */
+    private String bindSession(SessionStore store, User verified) {
+        String token = store.open(verified.getUsername());
+        if (verified.equals(repository.getUserByUsername(verified.getUsername()))) {
+            return token;
+        }
+        store.close(token);
+        return null;
+    }
+
+    private List<BatchOutcome> loginBatch(List<Credentials> credentials, boolean byEmail) {
+        long start = metrics.startTimer();
+        Outcome batchOutcome = Outcome.ERROR;
+        try {
+            List<String> logins = credentials.stream().map(Credentials::getLogin).collect(Collectors.toList());
+            List<User> users = byEmail ? repository.getUsersByEmail(logins) : repository.getUsersByUsername(logins);
+            List<Outcome> outcomes = new ArrayList<>(credentials.size());
+            int from = 0;
+            while (from < users.size()) {
+                Set<String> wave = new HashSet<>();
+                int to = from;
+                while (to < users.size() && wave.add(logins.get(to))) {
+                    to++;
+                }
+                loginWave(logins, credentials, users, from, to, outcomes);
+                from = to;
+            }
+            batchOutcome = Outcome.SUCCESS;
+            return batchOutcomesOf(outcomes);
+        } finally {
+            metrics.record(Operation.LOGIN_BATCH, batchOutcome, start);
+        }
+    }
+
+    /**
+     * Logs in items {@code from} to {@code to}, whose logins are all different: admits them in order,
+     * verifies the admitted passwords together and then settles them in order.
+     */
+    private void loginWave(List<String> logins, List<Credentials> credentials, List<User> users, int from,
+                           int to, List<Outcome> outcomes) {
+        List<Callable<Boolean>> checks = new ArrayList<>(to - from);
+        boolean[] admitted = new boolean[to - from];
+        for (int i = from; i < to; i++) {
+            admitted[i - from] = admit(logins.get(i), null);
+            User user = users.get(i);
+            if (admitted[i - from] && user != null) {
+                String password = credentials.get(i).getPassword();
+                checks.add(() -> passwordMatches(user, password));
+            }
+        }
+        List<Boolean> matches = runHashingAll(checks);
+        int next = 0;
+        for (int i = from; i < to; i++) {
+            if (!admitted[i - from]) {
+                outcomes.add(Outcome.THROTTLED);
+                continue;
+            }
+            Outcome outcome;
+            if (users.get(i) == null) {
+                outcome = Outcome.UNKNOWN_USER;
+            } else if (matches.get(next++)) {
+                rehashIfOutdated(users.get(i), credentials.get(i).getPassword());
+                outcome = Outcome.SUCCESS;
+            } else {
+                outcome = Outcome.BAD_PASSWORD;
+            }
+            outcomes.add(settle(logins.get(i), null, outcome));
+        }
+    }
+
+    private static boolean isValid(Registration registration) {
+        String username = registration.getUsername();
+        String email = registration.getEmail();
+        return username != null && !username.trim().isEmpty() && registration.getPassword() != null
+                && (email == null || !email.trim().isEmpty());
+    }
+
+    /**
+     * Marks the pending registrations whose username or email is already taken in the store and
+     * returns the rest.
+     */
+    private List<Integer> rejectRegistered(List<Registration> registrations, List<Integer> pending, Outcome[] outcomes) {
+        List<String> usernames = new ArrayList<>(pending.size());
+        for (int i : pending) {
+            usernames.add(registrations.get(i).getUsername());
+        }
+        List<User> byUsername = repository.getUsersByUsername(usernames);
+        List<Integer> withEmail = new ArrayList<>();
+        List<String> emails = new ArrayList<>();
+        List<Integer> remaining = new ArrayList<>(pending.size());
+        for (int k = 0; k < pending.size(); k++) {
+            int i = pending.get(k);
+            if (byUsername.get(k) != null) {
+                outcomes[i] = Outcome.DUPLICATE_USERNAME;
+            } else if (registrations.get(i).getEmail() != null) {
+                withEmail.add(i);
+                emails.add(registrations.get(i).getEmail());
+            }
+        }
+        List<User> byEmail = repository.getUsersByEmail(emails);
+        for (int k = 0; k < withEmail.size(); k++) {
+            if (byEmail.get(k) != null) {
+                outcomes[withEmail.get(k)] = Outcome.DUPLICATE_EMAIL;
+            }
+        }
+        for (int i : pending) {
+            if (outcomes[i] == null) {
+                remaining.add(i);
+            }
+        }
+        return remaining;
+    }
+
+    private boolean admit(String login, String source) {
+        return throttler == null || throttler.tryAcquire(login, source);
+    }
+
+    /**
+     * Reports a checked login to the throttler. An unknown user counts as a failure too, so probing for
+     * accounts is throttled like guessing passwords.
+     */
+    private Outcome settle(String login, String source, Outcome outcome) {
+        if (throttler != null) {
+            if (outcome == Outcome.SUCCESS) {
+                throttler.recordSuccess(login);
+            } else {
+                throttler.recordFailure(login, source);
+            }
+        }
+        return outcome;
+    }
+
+    private SessionStore requireSessions() {
+        if (sessions == null) {
+            throw new IllegalStateException("This user service has no session store");
+        }
+        return sessions;
+    }
+
+    private void revokeSessions(String username) {
+        if (sessions != null) {
+            sessions.revokeUser(username);
+        }
+    }
+
+    /**
+     * Batch items only end in outcomes that {@link BatchOutcome} has a constant of the same name for.
+     */
+    private static List<BatchOutcome> batchOutcomesOf(List<Outcome> outcomes) {
+        List<BatchOutcome> batchOutcomes = new ArrayList<>(outcomes.size());
+        for (Outcome outcome : outcomes) {
+            batchOutcomes.add(BatchOutcome.valueOf(outcome.name()));
+        }
+        return batchOutcomes;
+    }
+
+    private static Outcome outcomeOf(AddResult result) {
+        switch (result) {
+            case ADDED:
+                return Outcome.SUCCESS;
+            case DUPLICATE_USERNAME:
+                return Outcome.DUPLICATE_USERNAME;
+            default:
+                return Outcome.DUPLICATE_EMAIL;
+        }
+    }
+
+    /**
+     * Works out after the fact why an email change was refused. Only failures pay for the extra
+     * lookups.
+     */
+    private Outcome classifyFailedEmailChange(String username, String newEmail) {
+        User user = repository.getUserByUsername(username);
+        if (user == null) {
+            return Outcome.UNKNOWN_USER;
+        }
+        if (newEmail.equals(user.getEmail()) || repository.getUserByEmail(newEmail) != null) {
+            return Outcome.DUPLICATE_EMAIL;
+        }
+        return Outcome.CONFLICT;
+    }
+
+    /**
+     * Checks the password off the caller thread when a hashing pool is configured. A stored value the
+     * hasher does not recognise is a plaintext password from before hashing and is compared in constant
+     * time. A plaintext value, or a hash made with outdated parameters, is replaced after a successful
+     * check; that is best effort, so a saturated hashing pool, a failing store or losing the race to a
+     * concurrent update just leaves the old value for the next login.
+     *
+     * @return the user as stored after the check, or null if the password is wrong
+     */
+    private User verifyPassword(User user, String password) {
+        String stored = user.getPassword();
+        boolean matches = stored != null && passwordHasher.isEncoded(stored)
+                ? runHashing(() -> passwordMatches(user, password))
+                : passwordMatches(user, password);
+        return matches ? rehashIfOutdated(user, password) : null;
+    }
+
+    /**
+     * The check itself, on the calling thread; CPU-heavy for hashed passwords.
+     */
+    private boolean passwordMatches(User user, String password) {
+        String stored = user.getPassword();
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (passwordHasher.isEncoded(stored)) {
+            return passwordHasher.verify(password, stored);
+        }
+        return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                stored.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Replaces a plaintext or outdated stored password of a user who just logged in with {@code password}
+     * and returns the user as stored afterwards.
+     */
+    private User rehashIfOutdated(User user, String password) {
+        String stored = user.getPassword();
+        if (passwordHasher.isEncoded(stored) && !passwordHasher.needsRehash(stored)) {
+            return user;
+        }
+        try {
+            String rehashed = hashPassword(password);
+            if (repository.updatePassword(user.getUsername(), user.getVersion(), rehashed)) {
+                return user.withPassword(rehashed);
+            }
+        } catch (RuntimeException e) {
+            // The password was correct; the old value stays until a later login replaces it.
+        }
+        return user;
+    }
+
+    private String hashPassword(String password) {
+        return runHashing(() -> passwordHasher.hash(password));
+    }
+
+    private <T> List<T> runHashingAll(List<Callable<T>> tasks) {
+        if (hashingPool != null && !tasks.isEmpty()) {
+            return hashingPool.executeAll(tasks);
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            results.add(runHashing(task));
+        }
+        return results;
+    }
+
+    private <T> T runHashing(Callable<T> task) {
+        if (hashingPool == null) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return hashingPool.execute(task);
     }
 
 }
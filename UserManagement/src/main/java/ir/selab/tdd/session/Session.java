@@ -0,0 +1,17 @@
+package ir.selab.tdd.session;
+
+/**
+ * A live session. Sessions are never changed after creation except for being revoked.
+ */
+final class Session {
+    final String token;
+    final String username;
+    final long expiresAtMillis;
+    volatile boolean revoked;
+
+    Session(String token, String username, long expiresAtMillis) {
+        this.token = token;
+        this.username = username;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+}
@@ -0,0 +1,185 @@
+package ir.selab.tdd.session;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory store of opaque session tokens. A token is 256 random bits, URL-safe Base64 encoded, and
+ * maps to the username it was issued for until it expires, is closed, or the user's sessions are
+ * revoked. {@link #validate} is a single concurrent map lookup plus a deadline check and allocates
+ * nothing.
+ * <p>
+ * Expired sessions are dropped by a {@link TimingWheel} that a background thread advances once per
+ * tick, so expiry never scans the live sessions. A session past its deadline is already invalid before
+ * the wheel gets to it.
+ */
+public class SessionStore implements Closeable {
+    public static final Duration DEFAULT_TICK = Duration.ofSeconds(1);
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Session>> sessionsByUsername = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ReentrantLock wheelLock = new ReentrantLock();
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService ticker;
+
+    public SessionStore(Duration ttl) {
+        this(ttl, DEFAULT_TICK, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock milliseconds since the epoch; tests pass a manual clock and call
+     *              {@link #expireSessions()} themselves
+     */
+    public SessionStore(Duration ttl, Duration tick, LongSupplier clock) {
+        if (ttl.isNegative() || ttl.isZero() || tick.toMillis() < 1) {
+            throw new IllegalArgumentException("Session lifetime and tick must be positive");
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.wheel = new TimingWheel(tick.toMillis(), clock.getAsLong());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::expireSessions, tick.toMillis(), tick.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Issues a new token for {@code username}.
+     */
+    public String open(String username) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, username, clock.getAsLong() + ttlMillis);
+        sessionsByUsername.compute(username, (key, owned) -> {
+            Set<Session> updated = owned == null ? ConcurrentHashMap.newKeySet() : owned;
+            updated.add(session);
+            return updated;
+        });
+        sessions.put(token, session);
+        List<Session> due = new ArrayList<>(0);
+        wheelLock.lock();
+        try {
+            wheel.schedule(session, due);
+        } finally {
+            wheelLock.unlock();
+        }
+        drop(due);
+        return token;
+    }
+
+    /**
+     * Returns the username {@code token} was issued for, or null if it is unknown, expired or revoked.
+     */
+    public String validate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null || session.revoked || session.expiresAtMillis <= clock.getAsLong()) {
+            return null;
+        }
+        return session.username;
+    }
+
+    /**
+     * Ends one session; returns false if it was not live.
+     */
+    public boolean close(String token) {
+        Session session = token == null ? null : sessions.remove(token);
+        if (session == null) {
+            return false;
+        }
+        session.revoked = true;
+        forget(session);
+        return true;
+    }
+
+    /**
+     * Ends every session of {@code username} and returns how many there were.
+     */
+    public int revokeUser(String username) {
+        Set<Session> owned = username == null ? null : sessionsByUsername.remove(username);
+        if (owned == null) {
+            return 0;
+        }
+        int revoked = 0;
+        for (Session session : owned) {
+            session.revoked = true;
+            if (sessions.remove(session.token, session)) {
+                revoked++;
+            }
+        }
+        return revoked;
+    }
+
+    /**
+     * Drops the sessions whose deadline has passed. Runs on the background thread every tick.
+     */
+    public void expireSessions() {
+        List<Session> due = new ArrayList<>();
+        wheelLock.lock();
+        try {
+            wheel.advance(clock.getAsLong(), due);
+        } finally {
+            wheelLock.unlock();
+        }
+        drop(due);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Sessions still tracked by the timing wheel, including closed ones that have not reached their
+     * deadline yet.
+     */
+    public int getScheduledCount() {
+        wheelLock.lock();
+        try {
+            return wheel.size();
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private void drop(List<Session> due) {
+        for (Session session : due) {
+            if (sessions.remove(session.token, session)) {
+                forget(session);
+            }
+        }
+    }
+
+    private void forget(Session session) {
+        sessionsByUsername.computeIfPresent(session.username, (key, owned) -> {
+            owned.remove(session);
+            return owned.isEmpty() ? null : owned;
+        });
+    }
+}
@@ -0,0 +1,110 @@
+package ir.selab.tdd.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of {@value #LEVELS} levels with {@value #SLOTS} slots each. Level 0 has one
+ * slot per tick and every level above it one slot per full turn of the level below, so four levels
+ * cover 64^4 ticks. A session sits at the lowest level at which its deadline tick and the current tick
+ * still differ; when the current tick enters a higher-level slot, that slot is cascaded into the levels
+ * below. Scheduling and expiring cost O(1) per session, whatever the number of live sessions. Deadlines
+ * past the top level wait in an overflow list until the top level comes round.
+ * <p>
+ * Not thread-safe; {@link SessionStore} guards it with a lock.
+ */
+final class TimingWheel {
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final long TOP_MASK = (1L << (LEVELS * SLOT_BITS)) - 1;
+
+    private final long tickMillis;
+    private final List<Session>[][] buckets;
+    private List<Session> overflow = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = new List[LEVELS][SLOTS];
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules {@code session} for its expiry; one that is already due is added to {@code due}.
+     */
+    void schedule(Session session, List<Session> due) {
+        long deadline = (session.expiresAtMillis + tickMillis - 1) / tickMillis;
+        if (deadline <= currentTick) {
+            due.add(session);
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / SLOT_BITS;
+        size++;
+        if (level >= LEVELS) {
+            overflow.add(session);
+            return;
+        }
+        int slot = (int) (deadline >>> (level * SLOT_BITS)) & SLOT_MASK;
+        List<Session> bucket = buckets[level][slot];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets[level][slot] = bucket;
+        }
+        bucket.add(session);
+    }
+
+    /**
+     * Moves the wheel up to {@code nowMillis} and adds every session whose deadline has passed to
+     * {@code due}.
+     */
+    void advance(long nowMillis, List<Session> due) {
+        long target = nowMillis / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return;
+        }
+        while (currentTick < target && size > 0) {
+            long tick = ++currentTick;
+            if ((tick & TOP_MASK) == 0) {
+                List<Session> waiting = overflow;
+                overflow = new ArrayList<>();
+                reschedule(waiting, due);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+                    reschedule(take(level, (int) (tick >>> (level * SLOT_BITS)) & SLOT_MASK), due);
+                }
+            }
+            List<Session> expired = take(0, (int) tick & SLOT_MASK);
+            if (expired != null) {
+                size -= expired.size();
+                due.addAll(expired);
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private List<Session> take(int level, int slot) {
+        List<Session> bucket = buckets[level][slot];
+        buckets[level][slot] = null;
+        return bucket;
+    }
+
+    private void reschedule(List<Session> sessions, List<Session> due) {
+        if (sessions == null) {
+            return;
+        }
+        size -= sessions.size();
+        for (Session session : sessions) {
+            schedule(session, due);
+        }
+    }
+}
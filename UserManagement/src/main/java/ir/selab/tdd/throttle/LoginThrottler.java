@@ -0,0 +1,221 @@
+package ir.selab.tdd.throttle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control for login attempts, keyed by the account being logged into and, when the caller
+ * supplies one, by the attempt's source, such as a client address.
+ * <p>
+ * Each key has a token bucket kept as a single theoretical arrival time, the generic cell rate
+ * algorithm: an attempt is admitted if that time is less than {@code burst - 1} intervals ahead of now,
+ * and admitting it moves the time one interval further. A rejection is a volatile read and a compare,
+ * and an admission one CAS, so no path takes a lock. Failed logins push a key into an exponentially
+ * growing lockout, which a successful login for the account clears.
+ * <p>
+ * Keys are spread over {@value #STRIPES} stripes, each holding at most its share of
+ * {@code maxEntries}. A stripe that fills up is swept for keys idle longer than the maximum lockout,
+ * then for keys at rest, whose bucket is full and which have no failures and so behave exactly like an
+ * untracked key. If that still frees nothing, the new key shares the stripe's overflow bucket with
+ * every other key that found it full, rather than letting memory grow. Keys on the overflow bucket are
+ * limited and locked out together, so filling a stripe with failing keys cannot buy unlimited guesses
+ * against other accounts; a successful login does not clear it.
+ */
+public class LoginThrottler {
+    private static final int STRIPES = 64;
+
+    private final ThrottlePolicy accounts;
+    private final ThrottlePolicy sources;
+    private final LongSupplier clock;
+    private final Stripe[] accountStripes;
+    private final Stripe[] sourceStripes;
+    private final int entriesPerStripe;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    public LoginThrottler() {
+        this(ThrottlePolicy.defaultForAccounts(), ThrottlePolicy.defaultForSources(), 1 << 20, System::currentTimeMillis);
+    }
+
+    public LoginThrottler(ThrottlePolicy accounts, ThrottlePolicy sources, int maxEntries, LongSupplier clock) {
+        this.accounts = accounts;
+        this.sources = sources;
+        this.clock = clock;
+        this.entriesPerStripe = Math.max(1, maxEntries / (2 * STRIPES));
+        this.accountStripes = stripes();
+        this.sourceStripes = stripes();
+    }
+
+    /**
+     * Takes a token from the account's bucket and, if {@code source} is not null, from the source's.
+     * Returns false if either is locked out or empty. Lockouts are checked before any token is taken,
+     * but a token taken from the account is not returned if the source then turns the attempt away.
+     */
+    public boolean tryAcquire(String account, String source) {
+        long now = clock.getAsLong();
+        Bucket accountBucket = account == null ? null : bucket(accountStripes, account, now);
+        Bucket sourceBucket = source == null ? null : bucket(sourceStripes, source, now);
+        if (isLocked(accountBucket, now) || isLocked(sourceBucket, now)
+                || !take(accountBucket, accounts, now) || !take(sourceBucket, sources, now)) {
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a failed login against the account and source, locking them out once they pass their
+     * policy's threshold.
+     */
+    public void recordFailure(String account, String source) {
+        long now = clock.getAsLong();
+        if (account != null) {
+            fail(bucket(accountStripes, account, now), accounts, now);
+        }
+        if (source != null) {
+            fail(bucket(sourceStripes, source, now), sources, now);
+        }
+    }
+
+    /**
+     * Clears the account's failures and lockout. The source keeps its failures, so an attacker cannot
+     * reset them by logging into an account of their own.
+     */
+    public void recordSuccess(String account) {
+        Bucket bucket = account == null ? null : accountStripes[stripeOf(account)].entries.get(account);
+        if (bucket != null) {
+            bucket.failures.set(0);
+            bucket.lockedUntil = 0;
+        }
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Attempts that went through their stripe's overflow bucket because the stripe was full of active
+     * keys.
+     */
+    public long getUntrackedCount() {
+        return untracked.sum();
+    }
+
+    public int getTrackedKeyCount() {
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            count += accountStripes[i].entries.size() + sourceStripes[i].entries.size();
+        }
+        return count;
+    }
+
+    private static boolean isLocked(Bucket bucket, long now) {
+        return bucket != null && now < bucket.lockedUntil;
+    }
+
+    private static boolean take(Bucket bucket, ThrottlePolicy policy, long now) {
+        if (bucket == null) {
+            return true;
+        }
+        long interval = policy.getIntervalMillis();
+        long tolerance = (policy.getBurst() - 1) * interval;
+        while (true) {
+            long arrival = bucket.arrival.get();
+            if (arrival - now > tolerance) {
+                return false;
+            }
+            if (bucket.arrival.compareAndSet(arrival, Math.max(arrival, now) + interval)) {
+                return true;
+            }
+        }
+    }
+
+    private static void fail(Bucket bucket, ThrottlePolicy policy, long now) {
+        if (bucket == null) {
+            return;
+        }
+        long lockout = policy.lockoutFor(bucket.failures.incrementAndGet());
+        if (lockout > 0) {
+            bucket.lockedUntil = Math.max(bucket.lockedUntil, now + lockout);
+        }
+    }
+
+    /**
+     * Returns the bucket for {@code key}, creating it if there is room, or the stripe's overflow bucket
+     * if there is not.
+     */
+    private Bucket bucket(Stripe[] stripes, String key, long now) {
+        Stripe stripe = stripes[stripeOf(key)];
+        Bucket bucket = stripe.entries.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (stripe.entries.size() >= entriesPerStripe && !stripe.evict(now, idleMillis())) {
+            untracked.increment();
+            return stripe.overflow;
+        }
+        return stripe.entries.computeIfAbsent(key, ignored -> new Bucket());
+    }
+
+    private long idleMillis() {
+        return Math.max(accounts.getMaxLockoutMillis(), sources.getMaxLockoutMillis());
+    }
+
+    private static int stripeOf(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static Stripe[] stripes() {
+        Stripe[] stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        return stripes;
+    }
+
+    private static final class Bucket {
+        final AtomicLong arrival = new AtomicLong();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long lockedUntil;
+
+        boolean isIdle(long now, long idleMillis) {
+            return now - Math.max(arrival.get(), lockedUntil) > idleMillis;
+        }
+
+        boolean isAtRest(long now) {
+            return arrival.get() <= now && lockedUntil <= now && failures.get() == 0;
+        }
+    }
+
+    private static final class Stripe {
+        final Map<String, Bucket> entries = new ConcurrentHashMap<>();
+        final Bucket overflow = new Bucket();
+        final AtomicBoolean sweeping = new AtomicBoolean();
+
+        /**
+         * Sweeps idle keys, then keys at rest. Only one thread sweeps a stripe at a time; the others
+         * report that nothing was freed.
+         */
+        boolean evict(long now, long idleMillis) {
+            if (!sweeping.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                int before = entries.size();
+                entries.values().removeIf(bucket -> bucket.isIdle(now, idleMillis));
+                if (entries.size() == before) {
+                    entries.values().removeIf(bucket -> bucket.isAtRest(now));
+                }
+                return entries.size() < before;
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+}
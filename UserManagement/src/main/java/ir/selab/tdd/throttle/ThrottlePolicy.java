@@ -0,0 +1,59 @@
+package ir.selab.tdd.throttle;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Limits applied to one kind of throttling key. Attempts are admitted at one per {@code interval} on
+ * average with bursts of up to {@code burst}. After {@code failuresBeforeLockout} consecutive failed
+ * logins the key is locked out for {@code baseLockout}, doubling with every further failure up to
+ * {@code maxLockout}.
+ */
+@Getter
+public class ThrottlePolicy {
+    private final int burst;
+    private final long intervalMillis;
+    private final int failuresBeforeLockout;
+    private final long baseLockoutMillis;
+    private final long maxLockoutMillis;
+
+    public ThrottlePolicy(int burst, Duration interval, int failuresBeforeLockout, Duration baseLockout,
+                          Duration maxLockout) {
+        if (burst < 1 || interval.toMillis() < 1 || failuresBeforeLockout < 1 || baseLockout.toMillis() < 1
+                || maxLockout.compareTo(baseLockout) < 0) {
+            throw new IllegalArgumentException("Invalid throttle policy");
+        }
+        this.burst = burst;
+        this.intervalMillis = interval.toMillis();
+        this.failuresBeforeLockout = failuresBeforeLockout;
+        this.baseLockoutMillis = baseLockout.toMillis();
+        this.maxLockoutMillis = maxLockout.toMillis();
+    }
+
+    /**
+     * Ten attempts in a burst, then one every six seconds; locked out after five failures in a row,
+     * for one second doubling up to fifteen minutes.
+     */
+    public static ThrottlePolicy defaultForAccounts() {
+        return new ThrottlePolicy(10, Duration.ofSeconds(6), 5, Duration.ofSeconds(1), Duration.ofMinutes(15));
+    }
+
+    /**
+     * A source may try many accounts, so it gets a larger budget and a higher failure threshold.
+     */
+    public static ThrottlePolicy defaultForSources() {
+        return new ThrottlePolicy(100, Duration.ofMillis(100), 50, Duration.ofSeconds(1), Duration.ofMinutes(15));
+    }
+
+    long lockoutFor(int failures) {
+        int doublings = failures - failuresBeforeLockout;
+        if (doublings < 0) {
+            return 0;
+        }
+        if (doublings >= Long.numberOfLeadingZeros(baseLockoutMillis)) {
+            return maxLockoutMillis;
+        }
+        return Math.min(maxLockoutMillis, baseLockoutMillis << doublings);
+    }
+}
@@ -0,0 +1,148 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.service.AsyncUserService;
+import ir.selab.tdd.service.UserService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class AsyncUserServiceTest {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private UserService service;
+    private AsyncUserService async;
+
+    @Before
+    public void setUp() {
+        UserRepository repository = new UserRepository(new ArrayList<>()) {
+            @Override
+            public boolean removeUser(String username) {
+                if (username.startsWith("slow")) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        return false;
+                    }
+                }
+                return super.removeUser(username);
+            }
+        };
+        service = new UserService(repository);
+        async = new AsyncUserService(service, 2, null);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        async.close();
+    }
+
+    @Test
+    public void writes_ShouldCompleteOnTheExecutor() throws Exception {
+        assertTrue(async.registerUser("ali", "qwert", "ali@sharif.edu").get(5, TimeUnit.SECONDS));
+        assertFalse(async.registerUser("ali", "other").get(5, TimeUnit.SECONDS));
+        assertTrue(async.loginWithEmail("ali@sharif.edu", "qwert").get(5, TimeUnit.SECONDS));
+        assertTrue(async.changeUserEmail("ali", "ali@ce.sharif.edu").get(5, TimeUnit.SECONDS));
+        assertTrue(async.removeUser("ali").get(5, TimeUnit.SECONDS));
+        assertEquals(0, service.getUserCount());
+    }
+
+    @Test
+    public void reads_ShouldCompleteOnTheCallerThread() {
+        service.registerUser("ali", "qwert", "ali@sharif.edu");
+
+        CompletableFuture<User> user = async.getUserByEmail("ali@sharif.edu");
+        assertTrue(user.isDone());
+        assertEquals("ali", user.join().getUsername());
+        assertEquals(Integer.valueOf(1), async.getUserCount().join());
+    }
+
+    @Test
+    public void callsBeyondMaxConcurrency_ShouldBeRejected() throws Exception {
+        CompletableFuture<Boolean> first = async.removeUser("slow1");
+        CompletableFuture<Boolean> second = async.removeUser("slow2");
+        CompletableFuture<Boolean> third = async.removeUser("fast");
+
+        assertTrue(third.isCompletedExceptionally());
+        try {
+            third.join();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, async.getRejectedCount());
+        assertEquals(2, async.getInFlight());
+
+        release.countDown();
+        assertFalse(first.get(5, TimeUnit.SECONDS));
+        assertFalse(second.get(5, TimeUnit.SECONDS));
+        assertFalse(async.removeUser("fast").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void timedOutCall_ShouldFailWithoutInterruptingTheWork() throws Exception {
+        CompletableFuture<Boolean> call = async.call(s -> s.removeUser("slow"), Duration.ofMillis(50));
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(1, async.getTimedOutCount());
+        assertFalse(interrupted.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, async.getInFlight());
+
+        release.countDown();
+        awaitNoneInFlight();
+    }
+
+    @Test
+    public void cancelledCall_WithoutMayInterrupt_ShouldLetTheWorkFinish() throws Exception {
+        CompletableFuture<Boolean> call = async.removeUser("slow");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(call.cancel(false));
+        assertFalse(interrupted.await(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        awaitNoneInFlight();
+    }
+
+    @Test
+    public void cancelledCall_ShouldInterruptTheWork() throws Exception {
+        CompletableFuture<Boolean> call = async.removeUser("slow");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(call.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        try {
+            call.join();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        awaitNoneInFlight();
+    }
+
+    private void awaitNoneInFlight() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (async.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, async.getInFlight());
+    }
+}
@@ -0,0 +1,120 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.bulk.BulkUserImporter;
+import ir.selab.tdd.bulk.ImportRejection;
+import ir.selab.tdd.bulk.ImportResult;
+import ir.selab.tdd.bulk.UserRecordFormat;
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class BulkUserImporterTest {
+    private UserRepository repository;
+    private List<ImportRejection> rejections;
+
+    @Before
+    public void setUp() {
+        repository = new UserRepository(List.of(new User("hasan", "hasan123@", "hasan@gmail.com")));
+        rejections = new ArrayList<>();
+    }
+
+    @Test
+    public void importCsv_ShouldLoadValidRecordsAndReportEachRejection() throws IOException {
+        String csv = "username,password,email\n"
+                + "admin,1234,\n"
+                + "ali,qwert,ali@sharif.edu\n"
+                + "\"reza, jr\",\"pa\"\"ss\",reza@sharif.edu\n"
+                + "hasan,other,\n"
+                + "hasanGholi,gholi,hasan@gmail.com\n"
+                + "broken\n"
+                + "ali,again,\n"
+                + "taghi,pw,ali@sharif.edu\n";
+
+        ImportResult result = importer(3).importFrom(stream(csv), UserRecordFormat.CSV, rejections::add);
+
+        assertEquals(3, result.getImported());
+        assertEquals(5, result.getRejected());
+        assertEquals(4, repository.getUserCount());
+        assertNull(repository.getUserByUsername("admin").getEmail());
+        assertEquals("pa\"ss", repository.getUserByUsername("reza, jr").getPassword());
+        assertRejection(0, 5, ImportRejection.Reason.DUPLICATE_USERNAME);
+        assertRejection(1, 6, ImportRejection.Reason.DUPLICATE_EMAIL);
+        assertRejection(2, 7, ImportRejection.Reason.MALFORMED);
+        assertRejection(3, 8, ImportRejection.Reason.DUPLICATE_USERNAME);
+        assertRejection(4, 9, ImportRejection.Reason.DUPLICATE_EMAIL);
+    }
+
+    @Test
+    public void importCsv_DuplicatesInsideOneChunk_FirstRecordShouldWin() throws IOException {
+        String csv = "reza,first,reza@sharif.edu\n"
+                + "reza,second,other@sharif.edu\n"
+                + "taghi,pw,reza@sharif.edu\n";
+
+        ImportResult result = importer(100).importFrom(stream(csv), UserRecordFormat.CSV, rejections::add);
+
+        assertEquals(1, result.getImported());
+        assertEquals("first", repository.getUserByUsername("reza").getPassword());
+        assertRejection(0, 2, ImportRejection.Reason.DUPLICATE_USERNAME);
+        assertRejection(1, 3, ImportRejection.Reason.DUPLICATE_EMAIL);
+    }
+
+    @Test
+    public void importNdjson_ShouldParseObjectsAndIgnoreUnknownMembers() throws IOException {
+        String ndjson = "{\"username\": \"admin\", \"password\": \"1234\", \"age\": 30}\n"
+                + "{\"username\":\"ali\",\"password\":\"q\\\"w\\u0065rt\",\"email\":\"ali@sharif.edu\",\"active\":true}\n"
+                + "{\"username\":\"reza\",\"email\":null,\"password\":\"123\"}\n"
+                + "{\"username\":\"broken\"\n"
+                + "{\"password\":\"no-name\"}\n";
+
+        ImportResult result = importer(2).importFrom(stream(ndjson), UserRecordFormat.NDJSON, rejections::add);
+
+        assertEquals(3, result.getImported());
+        assertEquals("q\"wert", repository.getUserByEmail("ali@sharif.edu").getPassword());
+        assertNull(repository.getUserByUsername("reza").getEmail());
+        assertRejection(0, 4, ImportRejection.Reason.MALFORMED);
+        assertRejection(1, 5, ImportRejection.Reason.MALFORMED);
+    }
+
+    @Test
+    public void importLargeCsv_ShouldInsertInParallelAcrossChunks() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            csv.append("user").append(i).append(",pw,user").append(i % 15_000).append("@sharif.edu\n");
+        }
+
+        ImportResult result = importer(4096).importFrom(stream(csv.toString()), UserRecordFormat.CSV, rejections::add);
+
+        assertEquals(15_000, result.getImported());
+        assertEquals(5_000, rejections.size());
+        assertEquals(15_001, repository.getUserCount());
+        for (ImportRejection rejection : rejections) {
+            assertEquals(ImportRejection.Reason.DUPLICATE_EMAIL, rejection.getReason());
+            assertTrue(rejection.getLineNumber() > 15_000);
+        }
+    }
+
+    private BulkUserImporter importer(int chunkSize) {
+        return new BulkUserImporter(repository, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    private void assertRejection(int index, long lineNumber, ImportRejection.Reason reason) {
+        ImportRejection rejection = rejections.get(index);
+        assertEquals(lineNumber, rejection.getLineNumber());
+        assertEquals(reason, rejection.getReason());
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,131 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.cache.CacheStats;
+import ir.selab.tdd.cache.CachingUserStore;
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.service.UserService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingUserStoreTest {
+    private final AtomicInteger loads = new AtomicInteger();
+    private UserRepository backing;
+    private CachingUserStore cache;
+
+    @Before
+    public void setUp() {
+        List<User> users = new ArrayList<>();
+        users.add(new User("admin", "1234"));
+        users.add(new User("ali", "qwert", "ali@sharif.edu"));
+        for (int i = 0; i < 2000; i++) {
+            users.add(new User("user" + i, "pass" + i, "user" + i + "@sharif.edu"));
+        }
+        backing = new UserRepository(users) {
+            @Override
+            public User getUserByUsername(String username) {
+                loads.incrementAndGet();
+                return super.getUserByUsername(username);
+            }
+
+            @Override
+            public User getUserByEmail(String email) {
+                loads.incrementAndGet();
+                return super.getUserByEmail(email);
+            }
+        };
+        cache = new CachingUserStore(backing, 200);
+    }
+
+    @Test
+    public void repeatedLookups_ShouldBeServedFromCache() {
+        assertEquals("qwert", cache.getUserByUsername("ali").getPassword());
+        assertEquals("qwert", cache.getUserByUsername("ali").getPassword());
+        assertEquals("ali", cache.getUserByEmail("ali@sharif.edu").getUsername());
+        assertEquals("ali", cache.getUserByEmail("ali@sharif.edu").getUsername());
+
+        assertEquals(2, loads.get());
+        CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(0.5, stats.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void unknownUsers_ShouldBeCachedUntilAdded() {
+        assertNull(cache.getUserByUsername("reza"));
+        assertNull(cache.getUserByUsername("reza"));
+        assertNull(cache.getUserByEmail("reza@sharif.edu"));
+        assertNull(cache.getUserByEmail("reza@sharif.edu"));
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.getStats().getNegativeHitCount());
+
+        assertTrue(cache.addUser(new User("reza", "reza1", "reza@sharif.edu")));
+        assertEquals("reza", cache.getUserByUsername("reza").getUsername());
+        assertEquals("reza", cache.getUserByEmail("reza@sharif.edu").getUsername());
+        assertNotNull(backing.getUserByUsername("reza"));
+    }
+
+    @Test
+    public void emailChange_ShouldInvalidateOldAndNewEmail() {
+        assertNull(cache.getUserByEmail("ali@gmail.com"));
+        assertNotNull(cache.getUserByEmail("ali@sharif.edu"));
+
+        assertTrue(cache.updateEmail("ali", "ali@gmail.com"));
+
+        assertNull(cache.getUserByEmail("ali@sharif.edu"));
+        assertEquals("ali", cache.getUserByEmail("ali@gmail.com").getUsername());
+        assertEquals("ali@gmail.com", cache.getUserByUsername("ali").getEmail());
+    }
+
+    @Test
+    public void removal_ShouldInvalidateUsernameAndEmail() {
+        assertNotNull(cache.getUserByUsername("ali"));
+        assertNotNull(cache.getUserByEmail("ali@sharif.edu"));
+
+        assertTrue(cache.removeUser("ali"));
+
+        assertNull(cache.getUserByUsername("ali"));
+        assertNull(cache.getUserByEmail("ali@sharif.edu"));
+        assertFalse(cache.removeUser("ali"));
+    }
+
+    @Test
+    public void hotUsers_ShouldSurviveScanOfOneOffUsers() {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.getUserByUsername("user" + i);
+            }
+        }
+        for (int i = 100; i < 2000; i++) {
+            cache.getUserByUsername("user" + i);
+        }
+        assertTrue(cache.getSize() <= cache.getMaximumSize());
+
+        loads.set(0);
+        for (int i = 0; i < 100; i++) {
+            cache.getUserByUsername("user" + i);
+        }
+        assertTrue("hot users reloaded: " + loads.get(), loads.get() < 10);
+        assertTrue(cache.getStats().getEvictionCount() > 0);
+    }
+
+    @Test
+    public void service_ShouldLogInThroughCache() {
+        UserService service = new UserService(cache);
+        assertTrue(service.registerUser("reza", "reza1", "reza@sharif.edu"));
+        assertTrue(service.loginWithEmail("reza@sharif.edu", "reza1"));
+        assertTrue(service.loginWithUsername("reza", "reza1"));
+        assertTrue(service.changeUserEmail("reza", "reza@gmail.com"));
+        assertFalse(service.loginWithEmail("reza@sharif.edu", "reza1"));
+        assertTrue(service.loginWithEmail("reza@gmail.com", "reza1"));
+        assertTrue(service.removeUser("reza"));
+        assertFalse(service.loginWithUsername("reza", "reza1"));
+    }
+}
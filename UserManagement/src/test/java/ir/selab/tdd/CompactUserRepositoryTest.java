@@ -0,0 +1,207 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.CompactUserRepository;
+import ir.selab.tdd.repository.Page;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class CompactUserRepositoryTest {
+    private CompactUserRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new CompactUserRepository(List.of(
+                new User("admin", "1234"),
+                new User("ali", "qwert", "ali@sharif.edu"),
+                new User("رضا", "123abc", "reza@sharif.edu")
+        ));
+    }
+
+    @Test
+    public void lookups_ShouldMaterializeStoredUsers() {
+        assertEquals(3, repository.getUserCount());
+        assertEquals(new User("ali", "qwert", "ali@sharif.edu"), repository.getUserByUsername("ali"));
+        assertEquals("رضا", repository.getUserByEmail("reza@sharif.edu").getUsername());
+        assertNull(repository.getUserByUsername("admin").getEmail());
+        assertNull(repository.getUserByUsername("hasan"));
+        assertNull(repository.getUserByEmail("admin@sharif.edu"));
+        assertNull(repository.getUserByEmail(null));
+    }
+
+    @Test
+    public void add_ShouldRejectDuplicatesByWhichIndexClashed() {
+        assertEquals(AddResult.DUPLICATE_USERNAME, repository.tryAddUser(new User("ali", "x", "other@sharif.edu")));
+        assertEquals(AddResult.DUPLICATE_EMAIL, repository.tryAddUser(new User("hasan", "x", "ali@sharif.edu")));
+        assertEquals(AddResult.ADDED, repository.tryAddUser(new User("hasan", "x", "hasan@gmail.com")));
+        assertEquals(4, repository.getUserCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_WithDuplicateEmail_ShouldFail() {
+        new CompactUserRepository(List.of(new User("a", "1", "x@y.z"), new User("b", "2", "x@y.z")));
+    }
+
+    @Test
+    public void updates_ShouldBumpVersionAndMoveEmailIndex() {
+        assertTrue(repository.updateEmail("ali", "ali@gmail.com"));
+        assertNull(repository.getUserByEmail("ali@sharif.edu"));
+        assertEquals(1, repository.getUserByEmail("ali@gmail.com").getVersion());
+
+        assertTrue(repository.updatePassword("ali", 1, "new-hash"));
+        assertFalse(repository.updatePassword("ali", 1, "stale"));
+        User ali = repository.getUserByEmail("ali@gmail.com");
+        assertEquals("new-hash", ali.getPassword());
+        assertEquals(2, ali.getVersion());
+
+        assertFalse(repository.updateEmail("admin", "reza@sharif.edu"));
+        assertFalse(repository.updateEmail("ali", "ali@gmail.com"));
+    }
+
+    @Test
+    public void remove_ShouldFreeUsernameAndEmail() {
+        assertTrue(repository.removeUser("ali"));
+        assertFalse(repository.removeUser("ali"));
+        assertNull(repository.getUserByEmail("ali@sharif.edu"));
+        assertTrue(repository.addUser(new User("taghi", "pw", "ali@sharif.edu")));
+        assertTrue(repository.addUser(new User("ali", "pw")));
+        assertEquals(4, repository.getUserCount());
+    }
+
+    @Test
+    public void manyAddsUpdatesAndRemoves_ShouldSurviveTableGrowthAndPageCompaction() {
+        CompactUserRepository store = new CompactUserRepository();
+        for (int i = 0; i < 50_000; i++) {
+            assertTrue(store.addUser(new User("user" + i, "pw", "user" + i + "@sharif.edu")));
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50_000; i += 2) {
+                assertTrue(store.updatePassword("user" + i, "password-of-round-" + round));
+            }
+        }
+        for (int i = 1; i < 50_000; i += 2) {
+            assertTrue(store.removeUser("user" + i));
+        }
+
+        assertEquals(25_000, store.getUserCount());
+        assertEquals("password-of-round-9", store.getUserByEmail("user4242@sharif.edu").getPassword());
+        assertEquals(10, store.getUserByUsername("user4242").getVersion());
+        assertNull(store.getUserByUsername("user4243"));
+        assertTrue(store.getFootprintBytes() < 16L * 1024 * 1024);
+        assertEquals(25_000, store.stream().parallel().map(User::getUsername).distinct().count());
+    }
+
+    @Test
+    public void page_ShouldListUsernamesInOrder() {
+        repository.addUser(new User("hasan", "pw"));
+
+        Page<User> first = repository.page(null, 2);
+        assertEquals(List.of("admin", "ali"), usernames(first.getItems()));
+        Page<User> second = repository.page(first.getNextCursor(), 2);
+        assertEquals(List.of("hasan", "رضا"), usernames(second.getItems()));
+        assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void stream_ShouldCarryOnWhenTablesAreRebuiltOrCompacted() {
+        CompactUserRepository store = new CompactUserRepository();
+        for (int i = 0; i < 5_000; i++) {
+            store.addUser(new User("user" + i, "pw"));
+        }
+        Iterator<User> users = store.stream().iterator();
+        Set<String> seen = new HashSet<>();
+        seen.add(users.next().getUsername());
+        for (int i = 5_000; i < 20_000; i++) {
+            store.addUser(new User("user" + i, "pw"));
+        }
+        String padding = "p".repeat(1_000);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 20_000; i++) {
+                assertTrue(store.updatePassword("user" + i, padding + round));
+            }
+        }
+
+        while (users.hasNext()) {
+            User user = users.next();
+            assertEquals("pw", user.getPassword());
+            seen.add(user.getUsername());
+        }
+        for (int i = 0; i < 5_000; i++) {
+            assertTrue(seen.contains("user" + i));
+        }
+        assertEquals(20_000, store.stream().count());
+    }
+
+    @Test
+    public void concurrentReadersAndWriters_ShouldAlwaysSeeConsistentUsers() throws InterruptedException {
+        CompactUserRepository store = new CompactUserRepository();
+        for (int i = 0; i < 1_000; i++) {
+            store.addUser(new User("user" + i, "pw", "user" + i + "@sharif.edu"));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = 0; i < 20_000; i++) {
+                    String username = "churn" + writer + "-" + (i % 300);
+                    if (!store.addUser(new User(username, "pw", username + "@sharif.edu"))) {
+                        store.updatePassword(username, "pw" + i);
+                        if (i % 3 == 0) {
+                            store.removeUser(username);
+                        }
+                    }
+                }
+            }));
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = 0; i < 50_000; i++) {
+                    int n = i % 1_000;
+                    User user = store.getUserByEmail("user" + n + "@sharif.edu");
+                    if (user == null || !user.getUsername().equals("user" + n)) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, errors.get());
+        Set<String> usernames = new HashSet<>();
+        for (User user : store.getAllUsers()) {
+            assertTrue(usernames.add(user.getUsername()));
+            assertEquals(user, store.getUserByUsername(user.getUsername()));
+        }
+        assertEquals(store.getUserCount(), usernames.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+}
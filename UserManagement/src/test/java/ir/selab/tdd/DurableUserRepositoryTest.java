@@ -0,0 +1,226 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.DurableUserRepository;
+import ir.selab.tdd.persistence.MutationCodec;
+import ir.selab.tdd.repository.AddResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DurableUserRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopen_ShouldRecoverAddRemoveAndEmailChanges() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertTrue(repository.addUser(new User("admin", "1234")));
+            assertTrue(repository.addUser(new User("ali", "qwert", "ali@sharif.edu")));
+            assertTrue(repository.addUser(new User("hasan", "hasan123@", "hasan@gmail.com")));
+            assertTrue(repository.removeUser("admin"));
+            assertTrue(repository.updateEmail("hasan", "hasan@sharif.edu"));
+            assertFalse(repository.addUser(new User("reza", "123", "ali@sharif.edu")));
+        }
+
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(2, repository.getUserCount());
+            assertNull(repository.getUserByUsername("admin"));
+            assertEquals("qwert", repository.getUserByEmail("ali@sharif.edu").getPassword());
+            assertNull(repository.getUserByEmail("hasan@gmail.com"));
+            assertEquals("hasan", repository.getUserByEmail("hasan@sharif.edu").getUsername());
+        }
+    }
+
+    @Test
+    public void failedAppend_ShouldLeaveStateUnchanged() throws IOException {
+        DurableUserRepository repository = new DurableUserRepository(folder.getRoot().toPath());
+        repository.addUser(new User("ali", "qwert", "ali@sharif.edu"));
+        repository.close();
+        assertThrows(UncheckedIOException.class, () -> repository.addUser(new User("hasan", "1")));
+
+        assertThrows(UncheckedIOException.class, () -> repository.addUser(new User("reza", "2")));
+        assertThrows(UncheckedIOException.class, () -> repository.removeUser("ali"));
+        assertThrows(UncheckedIOException.class, () -> repository.updateEmail("ali", "ali@gmail.com"));
+        assertThrows(UncheckedIOException.class, () -> repository.updatePassword("ali", "new"));
+
+        assertNull(repository.getUserByUsername("hasan"));
+        assertNull(repository.getUserByUsername("reza"));
+        assertEquals(1, repository.getUserCount());
+        User ali = repository.getUserByUsername("ali");
+        assertEquals("ali@sharif.edu", ali.getEmail());
+        assertEquals("qwert", ali.getPassword());
+    }
+
+    @Test
+    public void oversizedUser_ShouldBeRejectedBeforeAnythingIsWritten() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        String huge = "x".repeat(MutationCodec.MAX_PAYLOAD_BYTES);
+        String large = "y".repeat(100_000);
+        try (DurableUserRepository repository = new DurableUserRepository(directory, 1024)) {
+            assertTrue(repository.addUser(new User("ali", "qwert")));
+            assertThrows(IllegalArgumentException.class, () -> repository.addUser(new User("big", huge)));
+            assertThrows(IllegalArgumentException.class, () -> repository.updatePassword("ali", huge));
+            assertTrue(repository.addUser(new User("large", large)));
+            assertTrue(repository.addUser(new User("reza", "123")));
+            repository.compact();
+            assertTrue(repository.addUser(new User("hasan", "456")));
+        }
+
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertNull(repository.getUserByUsername("big"));
+            assertEquals("qwert", repository.getUserByUsername("ali").getPassword());
+            assertEquals(large, repository.getUserByUsername("large").getPassword());
+            assertNotNull(repository.getUserByUsername("reza"));
+            assertNotNull(repository.getUserByUsername("hasan"));
+        }
+    }
+
+    @Test
+    public void batches_ShouldShareOneFsyncAndBeRecovered() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            repository.addUser(new User("ali", "qwert", "ali@sharif.edu"));
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                users.add(new User("user" + i, "pw" + i, "user" + i + "@sharif.edu"));
+            }
+            users.add(new User("ali", "other"));
+            users.add(new User("reza", "123", "user1@sharif.edu"));
+            long syncs = repository.getSyncCount();
+
+            List<AddResult> results = repository.tryAddUsers(users);
+            assertEquals(syncs + 1, repository.getSyncCount());
+            assertEquals(AddResult.ADDED, results.get(999));
+            assertEquals(AddResult.DUPLICATE_USERNAME, results.get(1000));
+            assertEquals(AddResult.DUPLICATE_EMAIL, results.get(1001));
+
+            assertEquals(Arrays.asList(true, false, true, false),
+                    repository.removeUsers(Arrays.asList("user0", "nobody", "user1", "user0")));
+            assertEquals(syncs + 2, repository.getSyncCount());
+        }
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(999, repository.getUserCount());
+            assertNull(repository.getUserByUsername("user0"));
+            assertNull(repository.getUserByEmail("user1@sharif.edu"));
+            assertEquals("pw999", repository.getUserByEmail("user999@sharif.edu").getPassword());
+            assertEquals("qwert", repository.getUserByUsername("ali").getPassword());
+        }
+    }
+
+    @Test
+    public void reopen_WithTornLogTail_ShouldKeepValidPrefix() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            repository.addUser(new User("admin", "1234"));
+            repository.addUser(new User("ali", "qwert"));
+        }
+        Path log = onlyFile(directory, ".wal");
+        Files.write(log, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(2, repository.getUserCount());
+            assertTrue(repository.addUser(new User("reza", "123abc")));
+        }
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(3, repository.getUserCount());
+            assertNotNull(repository.getUserByUsername("reza"));
+        }
+    }
+
+    @Test
+    public void reopen_WithCorruptRecord_ShouldStopAtLastValidRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            repository.addUser(new User("admin", "1234"));
+        }
+        Path log = onlyFile(directory, ".wal");
+        long validLength = Files.size(log);
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            repository.addUser(new User("ali", "qwert"));
+        }
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[(int) validLength + 12] ^= 0x7f;
+        Files.write(log, bytes);
+
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(1, repository.getUserCount());
+            assertNull(repository.getUserByUsername("ali"));
+        }
+    }
+
+    @Test
+    public void compaction_ShouldFoldLogIntoSnapshot() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (DurableUserRepository repository = new DurableUserRepository(directory, 1024)) {
+            for (int i = 0; i < 200; i++) {
+                assertTrue(repository.addUser(new User("user" + i, "pw" + i, "user" + i + "@sharif.edu")));
+            }
+            for (int i = 0; i < 200; i += 2) {
+                assertTrue(repository.removeUser("user" + i));
+            }
+            assertTrue(repository.getLogSize() <= 1024);
+        }
+        assertEquals(1, countFiles(directory, ".snapshot"));
+        assertEquals(1, countFiles(directory, ".wal"));
+
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(100, repository.getUserCount());
+            assertNull(repository.getUserByUsername("user0"));
+            assertEquals("pw1", repository.getUserByEmail("user1@sharif.edu").getPassword());
+        }
+    }
+
+    @Test
+    public void concurrentRegistrations_ShouldAllBeRecovered() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                int thread = t;
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 250; i++) {
+                        assertTrue(repository.addUser(new User("user" + thread + "_" + i, "pw")));
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try (DurableUserRepository repository = new DurableUserRepository(directory)) {
+            assertEquals(2000, repository.getUserCount());
+        }
+    }
+
+    private static Path onlyFile(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).findFirst().orElseThrow(AssertionError::new);
+        }
+    }
+
+    private static long countFiles(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).count();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.CompactUserRepository;
+import ir.selab.tdd.repository.UserRepository;
+
+import java.util.List;
+
+/**
+ * Prints the retained heap per user of {@link UserRepository} and {@link CompactUserRepository}.
+ * Run with a fixed heap, e.g. {@code java -Xms4g -Xmx4g -cp target/classes:target/test-classes
+ * ir.selab.tdd.FootprintReport 1000000}.
+ */
+public class FootprintReport {
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long before = usedHeap();
+        UserRepository repository = new UserRepository(List.of());
+        for (int i = 0; i < users; i++) {
+            repository.addUser(user(i));
+        }
+        long hashMapBytes = usedHeap() - before;
+        System.out.printf("UserRepository:        %6.1f bytes/user over %d users%n",
+                (double) hashMapBytes / users, repository.getUserCount());
+        repository = null;
+
+        before = usedHeap();
+        CompactUserRepository compact = new CompactUserRepository();
+        for (int i = 0; i < users; i++) {
+            compact.addUser(user(i));
+        }
+        long compactBytes = usedHeap() - before;
+        System.out.printf("CompactUserRepository: %6.1f bytes/user over %d users (%.1f in pages and tables)%n",
+                (double) compactBytes / users, compact.getUserCount(), (double) compact.getFootprintBytes() / users);
+    }
+
+    /**
+     * A 12-character username, a 20-character email and a 64-character stand-in for a password hash.
+     */
+    private static User user(int i) {
+        String id = String.format("%08d", i);
+        StringBuilder hash = new StringBuilder(64);
+        while (hash.length() < 64) {
+            hash.append(Integer.toHexString(id.hashCode() * 31 + hash.length()));
+        }
+        hash.setLength(64);
+        return new User("user" + id, hash.toString(), id + "@example.com");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
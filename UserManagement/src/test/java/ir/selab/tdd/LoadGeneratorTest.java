@@ -0,0 +1,66 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.loadtest.LoadGenerator;
+import ir.selab.tdd.loadtest.LoadOperation;
+import ir.selab.tdd.loadtest.LoadReport;
+import ir.selab.tdd.loadtest.LoadTestConfig;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+    @Test
+    public void parse_ShouldReadMixDurationsAndThreads() {
+        LoadTestConfig config = LoadTestConfig.parse("--mix=login:80,change-email:20", "--duration=90s",
+                "--warmup=500ms", "--threads=virtual", "--rate=2500", "--users=10", "--keys=20");
+
+        assertEquals(Map.of(LoadOperation.LOGIN, 80, LoadOperation.CHANGE_EMAIL, 20), config.getMix());
+        assertEquals(Duration.ofSeconds(90), config.getDuration());
+        assertEquals(Duration.ofMillis(500), config.getWarmup());
+        assertEquals(LoadTestConfig.Threads.VIRTUAL, config.getThreads());
+        assertEquals(2500, config.getRate(), 0);
+    }
+
+    @Test
+    public void parse_WithUnknownOptionOrMoreUsersThanKeys_ShouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> LoadTestConfig.parse("--colour=red"));
+        assertThrows(IllegalArgumentException.class, () -> LoadTestConfig.parse("--users=10", "--keys=5"));
+        assertThrows(IllegalArgumentException.class, () -> LoadTestConfig.parse("--mix=login:0"));
+    }
+
+    @Test
+    public void run_ClosedLoop_ShouldReportEveryOperationAndInterval() throws InterruptedException {
+        LoadTestConfig config = smallConfig();
+        config.setConcurrency(2);
+        LoadGenerator generator = new LoadGenerator(config);
+
+        LoadReport report = generator.run(generator.newService());
+
+        assertTrue(report.getTotalOperations() > 0);
+        assertEquals(5, report.getTimeline().size());
+        assertEquals(LoadOperation.values().length, report.getOperations().size());
+        for (LoadReport.OperationResult operation : report.getOperations()) {
+            assertEquals(0, operation.getErrors());
+            assertEquals(operation.getTotal(), operation.getLatency().getCount());
+        }
+        String json = report.toJson();
+        assertTrue(json.startsWith("{\"config\":{\"mix\":{"));
+        assertTrue(json.contains("\"timeline\":[{\"elapsedMillis\":100,"));
+        assertTrue(json.contains("\"p99_9Nanos\":"));
+        assertTrue(json.contains("\"gc\":{\"heapMaxBytes\":"));
+    }
+
+    private static LoadTestConfig smallConfig() {
+        LoadTestConfig config = new LoadTestConfig();
+        config.setUsers(1_000);
+        config.setKeys(1_500);
+        config.setConcurrency(1);
+        config.setWarmup(Duration.ZERO);
+        config.setDuration(Duration.ofMillis(500));
+        config.setReportInterval(Duration.ofMillis(100));
+        return config;
+    }
+}
@@ -0,0 +1,149 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.metrics.Operation;
+import ir.selab.tdd.metrics.Outcome;
+import ir.selab.tdd.metrics.RecordingUserServiceMetrics;
+import ir.selab.tdd.metrics.UserServiceMetrics;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.service.UserService;
+import ir.selab.tdd.throttle.LoginThrottler;
+import ir.selab.tdd.throttle.ThrottlePolicy;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LoginThrottlerTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final ThrottlePolicy accounts =
+            new ThrottlePolicy(3, Duration.ofSeconds(1), 3, Duration.ofSeconds(10), Duration.ofSeconds(60));
+    private final ThrottlePolicy sources =
+            new ThrottlePolicy(5, Duration.ofMillis(100), 100, Duration.ofSeconds(1), Duration.ofSeconds(1));
+    private final LoginThrottler throttler = new LoginThrottler(accounts, sources, 1 << 16, clock::get);
+
+    @Test
+    public void burst_ShouldBeAdmittedThenRefillAtTheInterval() {
+        assertTrue(throttler.tryAcquire("ali", null));
+        assertTrue(throttler.tryAcquire("ali", null));
+        assertTrue(throttler.tryAcquire("ali", null));
+        assertFalse(throttler.tryAcquire("ali", null));
+        assertTrue(throttler.tryAcquire("hasan", null));
+
+        clock.addAndGet(999);
+        assertFalse(throttler.tryAcquire("ali", null));
+        clock.incrementAndGet();
+        assertTrue(throttler.tryAcquire("ali", null));
+        assertFalse(throttler.tryAcquire("ali", null));
+        assertEquals(3, throttler.getRejectedCount());
+    }
+
+    @Test
+    public void repeatedFailures_ShouldLockOutWithGrowingDuration() {
+        for (int i = 0; i < 3; i++) {
+            clock.addAndGet(1000);
+            assertTrue(throttler.tryAcquire("ali", null));
+            throttler.recordFailure("ali", null);
+        }
+        clock.addAndGet(9_999);
+        assertFalse(throttler.tryAcquire("ali", null));
+        clock.incrementAndGet();
+        assertTrue(throttler.tryAcquire("ali", null));
+        throttler.recordFailure("ali", null);
+
+        clock.addAndGet(19_999);
+        assertFalse(throttler.tryAcquire("ali", null));
+        clock.incrementAndGet();
+        assertTrue(throttler.tryAcquire("ali", null));
+        throttler.recordFailure("ali", null);
+        throttler.recordFailure("ali", null);
+        throttler.recordFailure("ali", null);
+        clock.addAndGet(59_999);
+        assertFalse(throttler.tryAcquire("ali", null));
+        clock.incrementAndGet();
+        assertTrue(throttler.tryAcquire("ali", null));
+    }
+
+    @Test
+    public void success_ShouldClearTheAccountButNotTheSource() {
+        for (int i = 0; i < 3; i++) {
+            throttler.recordFailure("ali", "10.0.0.1");
+        }
+        throttler.recordSuccess("ali");
+        assertTrue(throttler.tryAcquire("ali", "10.0.0.1"));
+    }
+
+    @Test
+    public void source_ShouldBeLimitedAcrossAccounts() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(throttler.tryAcquire("user" + i, "10.0.0.1"));
+        }
+        assertFalse(throttler.tryAcquire("user5", "10.0.0.1"));
+        assertTrue(throttler.tryAcquire("user5", "10.0.0.2"));
+    }
+
+    @Test
+    public void trackedKeys_ShouldStayBounded() {
+        LoginThrottler small = new LoginThrottler(accounts, sources, 1024, clock::get);
+        for (int i = 0; i < 100_000; i++) {
+            small.tryAcquire("user" + i, null);
+            if (i % 1000 == 0) {
+                clock.addAndGet(1000);
+            }
+        }
+        assertTrue(small.getTrackedKeyCount() <= 1024);
+    }
+
+    @Test
+    public void fullStripes_ShouldStillLimitFreshAccounts() {
+        LoginThrottler small = new LoginThrottler(accounts, sources, 128, clock::get);
+        for (int i = 0; i < 10_000; i++) {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                if (small.tryAcquire("bot" + i, null)) {
+                    small.recordFailure("bot" + i, null);
+                }
+            }
+        }
+        assertTrue(small.getUntrackedCount() > 0);
+
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (small.tryAcquire("victim", null)) {
+                admitted++;
+                small.recordFailure("victim", null);
+            }
+        }
+        assertTrue(admitted <= 3);
+    }
+
+    @Test
+    public void userService_ShouldNotVerifyThrottledAttempts() {
+        AtomicInteger verifications = new AtomicInteger();
+        PlaintextPasswordHasher hasher = new PlaintextPasswordHasher() {
+            @Override
+            public boolean verify(String password, String encoded) {
+                verifications.incrementAndGet();
+                return super.verify(password, encoded);
+            }
+        };
+        UserServiceMetrics metrics = new RecordingUserServiceMetrics(1);
+        UserService service = new UserService(new UserRepository(new ArrayList<>()), hasher, null, metrics, null,
+                throttler);
+        service.registerUser("ali", "qwert", "ali@sharif.edu");
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(service.loginWithUsername("ali", "guess" + i, "10.0.0.1"));
+        }
+        assertEquals(3, verifications.get());
+        assertEquals(97, metrics.snapshot().getCount(Operation.LOGIN_WITH_USERNAME, Outcome.THROTTLED));
+        assertFalse(service.loginWithUsername("ali", "qwert"));
+
+        clock.addAndGet(10_000);
+        assertTrue(service.loginWithUsername("ali", "qwert"));
+        assertTrue(service.loginWithEmail("ali@sharif.edu", "qwert"));
+    }
+}
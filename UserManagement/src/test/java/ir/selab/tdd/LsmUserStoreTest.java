@@ -0,0 +1,215 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.LsmUserStore;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.service.UserService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class LsmUserStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopen_ShouldReplayLogIntoMemtable() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (LsmUserStore store = new LsmUserStore(directory)) {
+            assertTrue(store.addUser(new User("admin", "1234")));
+            assertTrue(store.addUser(new User("ali", "qwert", "ali@sharif.edu")));
+            assertTrue(store.addUser(new User("hasan", "hasan123@", "hasan@gmail.com")));
+            assertEquals(AddResult.DUPLICATE_EMAIL, store.tryAddUser(new User("reza", "123", "ali@sharif.edu")));
+            assertTrue(store.removeUser("admin"));
+            assertTrue(store.updateEmail("hasan", "hasan@sharif.edu"));
+        }
+
+        try (LsmUserStore store = new LsmUserStore(directory)) {
+            assertEquals(2, store.getUserCount());
+            assertNull(store.getUserByUsername("admin"));
+            assertEquals("qwert", store.getUserByEmail("ali@sharif.edu").getPassword());
+            assertNull(store.getUserByEmail("hasan@gmail.com"));
+            assertEquals(1, store.getUserByEmail("hasan@sharif.edu").getVersion());
+        }
+    }
+
+    @Test
+    public void failedAppend_ShouldLeaveStateUnchanged() throws IOException {
+        LsmUserStore store = new LsmUserStore(folder.getRoot().toPath());
+        store.addUser(new User("ali", "qwert", "ali@sharif.edu"));
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(UncheckedIOException.class, () -> store.addUser(new User("hasan", "1")));
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertThrows(UncheckedIOException.class, () -> store.addUser(new User("reza", "2")));
+        assertThrows(UncheckedIOException.class, () -> store.removeUser("ali"));
+        assertThrows(UncheckedIOException.class, () -> store.updateEmail("ali", "ali@gmail.com"));
+        assertThrows(UncheckedIOException.class, () -> store.updatePassword("ali", "new"));
+
+        assertNull(store.getUserByUsername("hasan"));
+        assertNull(store.getUserByUsername("reza"));
+        User ali = store.getUserByUsername("ali");
+        assertEquals("ali@sharif.edu", ali.getEmail());
+        assertEquals("qwert", ali.getPassword());
+        assertEquals(ali, store.getUserByEmail("ali@sharif.edu"));
+        assertEquals(1, store.getUserCount());
+        assertThrows(IOException.class, store::close);
+    }
+
+    @Test
+    public void batches_ShouldMatchSingleWritesAndBeReplayed() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (LsmUserStore store = new LsmUserStore(directory)) {
+            store.addUser(new User("ali", "qwert", "ali@sharif.edu"));
+            assertEquals(Arrays.asList(AddResult.ADDED, AddResult.DUPLICATE_USERNAME, AddResult.DUPLICATE_EMAIL,
+                    AddResult.DUPLICATE_USERNAME, AddResult.ADDED),
+                    store.tryAddUsers(Arrays.asList(
+                            new User("hasan", "1", "hasan@sharif.edu"),
+                            new User("ali", "2"),
+                            new User("reza", "3", "hasan@sharif.edu"),
+                            new User("hasan", "4"),
+                            new User("reza", "5", "reza@sharif.edu"))));
+            assertEquals(Arrays.asList(true, false, false),
+                    store.removeUsers(Arrays.asList("ali", "nobody", "ali")));
+        }
+        try (LsmUserStore store = new LsmUserStore(directory)) {
+            assertEquals(2, store.getUserCount());
+            assertNull(store.getUserByUsername("ali"));
+            assertEquals("1", store.getUserByEmail("hasan@sharif.edu").getPassword());
+            assertEquals("5", store.getUserByUsername("reza").getPassword());
+        }
+    }
+
+    @Test
+    public void lookupsAfterFlush_ShouldReadAtMostOneBlock() throws IOException {
+        try (LsmUserStore store = new LsmUserStore(folder.getRoot().toPath())) {
+            for (int i = 0; i < 1000; i++) {
+                store.addUser(new User("user" + i, "pass" + i, "user" + i + "@sharif.edu"));
+            }
+            store.flush();
+            for (int i = 1000; i < 2000; i++) {
+                store.addUser(new User("user" + i, "pass" + i, "user" + i + "@sharif.edu"));
+            }
+            store.flush();
+            assertEquals(2, store.getSegmentCount());
+
+            long before = store.getBlockReads();
+            assertEquals("pass10", store.getUserByUsername("user10").getPassword());
+            assertEquals("user1500", store.getUserByEmail("user1500@sharif.edu").getUsername());
+            assertTrue(store.getBlockReads() - before <= 2);
+
+            before = store.getBlockReads();
+            for (int i = 0; i < 100; i++) {
+                assertNull(store.getUserByUsername("missing" + i));
+            }
+            assertTrue("blocks read for unknown users: " + (store.getBlockReads() - before),
+                    store.getBlockReads() - before < 10);
+        }
+    }
+
+    @Test
+    public void tombstones_ShouldHideOlderSegmentsUntilCompacted() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (LsmUserStore store = new LsmUserStore(directory)) {
+            store.addUser(new User("ali", "qwert", "ali@sharif.edu"));
+            store.addUser(new User("hasan", "hasan123@", "hasan@gmail.com"));
+            store.flush();
+            assertTrue(store.removeUser("ali"));
+            assertTrue(store.updateEmail("hasan", "hasan@sharif.edu"));
+            store.flush();
+
+            assertNull(store.getUserByUsername("ali"));
+            assertNull(store.getUserByEmail("ali@sharif.edu"));
+            assertNull(store.getUserByEmail("hasan@gmail.com"));
+
+            store.compact();
+            assertEquals(1, store.getSegmentCount());
+            assertNull(store.getUserByUsername("ali"));
+            assertEquals("hasan", store.getUserByEmail("hasan@sharif.edu").getUsername());
+            assertTrue(store.addUser(new User("ali", "new", "ali@sharif.edu")));
+        }
+        try (LsmUserStore store = new LsmUserStore(directory)) {
+            assertEquals(2, store.getUserCount());
+            assertEquals("new", store.getUserByEmail("ali@sharif.edu").getPassword());
+            assertNull(store.getUserByEmail("hasan@gmail.com"));
+        }
+    }
+
+    @Test
+    public void backgroundFlushAndCompaction_ShouldKeepEveryUser() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (LsmUserStore store = new LsmUserStore(directory, 8 * 1024, 3)) {
+            for (int i = 0; i < 3000; i++) {
+                assertTrue(store.addUser(new User(String.format("user%05d", i), "pass" + i, "user" + i + "@sharif.edu")));
+            }
+            for (int i = 0; i < 3000; i += 3) {
+                assertTrue(store.removeUser(String.format("user%05d", i)));
+            }
+            for (int i = 1; i < 3000; i += 3) {
+                assertTrue(store.updateEmail(String.format("user%05d", i), "moved" + i + "@sharif.edu"));
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (store.getCompactionCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(store.getFlushCount() > 0);
+            assertTrue(store.getCompactionCount() > 0);
+            assertStoreContents(store);
+        }
+        try (LsmUserStore store = new LsmUserStore(directory, 8 * 1024, 3)) {
+            assertStoreContents(store);
+        }
+    }
+
+    @Test
+    public void service_ShouldRunOnLsmStore() throws IOException {
+        try (LsmUserStore store = new LsmUserStore(folder.getRoot().toPath())) {
+            UserService service = new UserService(store);
+            assertTrue(service.registerUser("reza", "reza1", "reza@sharif.edu"));
+            store.flush();
+            assertTrue(service.loginWithEmail("reza@sharif.edu", "reza1"));
+            assertTrue(service.changeUserEmail("reza", "reza@gmail.com"));
+            assertFalse(service.loginWithEmail("reza@sharif.edu", "reza1"));
+            assertTrue(service.removeUser("reza"));
+            assertFalse(service.loginWithUsername("reza", "reza1"));
+        }
+    }
+
+    private static void assertStoreContents(LsmUserStore store) {
+        assertEquals(2000, store.getUserCount());
+        assertNull(store.getUserByUsername("user00000"));
+        assertNull(store.getUserByEmail("user0@sharif.edu"));
+        assertNull(store.getUserByEmail("user1@sharif.edu"));
+        assertEquals("user00001", store.getUserByEmail("moved1@sharif.edu").getUsername());
+        assertEquals("user02998", store.getUserByEmail("moved2998@sharif.edu").getUsername());
+        assertEquals("user2@sharif.edu", store.getUserByUsername("user00002").getEmail());
+
+        List<String> paged = new ArrayList<>();
+        Page<User> page = store.page(null, 128);
+        while (true) {
+            page.getItems().forEach(user -> paged.add(user.getUsername()));
+            if (!page.hasNext()) {
+                break;
+            }
+            page = store.page(page.getNextCursor(), 128);
+        }
+        List<String> streamed = store.stream().map(User::getUsername).collect(Collectors.toList());
+        assertEquals(2000, paged.size());
+        assertEquals(streamed, paged);
+        assertEquals(paged.stream().sorted().collect(Collectors.toList()), paged);
+    }
+}
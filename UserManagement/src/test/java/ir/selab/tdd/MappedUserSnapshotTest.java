@@ -0,0 +1,113 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.MappedUserSnapshot;
+import ir.selab.tdd.repository.UserRepository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedUserSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedUserSnapshot snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.snapshot");
+        MappedUserSnapshot.write(file, List.of(
+                new User("hasan", "hasan123@", "hasan@gmail.com"),
+                new User("admin", "1234"),
+                new User("ali", "qwert", "ali@sharif.edu"),
+                new User("رضا", "123abc", "reza@sharif.edu")
+        ));
+        snapshot = MappedUserSnapshot.open(file);
+    }
+
+    @Test
+    public void lookups_ShouldBeServedFromMappedFile() {
+        assertEquals(4, snapshot.getUserCount());
+        assertEquals(new User("ali", "qwert", "ali@sharif.edu"), snapshot.getUserByUsername("ali"));
+        assertEquals("hasan", snapshot.getUserByEmail("hasan@gmail.com").getUsername());
+        assertEquals("reza@sharif.edu", snapshot.getUserByUsername("رضا").getEmail());
+        assertNull(snapshot.getUserByUsername("admin").getEmail());
+        assertNull(snapshot.getUserByUsername("reza"));
+        assertNull(snapshot.getUserByEmail("admin@sharif.edu"));
+        assertNull(snapshot.getUserByEmail(null));
+    }
+
+    @Test
+    public void iteration_ShouldFollowUsernameOrder() {
+        List<String> usernames = new ArrayList<>();
+        for (User user : snapshot) {
+            usernames.add(user.getUsername());
+        }
+        assertEquals(List.of("admin", "ali", "hasan", "رضا"), usernames);
+    }
+
+    @Test
+    public void open_WithTruncatedFile_ShouldFail() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.snapshot");
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = folder.getRoot().toPath().resolve("truncated.snapshot");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 8));
+        assertThrows(IOException.class, () -> MappedUserSnapshot.open(truncated));
+    }
+
+    @Test
+    public void open_WithEmptySnapshot_ShouldHaveNoUsers() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.snapshot");
+        MappedUserSnapshot.write(file, List.of());
+        MappedUserSnapshot empty = MappedUserSnapshot.open(file);
+        assertEquals(0, empty.getUserCount());
+        assertNull(empty.getUserByUsername("admin"));
+        assertFalse(empty.iterator().hasNext());
+    }
+
+    @Test
+    public void repositoryOverSnapshot_ShouldFaultUsersInOnDemand() {
+        UserRepository repository = new UserRepository(snapshot);
+        assertEquals(4, repository.getUserCount());
+        assertEquals("qwert", repository.getUserByUsername("ali").getPassword());
+        assertSame(repository.getUserByUsername("ali"), repository.getUserByEmail("ali@sharif.edu"));
+        assertEquals(4, repository.getUserCount());
+        assertEquals(4, repository.getAllUsers().size());
+    }
+
+    @Test
+    public void repositoryOverSnapshot_ShouldEnforceUniquenessAgainstSnapshot() {
+        UserRepository repository = new UserRepository(snapshot);
+        assertFalse(repository.addUser(new User("hasan", "other")));
+        assertFalse(repository.addUser(new User("hasanGholi", "other", "hasan@gmail.com")));
+        assertTrue(repository.addUser(new User("hasanGholi", "other", "gholi@gmail.com")));
+        assertEquals(5, repository.getUserCount());
+    }
+
+    @Test
+    public void repositoryOverSnapshot_ShouldShadowRemovedAndChangedUsers() {
+        UserRepository repository = new UserRepository(snapshot);
+        assertTrue(repository.removeUser("admin"));
+        assertNull(repository.getUserByUsername("admin"));
+        assertFalse(repository.removeUser("admin"));
+
+        assertTrue(repository.updateEmail("hasan", "hasan@sharif.edu"));
+        assertNull(repository.getUserByEmail("hasan@gmail.com"));
+        assertEquals("hasan", repository.getUserByEmail("hasan@sharif.edu").getUsername());
+        assertTrue(repository.addUser(new User("hasanGholi", "other", "hasan@gmail.com")));
+
+        assertFalse(repository.updateEmail("ali", "reza@sharif.edu"));
+        assertEquals(4, repository.getUserCount());
+        assertEquals(4, repository.getAllUsers().size());
+    }
+}
@@ -0,0 +1,99 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.CountingBloomFilter;
+import ir.selab.tdd.repository.NegativeLookupFilter;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.service.UserService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NegativeLookupFilterTest {
+    private NegativeLookupFilter filter;
+    private UserRepository repository;
+
+    @Before
+    public void setUp() {
+        filter = new NegativeLookupFilter(10_000, 0.01);
+        repository = new UserRepository(List.of(
+                new User("admin", "1234"),
+                new User("ali", "qwert", "ali@sharif.edu")
+        ), filter);
+    }
+
+    @Test
+    public void unknownUsers_ShouldBeAnsweredByFilter() {
+        for (int i = 0; i < 1_000; i++) {
+            assertNull(repository.getUserByUsername("intruder" + i));
+            assertNull(repository.getUserByEmail("intruder" + i + "@evil.com"));
+        }
+        assertNotNull(repository.getUserByUsername("ali"));
+        assertNotNull(repository.getUserByEmail("ali@sharif.edu"));
+
+        assertEquals(2, filter.getHits());
+        assertEquals(2_000, filter.getDefiniteMisses() + filter.getFalsePositives());
+        assertTrue(filter.getFalsePositiveRate() < 0.05);
+    }
+
+    @Test
+    public void filter_ShouldFollowAddsRemovesAndEmailChanges() {
+        assertTrue(repository.addUser(new User("reza", "pw", "reza@sharif.edu")));
+        assertEquals("reza", repository.getUserByEmail("reza@sharif.edu").getUsername());
+
+        assertTrue(repository.updateEmail("reza", "reza@gmail.com"));
+        assertEquals("reza", repository.getUserByEmail("reza@gmail.com").getUsername());
+        assertNull(repository.getUserByEmail("reza@sharif.edu"));
+
+        assertTrue(repository.removeUser("reza"));
+        assertNull(repository.getUserByUsername("reza"));
+        assertTrue(repository.addUser(new User("reza", "pw", "reza@gmail.com")));
+        assertNotNull(repository.getUserByUsername("reza"));
+    }
+
+    @Test
+    public void rejectedAdds_ShouldNotLeaveKeysBehind() {
+        CountingBloomFilter bloom = new CountingBloomFilter(1_000, 0.001);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            keys.add("user" + i);
+            bloom.add("user" + i);
+        }
+        for (String key : keys) {
+            assertTrue(bloom.mightContain(key));
+        }
+        for (String key : keys) {
+            bloom.remove(key);
+        }
+        for (String key : keys) {
+            assertFalse(bloom.mightContain(key));
+        }
+
+        assertFalse(repository.addUser(new User("hasan", "pw", "ali@sharif.edu")));
+        assertNull(repository.getUserByUsername("hasan"));
+        assertTrue(filter.getDefiniteMisses() > 0);
+    }
+
+    @Test
+    public void registration_WithTakenUsername_ShouldNotHashPassword() {
+        int[] hashes = new int[1];
+        UserService service = new UserService(repository, new PlaintextPasswordHasher() {
+            @Override
+            public String hash(String password) {
+                hashes[0]++;
+                return super.hash(password);
+            }
+        });
+
+        assertFalse(service.registerUser("ali", "secret"));
+        assertFalse(service.registerUser("newbie", "secret", "ali@sharif.edu"));
+        assertEquals(0, hashes[0]);
+        assertTrue(service.registerUser("newbie", "secret", "newbie@sharif.edu"));
+        assertEquals(1, hashes[0]);
+    }
+}
@@ -0,0 +1,185 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.security.PasswordHashingPool;
+import ir.selab.tdd.security.Pbkdf2PasswordHasher;
+import ir.selab.tdd.service.BatchOutcome;
+import ir.selab.tdd.service.Credentials;
+import ir.selab.tdd.service.Registration;
+import ir.selab.tdd.service.UserService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class PasswordHashingTest {
+    private Pbkdf2PasswordHasher hasher;
+    private PasswordHashingPool pool;
+    private UserRepository repository;
+    private UserService userService;
+
+    @Before
+    public void setUp() {
+        hasher = new Pbkdf2PasswordHasher(1_000, 16, 256);
+        pool = new PasswordHashingPool(2, 16);
+        repository = new UserRepository(List.of());
+        userService = new UserService(repository, hasher, pool);
+        userService.registerUser("admin", "1234");
+        userService.registerUser("hasan", "hasan123@", "hasan@gmail.com");
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void hash_ShouldBeSaltedAndVerifiable() {
+        String first = hasher.hash("secret");
+        String second = hasher.hash("secret");
+        assertNotEquals(first, second);
+        assertTrue(first.startsWith("pbkdf2-sha256$1000$256$"));
+        assertTrue(hasher.verify("secret", first));
+        assertTrue(hasher.verify("secret", second));
+        assertFalse(hasher.verify("Secret", first));
+        assertFalse(hasher.verify("secret", "secret"));
+        assertFalse(hasher.verify("secret", "pbkdf2-sha256$1000$256$!!$!!"));
+    }
+
+    @Test
+    public void needsRehash_ShouldDetectChangedParameters() {
+        String encoded = hasher.hash("secret");
+        assertFalse(hasher.needsRehash(encoded));
+        assertTrue(new Pbkdf2PasswordHasher(2_000, 16, 256).needsRehash(encoded));
+        assertTrue(new Pbkdf2PasswordHasher(1_000, 16, 512).needsRehash(encoded));
+        assertTrue(hasher.needsRehash("plaintext"));
+    }
+
+    @Test
+    public void registerUser_ShouldStoreHashInsteadOfPassword() {
+        String stored = repository.getUserByUsername("admin").getPassword();
+        assertNotEquals("1234", stored);
+        assertTrue(hasher.verify("1234", stored));
+    }
+
+    @Test
+    public void login_ShouldVerifyAgainstStoredHash() {
+        assertTrue(userService.loginWithUsername("admin", "1234"));
+        assertFalse(userService.loginWithUsername("admin", "abcd"));
+        assertTrue(userService.loginWithEmail("hasan@gmail.com", "hasan123@"));
+        assertFalse(userService.loginWithEmail("hasan@gmail.com", "hasan123"));
+        assertFalse(userService.loginWithUsername("admin", null));
+    }
+
+    @Test
+    public void login_WithOutdatedParameters_ShouldRehashTransparently() {
+        Pbkdf2PasswordHasher stronger = new Pbkdf2PasswordHasher(2_000, 16, 256);
+        UserService upgraded = new UserService(repository, stronger, pool);
+        String before = repository.getUserByUsername("hasan").getPassword();
+
+        assertTrue(upgraded.loginWithEmail("hasan@gmail.com", "hasan123@"));
+
+        User after = repository.getUserByUsername("hasan");
+        assertNotEquals(before, after.getPassword());
+        assertFalse(stronger.needsRehash(after.getPassword()));
+        assertTrue(upgraded.loginWithUsername("hasan", "hasan123@"));
+        assertFalse(upgraded.loginWithUsername("hasan", "wrong"));
+    }
+
+    @Test
+    public void login_WithFailedPassword_ShouldNotRehash() {
+        UserService upgraded = new UserService(repository, new Pbkdf2PasswordHasher(2_000, 16, 256), pool);
+        String before = repository.getUserByUsername("admin").getPassword();
+        assertFalse(upgraded.loginWithUsername("admin", "abcd"));
+        assertEquals(before, repository.getUserByUsername("admin").getPassword());
+    }
+
+    @Test
+    public void login_WithLegacyPlaintext_ShouldVerifyAndHashIt() {
+        assertTrue(repository.addUser(new User("legacy", "old-pass")));
+
+        assertFalse(userService.loginWithUsername("legacy", "old-pas"));
+        assertEquals("old-pass", repository.getUserByUsername("legacy").getPassword());
+        assertTrue(userService.loginWithUsername("legacy", "old-pass"));
+
+        String stored = repository.getUserByUsername("legacy").getPassword();
+        assertTrue(hasher.isEncoded(stored));
+        assertTrue(hasher.verify("old-pass", stored));
+        assertTrue(userService.loginWithUsername("legacy", "old-pass"));
+    }
+
+    @Test
+    public void login_WhenRehashFails_ShouldStillSucceed() {
+        UserRepository failing = new UserRepository(List.of()) {
+            @Override
+            public boolean updatePassword(String username, long expectedVersion, String newPassword) {
+                throw new IllegalStateException("store unavailable");
+            }
+        };
+        assertTrue(failing.addUser(new User("legacy", "old-pass")));
+        UserService service = new UserService(failing, hasher, pool);
+
+        assertTrue(service.loginWithUsername("legacy", "old-pass"));
+        assertEquals("old-pass", failing.getUserByUsername("legacy").getPassword());
+    }
+
+    @Test
+    public void batches_ShouldHashAndVerifyOnThePoolInParallel() {
+        PasswordHashingPool small = new PasswordHashingPool(2, 2);
+        UserService service = new UserService(repository, hasher, small);
+        try {
+            List<Registration> registrations = new ArrayList<>();
+            List<Credentials> credentials = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                registrations.add(new Registration("user" + i, "pass" + i));
+                credentials.add(new Credentials("user" + i, i % 2 == 0 ? "pass" + i : "wrong"));
+            }
+            assertTrue(service.registerUsers(registrations).stream()
+                    .allMatch(outcome -> outcome == BatchOutcome.SUCCESS));
+            assertTrue(hasher.verify("pass7", repository.getUserByUsername("user7").getPassword()));
+
+            List<BatchOutcome> outcomes = service.loginWithUsernames(credentials);
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i % 2 == 0 ? BatchOutcome.SUCCESS : BatchOutcome.BAD_PASSWORD, outcomes.get(i));
+            }
+            assertEquals(0, small.getRejectedCount());
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    public void saturatedPool_ShouldRejectInsteadOfQueueing() throws Exception {
+        PasswordHashingPool tiny = new PasswordHashingPool(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread running = new Thread(() -> tiny.execute(() -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        running.start();
+        started.await();
+        Thread queued = new Thread(() -> tiny.execute(() -> null));
+        queued.start();
+        while (tiny.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+        try {
+            assertThrows(RejectedExecutionException.class, () -> tiny.execute(() -> null));
+            assertTrue(tiny.getRejectedCount() >= 1);
+        } finally {
+            release.countDown();
+            running.join();
+            queued.join();
+            tiny.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.PersistentUserRepository;
+import ir.selab.tdd.repository.UserSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PersistentUserRepositoryTest {
+    private PersistentUserRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new PersistentUserRepository(Arrays.asList(
+                new User("admin", "1234"),
+                new User("ali", "qwert"),
+                new User("hasan", "hasan123@", "hasan@gmail.com")
+        ));
+    }
+
+    @Test
+    public void snapshot_ShouldNotSeeLaterWrites() {
+        UserSnapshot before = repository.snapshot();
+
+        assertTrue(repository.addUser(new User("reza", "pass", "reza@sharif.edu")));
+        assertTrue(repository.updateEmail("hasan", "hasan@sharif.edu"));
+        assertTrue(repository.removeUser("admin"));
+
+        assertEquals(3, before.getUserCount());
+        assertNull(before.getUserByUsername("reza"));
+        assertNotNull(before.getUserByUsername("admin"));
+        assertEquals("hasan", before.getUserByEmail("hasan@gmail.com").getUsername());
+        assertNull(before.getUserByEmail("hasan@sharif.edu"));
+        Set<String> usernames = new HashSet<>();
+        before.forEach(user -> usernames.add(user.getUsername()));
+        assertEquals(new HashSet<>(Arrays.asList("admin", "ali", "hasan")), usernames);
+
+        UserSnapshot after = repository.snapshot();
+        assertEquals(3, after.getUserCount());
+        assertNull(after.getUserByEmail("hasan@gmail.com"));
+        assertEquals("reza", after.getUserByEmail("reza@sharif.edu").getUsername());
+    }
+
+    @Test
+    public void duplicates_ShouldBeRejected() {
+        assertFalse(repository.addUser(new User("ali", "other")));
+        assertFalse(repository.addUser(new User("hossein", "other", "hasan@gmail.com")));
+        assertFalse(repository.updateEmail("ali", "hasan@gmail.com"));
+        assertEquals(3, repository.getUserCount());
+    }
+
+    @Test
+    public void collidingHashes_ShouldBeKeptApart() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertTrue(repository.addUser(new User("Aa", "first", "AaBB")));
+        assertTrue(repository.addUser(new User("BB", "second", "BBAa")));
+        assertEquals("first", repository.getUserByUsername("Aa").getPassword());
+        assertEquals("second", repository.getUserByEmail("BBAa").getPassword());
+
+        assertTrue(repository.removeUser("Aa"));
+        assertNull(repository.getUserByUsername("Aa"));
+        assertEquals("second", repository.getUserByUsername("BB").getPassword());
+        assertEquals(4, repository.getUserCount());
+    }
+
+    @Test
+    public void randomOperations_ShouldMatchHashMap() {
+        Map<String, User> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String username = "user" + random.nextInt(3000);
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                User user = new User(username, "pass" + i);
+                assertEquals(expected.putIfAbsent(username, user) == null, repository.addUser(user));
+            } else if (operation == 1) {
+                assertEquals(expected.remove(username) != null, repository.removeUser(username));
+            } else {
+                User current = expected.get(username);
+                assertEquals(current != null, repository.updatePassword(username, "changed" + i));
+                if (current != null) {
+                    expected.put(username, current.withPassword("changed" + i));
+                }
+            }
+        }
+        expected.put("admin", new User("admin", "1234"));
+        expected.put("ali", new User("ali", "qwert"));
+        expected.put("hasan", new User("hasan", "hasan123@", "hasan@gmail.com"));
+        assertEquals(expected.size(), repository.getUserCount());
+        for (User user : repository.getAllUsers()) {
+            assertEquals(expected.get(user.getUsername()), user);
+        }
+        assertEquals(expected.size(), repository.getAllUsers().size());
+    }
+
+    @Test
+    public void snapshots_ShouldStayConsistentUnderConcurrentWrites() throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 3000; i++) {
+                    String username = "w" + writer + "-" + i;
+                    repository.addUser(new User(username, "pass", username + "@sharif.edu"));
+                    if (i % 2 == 0) {
+                        repository.removeUser(username);
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        while (!done.get()) {
+            done.set(writers.stream().noneMatch(Thread::isAlive));
+            UserSnapshot snapshot = repository.snapshot();
+            int count = 0;
+            for (User user : snapshot) {
+                count++;
+                if (user.getEmail() != null) {
+                    assertSame(user, snapshot.getUserByEmail(user.getEmail()));
+                }
+            }
+            assertEquals(snapshot.getUserCount(), count);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(3 + 3 * 1500, repository.getUserCount());
+    }
+}
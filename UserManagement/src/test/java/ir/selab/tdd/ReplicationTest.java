@@ -0,0 +1,131 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.MutationCodec;
+import ir.selab.tdd.replication.ReplicatedUserRepository;
+import ir.selab.tdd.replication.ReplicationFollower;
+import ir.selab.tdd.replication.ReplicationServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplicationTest {
+    private ReplicatedUserRepository leader;
+    private ReplicationServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        leader = new ReplicatedUserRepository(List.of(
+                new User("admin", "1234"),
+                new User("ali", "qwert", "ali@sharif.edu")
+        ), 16);
+        server = new ReplicationServer(leader, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 20, 4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void follower_ShouldInstallSnapshotAndApplyStreamedMutations() throws Exception {
+        leader.addUser(new User("hasan", "hasan123@", "hasan@gmail.com"));
+        try (ReplicationFollower follower = new ReplicationFollower(server.getLocalAddress())) {
+            assertTrue(follower.awaitOffset(leader.getOffset(), 5, TimeUnit.SECONDS));
+            assertEquals(3, follower.getUserCount());
+
+            leader.removeUser("admin");
+            leader.updateEmail("ali", "ali@gmail.com");
+            leader.updatePassword("hasan", "changed");
+            for (int i = 0; i < 10; i++) {
+                leader.addUser(new User("user" + i, "pass" + i, "user" + i + "@sharif.edu"));
+            }
+            assertTrue(follower.awaitOffset(leader.getOffset(), 5, TimeUnit.SECONDS));
+
+            assertEquals(new HashSet<>(leader.getAllUsers()), new HashSet<>(follower.getAllUsers()));
+            assertNull(follower.getUserByUsername("admin"));
+            assertEquals("ali", follower.getUserByEmail("ali@gmail.com").getUsername());
+            assertNull(follower.getUserByEmail("ali@sharif.edu"));
+            assertEquals("changed", follower.getUserByUsername("hasan").getPassword());
+            assertEquals(1, follower.getSnapshotsInstalled());
+        }
+    }
+
+    @Test
+    public void reconnectingFollower_ShouldResumeFromItsOffset() throws Exception {
+        InetSocketAddress address = server.getLocalAddress();
+        try (ReplicationFollower follower = new ReplicationFollower(address, 20)) {
+            assertTrue(follower.awaitOffset(0, 5, TimeUnit.SECONDS));
+            server.close();
+            leader.addUser(new User("reza", "reza1"));
+            leader.updateEmail("reza", "reza@sharif.edu");
+            server = new ReplicationServer(leader, address, 20, 4);
+
+            assertTrue(follower.awaitOffset(leader.getOffset(), 5, TimeUnit.SECONDS));
+            assertEquals("reza", follower.getUserByEmail("reza@sharif.edu").getUsername());
+            assertEquals(1, follower.getSnapshotsInstalled());
+            assertTrue(follower.getConnections() >= 2);
+        }
+    }
+
+    @Test
+    public void followerBehindRetainedLog_ShouldCatchUpFromFreshSnapshot() throws Exception {
+        InetSocketAddress address = server.getLocalAddress();
+        try (ReplicationFollower follower = new ReplicationFollower(address, 20)) {
+            assertTrue(follower.awaitOffset(0, 5, TimeUnit.SECONDS));
+            server.close();
+            for (int i = 0; i < 40; i++) {
+                leader.addUser(new User("user" + i, "pass" + i));
+            }
+            server = new ReplicationServer(leader, address, 20, 4);
+
+            assertTrue(follower.awaitOffset(leader.getOffset(), 5, TimeUnit.SECONDS));
+            assertEquals(42, follower.getUserCount());
+            assertEquals(2, follower.getSnapshotsInstalled());
+        }
+    }
+
+    @Test
+    public void oversizedWrite_ShouldBeRejectedWithoutStoppingTheServer() throws Exception {
+        String huge = "x".repeat(MutationCodec.MAX_PAYLOAD_BYTES);
+        try (ReplicationFollower follower = new ReplicationFollower(server.getLocalAddress())) {
+            assertThrows(IllegalArgumentException.class, () -> leader.addUser(new User("big", huge)));
+            assertThrows(IllegalArgumentException.class, () -> leader.updatePassword("ali", huge));
+            assertNull(leader.getUserByUsername("big"));
+            assertEquals(0, leader.getOffset());
+
+            leader.addUser(new User("reza", "reza1"));
+            assertTrue(follower.awaitOffset(leader.getOffset(), 5, TimeUnit.SECONDS));
+            assertEquals("qwert", follower.getUserByUsername("ali").getPassword());
+            assertNotNull(follower.getUserByUsername("reza"));
+        }
+    }
+
+    @Test
+    public void lagMetrics_ShouldReportCaughtUpFollower() throws Exception {
+        try (ReplicationFollower follower = new ReplicationFollower(server.getLocalAddress())) {
+            leader.addUser(new User("reza", "reza1"));
+            assertTrue(follower.awaitOffset(1, 5, TimeUnit.SECONDS));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!server.getFollowerLag().containsValue(0L) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, server.getFollowerCount());
+            assertEquals(List.of(0L), List.copyOf(server.getFollowerLag().values()));
+            assertEquals(1, follower.getLeaderOffset());
+            assertEquals(0, follower.getLagMutations());
+            assertTrue(follower.getLagMillis() >= 0);
+            assertTrue(follower.getLagMillis() < 5000);
+        }
+    }
+}
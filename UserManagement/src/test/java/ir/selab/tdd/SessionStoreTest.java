@@ -0,0 +1,161 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.service.UserService;
+import ir.selab.tdd.session.SessionStore;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SessionStoreTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final List<SessionStore> stores = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        stores.forEach(SessionStore::close);
+    }
+
+    @Test
+    public void token_ShouldBeValidUntilItExpires() {
+        SessionStore sessions = store(Duration.ofMinutes(30), Duration.ofSeconds(1));
+        String token = sessions.open("ali");
+
+        assertEquals(43, token.length());
+        assertEquals("ali", sessions.validate(token));
+        assertNull(sessions.validate("not-a-token"));
+        assertNull(sessions.validate(null));
+
+        clock.addAndGet(Duration.ofMinutes(30).toMillis() - 1);
+        assertEquals("ali", sessions.validate(token));
+        clock.incrementAndGet();
+        assertNull(sessions.validate(token));
+
+        sessions.expireSessions();
+        assertEquals(0, sessions.getSessionCount());
+        assertEquals(0, sessions.getScheduledCount());
+    }
+
+    @Test
+    public void wheel_ShouldDropSessionsOnlyOnceTheyExpire() {
+        SessionStore sessions = store(Duration.ofSeconds(100), Duration.ofMillis(1));
+        Random random = new Random(7);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            sessions.open("user" + i);
+            deadlines.add(clock.get() + 100_000);
+            clock.addAndGet(random.nextInt(200));
+        }
+        while (sessions.getSessionCount() > 0) {
+            clock.addAndGet(random.nextInt(5000));
+            sessions.expireSessions();
+            long now = clock.get();
+            assertEquals(deadlines.stream().filter(deadline -> deadline > now).count(), sessions.getSessionCount());
+        }
+        assertEquals(0, sessions.getScheduledCount());
+    }
+
+    @Test
+    public void deadlinesBeyondTheTopLevel_ShouldStillExpire() {
+        SessionStore sessions = store(Duration.ofHours(5), Duration.ofMillis(1));
+        String token = sessions.open("ali");
+
+        clock.addAndGet(Duration.ofHours(5).toMillis() - 1);
+        sessions.expireSessions();
+        assertEquals("ali", sessions.validate(token));
+        assertEquals(1, sessions.getSessionCount());
+
+        clock.incrementAndGet();
+        sessions.expireSessions();
+        assertEquals(0, sessions.getSessionCount());
+    }
+
+    @Test
+    public void revokeUser_ShouldEndAllOfTheirSessions() {
+        SessionStore sessions = store(Duration.ofMinutes(30), Duration.ofSeconds(1));
+        String first = sessions.open("ali");
+        String second = sessions.open("ali");
+        String other = sessions.open("hasan");
+
+        assertEquals(2, sessions.revokeUser("ali"));
+        assertNull(sessions.validate(first));
+        assertNull(sessions.validate(second));
+        assertEquals("hasan", sessions.validate(other));
+        assertTrue(sessions.close(other));
+        assertFalse(sessions.close(other));
+        assertNull(sessions.validate(other));
+        assertEquals(0, sessions.revokeUser("ali"));
+    }
+
+    @Test
+    public void userService_ShouldIssueAndRevokeSessions() {
+        SessionStore sessions = store(Duration.ofMinutes(30), Duration.ofSeconds(1));
+        UserService service = new UserService(new UserRepository(new ArrayList<>()), sessions);
+        service.registerUser("ali", "qwert", "ali@sharif.edu");
+        service.registerUser("hasan", "pass", "hasan@sharif.edu");
+
+        assertNull(service.openSessionWithUsername("ali", "wrong"));
+        String byUsername = service.openSessionWithUsername("ali", "qwert");
+        String byEmail = service.openSessionWithEmail("hasan@sharif.edu", "pass");
+        assertEquals("ali", service.validateSession(byUsername));
+        assertEquals("hasan", service.validateSession(byEmail));
+        Set<String> tokens = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            tokens.add(service.openSessionWithUsername("ali", "qwert"));
+        }
+        assertEquals(100, tokens.size());
+
+        assertTrue(service.changeUserEmail("ali", "ali@ce.sharif.edu"));
+        assertNull(service.validateSession(byUsername));
+        assertTrue(service.removeUser("hasan"));
+        assertNull(service.validateSession(byEmail));
+        assertEquals(0, sessions.getSessionCount());
+    }
+
+    @Test
+    public void userReplacedDuringLogin_ShouldNotKeepTheSession() {
+        SessionStore sessions = store(Duration.ofMinutes(30), Duration.ofSeconds(1));
+        UserService[] service = new UserService[1];
+        boolean[] replace = {false};
+        UserRepository repository = new UserRepository(new ArrayList<>()) {
+            @Override
+            public User getUserByUsername(String username) {
+                User user = super.getUserByUsername(username);
+                if (replace[0]) {
+                    replace[0] = false;
+                    service[0].removeUser(username);
+                    service[0].registerUser(username, "other", "mallory@sharif.edu");
+                }
+                return user;
+            }
+        };
+        service[0] = new UserService(repository, sessions);
+        service[0].registerUser("ali", "qwert", "ali@sharif.edu");
+
+        replace[0] = true;
+        assertNull(service[0].openSessionWithUsername("ali", "qwert"));
+        assertEquals(0, sessions.getSessionCount());
+        assertNotNull(service[0].openSessionWithUsername("ali", "other"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sessions_WithoutStore_ShouldBeRejected() {
+        new UserService(new UserRepository(new ArrayList<>())).validateSession("token");
+    }
+
+    private SessionStore store(Duration ttl, Duration tick) {
+        SessionStore store = new SessionStore(ttl, tick, clock::get);
+        stores.add(store);
+        return store;
+    }
+}
@@ -0,0 +1,182 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.repository.ShardedUserRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ShardedUserRepositoryTest {
+    private ShardedUserRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new ShardedUserRepository(List.of(
+                new User("admin", "1234"),
+                new User("ali", "qwert", "ali@sharif.edu"),
+                new User("hasan", "hasan123@", "hasan@gmail.com")
+        ), 8);
+    }
+
+    @Test
+    public void lookups_ShouldFindUsersAcrossShards() {
+        assertEquals(8, repository.getShardCount());
+        assertEquals(3, repository.getUserCount());
+        assertEquals("ali", repository.getUserByEmail("ali@sharif.edu").getUsername());
+        assertEquals("hasan@gmail.com", repository.getUserByUsername("hasan").getEmail());
+        assertNull(repository.getUserByUsername("reza"));
+        assertNull(repository.getUserByEmail("reza@sharif.edu"));
+        assertEquals(3, repository.getAllUsers().size());
+    }
+
+    @Test
+    public void writes_ShouldKeepEmailsUniqueAcrossShards() {
+        assertEquals(AddResult.DUPLICATE_EMAIL, repository.tryAddUser(new User("reza", "1", "ali@sharif.edu")));
+        assertEquals(AddResult.DUPLICATE_USERNAME, repository.tryAddUser(new User("ali", "1", "ali@gmail.com")));
+        assertNull(repository.getUserByEmail("ali@gmail.com"));
+
+        assertFalse(repository.updateEmail("admin", "hasan@gmail.com"));
+        assertTrue(repository.updateEmail("admin", "admin@gmail.com"));
+        assertTrue(repository.removeUser("hasan"));
+        assertTrue(repository.updateEmail("ali", "hasan@gmail.com"));
+        assertNull(repository.getUserByEmail("ali@sharif.edu"));
+        assertTrue(repository.addUser(new User("reza", "1", "ali@sharif.edu")));
+        assertEquals("ali", repository.getUserByEmail("hasan@gmail.com").getUsername());
+    }
+
+    @Test
+    public void versionedUpdates_ShouldRejectStaleVersions() {
+        assertTrue(repository.updatePassword("ali", 0, "new"));
+        assertFalse(repository.updateEmail("ali", 0, "ali@gmail.com"));
+        assertNotNull(repository.getUserByEmail("ali@sharif.edu"));
+        assertTrue(repository.updateEmail("ali", 1, "ali@gmail.com"));
+        assertEquals("new", repository.getUserByEmail("ali@gmail.com").getPassword());
+        assertEquals(2, repository.getUserByUsername("ali").getVersion());
+    }
+
+    @Test
+    public void concurrentClaimsOnOneEmail_ShouldLetExactlyOneUserWin() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            String email = "contested" + round + "@sharif.edu";
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger winners = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String username = "claimer" + round + "-" + t;
+                boolean viaUpdate = t % 2 == 1;
+                threads.add(new Thread(() -> {
+                    await(start);
+                    boolean won = viaUpdate
+                            ? repository.addUser(new User(username, "pw")) && repository.updateEmail(username, email)
+                            : repository.addUser(new User(username, "pw", email));
+                    if (won) {
+                        winners.incrementAndGet();
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(1, winners.get());
+            assertNotNull(repository.getUserByEmail(email));
+        }
+    }
+
+    @Test
+    public void concurrentChurn_ShouldLeaveIndexesConsistent() throws InterruptedException {
+        ShardedUserRepository store = new ShardedUserRepository(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 6; t++) {
+            int seed = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int n = (i * 31 + seed * 17) % 200;
+                    String username = "user" + n;
+                    switch (i % 4) {
+                        case 0:
+                            store.addUser(new User(username, "pw", "mail" + (i % 150) + "@sharif.edu"));
+                            break;
+                        case 1:
+                            store.updateEmail(username, "mail" + ((i + seed) % 150) + "@sharif.edu");
+                            break;
+                        case 2:
+                            store.updatePassword(username, "pw" + i);
+                            break;
+                        default:
+                            store.removeUser(username);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<String> emails = new HashSet<>();
+        for (User user : store.getAllUsers()) {
+            assertEquals(user, store.getUserByUsername(user.getUsername()));
+            if (user.getEmail() != null) {
+                assertTrue(emails.add(user.getEmail()));
+                assertEquals(user, store.getUserByEmail(user.getEmail()));
+            }
+        }
+        int owned = 0;
+        for (int i = 0; i < 150; i++) {
+            User owner = store.getUserByEmail("mail" + i + "@sharif.edu");
+            if (owner != null) {
+                assertEquals("mail" + i + "@sharif.edu", owner.getEmail());
+                owned++;
+            }
+        }
+        assertEquals(emails.size(), owned);
+    }
+
+    @Test
+    public void page_ShouldMergeShardsInUsernameOrder() {
+        ShardedUserRepository store = new ShardedUserRepository(8);
+        for (int i = 0; i < 500; i++) {
+            store.addUser(new User(String.format("user%03d", (i * 7) % 500), "pw"));
+        }
+        store.removeUser("user250");
+
+        List<String> paged = new ArrayList<>();
+        Page<User> page = store.page(null, 33);
+        while (true) {
+            assertTrue(page.getItems().size() <= 33);
+            page.getItems().forEach(user -> paged.add(user.getUsername()));
+            if (!page.hasNext()) {
+                break;
+            }
+            page = store.page(page.getNextCursor(), 33);
+        }
+        List<String> expected = store.stream().map(User::getUsername).sorted().collect(Collectors.toList());
+        assertEquals(499, paged.size());
+        assertEquals(expected, paged);
+
+        Page<User> last = store.page("user497", 2);
+        assertEquals(2, last.getItems().size());
+        assertFalse(last.hasNext());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
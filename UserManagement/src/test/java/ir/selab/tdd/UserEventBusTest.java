@@ -0,0 +1,308 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.events.BackpressurePolicy;
+import ir.selab.tdd.events.EventPublishingUserStore;
+import ir.selab.tdd.events.Subscription;
+import ir.selab.tdd.events.UserEvent;
+import ir.selab.tdd.events.UserEventBus;
+import ir.selab.tdd.persistence.LsmUserStore;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.service.UserService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UserEventBusTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UserEventBus bus;
+    private UserRepository repository;
+    private EventPublishingUserStore store;
+
+    @Before
+    public void setUp() {
+        bus = new UserEventBus();
+        repository = new UserRepository(new ArrayList<>());
+        store = new EventPublishingUserStore(repository, bus);
+    }
+
+    @After
+    public void tearDown() {
+        bus.close();
+    }
+
+    @Test
+    public void mutations_ShouldBePublishedInOrder() {
+        List<UserEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Subscription subscription = bus.subscribe("audit", events::addAll);
+
+        assertTrue(store.addUser(new User("ali", "qwert", "ali@sharif.edu")));
+        assertFalse(store.addUser(new User("ali", "other", "other@sharif.edu")));
+        assertTrue(store.updateEmail("ali", "ali@ce.sharif.edu"));
+        assertTrue(store.updatePassword("ali", "asdfg"));
+        assertTrue(store.removeUser("ali"));
+        assertFalse(store.removeUser("ali"));
+        subscription.close();
+
+        assertEquals(4, events.size());
+        assertEquals(UserEvent.Type.REGISTERED, events.get(0).getType());
+        assertEquals(UserEvent.Type.EMAIL_CHANGED, events.get(1).getType());
+        assertEquals("ali@sharif.edu", events.get(1).getPreviousEmail());
+        assertEquals("ali@ce.sharif.edu", events.get(1).getEmail());
+        assertEquals(UserEvent.Type.PASSWORD_CHANGED, events.get(2).getType());
+        assertEquals(UserEvent.Type.REMOVED, events.get(3).getType());
+        assertEquals("ali@ce.sharif.edu", events.get(3).getEmail());
+        for (int i = 1; i < events.size(); i++) {
+            assertTrue(events.get(i).getSequence() > events.get(i - 1).getSequence());
+        }
+        assertEquals(4, bus.getPublishedCount());
+    }
+
+    @Test
+    public void dropPolicy_ShouldCountEventsThatDidNotFit() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<UserEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Subscription subscription = bus.subscribe("slow", batch -> {
+            awaitQuietly(release);
+            events.addAll(batch);
+        }, BackpressurePolicy.DROP, 16, 1);
+
+        for (int i = 0; i < 200; i++) {
+            store.addUser(new User("user" + i, "pass"));
+        }
+        release.countDown();
+        subscription.close();
+
+        assertEquals(200, events.size() + subscription.getDroppedCount());
+        assertTrue(subscription.getDroppedCount() > 0);
+        assertEquals(events.size(), subscription.getDeliveredCount());
+    }
+
+    @Test
+    public void coalescePolicy_ShouldDeliverTheNetChangePerUser() {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, UserEvent> latest = new HashMap<>();
+        Subscription subscription = bus.subscribe("index", batch -> {
+            awaitQuietly(release);
+            synchronized (latest) {
+                for (UserEvent event : batch) {
+                    if (event.getType() == UserEvent.Type.REMOVED) {
+                        latest.remove(event.getUsername());
+                    } else {
+                        latest.put(event.getUsername(), event);
+                    }
+                }
+            }
+        }, BackpressurePolicy.COALESCE, 4, 4);
+
+        for (int i = 0; i < 50; i++) {
+            store.addUser(new User("user" + i, "pass", "user" + i + "@sharif.edu"));
+        }
+        for (int i = 0; i < 50; i++) {
+            store.updateEmail("user" + i, "moved" + i + "@sharif.edu");
+            if (i % 5 == 0) {
+                store.removeUser("user" + i);
+            }
+        }
+        release.countDown();
+        subscription.close();
+
+        assertTrue(subscription.getCoalescedCount() > 0);
+        assertEquals(0, subscription.getDroppedCount());
+        assertEquals(40, latest.size());
+        for (int i = 0; i < 50; i++) {
+            UserEvent event = latest.get("user" + i);
+            if (i % 5 == 0) {
+                assertNull(event);
+            } else {
+                assertEquals("moved" + i + "@sharif.edu", event.getEmail());
+            }
+        }
+    }
+
+    @Test
+    public void coalescePolicy_ShouldKeepTheEmailConsumersLastSaw() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, String> owners = new HashMap<>();
+        Subscription subscription = bus.subscribe("emails", batch -> {
+            blocked.countDown();
+            awaitQuietly(release);
+            synchronized (owners) {
+                for (UserEvent event : batch) {
+                    if (event.getPreviousEmail() != null) {
+                        owners.remove(event.getPreviousEmail());
+                    }
+                    if (event.getType() == UserEvent.Type.REMOVED) {
+                        owners.remove(event.getEmail());
+                    } else if (event.getEmail() != null) {
+                        owners.put(event.getEmail(), event.getUsername());
+                    }
+                }
+            }
+        }, BackpressurePolicy.COALESCE, 4, 4);
+
+        assertTrue(store.addUser(new User("ali", "qwert", "ali@sharif.edu")));
+        assertTrue(store.addUser(new User("reza", "pass", "reza@sharif.edu")));
+        awaitQuietly(blocked);
+        for (int i = 0; i < 8; i++) {
+            store.addUser(new User("user" + i, "pass"));
+        }
+        assertTrue(store.removeUser("ali"));
+        assertTrue(store.addUser(new User("ali", "asdfg", "ali@ce.sharif.edu")));
+        assertTrue(store.updateEmail("reza", "reza@ce.sharif.edu"));
+        assertTrue(store.removeUser("reza"));
+        release.countDown();
+        subscription.close();
+
+        assertEquals(2, subscription.getCoalescedCount());
+        assertEquals(Collections.singletonMap("ali@ce.sharif.edu", "ali"), owners);
+    }
+
+    @Test
+    public void blockPolicy_ShouldNotLoseEventsFromConcurrentWriters() throws InterruptedException {
+        List<UserEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Subscription subscription = bus.subscribe("all", events::addAll, BackpressurePolicy.BLOCK, 8, 3);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    store.addUser(new User("w" + writer + "-" + i, "pass"));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        subscription.close();
+
+        assertEquals(2000, events.size());
+        assertEquals(2000, repository.getUserCount());
+        assertTrue(subscription.getBatchCount() >= 2000 / 3);
+    }
+
+    @Test
+    public void defaultPolicy_ShouldNotStallWritersBehindAStuckSubscriber() {
+        CountDownLatch release = new CountDownLatch(1);
+        List<UserEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Subscription subscription = bus.subscribe("stuck", batch -> {
+            awaitQuietly(release);
+            events.addAll(batch);
+        });
+        try {
+            for (int i = 0; i < 3 * UserEventBus.DEFAULT_CAPACITY; i++) {
+                assertTrue(store.addUser(new User("user" + i, "pass", "user" + i + "@sharif.edu")));
+            }
+            assertTrue(store.updatePassword("user0", "new"));
+            assertTrue(store.updateEmail("user0", "moved@sharif.edu"));
+        } finally {
+            release.countDown();
+        }
+        subscription.close();
+
+        assertEquals(BackpressurePolicy.COALESCE, subscription.getPolicy());
+        assertEquals(0, subscription.getDroppedCount());
+        UserEvent last = null;
+        for (UserEvent event : events) {
+            if (event.getUsername().equals("user0")) {
+                last = event;
+            }
+        }
+        assertEquals("moved@sharif.edu", last.getEmail());
+        assertEquals(2, last.getVersion());
+    }
+
+    @Test
+    public void updates_ShouldPublishWithoutReadingTheStoreAgain() throws IOException {
+        List<UserEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Subscription subscription = bus.subscribe("audit", events::addAll);
+        int[] lookups = {0};
+        try (LsmUserStore lsm = new LsmUserStore(folder.getRoot().toPath()) {
+            @Override
+            public User getUserByUsername(String username) {
+                lookups[0]++;
+                return super.getUserByUsername(username);
+            }
+        }) {
+            EventPublishingUserStore publishing = new EventPublishingUserStore(lsm, bus);
+            assertTrue(publishing.addUser(new User("ali", "qwert", "ali@sharif.edu")));
+            lsm.flush();
+            lookups[0] = 0;
+            assertTrue(publishing.updatePassword("ali", 0, "asdfg"));
+            assertTrue(publishing.updateEmail("ali", 1, "ali@ce.sharif.edu"));
+            assertFalse(publishing.updateEmail("ali", 1, "other@sharif.edu"));
+            assertEquals(0, lookups[0]);
+        }
+        subscription.close();
+
+        assertEquals(3, events.size());
+        assertEquals(UserEvent.Type.PASSWORD_CHANGED, events.get(1).getType());
+        assertEquals(1, events.get(1).getVersion());
+        assertEquals(UserEvent.Type.EMAIL_CHANGED, events.get(2).getType());
+        assertEquals("ali@sharif.edu", events.get(2).getPreviousEmail());
+        assertEquals("ali@ce.sharif.edu", events.get(2).getEmail());
+        assertEquals(2, events.get(2).getVersion());
+    }
+
+    @Test
+    public void listenerFailure_ShouldNotStopTheSubscription() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(2);
+        Subscription subscription = bus.subscribe("flaky", batch -> {
+            delivered.countDown();
+            if (delivered.getCount() == 1) {
+                throw new IllegalStateException("boom");
+            }
+        }, BackpressurePolicy.BLOCK, 16, 1);
+
+        store.addUser(new User("a", "pass"));
+        store.addUser(new User("b", "pass"));
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        assertEquals(1, subscription.getListenerFailureCount());
+    }
+
+    @Test
+    public void userService_ShouldPublishThroughTheStore() throws InterruptedException {
+        CountDownLatch registered = new CountDownLatch(1);
+        bus.subscribe("service", batch -> {
+            for (UserEvent event : batch) {
+                if (event.getType() == UserEvent.Type.REGISTERED && event.getUsername().equals("ali")) {
+                    registered.countDown();
+                }
+            }
+        });
+        UserService service = new UserService(store);
+
+        assertTrue(service.registerUser("ali", "qwert", "ali@sharif.edu"));
+        assertTrue(registered.await(5, TimeUnit.SECONDS));
+        assertTrue(service.loginWithEmail("ali@sharif.edu", "qwert"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
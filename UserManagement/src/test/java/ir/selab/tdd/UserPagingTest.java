@@ -0,0 +1,148 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.MappedUserSnapshot;
+import ir.selab.tdd.repository.Page;
+import ir.selab.tdd.repository.UserRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class UserPagingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void page_ShouldWalkUsersInUsernameOrder() {
+        UserRepository repository = new UserRepository(List.of(
+                new User("reza", "1"), new User("admin", "2"), new User("hasan", "3"),
+                new User("ali", "4"), new User("taghi", "5")));
+
+        Page<User> first = repository.page(null, 2);
+        assertEquals(List.of("admin", "ali"), usernames(first.getItems()));
+        assertTrue(first.hasNext());
+
+        Page<User> second = repository.page(first.getNextCursor(), 2);
+        assertEquals(List.of("hasan", "reza"), usernames(second.getItems()));
+
+        Page<User> last = repository.page(second.getNextCursor(), 2);
+        assertEquals(List.of("taghi"), usernames(last.getItems()));
+        assertFalse(last.hasNext());
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    public void page_CursorShouldSurviveRemovalOfLastReturnedUser() {
+        UserRepository repository = new UserRepository(List.of(
+                new User("admin", "1"), new User("ali", "2"), new User("hasan", "3")));
+
+        Page<User> first = repository.page(null, 2);
+        repository.removeUser("ali");
+        repository.addUser(new User("amir", "4"));
+
+        assertEquals(List.of("amir", "hasan"), usernames(repository.page(first.getNextCursor(), 10).getItems()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void page_WithNonPositiveLimit_ShouldFail() {
+        new UserRepository(List.of()).page(null, 0);
+    }
+
+    @Test
+    public void page_OverSnapshot_ShouldMergeSnapshotAndLiveUsersOnce() throws IOException {
+        UserRepository repository = new UserRepository(snapshotOf(
+                new User("admin", "1"), new User("ali", "2", "ali@sharif.edu"), new User("hasan", "3")));
+        repository.updateEmail("ali", "ali@gmail.com");
+        repository.removeUser("hasan");
+        repository.addUser(new User("amir", "4"));
+        repository.addUser(new User("zahra", "5"));
+
+        List<User> users = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page<User> page = repository.page(cursor, 2);
+            users.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of("admin", "ali", "amir", "zahra"), usernames(users));
+        assertEquals("ali@gmail.com", users.get(1).getEmail());
+        assertEquals(Set.of("admin", "ali", "amir", "zahra"),
+                repository.stream().map(User::getUsername).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void parallelStream_ShouldVisitEveryUserOnce() throws IOException {
+        List<User> snapshotUsers = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            snapshotUsers.add(new User("base" + i, "pw"));
+        }
+        UserRepository repository = new UserRepository(snapshotOf(snapshotUsers.toArray(new User[0])));
+        for (int i = 0; i < 5_000; i++) {
+            repository.addUser(new User("live" + i, "pw"));
+        }
+        repository.getUserByUsername("base7");
+
+        List<String> usernames = repository.stream().parallel().map(User::getUsername).collect(Collectors.toList());
+
+        assertEquals(10_000, usernames.size());
+        assertEquals(10_000, new HashSet<>(usernames).size());
+    }
+
+    @Test
+    public void page_WithConcurrentWriters_ShouldReturnStableUsersExactlyOnce() throws InterruptedException {
+        List<User> stable = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            stable.add(new User(String.format("stable%05d", i), "pw"));
+        }
+        UserRepository repository = new UserRepository(stable);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                String username = "churn" + (i++ % 500);
+                if (!repository.addUser(new User(username, "pw"))) {
+                    repository.removeUser(username);
+                }
+            }
+        });
+        writer.start();
+        try {
+            List<String> seen = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<User> page = repository.page(cursor, 37);
+                seen.addAll(usernames(page.getItems()));
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+
+            List<String> stableSeen = seen.stream().filter(name -> name.startsWith("stable")).collect(Collectors.toList());
+            assertEquals(usernames(stable), stableSeen);
+            assertEquals(seen.size(), new HashSet<>(seen).size());
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    private MappedUserSnapshot snapshotOf(User... users) throws IOException {
+        Path file = folder.newFile().toPath();
+        MappedUserSnapshot.write(file, List.of(users));
+        return MappedUserSnapshot.open(file);
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+}
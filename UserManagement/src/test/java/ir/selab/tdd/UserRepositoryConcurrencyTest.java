@@ -0,0 +1,144 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.repository.UserRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserRepositoryConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 20_000;
+    private static final int KEY_SPACE = 500;
+
+    private UserRepository repository;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        repository = new UserRepository(List.of());
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Test
+    public void concurrentRegistrationsOfSameEmail_OnlyOneShouldSucceed() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            String email = "shared" + round + "@sharif.edu";
+            AtomicInteger successes = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                String username = "user" + round + "_" + t;
+                futures[t] = executor.submit(() -> {
+                    start.await();
+                    if (repository.addUser(new User(username, "pw", email))) {
+                        successes.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(1, successes.get());
+            assertNotNull(repository.getUserByEmail(email));
+        }
+        executor.shutdown();
+        assertIndexesConsistent();
+    }
+
+    @Test
+    public void concurrentAddAndRemove_ShouldKeepBothIndexesConsistent() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            futures[t] = executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    String username = "user" + random.nextInt(KEY_SPACE);
+                    String email = "mail" + random.nextInt(KEY_SPACE) + "@sharif.edu";
+                    if (random.nextInt(3) == 0) {
+                        repository.removeUser(username);
+                    } else {
+                        repository.addUser(new User(username, "pw", email));
+                    }
+                    User byEmail = repository.getUserByEmail(email);
+                    if (byEmail != null) {
+                        assertEquals(email, byEmail.getEmail());
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertIndexesConsistent();
+    }
+
+    @Test
+    public void concurrentEmailChanges_UserShouldNeverDisappearForReaders() throws Exception {
+        repository.addUser(new User("hasan", "pw", "mail0@sharif.edu"));
+        AtomicInteger misses = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            boolean writer = t % 2 == 0;
+            futures[t] = executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    if (writer) {
+                        repository.updateEmail("hasan", "mail" + random.nextInt(KEY_SPACE) + "@sharif.edu");
+                    } else if (repository.getUserByUsername("hasan") == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(0, misses.get());
+        User hasan = repository.getUserByUsername("hasan");
+        assertSame(hasan, repository.getUserByEmail(hasan.getEmail()));
+        assertIndexesConsistent();
+    }
+
+    private void assertIndexesConsistent() {
+        Set<String> emails = new HashSet<>();
+        for (User user : repository.getAllUsers()) {
+            assertSame(user, repository.getUserByUsername(user.getUsername()));
+            if (user.getEmail() != null) {
+                assertTrue("duplicate email " + user.getEmail(), emails.add(user.getEmail()));
+                assertSame(user, repository.getUserByEmail(user.getEmail()));
+            }
+        }
+        for (int i = 0; i < KEY_SPACE; i++) {
+            User owner = repository.getUserByEmail("mail" + i + "@sharif.edu");
+            if (owner != null) {
+                assertSame(owner, repository.getUserByUsername(owner.getUsername()));
+            }
+        }
+    }
+}
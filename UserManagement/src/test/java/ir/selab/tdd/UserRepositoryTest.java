@@ -234,4 +234,60 @@ public class UserRepositoryTest {
         repository.removeUser("ali");
         assertEquals(initialCount - 1, repository.getUserCount());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void updateEmail_ShouldMoveEmailIndexEntry() {
+        assertTrue(repository.updateEmail("hasan", "hasan@sharif.edu"));
+        assertNull(repository.getUserByEmail("hasan@gmail.com"));
+        User hasan = repository.getUserByEmail("hasan@sharif.edu");
+        assertNotNull(hasan);
+        assertSame(hasan, repository.getUserByUsername("hasan"));
+        assertEquals(1, hasan.getVersion());
+    }
+
+    @Test
+    public void updateEmail_WithStaleVersion_ShouldFail() {
+        long version = repository.getUserByUsername("ali").getVersion();
+        assertTrue(repository.updateEmail("ali", version, "ali@sharif.edu"));
+        assertFalse(repository.updateEmail("ali", version, "ali@gmail.com"));
+        assertNull(repository.getUserByEmail("ali@gmail.com"));
+        assertEquals("ali@sharif.edu", repository.getUserByUsername("ali").getEmail());
+    }
+
+    @Test
+    public void updateEmail_ToTakenEmail_ShouldFail() {
+        assertFalse(repository.updateEmail("ali", "hasan@gmail.com"));
+        assertNull(repository.getUserByUsername("ali").getEmail());
+        assertEquals("hasan", repository.getUserByEmail("hasan@gmail.com").getUsername());
+    }
+
+    @Test
+    public void updateEmail_NonExistingUser_ShouldFail() {
+        assertFalse(repository.updateEmail("nonexistent", "nonexistent@example.com"));
+        assertNull(repository.getUserByEmail("nonexistent@example.com"));
+    }
+
+    @Test
+    public void update_ShouldLeaveEarlierInstanceUnchanged() {
+        User before = repository.getUserByUsername("hasan");
+        assertTrue(repository.updateEmail("hasan", "hasan@sharif.edu"));
+        assertTrue(repository.updatePassword("hasan", "new-secret"));
+
+        assertEquals("hasan@gmail.com", before.getEmail());
+        assertEquals("hasan123@", before.getPassword());
+        assertEquals(0, before.getVersion());
+        User after = repository.getUserByUsername("hasan");
+        assertEquals(2, after.getVersion());
+        assertNotEquals(before, after);
+    }
+
+    @Test
+    public void equalUsers_ShouldHaveEqualHashCodes() {
+        User first = new User("reza", "secret", "reza@sharif.edu");
+        User second = new User("reza", "secret", "reza@sharif.edu");
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first.hashCode(), first.hashCode());
+        assertNotEquals(first, first.withEmail("reza@sharif.edu"));
+    }
+}
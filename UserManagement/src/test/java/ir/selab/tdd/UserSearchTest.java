@@ -0,0 +1,170 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.persistence.MappedUserSnapshot;
+import ir.selab.tdd.repository.UserRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class UserSearchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findByUsernamePrefix_ShouldIgnoreCaseAndRespectLimit() {
+        UserRepository repository = new UserRepository(List.of(
+                new User("Ali", "1"), new User("alireza", "2"), new User("amir", "3"),
+                new User("aliakbar", "4"), new User("hasan", "5")));
+
+        assertEquals(List.of("Ali", "aliakbar", "alireza"), usernames(repository.findByUsernamePrefix("ALI", 10)));
+        assertEquals(List.of("Ali", "aliakbar"), usernames(repository.findByUsernamePrefix("ali", 2)));
+        assertEquals(List.of(), repository.findByUsernamePrefix("z", 10));
+    }
+
+    @Test
+    public void findByEmailDomain_ShouldIncludeSubdomainsOnly() {
+        UserRepository repository = new UserRepository(List.of(
+                new User("ali", "1", "ali@sharif.edu"),
+                new User("reza", "2", "reza@CE.Sharif.edu"),
+                new User("amir", "3", "amir@notsharif.edu"),
+                new User("hasan", "4", "hasan@sharif.edu.ir"),
+                new User("taghi", "5")));
+
+        assertEquals(List.of("ali", "reza"), usernames(repository.findByEmailDomain("sharif.edu", 10)));
+        assertEquals(List.of("reza"), usernames(repository.findByEmailDomain("ce.sharif.EDU", 10)));
+        assertEquals(List.of("amir", "ali", "reza"), usernames(repository.findByEmailDomain("edu", 10)));
+        assertEquals(1, repository.findByEmailDomain("edu", 1).size());
+    }
+
+    @Test
+    public void findByEmail_ShouldIgnoreCase() {
+        UserRepository repository = new UserRepository(List.of(
+                new User("ali", "1", "Ali@Sharif.edu"),
+                new User("ali2", "2", "ali@sharif.edu"),
+                new User("amir", "3", "amir@sharif.edu")));
+
+        assertEquals(List.of("ali", "ali2"), usernames(repository.findByEmailIgnoreCase("ALI@sharif.EDU")));
+        assertEquals(List.of("ali", "ali2", "amir"), usernames(repository.findByEmailPrefix("a", 10)));
+        assertEquals(List.of("amir"), usernames(repository.findByEmailPrefix("AM", 10)));
+    }
+
+    @Test
+    public void search_ShouldFollowWritesAfterFirstUse() {
+        UserRepository repository = new UserRepository(List.of(
+                new User("ali", "1", "ali@sharif.edu"), new User("amir", "2", "amir@sharif.edu")));
+        assertEquals(2, repository.findByEmailDomain("sharif.edu", 10).size());
+
+        repository.addUser(new User("alireza", "3", "alireza@ut.ac.ir"));
+        repository.removeUser("amir");
+        repository.updateEmail("ali", "ali@gmail.com");
+
+        assertEquals(List.of("ali", "alireza"), usernames(repository.findByUsernamePrefix("al", 10)));
+        assertEquals(List.of(), repository.findByEmailDomain("sharif.edu", 10));
+        assertEquals(List.of("alireza"), usernames(repository.findByEmailDomain("ac.ir", 10)));
+        assertEquals("ali@gmail.com", repository.findByEmailIgnoreCase("ALI@gmail.com").get(0).getEmail());
+        assertEquals(List.of(), repository.findByEmailIgnoreCase("ali@sharif.edu"));
+    }
+
+    @Test
+    public void search_OverSnapshot_ShouldSeeSnapshotAndLiveUsers() throws IOException {
+        Path file = folder.newFile().toPath();
+        MappedUserSnapshot.write(file, List.of(
+                new User("ali", "1", "ali@sharif.edu"), new User("amir", "2", "amir@sharif.edu")));
+        UserRepository repository = new UserRepository(MappedUserSnapshot.open(file));
+        repository.updateEmail("amir", "amir@gmail.com");
+        repository.addUser(new User("alireza", "3", "alireza@ce.sharif.edu"));
+
+        assertEquals(List.of("ali", "alireza"), usernames(repository.findByEmailDomain("sharif.edu", 10)));
+        assertEquals(List.of("ali", "alireza", "amir"), usernames(repository.findByUsernamePrefix("a", 10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findByUsernamePrefix_WithNonPositiveLimit_ShouldFail() {
+        new UserRepository(List.of()).findByUsernamePrefix("a", 0);
+    }
+
+    @Test
+    public void search_WithConcurrentWriters_ShouldAlwaysFindStableUsers() throws InterruptedException {
+        List<User> stable = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            stable.add(new User(String.format("stable%03d", i), "pw", "stable" + i + "@sharif.edu"));
+        }
+        UserRepository repository = new UserRepository(stable);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                String username = "churn" + (i++ % 100);
+                if (!repository.addUser(new User(username, "pw", username + "@sharif.edu"))) {
+                    repository.updateEmail(username, username + (i % 2 == 0 ? "@ut.ac.ir" : "@sharif.edu"));
+                    repository.removeUser(username);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 20; round++) {
+                assertEquals(500, repository.findByUsernamePrefix("stable", 1_000).size());
+                List<User> sharif = repository.findByEmailDomain("sharif.edu", 1_000);
+                assertTrue(sharif.stream().allMatch(user -> user.getEmail().endsWith("@sharif.edu")));
+                assertEquals(500, sharif.stream().filter(user -> user.getUsername().startsWith("stable")).count());
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        for (int i = 0; i < 100; i++) {
+            repository.removeUser("churn" + i);
+        }
+        assertEquals(List.of(), repository.findByUsernamePrefix("churn", 10));
+    }
+
+    @Test
+    public void search_WithWritersRacingOnTheSameUsers_ShouldFindEveryLiveUser() throws InterruptedException {
+        UserRepository repository = new UserRepository(new ArrayList<>());
+        repository.findByUsernamePrefix("racer", 1);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int seed = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    String username = "racer" + ((i + seed) % 10);
+                    switch ((i / 10 + seed) % 3) {
+                        case 0:
+                            repository.addUser(new User(username, "pw", username + "@sharif.edu"));
+                            break;
+                        case 1:
+                            repository.updateEmail(username, username + (i % 2 == 0 ? "@ut.ac.ir" : "@sharif.edu"));
+                            break;
+                        default:
+                            repository.removeUser(username);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<User> live = repository.stream().collect(Collectors.toList());
+        assertEquals(live.size(), repository.findByUsernamePrefix("racer", 100).size());
+        for (User user : live) {
+            assertEquals(List.of(user), repository.findByEmailIgnoreCase(user.getEmail()));
+        }
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+}
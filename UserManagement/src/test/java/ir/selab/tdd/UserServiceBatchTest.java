@@ -0,0 +1,144 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.domain.User;
+import ir.selab.tdd.metrics.Operation;
+import ir.selab.tdd.metrics.Outcome;
+import ir.selab.tdd.metrics.RecordingUserServiceMetrics;
+import ir.selab.tdd.metrics.UserServiceMetrics;
+import ir.selab.tdd.repository.AddResult;
+import ir.selab.tdd.repository.CompactUserRepository;
+import ir.selab.tdd.repository.ShardedUserRepository;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.repository.UserStore;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.service.BatchOutcome;
+import ir.selab.tdd.service.Credentials;
+import ir.selab.tdd.service.Registration;
+import ir.selab.tdd.service.UserService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class UserServiceBatchTest {
+    private final UserStore store;
+    private final UserServiceMetrics metrics = new RecordingUserServiceMetrics(1);
+    private final UserService service;
+
+    public UserServiceBatchTest(String name, Supplier<UserStore> stores) {
+        this.store = stores.get();
+        this.service = new UserService(store, new PlaintextPasswordHasher(), null, metrics);
+        assertTrue(store.addUser(new User("ali", "qwert", "ali@sharif.edu")));
+        assertTrue(store.addUser(new User("admin", "1234")));
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> stores() {
+        return Arrays.asList(
+                new Object[]{"UserRepository", (Supplier<UserStore>) () -> new UserRepository(new ArrayList<>())},
+                new Object[]{"ShardedUserRepository", (Supplier<UserStore>) () -> new ShardedUserRepository(4)},
+                new Object[]{"CompactUserRepository", (Supplier<UserStore>) CompactUserRepository::new});
+    }
+
+    @Test
+    public void registerUsers_ShouldReturnOneOutcomePerItemInOrder() {
+        List<BatchOutcome> outcomes = service.registerUsers(Arrays.asList(
+                new Registration("reza", "pass", "reza@sharif.edu"),
+                new Registration("ali", "other", "new@sharif.edu"),
+                new Registration("hossein", "pass", "ali@sharif.edu"),
+                new Registration(" ", "pass"),
+                new Registration("nima", null),
+                new Registration("reza", "again", "reza2@sharif.edu"),
+                new Registration("sara", "pass", "reza@sharif.edu"),
+                new Registration("mina", "pass")));
+
+        assertEquals(Arrays.asList(BatchOutcome.SUCCESS, BatchOutcome.DUPLICATE_USERNAME, BatchOutcome.DUPLICATE_EMAIL,
+                BatchOutcome.INVALID_INPUT, BatchOutcome.INVALID_INPUT, BatchOutcome.DUPLICATE_USERNAME,
+                BatchOutcome.DUPLICATE_EMAIL, BatchOutcome.SUCCESS), outcomes);
+        assertEquals("pass", store.getUserByUsername("reza").getPassword());
+        assertEquals("reza", store.getUserByEmail("reza@sharif.edu").getUsername());
+        assertNull(store.getUserByEmail("new@sharif.edu"));
+        assertNull(store.getUserByUsername("sara"));
+        assertEquals(4, store.getUserCount());
+        assertEquals(1, metrics.snapshot().getCount(Operation.REGISTER_BATCH, Outcome.SUCCESS));
+    }
+
+    @Test
+    public void registerUsers_ShouldNotLetAnItemTheStoreRejectsClaimAnEmail() {
+        List<BatchOutcome> outcomes = service.registerUsers(Arrays.asList(
+                new Registration("ali", "other", "shared@sharif.edu"),
+                new Registration("reza", "pass", "shared@sharif.edu"),
+                new Registration("sara", "pass", "ali@sharif.edu"),
+                new Registration("sara", "again", "sara@sharif.edu")));
+
+        assertEquals(Arrays.asList(BatchOutcome.DUPLICATE_USERNAME, BatchOutcome.SUCCESS, BatchOutcome.DUPLICATE_EMAIL,
+                BatchOutcome.SUCCESS), outcomes);
+        assertEquals("reza", store.getUserByEmail("shared@sharif.edu").getUsername());
+        assertEquals("again", store.getUserByUsername("sara").getPassword());
+        assertEquals("qwert", store.getUserByUsername("ali").getPassword());
+    }
+
+    @Test
+    public void tryAddUsers_ShouldLetTheEarlierOfTwoClashingUsersWin() {
+        List<AddResult> results = store.tryAddUsers(Arrays.asList(
+                new User("x", "1", "x@sharif.edu"),
+                new User("x", "2", "other@sharif.edu"),
+                new User("y", "3", "x@sharif.edu"),
+                new User("y", "4", "y@sharif.edu")));
+
+        assertEquals(Arrays.asList(AddResult.ADDED, AddResult.DUPLICATE_USERNAME, AddResult.DUPLICATE_EMAIL,
+                AddResult.ADDED), results);
+        assertNull(store.getUserByEmail("other@sharif.edu"));
+        assertTrue(store.addUser(new User("z", "5", "other@sharif.edu")));
+    }
+
+    @Test
+    public void removeUsers_ShouldReportEachUsername() {
+        List<BatchOutcome> outcomes = service.removeUsers(Arrays.asList("ali", "nobody", null, "ali", "admin"));
+
+        assertEquals(Arrays.asList(BatchOutcome.SUCCESS, BatchOutcome.UNKNOWN_USER, BatchOutcome.UNKNOWN_USER,
+                BatchOutcome.UNKNOWN_USER, BatchOutcome.SUCCESS), outcomes);
+        assertEquals(0, store.getUserCount());
+        assertNull(store.getUserByEmail("ali@sharif.edu"));
+        assertTrue(store.addUser(new User("ali2", "pass", "ali@sharif.edu")));
+    }
+
+    @Test
+    public void loginBatches_ShouldAuthenticateEachPair() {
+        assertEquals(Arrays.asList(BatchOutcome.SUCCESS, BatchOutcome.BAD_PASSWORD, BatchOutcome.UNKNOWN_USER,
+                        BatchOutcome.BAD_PASSWORD),
+                service.loginWithUsernames(Arrays.asList(
+                        new Credentials("ali", "qwert"),
+                        new Credentials("admin", "wrong"),
+                        new Credentials("nobody", "qwert"),
+                        new Credentials("ali", null))));
+        assertEquals(Arrays.asList(BatchOutcome.SUCCESS, BatchOutcome.UNKNOWN_USER),
+                service.loginWithEmails(Arrays.asList(
+                        new Credentials("ali@sharif.edu", "qwert"),
+                        new Credentials(null, "qwert"))));
+        assertEquals(2, metrics.snapshot().getCount(Operation.LOGIN_BATCH, Outcome.SUCCESS));
+    }
+
+    @Test
+    public void largeBatch_ShouldMatchSingleCalls() {
+        List<Registration> registrations = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            registrations.add(new Registration("user" + i, "pass" + i, "user" + (i % 900) + "@sharif.edu"));
+        }
+        List<BatchOutcome> outcomes = service.registerUsers(registrations);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i < 900 ? BatchOutcome.SUCCESS : BatchOutcome.DUPLICATE_EMAIL, outcomes.get(i));
+        }
+        assertEquals(902, store.getUserCount());
+        assertTrue(service.loginWithEmail("user899@sharif.edu", "pass899"));
+    }
+}
@@ -0,0 +1,134 @@
+package ir.selab.tdd;
+
+import ir.selab.tdd.metrics.HistogramSnapshot;
+import ir.selab.tdd.metrics.LatencyHistogram;
+import ir.selab.tdd.metrics.MetricsSnapshot;
+import ir.selab.tdd.metrics.Operation;
+import ir.selab.tdd.metrics.Outcome;
+import ir.selab.tdd.metrics.RecordingUserServiceMetrics;
+import ir.selab.tdd.metrics.UserServiceMetrics;
+import ir.selab.tdd.metrics.UserServiceMetricsJmx;
+import ir.selab.tdd.repository.UserRepository;
+import ir.selab.tdd.security.PlaintextPasswordHasher;
+import ir.selab.tdd.service.UserService;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UserServiceMetricsTest {
+    private UserServiceMetrics metrics;
+    private UserService userService;
+
+    @Before
+    public void setUp() {
+        metrics = new RecordingUserServiceMetrics(1);
+        userService = new UserService(new UserRepository(List.of()), new PlaintextPasswordHasher(), null, metrics);
+        userService.registerUser("admin", "1234");
+        userService.registerUser("hasan", "hasan123@", "hasan@gmail.com");
+    }
+
+    @Test
+    public void operations_ShouldBeCountedPerOutcome() {
+        userService.loginWithUsername("admin", "1234");
+        userService.loginWithUsername("admin", "wrong");
+        userService.loginWithUsername("nobody", "1234");
+        userService.loginWithEmail("hasan@gmail.com", "hasan123@");
+        userService.registerUser("admin", "x");
+        userService.registerUser("reza", "x", "hasan@gmail.com");
+        userService.registerUser("", "x");
+        userService.changeUserEmail("admin", "hasan@gmail.com");
+        userService.changeUserEmail("nobody", "nobody@gmail.com");
+        userService.changeUserEmail("admin", "admin@gmail.com");
+        userService.removeUser("nobody");
+        userService.getUserByUsername("admin");
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getCount(Operation.LOGIN_WITH_USERNAME, Outcome.SUCCESS));
+        assertEquals(1, snapshot.getCount(Operation.LOGIN_WITH_USERNAME, Outcome.BAD_PASSWORD));
+        assertEquals(1, snapshot.getCount(Operation.LOGIN_WITH_USERNAME, Outcome.UNKNOWN_USER));
+        assertEquals(1, snapshot.getCount(Operation.LOGIN_WITH_EMAIL, Outcome.SUCCESS));
+        assertEquals(2, snapshot.getCount(Operation.REGISTER_USER, Outcome.SUCCESS));
+        assertEquals(1, snapshot.getCount(Operation.REGISTER_USER, Outcome.DUPLICATE_USERNAME));
+        assertEquals(1, snapshot.getCount(Operation.REGISTER_USER, Outcome.DUPLICATE_EMAIL));
+        assertEquals(1, snapshot.getCount(Operation.REGISTER_USER, Outcome.INVALID_INPUT));
+        assertEquals(1, snapshot.getCount(Operation.CHANGE_USER_EMAIL, Outcome.DUPLICATE_EMAIL));
+        assertEquals(1, snapshot.getCount(Operation.CHANGE_USER_EMAIL, Outcome.UNKNOWN_USER));
+        assertEquals(1, snapshot.getCount(Operation.CHANGE_USER_EMAIL, Outcome.SUCCESS));
+        assertEquals(1, snapshot.getCount(Operation.REMOVE_USER, Outcome.UNKNOWN_USER));
+        assertEquals(1, snapshot.getCount(Operation.GET_USER_BY_USERNAME));
+        assertEquals(1, snapshot.getLatency(Operation.LOGIN_WITH_EMAIL, Outcome.SUCCESS).getCount());
+    }
+
+    @Test
+    public void snapshotAndReset_ShouldHandOverCountsOnce() {
+        userService.getUserByUsername("admin");
+
+        assertEquals(1, metrics.snapshotAndReset().getCount(Operation.GET_USER_BY_USERNAME, Outcome.SUCCESS));
+        assertEquals(0, metrics.snapshot().getCount(Operation.GET_USER_BY_USERNAME, Outcome.SUCCESS));
+        assertEquals(0, metrics.snapshot().getCount(Operation.REGISTER_USER));
+    }
+
+    @Test
+    public void sampledMetrics_ShouldStillCountEveryCall() {
+        RecordingUserServiceMetrics sampled = new RecordingUserServiceMetrics(16);
+        for (int i = 0; i < 10_000; i++) {
+            sampled.record(Operation.GET_USER_BY_EMAIL, Outcome.UNKNOWN_USER, sampled.startTimer());
+        }
+
+        MetricsSnapshot snapshot = sampled.snapshot();
+        assertEquals(10_000, snapshot.getCount(Operation.GET_USER_BY_EMAIL, Outcome.UNKNOWN_USER));
+        long timed = snapshot.getLatency(Operation.GET_USER_BY_EMAIL, Outcome.UNKNOWN_USER).getCount();
+        assertTrue("timed " + timed, timed > 300 && timed < 1_000);
+    }
+
+    @Test
+    public void histogram_ShouldReportPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(100_000_000, snapshot.getMax());
+        assertEquals(50_000_500, snapshot.getMean(), 1);
+        assertEquals(50_000_000, snapshot.getValueAtPercentile(50), 50_000_000 * 0.04);
+        assertEquals(99_000_000, snapshot.getValueAtPercentile(99), 99_000_000 * 0.04);
+        assertEquals(100_000_000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void disabledMetrics_ShouldRecordNothing() {
+        UserService plain = new UserService(new UserRepository(List.of()));
+        plain.registerUser("admin", "1234");
+
+        assertSame(UserServiceMetrics.disabled(), plain.getMetrics());
+        assertEquals(0, plain.getMetrics().snapshot().getCount(Operation.REGISTER_USER));
+    }
+
+    @Test
+    public void jmx_ShouldExposeCountsAndLatencies() throws JMException {
+        userService.loginWithUsername("admin", "wrong");
+        ObjectName name = UserServiceMetricsJmx.register(metrics, "metrics-test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            TabularData counts = (TabularData) server.getAttribute(name, "Counts");
+            assertEquals(1L, counts.get(new Object[]{"LOGIN_WITH_USERNAME.BAD_PASSWORD"}).get("value"));
+            TabularData p99 = (TabularData) server.getAttribute(name, "P99Nanos");
+            assertNotNull(p99.get(new Object[]{"REGISTER_USER.SUCCESS"}));
+
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertTrue(((TabularData) server.getAttribute(name, "Counts")).isEmpty());
+        } finally {
+            UserServiceMetricsJmx.unregister("metrics-test");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ir.selab.tdd.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks in {@code [0, items)} with Zipfian popularity, rank 0 being the hottest, using the
+ * rejection-free method of Gray et al. ("Quickly Generating Billion-Record Synthetic Databases") that
+ * YCSB also uses. Construction is O(items); drawing is O(1).
+ */
+public class ZipfianGenerator {
+    public static final double DEFAULT_THETA = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    public ZipfianGenerator(long items) {
+        this(items, DEFAULT_THETA);
+    }
+
+    public ZipfianGenerator(long items, double theta) {
+        if (items < 1 || theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("Need at least one item and a theta in (0, 1)");
+        }
+        this.items = items;
+        this.theta = theta;
+        double zeta = 0;
+        for (long i = 1; i <= items; i++) {
+            zeta += 1 / Math.pow(i, theta);
+        }
+        this.zetaN = zeta;
+        double zeta2 = 1 + 1 / Math.pow(2, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    public long next(SplittableRandom random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < 1 + Math.pow(0.5, theta)) {
+            return Math.min(1, items - 1);
+        }
+        return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+}